@@ -1,32 +1,167 @@
-import java.time.LocalDateTime; // used for grabbing time and date for transaction history
-import java.time.format.DateTimeFormatter; // used for formatting date and time
-import java.util.ArrayList; // used for transaction history
+import java.io.BufferedOutputStream; // console output is written a screen at a time
+import java.io.FileDescriptor; // the console's standard output
+import java.io.FileOutputStream; // writes to standard output without System.out's autoflush
+import java.io.IOException; // thrown when the journal cannot be opened
+import java.io.PrintStream; // where a session writes its screens
+import java.nio.file.Path; // location of the transaction journal
+import java.time.format.DateTimeFormatter; // used for formatting receipt date and time
 import java.util.Scanner; // used for user input
+import java.util.concurrent.ThreadLocalRandom; // idempotency keys for requests
 
 /* ATM Simulation by Carlo Dingle
  * Features:
- * - Two predefined accounts (Carlo Dingle and Sebastian Vettel)
- * - PIN authentication with 3 attempts
+ * - Predefined accounts (Carlo Dingle and Sebastian Vettel) held in an indexed AccountRepository
+ * - Login lists the accounts of a small bank; a large one asks for the account number
+ * - PIN authentication with 3 attempts (salted hashes, lockout shared by all terminals)
  * - Check balance, deposit, withdraw, transaction history
  * - Change PIN, Fast Cash, Transfer Funds
+ * - Cash comes from note cassettes; Fast Cash only offers amounts they can pay
  * - Input validation and error handling
- * - Colored console output for better UX
- * - Simple loading animations
+ * - Console is a thin client over BankingService (no banking rules in here)
+ * - Colored console output for better UX (screens pre-rendered by ConsoleRenderer)
+ * - Simple loading animations (turned off with -Datm.pacing=headless)
  * - Receipt generation for transactions
+ * - Balances and PINs survive restarts (write-ahead log + snapshots in data/)
+ * - Per-operation latency metrics (JMX and data/metrics.txt)
+ * - Balances and the last 5 transactions are read from AccountViews, off the write path
+ * - Sessions can be recorded for load testing (-Datm.record=<dir>, played back by SessionReplayer)
+ * - Fast cold start: accounts mapped from the snapshot on first use, class data sharing (java @fast-start.args ATM)
+ * - Each operation runs under one idempotency key, kept when the customer tries again after the bank failed;
+ *   a terminal may send "KEY <number>" on a line before an answer to choose the key of the operation it
+ *   starts, and sends the same key again when it retries (say after its connection dropped)
  */
 
 public class ATM {
-    public static void main(String[] args) throws InterruptedException {
+    private static final DateTimeFormatter RECEIPT_TIME = DateTimeFormatter.ofPattern("yyyy-MM-dd hh:mm:ss");
+    static final Path METRICS_FILE = Path.of("data", "metrics.txt");
+    static final long METRICS_DUMP_SECONDS = 60;
+    static final Path FRAUD_LOG = Path.of("data", "fraud-flags.log");
+    static final Path FX_RATES_FILE = Path.of("data", "fx-rates.txt");
+    static final long FX_RELOAD_CHECK_SECONDS = 5;
+
+    private final Scanner input;
+    private final PrintStream out;
+    private final BankingService bank;
+    private final Pacing pacing;
+    private final ConsoleRenderer screen;
+    private final PinAuthenticator.Session pins;
+    private final SessionRecorder recorder;
+    private SessionRecorder.Recording recording = SessionRecorder.Recording.NONE;
+    private long terminalKey = TransactionRequest.NO_KEY; // sent by the terminal for the next operation
+
+    // One ATM session: reads from input, writes to out (the console, or a network terminal)
+    public ATM(Scanner input, PrintStream out, BankingService bank, Pacing pacing) {
+        this(input, out, bank, pacing, null);
+    }
+
+    // recorder: where the session's answers are recorded (null for none)
+    public ATM(Scanner input, PrintStream out, BankingService bank, Pacing pacing, SessionRecorder recorder) {
+        this(input, out, bank, pacing, recorder, false);
+    }
+
+    // windowsConsole: clear the screen with cls instead of ANSI codes
+    private ATM(Scanner input, PrintStream out, BankingService bank, Pacing pacing, SessionRecorder recorder, boolean windowsConsole) {
+        this.input = input;
+        this.out = out;
+        this.bank = bank;
+        this.pacing = pacing;
+        this.recorder = recorder;
+        this.screen = new ConsoleRenderer(out, windowsConsole);
+        this.pins = bank.pins().newSession();
+    }
+
+    public static void main(String[] args) throws InterruptedException, IOException {
         Scanner input = new Scanner(System.in);
 
+        // Open the transaction journal and recover accounts (first run creates the defaults)
+        TransactionJournal journal = TransactionJournal.open(Path.of("data", "journal"));
+        DurableLedger ledger = openLedger(journal);
+        FxRates fx = FxRates.load(FX_RATES_FILE);
+        fx.watch(FX_RELOAD_CHECK_SECONDS);
+        BankingService bank = new BankingService(ledger, fx);
+        bank.metrics().registerMBean();
+        bank.metrics().startDump(METRICS_FILE, METRICS_DUMP_SECONDS);
+        bank.startFraudScoring(FraudScorer.logTo(FRAUD_LOG));
+        bank.startReadModel(journal);
+
+        // Buffered: output reaches the terminal when the ATM waits for input or pauses
+        PrintStream console = new PrintStream(new BufferedOutputStream(new FileOutputStream(FileDescriptor.out), 1 << 14), false);
+        boolean windows = System.getProperty("os.name").contains("Windows");
+        Pacing pacing = Pacing.fromSystemProperty(Pacing.INTERACTIVE);
+        SessionRecorder recorder = SessionRecorder.fromSystemProperty();
+        ATM atm = new ATM(input, console, bank, pacing, recorder, windows);
+        atm.run();
+
+        if (pacing.isInteractive()) {
+            String buffer = "|/-\\";
+            for (int i = 0; i < 100; i++) {
+                System.out.print("\r" + " Exiting... " + buffer.charAt(i % buffer.length()));
+                try {
+                    Thread.sleep(40); // Simulate work
+                } catch (InterruptedException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+        bank.metrics().dump(METRICS_FILE);
+        bank.events().close();
+        bank.views().close();
+        if (recorder != null) {
+            recorder.close();
+        }
+        fx.close();
+        ledger.close();
+        journal.close();
+        input.close();
+    }
+
+    // Recovers saved accounts from data/, or creates the predefined accounts on first run
+    // With -Datm.snapshot=mapped accounts are made from the mapped snapshot on first use
+    static DurableLedger openLedger(TransactionJournal journal) throws IOException {
+        return DurableLedger.open(Path.of("data"), journal, () -> openingAccounts(journal), mappedSnapshot());
+    }
+
+    // Reads -Datm.snapshot: 'mapped' or 'eager' (the default)
+    static boolean mappedSnapshot() {
+        String value = System.getProperty("atm.snapshot");
+        if (value == null || value.isBlank() || value.trim().equalsIgnoreCase("eager")) {
+            return false;
+        }
+        if (value.trim().equalsIgnoreCase("mapped")) {
+            return true;
+        }
+        throw new IllegalArgumentException("atm.snapshot must be 'mapped' or 'eager', not: " + value);
+    }
+
+    // The accounts a new bank starts with
+    static AccountRepository openingAccounts(TransactionJournal journal) {
+        AccountRepository defaults = new AccountRepository();
+        defaults.add(new Account(1001, "Carlo Dingle", 0.0, 2007, journal));
+        defaults.add(new Account(1002, "Sebastian Vettel", 130000.0, 1987, journal));
+        defaults.add(new Account(1003, "Lewis Hamilton", Currency.USD, 2500.0, 1985, journal));
+        return defaults;
+    }
+
+    // Runs the whole session: welcome, account selection, menu loop, goodbye
+    public void run() throws InterruptedException {
+        recording = SessionRecorder.start(recorder);
+        try {
+            session();
+            recording.end();
+        } finally {
+            recording.finish(); // also a session whose terminal went away
+            recording = SessionRecorder.Recording.NONE;
+        }
+    }
+
+    private void session() throws InterruptedException {
+        AccountRepository accounts = bank.accounts();
+
         // ANSI Color codes
-        final String blueBackground = "\u001B[44m";
-        final String purple = "\u001B[35m";
-        final String red = "\u001B[31m";
-        final String green = "\u001B[32m";
-        final String blue = "\u001B[36m";
-        final String white = "\u001B[37m";
-        final String reset = "\u001B[0m";
+        final String red = ConsoleRenderer.RED;
+        final String green = ConsoleRenderer.GREEN;
+        final String blue = ConsoleRenderer.BLUE;
+        final String reset = ConsoleRenderer.RESET;
 
         // Welcome Messages (unused, but kept)
         String message = "Welcome to GridLine Bank ATM!";
@@ -34,11 +169,7 @@ public class ATM {
 
         clearScreen();
         printWithBorder(blue + message + reset + "\n" + blue + messageString + reset, blue); 
-        Thread.sleep(2000);
-
-        // Create accounts
-        Account account = new Account("Carlo Dingle", 0.0, 2007);
-        Account account1 = new Account("Sebastian Vettel", 130000.0, 1987);
+        pause(2000);
 
         // Choose account section
 
@@ -47,39 +178,42 @@ public class ATM {
         OUTER:
         while (!quitATM) {
             clearScreen();
-            System.out.println();
-            System.out.println(blue + "=========================" + reset);
-            System.out.println(white + "Choose account to log in:" + reset);
-            System.out.println(white + "[1] Carlo Dingle" + reset);
-            System.out.println(white + "[2] Sebastian Vettel" + reset);
-            System.out.println(white + "[3] Quit ATM" + reset);
-            System.out.println(blue + "=========================" + reset);
-            
-            int accountChoice = safeNextInt(input, "Enter choice (1-3): ", red, reset);
-
             Account activeAccount;
-            switch (accountChoice) {
-                case 3 -> {
+            if (accounts.size() <= ConsoleRenderer.LOGIN_MENU_MAX_ACCOUNTS) {
+                int quitChoice = accounts.size() + 1;
+                screen.loginMenu(accounts);
+
+                int accountChoice = safeNextInt("Enter choice (1-" + quitChoice + "): ", red, reset);
+
+                if (accountChoice == quitChoice) {
                     quitATM = true;
                     break OUTER;
+                } else if (accountChoice >= 1 && accountChoice < quitChoice) {
+                    activeAccount = accounts.get(accountChoice - 1);
+                } else {
+                    out.println(red + "Invalid choice. Try again. (1-" + quitChoice + ")" + reset);
+                    pause(1000);
+                    continue;
                 }
-                case 1 -> {
-                    activeAccount = account;
-                    loading(activeAccount.getName());
-                }
-                case 2 -> {
-                    activeAccount = account1;
-                    loading(activeAccount.getName());
+            } else {
+                // Too many accounts to list: ask for the number and make only that account
+                screen.loginPrompt();
+                int accountNumber = safeNextInt("Enter your account number (0 to quit): ", red, reset);
+                if (accountNumber == 0) {
+                    quitATM = true;
+                    break OUTER;
                 }
-                default -> {
-                    System.out.println(red + "Invalid choice. Try again. (1-3)" + reset);
-                    Thread.sleep(1000);
+                activeAccount = bank.findAccount(accountNumber);
+                if (activeAccount == null) {
+                    out.println(red + "Unknown account. Try again." + reset);
+                    pause(1000);
                     continue;
                 }
             }
-            if (!authenticateLogin(input, activeAccount, red, green, reset)) {
-                System.out.println(red + "Too many failed attempts. Returning to account selection..." + reset);
-                Thread.sleep(1500);
+            loading(activeAccount.getName());
+            if (!authenticateLogin(activeAccount, red, green, reset)) {
+                out.println(red + "Too many failed attempts. Returning to account selection..." + reset);
+                pause(1500);
                 continue;
             }
 
@@ -88,42 +222,32 @@ public class ATM {
             boolean logout = false;
             while (!logout) {
                 clearScreen();
-                System.out.println("\n" + blueBackground + "===================================");
-                System.out.println("        GridLine Bank ATM          ");
-                System.out.println("===================================" + reset);
-                System.out.printf(purple + "Current Balance: " + reset + green + "PHP %.2f%n" + reset, activeAccount.getBalance());
-                System.out.println(blue + "---- ATM Menu ----" + reset);
-                System.out.println(blue + "[1] Check Balance" + reset);
-                System.out.println(blue + "[2] Deposit" + reset);
-                System.out.println(blue + "[3] Withdraw" + reset);
-                System.out.println(blue + "[4] Transaction History" + reset);
-                System.out.println(blue + "[5] Change PIN" + reset);
-                System.out.println(blue + "[6] Fast Cash" + reset);
-                System.out.println(blue + "[7] Transfer Funds" + reset);
-                System.out.println(blue + "[8] Logout" + reset);
-                System.out.println(blue + "-------------------" + reset);
-                int choice = safeNextInt(input, "Please enter your choice (1-8): ", red, reset);
+                bank.awaitReadModel(); // show the change this session just made
+                screen.mainMenu(activeAccount.getCurrency(), bank.balanceCents(activeAccount.getAccountNumber()));
+                int choice = safeNextInt("Please enter your choice (1-8): ", red, reset);
                 switch (choice) {
                     case 1 -> checkBalance(activeAccount, blue, green, reset);
-                    case 2 -> deposit(input, activeAccount, red, green, blue, reset);
-                    case 3 -> withdraw(input, activeAccount, red, green, blue, reset);
+                    case 2 -> deposit(activeAccount, red, green, blue, reset);
+                    case 3 -> withdraw(activeAccount, red, green, blue, reset);
                     case 4 -> transactionHistory(activeAccount, red, blue, reset);
-                    case 5 -> changePin(input, activeAccount, red, green, reset);
-                    case 6 -> fastCash(input, activeAccount, red, green, blue, reset);
-                    case 7 -> transferFunds(input, activeAccount, account, account1, red, green, blue, reset);
+                    case 5 -> changePin(activeAccount, red, green, reset);
+                    case 6 -> fastCash(activeAccount, red, green, blue, reset);
+                    case 7 -> transferFunds(activeAccount, red, green, blue, reset);
                     case 8 -> {
-                        System.out.println(green + "Logging out from " + activeAccount.getName() + "..." + reset);
-                        Thread.sleep(1000);
+                        out.println(green + "Logging out from " + activeAccount.getName() + "..." + reset);
+                        pause(1000);
+                        pins.forget();
                         logout = true;
                     }
-                    default -> System.out.println(red + "Invalid choice. Try again. (1-8)" + reset);
+                    default -> out.println(red + "Invalid choice. Try again. (1-8)" + reset);
                 }
 
                 if (!logout) {
-                    boolean anotherTx = safeYesNo(input, "\nWould you like another transaction? (Y/N): ", red, reset);
+                    boolean anotherTx = safeYesNo("\nWould you like another transaction? (Y/N): ", red, reset);
                     if (!anotherTx) {
-                        System.out.println(green + "Logging out from " + activeAccount.getName() + "..." + reset);
-                        Thread.sleep(1000);
+                        out.println(green + "Logging out from " + activeAccount.getName() + "..." + reset);
+                        pause(1000);
+                        pins.forget();
                         logout = true;
                     }
                 }
@@ -132,435 +256,518 @@ public class ATM {
 
         clearScreen();
         printWithBorder("\u001B[36mThank you for using GridLine Bank. Goodbye!\u001B[0m", "\u001B[36m");
-        String buffer = "|/-\\";
-        for (int i = 0; i < 100; i++) {
-            System.out.print("\r" + " Exiting... " + buffer.charAt(i % buffer.length()));
-            try {
-                Thread.sleep(40); // Simulate work
-            } catch (InterruptedException e) {
-                e.printStackTrace();
-            }
-        }
-        input.close();
+        out.flush();
     }
 
     // --- Method Definitions ---
 
     // Simple loading animation
-    private static void loading(String accountName) throws InterruptedException {
-        System.out.print("Loading account " + accountName);
+    private void loading(String accountName) throws InterruptedException {
+        out.print("Loading account " + accountName);
         for (int i = 0; i < 5; i++) { // 5 dots
-            Thread.sleep(400); // 0.4 second delay
-            System.out.print(".");
+            pause(400); // 0.4 second delay
+            out.print(".");
         }
-        System.out.println(); // move to next line after loading
+        out.println(); // move to next line after loading
     }
 
     // Overloaded version without color
-    public static void printWithBorder(String text) {
-        printWithBorder(text, "\u001B[37m"); // default white
+    public void printWithBorder(String text) {
+        screen.printWithBorder(text);
     }
 
     // prints texts with border with color
-    public static void printWithBorder(String text, String color) {
-        String reset = "\u001B[0m";
-
-        // Split text into multiple lines
-        String[] lines = text.split("\n");
-
-        // Find the longest line to size the border correctly
-        int maxLength = 0;
-        for (String line : lines) {
-            int plainLength = line.replaceAll("\u001B\\[[;\\d]*m", "").length(); // ignore color codes
-            if (plainLength > maxLength) {
-                maxLength = plainLength;
-            }
-        }
+    public void printWithBorder(String text, String color) {
+        screen.printWithBorder(text, color);
+    }
 
-        // Create the border line
-        String border = color + "+" + "=".repeat(maxLength + 5) + "+" + reset;
-        System.out.println(border);
+    // Clear Screen Method (clears the console for better readability)
+    private void clearScreen() {
+        screen.clearScreen();
+    }
 
-        // Print each line with padding
-        for (String line : lines) {
-            int plainLength = line.replaceAll("\u001B\\[[;\\d]*m", "").length();
-            int padding = maxLength - plainLength;
-            System.out.println(color + "|   " + reset + line + " ".repeat(padding) + color + "  |" + reset);
+    // Waits for an animation or reading pause; what is on screen so far is shown first
+    private void pause(long millis) throws InterruptedException {
+        if (pacing.isInteractive()) {
+            out.flush();
+            pacing.pause(millis);
         }
-
-        System.out.println(border);
     }
 
-    // Clear Screen Method (clears the console for better readability)
-    private static void clearScreen() {
-        try {
-            if (System.getProperty("os.name").contains("Windows")) {
-                new ProcessBuilder("cmd", "/c", "cls").inheritIO().start().waitFor();
-            } else {
-                System.out.print("\033[H\033[2J");
-                System.out.flush();
+    // Asks for the PIN until it is accepted or the account is locked out
+    // (every PIN prompt goes through here; attempts are counted across sessions)
+    private boolean authenticate(Account account, String prompt, String red, String reset) {
+        if (bank.pins().isLockedOut(account.getAccountNumber())) {
+            out.println(red + "This account is locked after too many incorrect PINs. Try again later." + reset);
+            return false;
+        }
+        while (true) {
+            int enteredPin = readInt(prompt, red, reset); // not recorded, only whether it was right
+            switch (pins.verify(account, enteredPin)) {
+                case ACCEPTED -> {
+                    recording.pin(true);
+                    return true;
+                }
+                case REJECTED -> {
+                    recording.pin(false);
+                    out.println(red + "Incorrect PIN." + reset);
+                }
+                case LOCKED_OUT -> {
+                    recording.pin(false);
+                    out.printf("%sIncorrect PIN. This account is locked for %d minutes.%s%n", red, PinAuthenticator.LOCKOUT_MILLIS / 60_000, reset);
+                    return false;
+                }
             }
-        } catch (Exception e) {
-            // Ignore errors
         }
     }
 
     // PIN authentication for logging in (uses safeNextInt for consistency)
-    private static boolean authenticateLogin(Scanner input, Account account, String red, String green, String reset) throws InterruptedException {
-        int attempts = 0;
-        while (attempts < 3) {
-            int enteredPin = safeNextInt(input, "Enter your PIN: ", red, reset);
-            if (enteredPin == account.getPin()) {
-                System.out.println(green + "Login successful." + reset);
-                System.out.print("Loading");
-                for (int i = 0; i < 3; i++) {
-                    Thread.sleep(400); // 0.4 second delay
-                    System.out.print(".");
-                }
-                System.out.println();
-                return true;
-            } else {
-                System.out.println(red + "Incorrect PIN." + reset);
-                attempts++;
+    private boolean authenticateLogin(Account account, String red, String green, String reset) throws InterruptedException {
+        if (authenticate(account, "Enter your PIN: ", red, reset)) {
+            out.println(green + "Login successful." + reset);
+            out.print("Loading");
+            for (int i = 0; i < 3; i++) {
+                pause(400); // 0.4 second delay
+                out.print(".");
             }
+            out.println();
+            return true;
         }
-        System.out.println(red + "Too many failed attempts." + reset);
+        out.println(red + "Too many failed attempts." + reset);
         return false;
     }
 
     // Reusable PIN authentication method
-    private static boolean authenticatePin(Scanner input, Account account, String red, String reset) {
-        int attempts = 0;
-        while (attempts < 3) {
-            int enteredPin = safeNextInt(input, "Re-enter your PIN: ", red, reset);
-            if (enteredPin == account.getPin()) {
-                return true;
-            } else {
-                System.out.println(red + "Incorrect PIN." + reset);
-                attempts++;
-            }
+    private boolean authenticatePin(Account account, String red, String reset) {
+        if (authenticate(account, "Re-enter your PIN: ", red, reset)) {
+            return true;
         }
-        System.out.println(red + "Too many failed attempts." + reset);
+        out.println(red + "Too many failed attempts." + reset);
         return false;
     }
 
     // Check Balance
-    private static void checkBalance(Account account, String blue, String green, String reset) throws InterruptedException {
+    private void checkBalance(Account account, String blue, String green, String reset) throws InterruptedException {
         clearScreen();
-        System.out.printf(blue + "----- Current Balance -----%n" + reset);
-        System.out.printf(green + account.showBalance() + "%n" + reset);
-        System.out.printf(blue + "---------------------------%n" + reset);
-        System.out.print("Loading");
+        AccountViews.View view = bank.view(account.getAccountNumber());
+        out.printf(blue + "----- Current Balance -----%n" + reset);
+        out.printf(green + " Your Current Balance is: " + account.getCurrency().format(view.getBalanceMinor()) + "%n" + reset);
+        out.printf(blue + "---------------------------%n" + reset);
+        if (view.size() > 0) {
+            out.println("Last transactions:");
+            for (int i = 0; i < view.size(); i++) {
+                AccountViews.Line line = view.line(i);
+                Account counterparty = bank.findAccount(line.getCounterparty());
+                out.println(line.render(account.getCurrency(), counterparty == null ? "" : counterparty.getName()));
+            }
+        }
+        out.print("Loading");
                 for (int i = 0; i < 4; i++) {
-                    Thread.sleep(400); // 0.4 second delay
-                    System.out.print(".");
+                    pause(400); // 0.4 second delay
+                    out.print(".");
                 }
-        System.out.println(); 
+        out.println(); 
     }
 
     // Deposit Money
-    private static void deposit(Scanner input, Account account, String red, String green, String blue, String reset) {
+    private void deposit(Account account, String red, String green, String blue, String reset) {
         clearScreen();
-        if (authenticatePin(input, account, red, reset)) {
-            double amount = safeNextDouble(input, "Enter amount to deposit: ", red, reset);
-            account.deposit(amount);
-
-            // Add date and time to transaction history
-            String dateTime = LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyy-MM-dd hh:mm:ss"));
-            account.addTransaction(String.format("Deposited: +PHP %.2f | Date: %s", amount, dateTime));
+        if (authenticatePin(account, red, reset)) {
+            double amount = safeNextDouble("Enter amount to deposit: ", red, reset);
+            TransactionResult result = submit(TransactionRequest.deposit(account.getAccountNumber(), Account.toCents(amount)), red, reset);
+            if (result == null) {
+                return;
+            }
+            if (result.getStatus() == TransactionResult.Status.CASH_CURRENCY) {
+                printCashCurrency(account, red, reset);
+                return;
+            }
+            if (!result.isSuccess()) {
+                out.println(red + "Invalid amount." + reset);
+                return;
+            }
 
             // Display success
-            System.out.println(green + "Deposit successful." + reset);
-            System.out.printf("You deposited: %sPHP %.2f%s%n", green, amount, reset);
+            out.println(green + "Deposit successful." + reset);
+            out.printf("You deposited: %sPHP %.2f%s%n", green, amount, reset);
 
             // Receipt
-            boolean printReceipt = safeYesNo(input, "Print receipt? (Y/N): ", red, reset);
+            boolean printReceipt = safeYesNo("Print receipt? (Y/N): ", red, reset);
             if (printReceipt) {
-                System.out.println("\n----- Deposit Receipt -----");
-                System.out.printf("Amount: PHP %.2f%n", amount);
-                System.out.printf("Date/Time: %s%n", dateTime);
-                System.out.printf("New Balance: %sPHP %.2f%s%n", green, account.getBalance(), reset);
-                System.out.println("--------------------------");
+                out.println("\n----- Deposit Receipt -----");
+                out.printf("Amount: PHP %.2f%n", Account.toPesos(result.getAmountCents()));
+                out.printf("Date/Time: %s%n", result.getTime().format(RECEIPT_TIME));
+                out.printf("New Balance: %sPHP %.2f%s%n", green, Account.toPesos(result.getBalanceCents()), reset);
+                out.println("--------------------------");
             }
         } else {
-            System.out.println(red + "Authentication failed. Returning to menu." + reset);
+            out.println(red + "Authentication failed. Returning to menu." + reset);
         }
     }
 
     // Withdraw Money (fixed logic, indentation, and braces)
-    private static void withdraw(Scanner input, Account account, String red, String green, String blue, String reset) {
+    private void withdraw(Account account, String red, String green, String blue, String reset) {
         clearScreen();
-        if (authenticatePin(input, account, red, reset)) {
-            double amount = safeNextDouble(input, "Enter amount to withdraw: ", red, reset);
-            if (amount % 100 != 0) {
-                System.out.println(red + "Invalid amount. Must be a positive multiple of 100." + reset);
+        if (authenticatePin(account, red, reset)) {
+            double amount = safeNextDouble("Enter amount to withdraw: ", red, reset);
+            TransactionResult result = submit(TransactionRequest.withdraw(account.getAccountNumber(), Account.toCents(amount)), red, reset);
+            if (result == null) {
                 return;
             }
-            if (account.withdraw(amount)) {
-                String dateTime = LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyy-MM-dd hh:mm:ss"));
-                account.addTransaction(String.format("Withdrew: -PHP %.2f | Date: %s", amount, dateTime));
-
-                System.out.println(green + "Withdrawal successful." + reset);
-                System.out.printf("%sYou withdrew: PHP %.2f%s%n", green, amount, reset);
-
-                boolean printReceipt = safeYesNo(input, "Print receipt? (Y/N): ", red, reset);
-                if (printReceipt) {
-                    System.out.println("\n----- Withdrawal Receipt -----");
-                    System.out.printf("Amount: PHP %.2f%n", amount);
-                    System.out.printf("Date/Time: %s%n", dateTime);
-                    System.out.printf("New Balance: %sPHP %.2f%s%n", green, account.getBalance(), reset);
-                    System.out.println("-----------------------------");
+            switch (result.getStatus()) {
+                case SUCCESS -> {
+                    out.println(green + "Withdrawal successful." + reset);
+                    out.printf("%sYou withdrew: PHP %.2f%s%n", green, amount, reset);
+                    printCash(result);
+
+                    boolean printReceipt = safeYesNo("Print receipt? (Y/N): ", red, reset);
+                    if (printReceipt) {
+                        out.println("\n----- Withdrawal Receipt -----");
+                        out.printf("Amount: PHP %.2f%n", Account.toPesos(result.getAmountCents()));
+                        out.printf("Date/Time: %s%n", result.getTime().format(RECEIPT_TIME));
+                        out.printf("New Balance: %sPHP %.2f%s%n", green, Account.toPesos(result.getBalanceCents()), reset);
+                        out.println("-----------------------------");
+                    }
                 }
-            } else {
-                System.out.println(red + "Insufficient balance." + reset);
+                case INVALID_AMOUNT -> out.printf("%sInvalid amount. Must be a positive multiple of %d.%s%n",
+                        red, bank.dispenser().unitCents() / 100, reset);
+                case CANNOT_DISPENSE -> out.println(red + "This ATM cannot pay out that amount right now. Please try a different amount." + reset);
+                case DAILY_LIMIT, DAILY_COUNT_LIMIT -> printLimitReached(account, result, SpendLimits.Channel.CASH, red, reset);
+                case CASH_CURRENCY -> printCashCurrency(account, red, reset);
+                default -> out.println(red + "Insufficient balance." + reset);
             }
         } else {
-            System.out.println(red + "Authentication failed. Returning to menu." + reset);
+            out.println(red + "Authentication failed. Returning to menu." + reset);
         }
     }
 
-    // Transaction History
-    private static void transactionHistory(Account account, String red, String blue, String reset) throws InterruptedException {
+    // Transaction History, newest first, one page at a time
+    // (records are rendered to text only here, while being shown)
+    private void transactionHistory(Account account, String red, String blue, String reset) throws InterruptedException {
+        final int pageSize = 5;
         clearScreen();
-        ArrayList<String> history = account.getTransactionHistory();
-        if (history.isEmpty()) {
-            System.out.println(red + "No transactions yet." + reset);
-        } else {
-            System.out.println(blue + "Transaction History:" + reset);
-            for (String record : history) {
-                System.out.println(record);
+        HistoryPage page = bank.history(account.getAccountNumber(), HistoryPage.FIRST, pageSize);
+        if (page.isEmpty()) {
+            out.println(red + "No transactions yet." + reset);
+            pause(2000);  // Pause to read
+            return;
+        }
+        out.println(blue + "Transaction History:" + reset);
+        while (true) {
+            JournalCursor records = page.cursor();
+            while (records.next()) {
+                Account counterparty = bank.findAccount(records.counterparty());
+                out.println(records.render(account.getCurrency(), counterparty == null ? "" : counterparty.getName()));
+            }
+            if (!page.hasMore() || !safeYesNo("Show older transactions? (Y/N): ", red, reset)) {
+                break;
             }
+            page = bank.history(account.getAccountNumber(), page.nextCursor(), pageSize);
         }
-        Thread.sleep(2000);  // Pause to read
     }
 
     // Change PIN
-    private static void changePin(Scanner input, Account account, String red, String green, String reset) {
+    private void changePin(Account account, String red, String green, String reset) {
         clearScreen();
-        int changePinAttempts = 0;
-        boolean changePinAuthenticated = false;
-        while (changePinAttempts < 3) {
-            int changePin = safeNextInt(input, "Please re-enter your PIN to change it: ", red, reset);
-            if (changePin == account.getPin()) {
-                changePinAuthenticated = true;
-                break;
-            } else {
-                System.out.println(red + "Incorrect PIN." + reset);
-                changePinAttempts++;
-            }
-        }
-
-        if (changePinAuthenticated) {
+        if (authenticate(account, "Please re-enter your PIN to change it: ", red, reset)) {
             boolean pinValid = false;
             while (!pinValid) {
                   
-                    int newPin = safeNextInt(input, "Enter new PIN: ", red, reset);
-                    int confirmPin = safeNextInt(input, "Confirm new PIN: ", red, reset);
+                    int newPin = readInt("Enter new PIN: ", red, reset);
+                    recording.pin(true);
+                    int confirmPin = readInt("Confirm new PIN: ", red, reset);
+                    recording.pin(newPin == confirmPin);
                     if (newPin == confirmPin) {
-                        account.setPin(newPin);  // This may throw IllegalArgumentException
-                        System.out.println(green + "PIN successfully changed." + reset);
+                        TransactionResult result = submit(TransactionRequest.changePin(account.getAccountNumber(), newPin), red, reset);
+                        if (result == null) {
+                            return;
+                        }
+                        if (result.isSuccess()) {
+                            out.println(green + "PIN successfully changed." + reset);
+                        } else {
+                            out.println(red + "PIN could not be changed. Please try again later." + reset);
+                        }
                         pinValid = true;  // Exit loop
                     } else {
-                        System.out.println(red + "New PIN and confirmation do not match. Try again." + reset);
+                        out.println(red + "New PIN and confirmation do not match. Try again." + reset);
                     }
             }
         } else {
-            System.out.println(red + "Too many incorrect PIN attempts. PIN change cancelled." + reset);
+            out.println(red + "Too many incorrect PIN attempts. PIN change cancelled." + reset);
         }
     }
 
     // Fast Cash
-    private static void fastCash(Scanner input, Account account, String red, String green, String blue, String reset) throws InterruptedException {
+    private void fastCash(Account account, String red, String green, String blue, String reset) throws InterruptedException {
         clearScreen();
-        int fastCashAttempts = 0;
-        boolean fastCashAuthenticated = false;
-        while (fastCashAttempts < 3) {
-            int fastCashPin = safeNextInt(input, "Please re-enter your PIN for Fast Cash: ", red, reset);
-            if (fastCashPin == account.getPin()) {
-                fastCashAuthenticated = true;
-                break;
-            } else {
-                System.out.println(red + "Incorrect PIN." + reset);
-                fastCashAttempts++;
+        if (authenticate(account, "Please re-enter your PIN for Fast Cash: ", red, reset)) {
+            long[] options = bank.fastCashOptions();
+            if (options.length == 0) {
+                out.println(red + "Fast Cash is not available right now (not enough notes). Returning to menu." + reset);
+                pause(2000);
+                return;
             }
-        }
-        if (fastCashAuthenticated) {
-            System.out.println("Fast Cash Options:");
-            System.out.printf(green + "[1] PHP %.2f%n" + reset, 100.00);
-            System.out.printf(green + "[2] PHP %.2f%n" + reset, 500.00);
-            System.out.printf(green + "[3] PHP %.2f%n" + reset, 1000.00);
-            System.out.printf(green + "[4] PHP %.2f%n" + reset, 2000.00);
-            System.out.println(blue + "[5] Cancel Fast Cash" + reset);
-            int fastChoice = safeNextInt(input, "Choose an option (1-5): ", red, reset);
-            if (fastChoice == 5) {
-                System.out.println(red + "Fast Cash cancelled. Returning to menu." + reset);
-                Thread.sleep(2000);
+            int cancelChoice = options.length + 1;
+            out.println("Fast Cash Options:");
+            for (int i = 0; i < options.length; i++) {
+                out.printf(green + "[%d] PHP %.2f%n" + reset, i + 1, Account.toPesos(options[i]));
+            }
+            out.println(blue + "[" + cancelChoice + "] Cancel Fast Cash" + reset);
+            int fastChoice = safeNextInt("Choose an option (1-" + cancelChoice + "): ", red, reset);
+            if (fastChoice == cancelChoice) {
+                out.println(red + "Fast Cash cancelled. Returning to menu." + reset);
+                pause(2000);
                 return;
             }
-            double fastAmount = 0.0;
-
-            switch (fastChoice) {
-                case 1 -> fastAmount = 100.0;
-                case 2 -> fastAmount = 500.0;
-                case 3 -> fastAmount = 1000.0;
-                case 4 -> fastAmount = 2000.0;
-                default -> {
-                    System.out.println(red + "Invalid Fast Cash option. (1-4)" + reset);
-                    return;
-                }
+            if (fastChoice < 1 || fastChoice > options.length) {
+                out.println(red + "Invalid Fast Cash option. (1-" + options.length + ")" + reset);
+                return;
             }
-            if (fastAmount <= account.getBalance()) {
-                String dateTime = LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyy-MM-dd hh:mm:ss"));
-                account.addTransaction(String.format("Withdrew (Fast Cash): -PHP %.2f | Date: %s", fastAmount, dateTime));
-                account.withdraw(fastAmount);
-                System.out.printf("%sYou have successfully withdrawn amount of: PHP %.2f%s%n", green, fastAmount, reset);
+
+            TransactionResult result = submit(TransactionRequest.fastCash(account.getAccountNumber(), options[fastChoice - 1]), red, reset);
+            if (result == null) {
+                return;
+            }
+            if (result.isSuccess()) {
+                double fastAmount = Account.toPesos(result.getAmountCents());
+                out.printf("%sYou have successfully withdrawn amount of: PHP %.2f%s%n", green, fastAmount, reset);
+                printCash(result);
 
                 // Receipt generation
-                boolean printReceipt = safeYesNo(input, "\nWould you like a receipt? (Y/N): ", red, reset);
+                boolean printReceipt = safeYesNo("\nWould you like a receipt? (Y/N): ", red, reset);
                 if (printReceipt) {
-                    LocalDateTime now = LocalDateTime.now();
-                    DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd hh:mm:ss");
-                    String formattedDateTime = now.format(formatter);
-
-                    System.out.println("\n----- Fast Cash Receipt -----");
-                    System.out.printf("Date & Time: %s%n", formattedDateTime);
-                    System.out.printf("Transaction Type: %s%n", "Fast Cash");
-                    System.out.printf("Withdrew Amount: " + green + "PHP %.2f" + reset + "%n", fastAmount);
-                    System.out.printf("New Balance: " + green + "PHP %.2f" + reset + "%n", account.getBalance());
-                    System.out.println("--------------------------------");
+                    out.println("\n----- Fast Cash Receipt -----");
+                    out.printf("Date & Time: %s%n", result.getTime().format(RECEIPT_TIME));
+                    out.printf("Transaction Type: %s%n", "Fast Cash");
+                    out.printf("Withdrew Amount: " + green + "PHP %.2f" + reset + "%n", fastAmount);
+                    out.printf("New Balance: " + green + "PHP %.2f" + reset + "%n", Account.toPesos(result.getBalanceCents()));
+                    out.println("--------------------------------");
                 }
+            } else if (result.getStatus() == TransactionResult.Status.CANNOT_DISPENSE) {
+                out.println(red + "This ATM cannot pay out that amount right now." + reset);
+            } else if (result.getStatus() == TransactionResult.Status.DAILY_LIMIT
+                    || result.getStatus() == TransactionResult.Status.DAILY_COUNT_LIMIT) {
+                printLimitReached(account, result, SpendLimits.Channel.CASH, red, reset);
+            } else if (result.getStatus() == TransactionResult.Status.CASH_CURRENCY) {
+                printCashCurrency(account, red, reset);
             } else {
-                System.out.println(red + "Insufficient Balance for Fast Cash." + reset);
+                out.println(red + "Insufficient Balance for Fast Cash." + reset);
             }
         } else {
-            System.out.println(red + "Incorrect PIN. Fast Cash cancelled." + reset);
+            out.println(red + "Incorrect PIN. Fast Cash cancelled." + reset);
         }
     }
 
         // Transfer Funds
-    private static void transferFunds(Scanner input, Account activeAccount, Account account, Account account1, String red, String green, String blue, String reset) throws InterruptedException {
+    private void transferFunds(Account activeAccount, String red, String green, String blue, String reset) throws InterruptedException {
         clearScreen();
         
         // Step 1: Re-authenticate
-        int attempts = 0;
-        boolean authenticated = false;
-        while (attempts < 3) {
-            int enteredPin = safeNextInt(input, "Please re-enter your PIN: ", red, reset);
-            if (enteredPin == activeAccount.getPin()) {
-                authenticated = true;
-                break;
-            } else {
-                System.out.println(red + "Incorrect PIN." + reset);
-                attempts++;
-            }
-        }
-
-        if (!authenticated) {
-            System.out.println(red + "Too many failed attempts. Returning to menu..." + reset);
-            Thread.sleep(1500);
+        if (!authenticate(activeAccount, "Please re-enter your PIN: ", red, reset)) {
+            out.println(red + "Too many failed attempts. Returning to menu..." + reset);
+            pause(1500);
             return;
         }
 
         clearScreen();
 
-        // Step 2: Identify sender and receiver automatically
-        Account targetAccount;
-        switch (activeAccount.getName()) {
-            case "Carlo Dingle" -> {
-                targetAccount = account1; // Send to Vettel
-                System.out.println(blue + "Transferring from Carlo Dingle → Sebastian Vettel" + reset);
-            }
-            case "Sebastian Vettel" -> {
-                targetAccount = account; // Send to Carlo
-                System.out.println(blue + "Transferring from Sebastian Vettel → Carlo Dingle" + reset);
-            }
-            default -> {
-                System.out.println(red + "Unknown account." + reset);
-                return;
-            }
+        // Step 2: Look up the receiver by account number
+        long targetNumber = safeNextInt(blue + "Enter recipient account number: " + reset, red, reset);
+        Account targetAccount = bank.findAccount(targetNumber);
+        if (targetAccount == null) {
+            out.println(red + "Unknown account." + reset);
+            return;
+        }
+        if (targetAccount == activeAccount) {
+            out.println(red + "Cannot transfer to your own account." + reset);
+            return;
+        }
+        out.println(blue + "Transferring from " + activeAccount.getName() + " → " + targetAccount.getName() + reset);
+        Currency currency = activeAccount.getCurrency();
+        Currency targetCurrency = targetAccount.getCurrency();
+        if (targetCurrency != currency) {
+            out.println(blue + "The amount will be converted to " + targetCurrency + " at today's rate." + reset);
         }
 
         // Step 3: Ask amount
-        double amount = safeNextDouble(input, blue + "Enter amount to transfer: " + green + "PHP " + reset, red, reset);
+        double amount = safeNextDouble(blue + "Enter amount to transfer: " + green + currency + " " + reset, red, reset);
 
-        // Step 4: Validate and perform transfer
-        if (amount > activeAccount.getBalance()) {
-            System.out.println(red + "Insufficient balance!" + reset);
+        // Step 4-6: Validate, transfer funds in one atomic step, and log history
+        TransactionResult result = submit(TransactionRequest.transfer(activeAccount.getAccountNumber(), targetNumber, currency.toMinor(amount)), red, reset);
+        if (result == null) {
+            return;
+        }
+        if (result.getStatus() == TransactionResult.Status.DAILY_LIMIT
+                || result.getStatus() == TransactionResult.Status.DAILY_COUNT_LIMIT) {
+            printLimitReached(activeAccount, result, SpendLimits.Channel.TRANSFER, red, reset);
+            return;
+        }
+        if (result.getStatus() == TransactionResult.Status.NO_FX_RATE) {
+            out.println(red + "Transfers to " + targetCurrency + " accounts are not available right now." + reset);
+            return;
+        }
+        if (!result.isSuccess()) {
+            out.println(red + "Insufficient balance!" + reset);
             return;
         }
-
-        // Step 5: Transfer funds
-        activeAccount.setBalance(activeAccount.getBalance() - amount);
-        targetAccount.setBalance(targetAccount.getBalance() + amount);
-
-        // Step 6: Log transaction history (with date for consistency)
-        String dateTime = LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyy-MM-dd hh:mm:ss"));
-        activeAccount.addTransaction(String.format("Transferred: -PHP %.2f to %s | Date: %s", amount, targetAccount.getName(), dateTime));
-        targetAccount.addTransaction(String.format("Received: +PHP %.2f from %s | Date: %s", amount, activeAccount.getName(), dateTime));
 
         // Step 7: Successful transfer mini statement / receipt
         clearScreen();
-        System.out.println("----- Transfer Successful! -----");
-        System.out.printf("You transferred: %sPHP%s %.2f%n", green, reset, amount);
-        System.out.println("From: " + activeAccount.getName());
-        System.out.println("To: " + targetAccount.getName());
-        System.out.printf("Your new balance: %sPHP%s %.2f%n", green, reset, activeAccount.getBalance());
-        System.out.println("--------------------------------");
-        Thread.sleep(2000);  // Pause to read
+        out.println("----- Transfer Successful! -----");
+        out.println("You transferred: " + green + currency.format(result.getAmountCents()) + reset);
+        if (targetCurrency != currency) {
+            out.println("They received: " + green + targetCurrency.format(result.getCreditedCents()) + reset);
+        }
+        out.println("From: " + activeAccount.getName());
+        out.println("To: " + result.getCounterparty().getName());
+        out.println("Your new balance: " + green + currency.format(result.getBalanceCents()) + reset);
+        out.println("--------------------------------");
+        pause(2000);  // Pause to read
+    }
+
+    // Explains which daily limit stopped a withdrawal or transfer
+    private void printLimitReached(Account account, TransactionResult result, SpendLimits.Channel channel, String red, String reset) {
+        SpendLimits limits = bank.limits();
+        String what = channel == SpendLimits.Channel.CASH ? "withdrawals" : "transfers";
+        if (result.getStatus() == TransactionResult.Status.DAILY_COUNT_LIMIT) {
+            out.printf("%sYou have reached the limit of %d %s in 24 hours.%s%n", red, limits.maxCount(channel), what, reset);
+        } else {
+            out.printf("%sThis exceeds your 24-hour limit for %s (PHP %.2f). You can still use PHP %.2f.%s%n", red, what,
+                    Account.toPesos(limits.maxCents(channel)),
+                    Account.toPesos(limits.remainingCents(account, channel, System.currentTimeMillis())), reset);
+        }
+    }
+
+    // Cash at this ATM is in pesos only
+    private void printCashCurrency(Account account, String red, String reset) {
+        out.printf("%sThis ATM only handles %s cash; your account is in %s. You can still transfer funds.%s%n",
+                red, BankingService.CASH_CURRENCY, account.getCurrency(), reset);
+    }
+
+    // The notes of a withdrawal (a repeated request answered after a restart no longer knows them)
+    private void printCash(TransactionResult result) {
+        if (result.getDispensed() != null) {
+            out.println("Please take your cash: " + result.getDispensed().describe());
+        } else {
+            out.println("The cash for this withdrawal was already paid out.");
+        }
+    }
+
+    // Runs one operation under one idempotency key: the terminal's, or a new one
+    // If the bank fails or is busy the customer may try again under the same key,
+    // so an attempt that went through before the failure is not run twice
+    // Returns null if the customer gives up
+    private TransactionResult submit(TransactionRequest request, String red, String reset) {
+        long key = terminalKey != TransactionRequest.NO_KEY ? terminalKey : newRequestKey();
+        terminalKey = TransactionRequest.NO_KEY;
+        TransactionRequest keyed = request.withIdempotencyKey(key);
+        while (true) {
+            try {
+                TransactionResult result = bank.execute(keyed);
+                if (result.getStatus() != TransactionResult.Status.BUSY) {
+                    return result;
+                }
+                out.println(red + "The bank is busy right now." + reset);
+            } catch (RuntimeException e) {
+                out.println(red + "The bank could not complete the transaction." + reset);
+            }
+            if (!safeYesNo("Try again? (Y/N): ", red, reset)) {
+                return null;
+            }
+        }
+    }
+
+    // A new key for each operation, so a retried request is recognised (see TransactionRequest)
+    private static long newRequestKey() {
+        long key;
+        do {
+            key = ThreadLocalRandom.current().nextLong();
+        } while (key == TransactionRequest.NO_KEY);
+        return key;
+    }
+
+    // Reads one line of input, flushing the prompt first (needed for network terminals)
+    // A "KEY <number>" line is not an answer: it sets the key of the next operation
+    private String readLine() {
+        out.flush();
+        while (true) {
+            String line = input.nextLine();
+            if (!line.regionMatches(true, 0, "KEY ", 0, 4)) {
+                return line;
+            }
+            try {
+                long key = Long.parseLong(line.substring(4).trim());
+                if (key != TransactionRequest.NO_KEY) {
+                    terminalKey = key;
+                }
+            } catch (NumberFormatException e) {
+                return line; // not a key after all; the prompt will ask again
+            }
+        }
+    }
+
+    // Helper to safely read an integer (e.g., for menu choices)
+    private int safeNextInt(String prompt, String red, String reset) {
+        int value = readInt(prompt, red, reset);
+        recording.number(value);
+        return value;
     }
 
-    // Helper to safely read an integer (e.g., for PIN or menu choices)
-    private static int safeNextInt(Scanner input, String prompt, String red, String reset) {
+    // Reads an integer without recording it (PINs)
+    private int readInt(String prompt, String red, String reset) {
         while (true) {
-            System.out.print(prompt);
-            String line = input.nextLine().trim();
+            out.print(prompt);
+            String line = readLine().trim();
             if (line.isEmpty()) {
-                System.out.println(red + "No input provided. Please enter a number." + reset);
+                out.println(red + "No input provided. Please enter a number." + reset);
                 continue;
             }
             try {
                 return Integer.parseInt(line);
             } catch (NumberFormatException e) {
-                System.out.println(red + "Invalid input. Please enter a valid integer (e.g., for PIN or menu)." + reset);
+                out.println(red + "Invalid input. Please enter a valid integer (e.g., for PIN or menu)." + reset);
             }
         }
     }
 
     // Helper to safely read a double (e.g., for amounts)
-    private static double safeNextDouble(Scanner input, String prompt, String red, String reset) {
+    private double safeNextDouble(String prompt, String red, String reset) {
         while (true) {
-            System.out.print(prompt);
-            String line = input.nextLine().trim();
+            out.print(prompt);
+            String line = readLine().trim();
             if (line.isEmpty()) {
-                System.out.println(red + "No input provided. Please enter an amount." + reset);
+                out.println(red + "No input provided. Please enter an amount." + reset);
                 continue;
             }
             try {
                 double value = Double.parseDouble(line);
                 if (value <= 0) { 
-                    System.out.println(red + "Amount must be positive." + reset);
+                    out.println(red + "Amount must be positive." + reset);
                     continue;
                 }
+                recording.amount(value);
                 return value;
             } catch (NumberFormatException e) {
-                System.out.println(red + "Invalid input. Please enter a valid number (e.g., 100.50)." + reset);
+                out.println(red + "Invalid input. Please enter a valid number (e.g., 100.50)." + reset);
             }
         }
     }
 
     // Helper for Y/N choices (simple string, no parsing needed)
-    private static boolean safeYesNo(Scanner input, String prompt, String red, String reset) {
+    private boolean safeYesNo(String prompt, String red, String reset) {
         while (true) {
-            System.out.print(prompt);
-            String response = input.nextLine().trim().toUpperCase();  // Read and normalize
+            out.print(prompt);
+            String response = readLine().trim().toUpperCase();  // Read and normalize
             switch (response) {
                 case "Y", "YES" -> {
+                    recording.yesNo(true);
                     return true;
                 }
                 case "N", "NO" -> {
+                    recording.yesNo(false);
                     return false;
                 }
-                default -> System.out.println(red + "Please enter Y (yes) or N (no)." + reset);
+                default -> out.println(red + "Please enter Y (yes) or N (no)." + reset);
             }
         }
     }
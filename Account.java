@@ -1,65 +1,173 @@
-import java.util.ArrayList;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
 
 // Account class to manage balance, PIN, and transaction history
 // Includes methods for deposit, withdrawal, and transaction logging
-// Constructor initializes balance, PIN, and empty transaction history
+// Constructor initializes balance, PIN, and the journal that holds transaction history
+// Only a salted hash of the PIN is kept (see PinAuthenticator)
+// Each account holds one Currency; its balance is kept in that currency's
+// minor units (centavos for PHP) as a long and updated with compare-and-set,
+// so many terminals can share one account without losing updates
+// Its rolling daily spend (for SpendLimits) is made on first use
 
 
 public class Account {
+    // VarHandles for lock-free updates of balanceCents and spendWindow
+    private static final VarHandle BALANCE_CENTS;
+    private static final VarHandle SPEND_WINDOW;
+
+    static {
+        try {
+            BALANCE_CENTS = MethodHandles.lookup().findVarHandle(Account.class, "balanceCents", long.class);
+            SPEND_WINDOW = MethodHandles.lookup().findVarHandle(Account.class, "spendWindow", int[].class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private final long accountNumber;
     private final String name;
-    private double balance;
-    private int pin;
-    private final ArrayList<String> history;
+    private final Currency currency;
+    private volatile long balanceCents;
+    private volatile PinAuthenticator.PinHash pinHash;
+    private final TransactionJournal journal;
+    private volatile int[] spendWindow; // SpendLimits buckets, made on the first limited operation
+
+    public Account(long accountNumber, String name, double initialBalance, int pin, TransactionJournal journal) {
+        this(accountNumber, name, initialBalance, PinAuthenticator.hash(pin), journal);
+    }
+
+    public Account(long accountNumber, String name, Currency currency, double initialBalance, int pin, TransactionJournal journal) {
+        this(accountNumber, name, currency, initialBalance, PinAuthenticator.hash(pin), journal);
+    }
 
-    public Account(String name, double initialBalance, int pin) {
+    // For accounts whose PIN was hashed earlier (e.g. loaded from a snapshot)
+    public Account(long accountNumber, String name, double initialBalance, PinAuthenticator.PinHash pinHash, TransactionJournal journal) {
+        this(accountNumber, name, Currency.PHP, initialBalance, pinHash, journal);
+    }
+
+    public Account(long accountNumber, String name, Currency currency, double initialBalance, PinAuthenticator.PinHash pinHash,
+                   TransactionJournal journal) {
+        this.accountNumber = accountNumber;
         this.name = name;
-        this.balance = initialBalance;
-        this.pin = pin;
-        this.history = new ArrayList<>();
+        this.currency = currency;
+        this.balanceCents = currency.toMinor(initialBalance);
+        this.pinHash = pinHash;
+        this.journal = journal;
+    }
+
+    // Converts a peso amount to centavos (rounded to the nearest centavo)
+    public static long toCents(double amount) {
+        return Math.round(amount * 100.0);
+    }
+
+    // Converts centavos back to pesos for display
+    public static double toPesos(long cents) {
+        return cents / 100.0;
     }
 
     public void setBalance(double balance) {
-        this.balance = balance;
+        this.balanceCents = currency.toMinor(balance);
     }
 
+    public long getAccountNumber() {
+        return accountNumber;
+    }
 
     public String getName() {
         return name;
     }
 
+    public Currency getCurrency() {
+        return currency;
+    }
+
     public String showBalance() {
-        return String.format(" Your Current Balance is: PHP %.2f", balance);
+        return " Your Current Balance is: " + currency.format(balanceCents);
     }
 
     public double getBalance() {
-        return balance;
+        return currency.toMajor(balanceCents);
+    }
+
+    // Balance in minor units of the account's currency (centavos for PHP)
+    public long getBalanceCents() {
+        return balanceCents;
+    }
+
+    public PinAuthenticator.PinHash getPinHash() {
+        return pinHash;
     }
 
-    public int getPin() {
-        return pin;
+    public void setPinHash(PinAuthenticator.PinHash newPinHash) {
+        this.pinHash = newPinHash;
     }
 
-    public void setPin(int newPin) {    
-        this.pin = newPin;
+    // Cursor over this account's records in the journal, oldest first
+    public JournalCursor getTransactionHistory() {
+        return journal.cursor(accountNumber);
     }
 
-    public ArrayList<String> getTransactionHistory() {
-        return new ArrayList<>(history);
+    // One page of history, newest first (start with HistoryPage.FIRST)
+    public HistoryPage getTransactionHistory(long cursor, int pageSize) {
+        return journal.page(accountNumber, cursor, pageSize);
     }
 
     public void deposit(double amount) {
-        balance += amount;
+        depositCents(currency.toMinor(amount));
     }
 
     public boolean withdraw(double amount) {
-        if (amount <= balance) {
-            balance -= amount;
-            return true;
+        return withdrawCents(currency.toMinor(amount));
+    }
+
+    // Lock-free deposit: retries the compare-and-set until no other thread got in between
+    public void depositCents(long cents) {
+        if (cents < 0) {
+            throw new IllegalArgumentException("Deposit amount must not be negative");
         }
-        return false;
+        long current;
+        do {
+            current = balanceCents;
+        } while (!BALANCE_CENTS.compareAndSet(this, current, Math.addExact(current, cents)));
     }
 
-    public void addTransaction(String record) {
-        history.add(record);
+    // Lock-free withdrawal: fails without changing anything if the balance is too low
+    public boolean withdrawCents(long cents) {
+        if (cents < 0) {
+            throw new IllegalArgumentException("Withdrawal amount must not be negative");
+        }
+        long current;
+        do {
+            current = balanceCents;
+            if (cents > current) {
+                return false;
+            }
+        } while (!BALANCE_CENTS.compareAndSet(this, current, current - cents));
+        return true;
+    }
+
+    // Adds a signed amount without any balance check (only used while
+    // replaying changes that were already validated before a restart)
+    void adjustBalanceCents(long deltaCents) {
+        BALANCE_CENTS.getAndAdd(this, deltaCents);
+    }
+
+    // Appends a record to the journal (counterparty is 0 when there is none)
+    public void addTransaction(TransactionType type, long amountCents, long counterparty) {
+        journal.append(accountNumber, type, amountCents, counterparty);
+    }
+
+    // Rolling daily spend used by SpendLimits (created once, even if two sessions race)
+    int[] spendWindow() {
+        int[] window = spendWindow;
+        if (window == null) {
+            int[] created = new int[SpendLimits.WINDOW_INTS];
+            window = (int[]) SPEND_WINDOW.compareAndExchange(this, null, created);
+            if (window == null) {
+                window = created;
+            }
+        }
+        return window;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,122 @@
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+// AccountImage is a snapshot file (SnapshotStore version 4) mapped into
+// memory and read in place: every account is a fixed-width record, found by
+// number through the hash index stored in the file, so nothing is read or
+// built until an account is asked for
+// AccountRepository uses it to make Account objects on first use; accounts
+// never used cost no heap at all
+// The mapping is read-only and never changes; when a checkpoint replaces the
+// file, the old one stays readable under this mapping (POSIX rename), which
+// is why SnapshotStore only maps snapshots where that holds (see canMap)
+
+
+public class AccountImage {
+    private final MappedByteBuffer records;
+    private final MappedByteBuffer index;
+    private final MappedByteBuffer names;
+    private final long sequence;
+    private final int count;
+    private final int mask;
+
+    private AccountImage(MappedByteBuffer records, MappedByteBuffer index, MappedByteBuffer names, long sequence, int count, int slots) {
+        this.records = records;
+        this.index = index;
+        this.names = names;
+        this.sequence = sequence;
+        this.count = count;
+        this.mask = slots - 1;
+    }
+
+    // Maps a version 4 snapshot; the caller has checked its magic and version
+    static AccountImage map(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, SnapshotStore.HEADER_SIZE);
+            long sequence = header.getLong(8);
+            int count = header.getInt(16);
+            int slots = header.getInt(20);
+            long namesLength = header.getLong(24);
+            long recordsAt = SnapshotStore.HEADER_SIZE;
+            long indexAt = recordsAt + (long) count * SnapshotStore.RECORD_SIZE;
+            long namesAt = indexAt + (long) slots * Integer.BYTES;
+            if (Integer.bitCount(slots) != 1 || namesAt + namesLength != channel.size()) {
+                throw new IOException("Damaged snapshot file: " + file);
+            }
+            // the mappings stay valid after the channel is closed
+            return new AccountImage(
+                    channel.map(FileChannel.MapMode.READ_ONLY, recordsAt, indexAt - recordsAt),
+                    channel.map(FileChannel.MapMode.READ_ONLY, indexAt, namesAt - indexAt),
+                    channel.map(FileChannel.MapMode.READ_ONLY, namesAt, namesLength),
+                    sequence, count, slots);
+        }
+    }
+
+    // The last log sequence the snapshot includes
+    public long sequence() {
+        return sequence;
+    }
+
+    public int count() {
+        return count;
+    }
+
+    // Position of the account with this number, or -1 if the image does not have it
+    public int indexOf(long accountNumber) {
+        int slot = SnapshotStore.slotHash(accountNumber) & mask;
+        while (true) {
+            int entry = index.getInt(slot * Integer.BYTES);
+            if (entry == 0) {
+                return -1;
+            }
+            if (number(entry - 1) == accountNumber) {
+                return entry - 1;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    public long number(int i) {
+        return records.getLong(offset(i));
+    }
+
+    // In minor units of the account's currency
+    public long balance(int i) {
+        return records.getLong(offset(i) + 8);
+    }
+
+    public PinAuthenticator.PinHash pin(int i) {
+        return new PinAuthenticator.PinHash(records.getLong(offset(i) + 16), records.getLong(offset(i) + 24));
+    }
+
+    public Currency currency(int i) {
+        return Currency.fromNumericCode(records.getShort(offset(i) + 38));
+    }
+
+    public String name(int i) {
+        return new String(nameBytes(i), StandardCharsets.UTF_8);
+    }
+
+    // The name as stored (UTF-8), so a new snapshot can copy it without decoding
+    byte[] nameBytes(int i) {
+        int at = offset(i);
+        byte[] bytes = new byte[Short.toUnsignedInt(records.getShort(at + 36))];
+        names.get(records.getInt(at + 32), bytes);
+        return bytes;
+    }
+
+    // A new Account object for record i, posting to journal
+    Account materialize(int i, TransactionJournal journal) {
+        Account account = new Account(number(i), name(i), currency(i), 0.0, pin(i), journal);
+        account.adjustBalanceCents(balance(i));
+        return account;
+    }
+
+    private static int offset(int i) {
+        return i * SnapshotStore.RECORD_SIZE;
+    }
+}
@@ -0,0 +1,308 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+// AccountRepository keeps every account and finds them in O(1)
+// Primary index: account number -> account, an open-addressing hash table
+// on a primitive long[] (no boxing, no per-entry node objects)
+// Secondary index: holder name -> newest account with that name; accounts
+// sharing a name are chained through a parallel int[] (names are not unique)
+// Lookups never lock; adding accounts is synchronized
+// An entry goes into a table readers may already hold: the account is stored
+// first and the key after it with release semantics, and readers load the key
+// with acquire, so a reader that finds the key also sees the whole account
+// A repository over an AccountImage (a mapped snapshot, see SnapshotStore.map)
+// starts with every account of the image at its place in the order, but makes
+// each Account object only when it is first looked up; until then it is in
+// neither index: findByName looks those up in a name index over the image,
+// built on its first call, and numberAt/balanceAt/currencyAt/nameAt read an
+// account from the image while its object is not made, so a pass over every
+// account (statements, audits) makes none
+
+
+public class AccountRepository {
+    private static final int DEFAULT_CAPACITY = 16;
+    private static final long EMPTY = 0L; // account number 0 marks a free slot
+    private static final VarHandle KEYS = MethodHandles.arrayElementVarHandle(long[].class);
+    private static final VarHandle ACCOUNTS = MethodHandles.arrayElementVarHandle(Account[].class);
+
+    // Image records by holder name: the last record with the name, then each
+    // earlier one through next (-1 ends the chain)
+    private static final class ImageNames {
+        final HashMap<String, Integer> last;
+        final int[] next;
+
+        ImageNames(AccountImage image) {
+            last = new HashMap<>(Math.max(16, image.count() * 4 / 3 + 1));
+            next = new int[image.count()];
+            for (int i = 0; i < next.length; i++) {
+                Integer previous = last.put(image.name(i), i);
+                next[i] = previous == null ? -1 : previous;
+            }
+        }
+    }
+
+    // One immutable-sized table; replaced as a whole when it grows
+    private static final class Table {
+        final long[] keys;
+        final Account[] values;
+        final int mask;
+
+        Table(int capacity) {
+            keys = new long[capacity];
+            values = new Account[capacity];
+            mask = capacity - 1;
+        }
+    }
+
+    private volatile Table table;
+    private volatile Account[] ordered; // accounts in the order they were added
+    private volatile int[] sameNameNext; // index of the previous account with the same name, or -1
+    private volatile int size;
+    private int indexed; // accounts in the table (fewer than size while image accounts are not made); guarded by this
+    private final ConcurrentHashMap<String, Integer> byName = new ConcurrentHashMap<>();
+    private final AccountImage image; // accounts [0, image.count()) not made yet are read from here; null if none
+    private final TransactionJournal journal; // what accounts made from the image post to
+    private volatile ImageNames imageNames; // built on the first findByName; null until then
+    private final Object imageNamesLock = new Object();
+
+    public AccountRepository() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public AccountRepository(int expectedAccounts) {
+        int capacity = tableSizeFor(Math.max(expectedAccounts, DEFAULT_CAPACITY));
+        this.table = new Table(capacity);
+        this.ordered = new Account[Math.max(expectedAccounts, DEFAULT_CAPACITY)];
+        this.sameNameNext = new int[ordered.length];
+        this.image = null;
+        this.journal = null;
+    }
+
+    // Every account of the image, each made on first use
+    AccountRepository(AccountImage image, TransactionJournal journal) {
+        this.table = new Table(tableSizeFor(DEFAULT_CAPACITY)); // grows with the accounts used
+        this.ordered = new Account[Math.max(image.count(), DEFAULT_CAPACITY)];
+        this.sameNameNext = new int[ordered.length];
+        this.size = image.count();
+        this.image = image;
+        this.journal = journal;
+    }
+
+    // Adds a new account; account numbers must be positive and unique
+    public synchronized void add(Account account) {
+        long number = account.getAccountNumber();
+        if (number <= 0) {
+            throw new IllegalArgumentException("Account number must be positive: " + number);
+        }
+        Table t = table;
+        if ((indexed + 1) * 2 > t.keys.length) { // keep the load factor at or below 0.5
+            t = rehash(t, t.keys.length * 2);
+        }
+        int slot = slotOf(t, number);
+        if (t.keys[slot] == number || (image != null && image.indexOf(number) >= 0)) {
+            throw new IllegalArgumentException("Duplicate account number: " + number);
+        }
+        ACCOUNTS.setRelease(t.values, slot, account);
+        KEYS.setRelease(t.keys, slot, number); // after the account: a reader that finds the key sees it
+
+        Account[] list = ordered;
+        int[] next = sameNameNext;
+        if (size == list.length) {
+            Account[] grown = new Account[list.length * 2];
+            System.arraycopy(list, 0, grown, 0, size);
+            list = grown;
+            int[] grownNext = new int[grown.length];
+            System.arraycopy(next, 0, grownNext, 0, size);
+            next = grownNext;
+        }
+        list[size] = account;
+        Integer previous = byName.get(account.getName());
+        next[size] = previous == null ? -1 : previous;
+        ordered = list;
+        sameNameNext = next;
+
+        byName.put(account.getName(), size);
+        indexed++;
+        size = size + 1;
+        table = t; // volatile write publishes the new entry to lock-free readers
+    }
+
+    // Returns the account with this number, or null if there is none
+    public Account findByNumber(long accountNumber) {
+        if (accountNumber <= 0) {
+            return null;
+        }
+        Table t = table;
+        int slot = slotOf(t, accountNumber);
+        if ((long) KEYS.getAcquire(t.keys, slot) == accountNumber) {
+            return (Account) ACCOUNTS.getAcquire(t.values, slot);
+        }
+        int index = image == null ? -1 : image.indexOf(accountNumber);
+        return index < 0 ? null : materialize(index);
+    }
+
+    // Returns every account held by this name (empty list if none)
+    public List<Account> findByName(String name) {
+        Integer head = byName.get(name);
+        if (head == null && image == null) {
+            return List.of();
+        }
+        Account[] list = ordered;
+        int[] next = sameNameNext;
+        List<Account> found = new ArrayList<>();
+        for (int i = head == null ? -1 : head; i >= 0; i = next[i]) {
+            found.add(list[i]);
+        }
+        if (image != null) {
+            ImageNames names = imageNames();
+            Integer last = names.last.get(name);
+            for (int i = last == null ? -1 : last; i >= 0; i = names.next[i]) {
+                found.add(get(i));
+            }
+        }
+        return found;
+    }
+
+    private ImageNames imageNames() {
+        ImageNames names = imageNames;
+        if (names == null) {
+            synchronized (imageNamesLock) { // not this: adding and making accounts go on meanwhile
+                names = imageNames;
+                if (names == null) {
+                    names = new ImageNames(image);
+                    imageNames = names;
+                }
+            }
+        }
+        return names;
+    }
+
+    // Returns the account at this position (0-based, in the order accounts were added)
+    public Account get(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index " + index + " out of " + size);
+        }
+        Account account = (Account) ACCOUNTS.getAcquire(ordered, index);
+        return account != null ? account : materialize(index);
+    }
+
+    // The account at this position if its object exists, else null (it is still
+    // as in the image); never makes one, so a pass over every account stays cheap
+    Account loaded(int index) {
+        return (Account) ACCOUNTS.getAcquire(ordered, index);
+    }
+
+    // The account at this position as it is now, without making its object
+    // (0-based, as get; read from the image while the object is not made)
+    long numberAt(int index) {
+        Account account = loaded(index);
+        return account != null ? account.getAccountNumber() : image.number(index);
+    }
+
+    long balanceAt(int index) {
+        Account account = loaded(index);
+        return account != null ? account.getBalanceCents() : image.balance(index);
+    }
+
+    Currency currencyAt(int index) {
+        Account account = loaded(index);
+        return account != null ? account.getCurrency() : image.currency(index);
+    }
+
+    String nameAt(int index) {
+        Account account = loaded(index);
+        return account != null ? account.getName() : image.name(index);
+    }
+
+    // The currency of the account with this number, or null if there is none;
+    // like findByNumber but never makes the account
+    Currency currencyOf(long accountNumber) {
+        Table t = table;
+        int slot = slotOf(t, accountNumber);
+        if ((long) KEYS.getAcquire(t.keys, slot) == accountNumber) {
+            return ((Account) ACCOUNTS.getAcquire(t.values, slot)).getCurrency();
+        }
+        int index = image == null ? -1 : image.indexOf(accountNumber);
+        return index < 0 ? null : currencyAt(index);
+    }
+
+    // The image accounts are made from, or null
+    AccountImage image() {
+        return image;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    // Bytes held by the index arrays (keys, references, insertion order, name chain)
+    // Divide by size() for the per-account index cost; name map entries are not included
+    public long indexFootprintBytes() {
+        Table t = table;
+        return (long) t.keys.length * Long.BYTES
+                + (long) t.values.length * referenceBytes()
+                + (long) ordered.length * referenceBytes()
+                + (long) sameNameNext.length * Integer.BYTES;
+    }
+
+    // Makes the Account object of image record index, once
+    private synchronized Account materialize(int index) {
+        Account[] list = ordered;
+        Account account = list[index];
+        if (account != null) {
+            return account; // made by another thread meanwhile
+        }
+        account = image.materialize(index, journal);
+        Table t = table;
+        if ((indexed + 1) * 2 > t.keys.length) {
+            t = rehash(t, t.keys.length * 2);
+        }
+        int slot = slotOf(t, account.getAccountNumber());
+        ACCOUNTS.setRelease(t.values, slot, account);
+        KEYS.setRelease(t.keys, slot, account.getAccountNumber());
+        indexed++;
+        ACCOUNTS.setRelease(list, index, account); // get() and loaded() read it without the lock
+        table = t; // publishes a grown table
+        return account;
+    }
+
+    // Linear probing: first slot holding the key or the first free slot
+    private static int slotOf(Table t, long key) {
+        int slot = mix(key) & t.mask;
+        while (t.keys[slot] != EMPTY && t.keys[slot] != key) {
+            slot = (slot + 1) & t.mask;
+        }
+        return slot;
+    }
+
+    private static Table rehash(Table old, int capacity) {
+        Table grown = new Table(capacity);
+        for (int i = 0; i < old.keys.length; i++) {
+            if (old.keys[i] != EMPTY) {
+                int slot = slotOf(grown, old.keys[i]);
+                grown.keys[slot] = old.keys[i];
+                grown.values[slot] = old.values[i];
+            }
+        }
+        return grown;
+    }
+
+    private static int mix(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    private static int tableSizeFor(int n) {
+        int capacity = Integer.highestOneBit(Math.max(n * 2 - 1, 1)) << 1;
+        return Math.max(capacity, DEFAULT_CAPACITY);
+    }
+
+    // Compressed oops are on by default below 32 GB heaps
+    private static int referenceBytes() {
+        return Runtime.getRuntime().maxMemory() < 32L * 1024 * 1024 * 1024 ? 4 : 8;
+    }
+}
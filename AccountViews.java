@@ -0,0 +1,341 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+// AccountViews is the read side of the accounts, kept apart from the write
+// side: for each account an immutable View of its balance and its last
+// MINI_STATEMENT postings, stamped with a version (journal records applied)
+// One daemon thread tails the TransactionJournal, the stream every posting
+// goes through, in order and without drops, and replaces the View of the
+// account each record belongs to; it is the only writer
+// A read is one probe of an open-addressing table and one acquire load, with
+// no lock, retry or CAS, so readers never wait for posting threads and never
+// touch the Account fields those threads compare-and-set
+// Views trail the accounts by the time the tail thread takes to see a record
+// (up to IDLE_PARK_MILLIS when idle); catchUp() waits until everything
+// journaled so far is applied, for a session that must read its own writes
+// Balances are taken from the accounts once, when the views start, and then
+// follow the journal alone, so start them before any posting
+// Accounts still in a mapped snapshot (see AccountRepository) get their View
+// when their first posting is applied: the balance in the image and the
+// journal's records from before the start; until then get() returns null
+// The table is then sized for the accounts made so far, and the tail thread
+// replaces it with one twice the size when it is half full
+// If applying a record fails, the tail thread reports it and stops: failed()
+// is then true, catchUp() returns false at once, and BankingService reads
+// the accounts themselves again instead of views that no longer move
+// Two postings racing on one account may reach the journal in the other
+// order than they changed the balance; the View then briefly shows a balance
+// the account never had, and agrees again once both are applied
+
+
+public class AccountViews {
+    public static final int MINI_STATEMENT = 5;
+    static final long IDLE_PARK_MILLIS = 10;
+    private static final long CATCH_UP_POLL_NANOS = 50_000;
+    private static final long EMPTY = 0L; // account number 0 marks a free slot
+    private static final VarHandle VIEWS = MethodHandles.arrayElementVarHandle(View[].class);
+
+    // One posting on a mini statement
+    public static final class Line {
+        private final TransactionType type;
+        private final long amountMinor;
+        private final long counterparty;
+        private final long millis;
+
+        Line(TransactionType type, long amountMinor, long counterparty, long millis) {
+            this.type = type;
+            this.amountMinor = amountMinor;
+            this.counterparty = counterparty;
+            this.millis = millis;
+        }
+
+        public TransactionType getType() {
+            return type;
+        }
+
+        // In the account's currency
+        public long getAmountMinor() {
+            return amountMinor;
+        }
+
+        // The other account of a transfer (0 otherwise)
+        public long getCounterparty() {
+            return counterparty;
+        }
+
+        // Epoch milliseconds
+        public long getMillis() {
+            return millis;
+        }
+
+        // Display text, as on the history screen (see JournalCursor.render)
+        public String render(Currency currency, String counterpartyName) {
+            LocalDateTime dateTime = LocalDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneId.systemDefault());
+            return type.describe(currency, amountMinor, counterpartyName) + " | Date: " + dateTime.format(JournalCursor.DATE_FORMAT);
+        }
+    }
+
+    // An account as of one version; never changes once published
+    public static final class View {
+        private final long accountNumber;
+        private final long version;
+        private final long balanceMinor;
+        private final Line[] lines; // newest first, at most MINI_STATEMENT
+
+        View(long accountNumber, long version, long balanceMinor, Line[] lines) {
+            this.accountNumber = accountNumber;
+            this.version = version;
+            this.balanceMinor = balanceMinor;
+            this.lines = lines;
+        }
+
+        // The view of an account read straight from it and its journal (no read model)
+        static View of(Account account, long version) {
+            return of(account.getAccountNumber(), version, account.getBalanceCents(),
+                    account.getTransactionHistory(HistoryPage.FIRST, MINI_STATEMENT));
+        }
+
+        // page: the newest postings, newest first (at most MINI_STATEMENT)
+        static View of(long accountNumber, long version, long balanceMinor, HistoryPage page) {
+            Line[] lines = new Line[page.size()];
+            JournalCursor records = page.cursor();
+            for (int i = 0; records.next(); i++) {
+                lines[i] = new Line(records.type(), records.amountCents(), records.counterparty(), records.timestamp());
+            }
+            return new View(accountNumber, version, balanceMinor, lines);
+        }
+
+        // The next version, with one more posting on top
+        View plus(long nextVersion, Line line) {
+            Line[] next = new Line[Math.min(lines.length + 1, MINI_STATEMENT)];
+            next[0] = line;
+            System.arraycopy(lines, 0, next, 1, next.length - 1);
+            return new View(accountNumber, nextVersion, Math.addExact(balanceMinor, line.type.signed(line.amountMinor)), next);
+        }
+
+        public long getAccountNumber() {
+            return accountNumber;
+        }
+
+        // Journal records applied when this view was made
+        public long getVersion() {
+            return version;
+        }
+
+        // In minor units of the account's currency
+        public long getBalanceMinor() {
+            return balanceMinor;
+        }
+
+        // Postings on the mini statement
+        public int size() {
+            return lines.length;
+        }
+
+        // The i-th newest posting (0 is the newest)
+        public Line line(int i) {
+            return lines[i];
+        }
+    }
+
+    // Sized for the accounts there are (for the accounts made so far, with a mapped
+    // snapshot); only the tail thread writes it
+    private static final class Table {
+        final long[] keys;
+        final View[] views;
+        final int mask;
+
+        Table(int capacity) {
+            keys = new long[capacity];
+            views = new View[capacity];
+            mask = capacity - 1;
+        }
+    }
+
+    private final TransactionJournal journal;
+    private final AccountImage image; // where the accounts not made at the start are, or null
+    private final long startVersion;
+    private volatile Table table; // replaced only when seeding from the image fills it
+    private int entries; // views in the table; tail thread only
+    private final Thread tail;
+    private volatile long version; // journal records applied
+    private volatile boolean running = true;
+    private volatile boolean failed;
+
+    private AccountViews(TransactionJournal journal, AccountRepository accounts) {
+        this.journal = journal;
+        this.version = journal.size();
+        this.startVersion = version;
+        this.image = accounts.image();
+        int seeded = 0;
+        for (int i = 0; i < accounts.size(); i++) {
+            if (accounts.loaded(i) != null) {
+                seeded++;
+            }
+        }
+        Table t = new Table(capacityFor(seeded));
+        for (int i = 0; i < accounts.size(); i++) {
+            Account account = accounts.loaded(i);
+            if (account == null) {
+                continue; // seeded from the image on its first posting
+            }
+            View view = View.of(account, version);
+            int slot = slotOf(t, view.accountNumber);
+            t.keys[slot] = view.accountNumber;
+            t.views[slot] = view;
+        }
+        this.table = t;
+        this.entries = seeded;
+        this.tail = new Thread(this::follow, "account-views");
+        tail.setDaemon(true);
+    }
+
+    // Seeds a view of every account and starts following the journal
+    public static AccountViews start(TransactionJournal journal, AccountRepository accounts) {
+        AccountViews views = new AccountViews(journal, accounts);
+        views.tail.start(); // publishes the seeded table to the tail thread
+        return views;
+    }
+
+    // The newest view of this account, or null if the account was not there when the views started
+    // (or is from a mapped snapshot and has had no posting applied yet)
+    public View get(long accountNumber) {
+        if (accountNumber <= 0) {
+            return null;
+        }
+        Table t = table;
+        int slot = slotOf(t, accountNumber);
+        return t.keys[slot] == accountNumber ? (View) VIEWS.getAcquire(t.views, slot) : null;
+    }
+
+    // True once the tail thread has stopped on an error; the views are then no longer updated
+    public boolean failed() {
+        return failed;
+    }
+
+    // Journal records applied so far
+    public long version() {
+        return version;
+    }
+
+    // Records journaled and not yet applied
+    public long lag() {
+        return journal.size() - version;
+    }
+
+    // Waits until every record journaled before the call is applied; false if that took over timeoutMillis
+    public boolean catchUp(long timeoutMillis) {
+        long target = journal.size();
+        if (version >= target) {
+            return true;
+        }
+        LockSupport.unpark(tail);
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        while (version < target) {
+            if (System.nanoTime() - deadline > 0 || !running) {
+                return false;
+            }
+            LockSupport.parkNanos(this, CATCH_UP_POLL_NANOS);
+        }
+        return true;
+    }
+
+    // Stops the tail thread after the records journaled so far
+    public void close() throws InterruptedException {
+        running = false;
+        LockSupport.unpark(tail);
+        tail.join();
+    }
+
+    private void follow() {
+        try {
+            while (true) {
+                boolean stopping = !running;
+                long end = journal.size();
+                if (version < end) {
+                    apply(end);
+                } else if (stopping) {
+                    return;
+                } else {
+                    LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(IDLE_PARK_MILLIS));
+                }
+            }
+        } catch (RuntimeException e) {
+            System.err.println("Read model stopped at journal record " + version + ": " + e);
+            failed = true;
+            running = false; // catchUp stops waiting for a version that will not come
+        }
+    }
+
+    // Applies the records from version up to end, in journal order
+    private void apply(long end) {
+        journal.forEach(version, end, this::apply);
+    }
+
+    private void apply(long position, long accountNumber, TransactionType type, long amountMinor, long counterparty, long millis) {
+        Table t = table;
+        int slot = slotOf(t, accountNumber);
+        if (t.keys[slot] == accountNumber) {
+            View current = t.views[slot];
+            VIEWS.setRelease(t.views, slot, current.plus(position + 1, new Line(type, amountMinor, counterparty, millis)));
+        } else {
+            View seeded = seed(accountNumber);
+            if (seeded != null) {
+                if ((entries + 1) * 2 > t.keys.length) {
+                    t = grow(t);
+                    slot = slotOf(t, accountNumber);
+                }
+                VIEWS.setRelease(t.views, slot, seeded.plus(position + 1, new Line(type, amountMinor, counterparty, millis)));
+                t.keys[slot] = accountNumber; // after the view: a reader that sees the key and no view yet gets null
+                entries++;
+            }
+        }
+        version = position + 1;
+    }
+
+    // The view at the start of an account that was still in the image then, or null if it is not in it
+    private View seed(long accountNumber) {
+        int index = image == null ? -1 : image.indexOf(accountNumber);
+        if (index < 0) {
+            return null;
+        }
+        return View.of(accountNumber, startVersion, image.balance(index), journal.before(accountNumber, startVersion, MINI_STATEMENT));
+    }
+
+    // A copy twice the size, published to readers once it is filled
+    private Table grow(Table old) {
+        Table grown = new Table(old.keys.length * 2);
+        for (int i = 0; i < old.keys.length; i++) {
+            if (old.keys[i] != EMPTY) {
+                int slot = slotOf(grown, old.keys[i]);
+                grown.keys[slot] = old.keys[i];
+                grown.views[slot] = old.views[i];
+            }
+        }
+        table = grown;
+        return grown;
+    }
+
+    private static int capacityFor(int accounts) {
+        return Integer.highestOneBit(Math.max(accounts, 8) * 2 - 1) << 1;
+    }
+
+    // Linear probing: first slot holding the key or the first free slot
+    private static int slotOf(Table t, long key) {
+        int slot = mix(key) & t.mask;
+        while (t.keys[slot] != EMPTY && t.keys[slot] != key) {
+            slot = (slot + 1) & t.mask;
+        }
+        return slot;
+    }
+
+    private static int mix(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
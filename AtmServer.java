@@ -0,0 +1,107 @@
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.NoSuchElementException;
+import java.util.Scanner;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// AtmServer lets many ATM terminals connect over TCP (localhost only)
+// Every connection gets its own ATM session on a virtual thread, with the
+// same screens and menu flow as the console version
+// Virtual threads park cheaply while a terminal is idle, so thousands of
+// sessions fit in one JVM
+// Sessions run without animation pauses unless started with -Datm.pacing=interactive
+// Operation latencies are on JMX (GridLineBank:type=Metrics) and in data/metrics.txt
+// Fraud flags are appended to data/fraud-flags.log
+// With -Datm.record=<dir> every session is recorded for SessionReplayer
+// Run: java AtmServer [port]   then connect with e.g. nc localhost 4545
+
+
+public class AtmServer {
+    public static final int DEFAULT_PORT = 4545;
+    private static final int STATUS_INTERVAL_SECONDS = 10;
+
+    private static final AtomicInteger activeSessions = new AtomicInteger();
+
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+
+        TransactionJournal journal = TransactionJournal.open(Path.of("data", "journal"));
+        DurableLedger ledger = ATM.openLedger(journal);
+        FxRates fx = FxRates.load(ATM.FX_RATES_FILE);
+        fx.watch(ATM.FX_RELOAD_CHECK_SECONDS);
+        BankingService bank = new BankingService(ledger, fx);
+        bank.metrics().registerMBean();
+        bank.metrics().startDump(ATM.METRICS_FILE, ATM.METRICS_DUMP_SECONDS);
+        FraudScorer fraud = bank.startFraudScoring(FraudScorer.logTo(ATM.FRAUD_LOG));
+        bank.startReadModel(journal);
+        Pacing pacing = Pacing.fromSystemProperty(Pacing.HEADLESS);
+        SessionRecorder recorder = SessionRecorder.fromSystemProperty();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                bank.metrics().dump(ATM.METRICS_FILE);
+                if (recorder != null) {
+                    recorder.close();
+                }
+                ledger.close();
+                journal.close();
+            } catch (IOException e) {
+                System.err.println("Could not close the ledger: " + e.getMessage());
+            }
+        }));
+
+        ScheduledExecutorService status = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "server-status");
+            thread.setDaemon(true);
+            return thread;
+        });
+        status.scheduleAtFixedRate(() -> printStatus(bank, fraud), STATUS_INTERVAL_SECONDS, STATUS_INTERVAL_SECONDS, TimeUnit.SECONDS);
+
+        try (ServerSocket server = new ServerSocket(port, 4096, InetAddress.getLoopbackAddress());
+             ExecutorService sessions = Executors.newVirtualThreadPerTaskExecutor()) {
+            System.out.println("GridLine Bank ATM server listening on localhost:" + port);
+            while (true) {
+                Socket socket = server.accept();
+                sessions.execute(() -> serve(socket, bank, pacing, recorder));
+            }
+        }
+    }
+
+    // Runs one terminal session until the customer quits or disconnects
+    private static void serve(Socket socket, BankingService bank, Pacing pacing, SessionRecorder recorder) {
+        activeSessions.incrementAndGet();
+        try (socket) {
+            socket.setTcpNoDelay(true);
+            Scanner input = new Scanner(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            PrintStream out = new PrintStream(new BufferedOutputStream(socket.getOutputStream()), false, StandardCharsets.UTF_8);
+            new ATM(input, out, bank, pacing, recorder).run();
+        } catch (NoSuchElementException | IOException e) {
+            // Terminal disconnected mid-session
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            activeSessions.decrementAndGet();
+        }
+    }
+
+    private static void printStatus(BankingService bank, FraudScorer fraud) {
+        Runtime runtime = Runtime.getRuntime();
+        long usedMb = (runtime.totalMemory() - runtime.freeMemory()) / (1024 * 1024);
+        long flags = 0;
+        for (FraudScorer.Rule rule : FraudScorer.Rule.values()) {
+            flags += fraud.flagCount(rule);
+        }
+        System.out.printf("Active sessions: %d | Heap used: %d MB | Fraud flags: %d (scored in p99 %d us, %d dropped)%n",
+                activeSessions.get(), usedMb, flags, fraud.scoreLatency().percentileNanos(99) / 1000, bank.events().dropped());
+    }
+}
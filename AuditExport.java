@@ -0,0 +1,247 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+
+// AuditExport streams transactions into a compressed columnar audit file,
+// which AuditScanner aggregates without turning rows back into objects
+// Rows are cut into blocks of BLOCK_ROWS; each block stores every field as
+// its own column, so a query reads only the columns it needs:
+//   type, currency     dictionary-encoded: the block's distinct values, then
+//                      each row's index into them, bit-packed
+//   time               delta from the previous row (the journal's clock never
+//                      goes back, so these are small)
+//   account, counterparty, amount
+//                      delta from the previous row
+// Deltas are zigzag varints; each column is then deflated (kept as it is
+// when that would not make it smaller)
+// Each block starts with the earliest and latest timestamp it holds, so a
+// date range skips whole blocks without decoding them
+// Amounts are minor units of the account's currency, as in the journal
+// The file is written to a .tmp, fsynced and renamed, like the snapshots
+//
+// File layout (big-endian):
+//   int "ATMA", int version, int BLOCK_ROWS
+//   per block: int rows, long earliest time, long latest time,
+//              byte type count, type codes (1 byte each),
+//              byte currency count, ISO numeric codes (2 bytes each),
+//              6 columns of: int decoded length, int stored length, bytes
+//   int 0 (end)
+//
+// Run: java AuditExport [file]   (default data/audit/transactions-<time>.audit)
+// Run it while terminals are quiet, like StatementJob
+
+
+public class AuditExport implements AutoCloseable {
+    static final int MAGIC = 0x41544D41; // "ATMA"
+    static final int VERSION = 1;
+    public static final int BLOCK_ROWS = 16_384;
+    static final int COLUMNS = 6; // in file order: type, currency, time, account, counterparty, amount
+    private static final DateTimeFormatter FILE_TIME = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss");
+
+    private final Path file;
+    private final Path temp;
+    private final FileOutputStream stream;
+    private final DataOutputStream out;
+    private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+    private final TransactionType[] types = new TransactionType[BLOCK_ROWS];
+    private final Currency[] currencies = new Currency[BLOCK_ROWS];
+    private final long[] millis = new long[BLOCK_ROWS];
+    private final long[] accounts = new long[BLOCK_ROWS];
+    private final long[] counterparties = new long[BLOCK_ROWS];
+    private final long[] amounts = new long[BLOCK_ROWS];
+    private final byte[] encoded = new byte[BLOCK_ROWS * 10]; // a zigzag varint takes at most 10 bytes
+    private final byte[] deflated = new byte[BLOCK_ROWS * 10];
+    private int rows;
+    private long written;
+
+    private AuditExport(Path file) throws IOException {
+        this.file = file;
+        this.temp = file.resolveSibling(file.getFileName() + ".tmp");
+        this.stream = new FileOutputStream(temp.toFile());
+        this.out = new DataOutputStream(new BufferedOutputStream(stream, 1 << 16));
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(BLOCK_ROWS);
+    }
+
+    public static AuditExport create(Path file) throws IOException {
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        return new AuditExport(file);
+    }
+
+    // Writes every journal record to file; accounts tell each record's currency
+    // (records of accounts not in it are taken to be in PHP). Returns the rows written
+    public static long export(TransactionJournal journal, AccountRepository accounts, Path file) throws IOException {
+        try (AuditExport audit = create(file)) {
+            try {
+                journal.forEach(0, journal.size(), (position, accountNumber, type, amountCents, counterparty, time) -> {
+                    Currency currency = accounts.currencyOf(accountNumber); // makes no account
+                    try {
+                        audit.add(accountNumber, type, currency == null ? Currency.PHP : currency, amountCents, counterparty, time);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            return audit.rows();
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        Path file = args.length > 0
+                ? Path.of(args[0])
+                : Path.of("data", "audit", "transactions-" + LocalDateTime.now().format(FILE_TIME) + ".audit");
+        try (TransactionJournal journal = TransactionJournal.open(Path.of("data", "journal"));
+             DurableLedger ledger = ATM.openLedger(journal)) {
+            long start = System.nanoTime();
+            long rows = export(journal, ledger.accounts(), file);
+            double seconds = (System.nanoTime() - start) / 1e9;
+            long bytes = Files.size(file);
+            System.out.printf("Exported %d transactions to %s in %.2f s%n", rows, file, seconds);
+            System.out.printf("%d bytes, %.1f bytes per transaction (the journal uses %d)%n",
+                    bytes, rows == 0 ? 0.0 : (double) bytes / rows, TransactionJournal.RECORD_SIZE);
+        }
+    }
+
+    // Adds one row; rows should come in time order (they are in the journal)
+    public void add(long accountNumber, TransactionType type, Currency currency, long amountMinor, long counterparty, long timeMillis)
+            throws IOException {
+        types[rows] = type;
+        currencies[rows] = currency;
+        millis[rows] = timeMillis;
+        accounts[rows] = accountNumber;
+        counterparties[rows] = counterparty;
+        amounts[rows] = amountMinor;
+        if (++rows == BLOCK_ROWS) {
+            writeBlock();
+        }
+    }
+
+    // Rows added so far
+    public long rows() {
+        return written + rows;
+    }
+
+    // Writes the last block and the end marker, and moves the file into place
+    @Override
+    public void close() throws IOException {
+        try {
+            if (rows > 0) {
+                writeBlock();
+            }
+            out.writeInt(0);
+            out.flush();
+            stream.getFD().sync();
+        } finally {
+            out.close();
+            deflater.end();
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void writeBlock() throws IOException {
+        long earliest = Long.MAX_VALUE;
+        long latest = Long.MIN_VALUE;
+        for (int i = 0; i < rows; i++) {
+            earliest = Math.min(earliest, millis[i]);
+            latest = Math.max(latest, millis[i]);
+        }
+        out.writeInt(rows);
+        out.writeLong(earliest);
+        out.writeLong(latest);
+
+        TransactionType[] typeDictionary = Arrays.stream(types, 0, rows).distinct().toArray(TransactionType[]::new);
+        out.writeByte(typeDictionary.length);
+        for (TransactionType type : typeDictionary) {
+            out.writeByte(type.code());
+        }
+        Currency[] currencyDictionary = Arrays.stream(currencies, 0, rows).distinct().toArray(Currency[]::new);
+        out.writeByte(currencyDictionary.length);
+        for (Currency currency : currencyDictionary) {
+            out.writeShort(currency.numericCode());
+        }
+
+        writeColumn(packIndexes(types, typeDictionary));
+        writeColumn(packIndexes(currencies, currencyDictionary));
+        writeColumn(encodeDeltas(millis, earliest));
+        writeColumn(encodeDeltas(accounts, 0));
+        writeColumn(encodeDeltas(counterparties, 0));
+        writeColumn(encodeDeltas(amounts, 0));
+        written += rows;
+        rows = 0;
+    }
+
+    // Each row's index in the dictionary, in as few bits as the dictionary needs (none for one value)
+    private int packIndexes(Object[] values, Object[] dictionary) {
+        int bits = bitsFor(dictionary.length);
+        int length = (rows * bits + 7) / 8;
+        Arrays.fill(encoded, 0, length, (byte) 0);
+        if (bits == 0) {
+            return 0;
+        }
+        long bit = 0;
+        for (int i = 0; i < rows; i++) {
+            int index = 0;
+            while (dictionary[index] != values[i]) {
+                index++;
+            }
+            for (int b = 0; b < bits; b++, bit++) {
+                if ((index & (1 << b)) != 0) {
+                    encoded[(int) (bit >>> 3)] |= (byte) (1 << (bit & 7));
+                }
+            }
+        }
+        return length;
+    }
+
+    static int bitsFor(int dictionarySize) {
+        return dictionarySize <= 1 ? 0 : 32 - Integer.numberOfLeadingZeros(dictionarySize - 1);
+    }
+
+    // Zigzag varints of the differences between neighbouring rows
+    private int encodeDeltas(long[] values, long first) {
+        int p = 0;
+        long previous = first;
+        for (int i = 0; i < rows; i++) {
+            long delta = values[i] - previous;
+            previous = values[i];
+            long v = (delta << 1) ^ (delta >> 63);
+            while ((v & ~0x7FL) != 0) {
+                encoded[p++] = (byte) ((v & 0x7F) | 0x80);
+                v >>>= 7;
+            }
+            encoded[p++] = (byte) v;
+        }
+        return p;
+    }
+
+    // Deflates the first length bytes of encoded, unless that does not save space
+    private void writeColumn(int length) throws IOException {
+        deflater.reset();
+        deflater.setInput(encoded, 0, length);
+        deflater.finish();
+        int stored = 0;
+        while (!deflater.finished() && stored < length) {
+            stored += deflater.deflate(deflated, stored, deflated.length - stored);
+        }
+        out.writeInt(length);
+        if (deflater.finished() && stored < length) {
+            out.writeInt(stored);
+            out.write(deflated, 0, stored);
+        } else {
+            out.writeInt(length); // stored as it is
+            out.write(encoded, 0, length);
+        }
+    }
+}
@@ -0,0 +1,395 @@
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+// AuditScanner answers aggregate queries straight from an AuditExport file:
+// totals per transaction type, or per account, over a date range
+// It works a block at a time: the columns a query needs are inflated and
+// decoded into primitive arrays, then one tight loop over the arrays adds up
+// the block; columns the query does not use are skipped unread, and so are
+// blocks whose time range lies outside the query's
+// A block wholly inside the range is added up without looking at its times
+// Totals are per currency, since amounts are in each account's currency
+//
+// Run: java AuditScanner <file> types|accounts [from yyyy-MM-dd] [to yyyy-MM-dd]
+
+
+public class AuditScanner implements AutoCloseable {
+    private static final int TYPE_CODES = 8;
+    private static final Currency[] CURRENCIES = Currency.values();
+
+    // Transactions of one type (or one account) in one currency
+    public static final class Total {
+        private final TransactionType type; // null for a per-account total
+        private final long accountNumber;   // 0 for a per-type total
+        private final Currency currency;
+        private final long count;
+        private final long creditsMinor;
+        private final long debitsMinor;
+
+        Total(TransactionType type, long accountNumber, Currency currency, long count, long creditsMinor, long debitsMinor) {
+            this.type = type;
+            this.accountNumber = accountNumber;
+            this.currency = currency;
+            this.count = count;
+            this.creditsMinor = creditsMinor;
+            this.debitsMinor = debitsMinor;
+        }
+
+        public TransactionType getType() {
+            return type;
+        }
+
+        public long getAccountNumber() {
+            return accountNumber;
+        }
+
+        public Currency getCurrency() {
+            return currency;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getCreditsMinor() {
+            return creditsMinor;
+        }
+
+        public long getDebitsMinor() {
+            return debitsMinor;
+        }
+
+        public long getNetMinor() {
+            return creditsMinor - debitsMinor;
+        }
+    }
+
+    // Running sums per account: open addressing on the account number
+    private static final class AccountSums {
+        long[] keys = new long[1 << 12];
+        int[] currencies = new int[keys.length];
+        long[] counts = new long[keys.length];
+        long[] credits = new long[keys.length];
+        long[] debits = new long[keys.length];
+        int size;
+
+        int slotOf(long account, int currency) {
+            int mask = keys.length - 1;
+            int slot = (int) ((account * 0x9E3779B97F4A7C15L) >>> 40) & mask;
+            while (keys[slot] != account) {
+                if (keys[slot] == 0) {
+                    if ((size + 1) * 2 > keys.length) {
+                        grow();
+                        return slotOf(account, currency);
+                    }
+                    keys[slot] = account;
+                    currencies[slot] = currency;
+                    size++;
+                    return slot;
+                }
+                slot = (slot + 1) & mask;
+            }
+            return slot;
+        }
+
+        void grow() {
+            long[] oldKeys = keys;
+            int[] oldCurrencies = currencies;
+            long[] oldCounts = counts;
+            long[] oldCredits = credits;
+            long[] oldDebits = debits;
+            keys = new long[oldKeys.length * 2];
+            currencies = new int[keys.length];
+            counts = new long[keys.length];
+            credits = new long[keys.length];
+            debits = new long[keys.length];
+            size = 0;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != 0) {
+                    int slot = slotOf(oldKeys[i], oldCurrencies[i]);
+                    counts[slot] = oldCounts[i];
+                    credits[slot] = oldCredits[i];
+                    debits[slot] = oldDebits[i];
+                }
+            }
+        }
+    }
+
+    private final Path file;
+    // One block's columns, decoded
+    private final int[] types = new int[AuditExport.BLOCK_ROWS];
+    private final int[] currencies = new int[AuditExport.BLOCK_ROWS];
+    private final long[] millis = new long[AuditExport.BLOCK_ROWS];
+    private final long[] accounts = new long[AuditExport.BLOCK_ROWS];
+    private final long[] amounts = new long[AuditExport.BLOCK_ROWS];
+    private final byte[] stored = new byte[AuditExport.BLOCK_ROWS * 10];
+    private final byte[] decoded = new byte[AuditExport.BLOCK_ROWS * 10];
+    private final Inflater inflater = new Inflater();
+    // The block being read: its dictionaries and time range
+    private int rows;
+    private long earliest;
+    private long latest;
+    private final TransactionType[] typeDictionary = new TransactionType[TYPE_CODES];
+    private final Currency[] currencyDictionary = new Currency[CURRENCIES.length];
+    private int typeCount;
+    private int currencyCount;
+    private long blocksRead;
+    private long blocksSkipped;
+
+    public AuditScanner(Path file) {
+        this.file = file;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2 || !(args[1].equals("types") || args[1].equals("accounts"))) {
+            System.out.println("Usage: java AuditScanner <file> types|accounts [from yyyy-MM-dd] [to yyyy-MM-dd]");
+            return;
+        }
+        ZoneId zone = ZoneId.systemDefault();
+        long from = args.length > 2 ? LocalDate.parse(args[2]).atStartOfDay(zone).toInstant().toEpochMilli() : Long.MIN_VALUE;
+        long to = args.length > 3 ? LocalDate.parse(args[3]).plusDays(1).atStartOfDay(zone).toInstant().toEpochMilli() : Long.MAX_VALUE;
+        boolean byType = args[1].equals("types");
+        try (AuditScanner scanner = new AuditScanner(Path.of(args[0]))) {
+            long start = System.nanoTime();
+            List<Total> totals = byType ? scanner.totalsByType(from, to) : scanner.totalsByAccount(from, to);
+            double millis = (System.nanoTime() - start) / 1e6;
+            for (Total total : totals) {
+                String key = byType ? total.getType().label() : String.valueOf(total.getAccountNumber());
+                System.out.printf("%-15s %9d  in %-20s out %-20s%n", key, total.getCount(),
+                        total.getCurrency().format(total.getCreditsMinor()), total.getCurrency().format(total.getDebitsMinor()));
+            }
+            System.out.printf("%d totals in %.1f ms (%d blocks read, %d skipped)%n",
+                    totals.size(), millis, scanner.blocksRead, scanner.blocksSkipped);
+        }
+    }
+
+    @Override
+    public void close() {
+        inflater.end();
+    }
+
+    // Count, credits and debits per type and currency, for fromMillis <= time < toMillis
+    public List<Total> totalsByType(long fromMillis, long toMillis) throws IOException {
+        long[] counts = new long[TYPE_CODES * CURRENCIES.length];
+        long[] sums = new long[TYPE_CODES * CURRENCIES.length];
+        int[] keyOf = new int[TYPE_CODES * CURRENCIES.length]; // (type index, currency index) -> slot in the sums
+        try (DataInputStream in = open()) {
+            while (nextBlock(in)) {
+                if (latest < fromMillis || earliest >= toMillis) {
+                    skipColumns(in, AuditExport.COLUMNS);
+                    blocksSkipped++;
+                    continue;
+                }
+                boolean whole = earliest >= fromMillis && latest < toMillis;
+                readIndexes(in, types, typeCount);
+                readIndexes(in, currencies, currencyCount);
+                if (whole) {
+                    skipColumns(in, 1);
+                } else {
+                    readDeltas(in, millis, earliest);
+                }
+                skipColumns(in, 2); // account, counterparty
+                readDeltas(in, amounts, 0);
+                blocksRead++;
+
+                for (int t = 0; t < typeCount; t++) {
+                    for (int c = 0; c < currencyCount; c++) {
+                        keyOf[t * CURRENCIES.length + c] = typeDictionary[t].code() * CURRENCIES.length + currencyDictionary[c].ordinal();
+                    }
+                }
+                for (int i = 0; i < rows; i++) {
+                    types[i] = keyOf[types[i] * CURRENCIES.length + currencies[i]];
+                }
+                if (whole) {
+                    for (int i = 0; i < rows; i++) {
+                        counts[types[i]]++;
+                        sums[types[i]] += amounts[i];
+                    }
+                } else {
+                    for (int i = 0; i < rows; i++) {
+                        long inRange = millis[i] >= fromMillis && millis[i] < toMillis ? 1 : 0; // no branch to mispredict
+                        counts[types[i]] += inRange;
+                        sums[types[i]] += amounts[i] * inRange;
+                    }
+                }
+            }
+        }
+        List<Total> totals = new ArrayList<>();
+        for (int key = 0; key < counts.length; key++) {
+            if (counts[key] > 0) {
+                TransactionType type = TransactionType.fromCode(key / CURRENCIES.length);
+                Currency currency = CURRENCIES[key % CURRENCIES.length];
+                totals.add(new Total(type, 0, currency, counts[key],
+                        type.isCredit() ? sums[key] : 0, type.isCredit() ? 0 : sums[key]));
+            }
+        }
+        return totals;
+    }
+
+    // Count, credits and debits per account, for fromMillis <= time < toMillis, by account number
+    public List<Total> totalsByAccount(long fromMillis, long toMillis) throws IOException {
+        AccountSums sums = new AccountSums();
+        boolean[] credit = new boolean[TYPE_CODES];
+        int[] currencyOf = new int[CURRENCIES.length];
+        try (DataInputStream in = open()) {
+            while (nextBlock(in)) {
+                if (latest < fromMillis || earliest >= toMillis) {
+                    skipColumns(in, AuditExport.COLUMNS);
+                    blocksSkipped++;
+                    continue;
+                }
+                boolean whole = earliest >= fromMillis && latest < toMillis;
+                readIndexes(in, types, typeCount);
+                readIndexes(in, currencies, currencyCount);
+                if (whole) {
+                    skipColumns(in, 1);
+                } else {
+                    readDeltas(in, millis, earliest);
+                }
+                readDeltas(in, accounts, 0);
+                skipColumns(in, 1); // counterparty
+                readDeltas(in, amounts, 0);
+                blocksRead++;
+
+                for (int t = 0; t < typeCount; t++) {
+                    credit[t] = typeDictionary[t].isCredit();
+                }
+                for (int c = 0; c < currencyCount; c++) {
+                    currencyOf[c] = currencyDictionary[c].ordinal();
+                }
+                for (int i = 0; i < rows; i++) {
+                    if (!whole && (millis[i] < fromMillis || millis[i] >= toMillis)) {
+                        continue;
+                    }
+                    int slot = sums.slotOf(accounts[i], currencyOf[currencies[i]]);
+                    sums.counts[slot]++;
+                    if (credit[types[i]]) {
+                        sums.credits[slot] += amounts[i];
+                    } else {
+                        sums.debits[slot] += amounts[i];
+                    }
+                }
+            }
+        }
+        List<Total> totals = new ArrayList<>(sums.size);
+        for (int slot = 0; slot < sums.keys.length; slot++) {
+            if (sums.keys[slot] != 0) {
+                totals.add(new Total(null, sums.keys[slot], CURRENCIES[sums.currencies[slot]],
+                        sums.counts[slot], sums.credits[slot], sums.debits[slot]));
+            }
+        }
+        totals.sort(Comparator.comparingLong(Total::getAccountNumber));
+        return totals;
+    }
+
+    private DataInputStream open() throws IOException {
+        InputStream stream = Files.newInputStream(file);
+        DataInputStream in = new DataInputStream(new BufferedInputStream(stream, 1 << 16));
+        try {
+            if (in.readInt() != AuditExport.MAGIC) {
+                throw new IOException("Not an audit file: " + file);
+            }
+            int version = in.readInt();
+            if (version != AuditExport.VERSION) {
+                throw new IOException("Unsupported audit file version " + version + ": " + file);
+            }
+            if (in.readInt() > AuditExport.BLOCK_ROWS) {
+                throw new IOException("Audit file blocks are larger than this scanner reads: " + file);
+            }
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+        return in;
+    }
+
+    // Reads the next block's header; false at the end of the file
+    private boolean nextBlock(DataInputStream in) throws IOException {
+        rows = in.readInt();
+        if (rows == 0) {
+            return false;
+        }
+        earliest = in.readLong();
+        latest = in.readLong();
+        typeCount = in.readUnsignedByte();
+        for (int t = 0; t < typeCount; t++) {
+            typeDictionary[t] = TransactionType.fromCode(in.readUnsignedByte());
+        }
+        currencyCount = in.readUnsignedByte();
+        for (int c = 0; c < currencyCount; c++) {
+            currencyDictionary[c] = Currency.fromNumericCode(in.readUnsignedShort());
+        }
+        return true;
+    }
+
+    private void skipColumns(DataInputStream in, int columns) throws IOException {
+        for (int i = 0; i < columns; i++) {
+            in.readInt();
+            in.skipNBytes(in.readInt());
+        }
+    }
+
+    // Reads one column and inflates it if it was deflated; returns its decoded length
+    private int readColumn(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        int storedLength = in.readInt();
+        if (storedLength == length) {
+            in.readFully(decoded, 0, length);
+            return length;
+        }
+        in.readFully(stored, 0, storedLength);
+        inflater.reset();
+        inflater.setInput(stored, 0, storedLength);
+        try {
+            if (inflater.inflate(decoded, 0, length) != length) {
+                throw new IOException("Damaged column in audit file " + file);
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Damaged column in audit file " + file, e);
+        }
+        return length;
+    }
+
+    // A bit-packed dictionary column into indexes
+    private void readIndexes(DataInputStream in, int[] into, int dictionarySize) throws IOException {
+        readColumn(in);
+        int bits = AuditExport.bitsFor(dictionarySize);
+        int mask = (1 << bits) - 1;
+        long bit = 0;
+        for (int i = 0; i < rows; i++, bit += bits) {
+            int at = (int) (bit >>> 3);
+            int word = (decoded[at] & 0xFF) | (at + 1 < decoded.length ? (decoded[at + 1] & 0xFF) << 8 : 0);
+            into[i] = (word >>> (bit & 7)) & mask;
+        }
+    }
+
+    // A zigzag varint delta column into values
+    private void readDeltas(DataInputStream in, long[] into, long first) throws IOException {
+        readColumn(in);
+        int p = 0;
+        long previous = first;
+        for (int i = 0; i < rows; i++) {
+            long v = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = decoded[p++];
+                v |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            previous += (v >>> 1) ^ -(v & 1);
+            into[i] = previous;
+        }
+    }
+}
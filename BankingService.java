@@ -0,0 +1,419 @@
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.function.Consumer;
+
+// BankingService holds the banking rules of the ATM with no console I/O and no sleeps
+// Every front-end (the console in ATM, load generators, network sessions)
+// drives the same logic through requests and results
+// Changes are made durable by the DurableLedger, which also records them in the journal
+// PINs are checked by one shared PinAuthenticator, which also tracks lockouts
+// Cash comes out of the CashDispenser, so withdrawals and Fast Cash only
+// offer amounts the cassettes can pay
+// Withdrawals and transfers are held to daily caps by SpendLimits
+// Each account has its own currency: cash goes in and out only of accounts in
+// CASH_CURRENCY, and a transfer between currencies credits the amount
+// converted with the FxRates table in force when it starts
+// Every request is timed into Metrics, per operation and outcome, and
+// published to a TransactionStream that a FraudScorer reads (once started),
+// with its amount in CASH_CURRENCY
+// A request with an idempotency key runs at most once: a retry under the same
+// key gets the first attempt's result (waiting for it if it is still running)
+// from the ledger's IdempotencyCache, is timed as DUPLICATE, and is not
+// published again; the same key on a different request is KEY_REUSED, and a
+// new key while the cache is full of requests still running is BUSY
+// Once startReadModel() is called, balances and mini statements are read from
+// AccountViews, kept up to date from the journal, instead of from the accounts
+
+
+public class BankingService {
+    // Fast Cash amounts, shown when the dispenser can pay them
+    private static final long[] FAST_CASH_AMOUNTS = {100_00, 500_00, 1_000_00, 2_000_00, 5_000_00};
+    private static final int EVENT_RING_SIZE = 1 << 14;
+    private static final long READ_YOUR_WRITES_MILLIS = 1_000;
+    // The notes in the cassettes, and the currency of the SpendLimits caps
+    public static final Currency CASH_CURRENCY = Currency.PHP;
+
+    private final DurableLedger ledger;
+    private final Metrics metrics = new Metrics();
+    private final TransactionStream events = new TransactionStream(EVENT_RING_SIZE);
+    private final PinAuthenticator pins = new PinAuthenticator(metrics, events);
+    private final CashDispenser dispenser;
+    private final SpendLimits limits;
+    private final FxRates fx;
+    private volatile FraudScorer fraud;
+    private volatile AccountViews views;
+
+    public BankingService(DurableLedger ledger) {
+        this(ledger, CashDispenser.standard());
+    }
+
+    public BankingService(DurableLedger ledger, CashDispenser dispenser) {
+        this(ledger, dispenser, new SpendLimits());
+    }
+
+    public BankingService(DurableLedger ledger, FxRates fx) {
+        this(ledger, CashDispenser.standard(), new SpendLimits(), fx);
+    }
+
+    public BankingService(DurableLedger ledger, CashDispenser dispenser, SpendLimits limits) {
+        this(ledger, dispenser, limits, FxRates.defaults());
+    }
+
+    public BankingService(DurableLedger ledger, CashDispenser dispenser, SpendLimits limits, FxRates fx) {
+        this.ledger = ledger;
+        this.dispenser = dispenser;
+        this.limits = limits;
+        this.fx = fx;
+    }
+
+    public CashDispenser dispenser() {
+        return dispenser;
+    }
+
+    // Starts scoring every transaction on a background thread; flags go to the listener
+    public synchronized FraudScorer startFraudScoring(Consumer<FraudScorer.Flag> listener) {
+        if (fraud == null) {
+            FraudScorer scorer = new FraudScorer(listener);
+            events.start("fraud-scoring", scorer);
+            fraud = scorer;
+        }
+        return fraud;
+    }
+
+    // The running scorer, or null if startFraudScoring was not called
+    public FraudScorer fraud() {
+        return fraud;
+    }
+
+    // Starts the read model over the journal these accounts post to (once; before any posting)
+    public synchronized AccountViews startReadModel(TransactionJournal journal) {
+        if (views == null) {
+            views = AccountViews.start(journal, ledger.accounts());
+        }
+        return views;
+    }
+
+    // The read model, or null if startReadModel was not called
+    public AccountViews views() {
+        return views;
+    }
+
+    // The read model while it is up to date; null if not started, or stopped on an error
+    private AccountViews liveViews() {
+        AccountViews current = views;
+        return current == null || current.failed() ? null : current;
+    }
+
+    // Waits (up to READ_YOUR_WRITES_MILLIS) until the read model shows every posting made so far,
+    // so a session sees its own deposit in the next balance it reads
+    public void awaitReadModel() {
+        AccountViews current = liveViews();
+        if (current != null) {
+            current.catchUp(READ_YOUR_WRITES_MILLIS);
+        }
+    }
+
+    public TransactionStream events() {
+        return events;
+    }
+
+    public SpendLimits limits() {
+        return limits;
+    }
+
+    public FxRates fx() {
+        return fx;
+    }
+
+    public Metrics metrics() {
+        return metrics;
+    }
+
+    public PinAuthenticator pins() {
+        return pins;
+    }
+
+    public AccountRepository accounts() {
+        return ledger.accounts();
+    }
+
+    // Returns the account with this number, or null
+    public Account findAccount(long accountNumber) {
+        return ledger.accounts().findByNumber(accountNumber);
+    }
+
+    public boolean verifyPin(long accountNumber, int pin) {
+        Account account = findAccount(accountNumber);
+        return account != null && pins.verify(account, pin) == PinAuthenticator.Outcome.ACCEPTED;
+    }
+
+    // In minor units of the account's currency, from the read model once it is started
+    public long balanceCents(long accountNumber) {
+        return view(accountNumber).getBalanceMinor();
+    }
+
+    // Balance and latest postings (the mini statement) of an account
+    public AccountViews.View view(long accountNumber) {
+        AccountViews current = liveViews();
+        AccountViews.View view = current == null ? null : current.get(accountNumber);
+        if (view != null) {
+            return view;
+        }
+        Account account = findAccount(accountNumber);
+        if (account == null) {
+            throw new IllegalArgumentException("Unknown account " + accountNumber);
+        }
+        return AccountViews.View.of(account, current == null ? 0 : current.version());
+    }
+
+    // One page of history, newest first (start with HistoryPage.FIRST)
+    public HistoryPage history(long accountNumber, long cursor, int pageSize) {
+        Account account = findAccount(accountNumber);
+        if (account == null) {
+            throw new IllegalArgumentException("Unknown account " + accountNumber);
+        }
+        return account.getTransactionHistory(cursor, pageSize);
+    }
+
+    // Fast Cash amounts in centavos that can be paid right now (a new array; callers may keep it)
+    public long[] fastCashOptions() {
+        return dispenser.dispensable(FAST_CASH_AMOUNTS);
+    }
+
+    public TransactionResult execute(TransactionRequest request) {
+        long start = System.nanoTime();
+        IdempotencyCache.Entry claimed = null;
+        if (request.getIdempotencyKey() != TransactionRequest.NO_KEY) {
+            IdempotencyCache requests = ledger.requests();
+            long now = System.currentTimeMillis();
+            while (claimed == null) {
+                IdempotencyCache.Entry earlier = requests.find(request.getIdempotencyKey(), now);
+                if (earlier == null) {
+                    claimed = requests.insert(request.getIdempotencyKey(), request, now);
+                    if (claimed == IdempotencyCache.FULL) {
+                        metrics.record(operationOf(request.getKind()), Metrics.Outcome.BUSY, System.nanoTime() - start);
+                        return TransactionResult.failed(TransactionResult.Status.BUSY);
+                    }
+                    continue; // null: another request took the key first
+                }
+                TransactionResult result = earlier.matches(request)
+                        ? resultOf(earlier)
+                        : TransactionResult.failed(TransactionResult.Status.KEY_REUSED);
+                if (result != null) {
+                    Metrics.Outcome outcome = result.getStatus() == TransactionResult.Status.KEY_REUSED
+                            ? Metrics.Outcome.KEY_REUSED
+                            : Metrics.Outcome.DUPLICATE;
+                    metrics.record(operationOf(request.getKind()), outcome, System.nanoTime() - start);
+                    return result;
+                }
+                // the first attempt gave up without a result; claim the key again
+            }
+        }
+        Account account = findAccount(request.getAccountNumber());
+        TransactionResult result;
+        try {
+            result = account == null
+                    ? TransactionResult.failed(TransactionResult.Status.UNKNOWN_ACCOUNT)
+                    : apply(account, request, claimed);
+        } catch (RuntimeException | Error e) {
+            if (claimed != null) {
+                ledger.requests().abandon(claimed);
+            }
+            throw e;
+        }
+        if (claimed != null) {
+            ledger.requests().complete(claimed, result);
+        }
+        long end = System.nanoTime();
+        metrics.record(operationOf(request.getKind()), Metrics.Outcome.of(result.getStatus()), end - start);
+        events.publish(eventOf(request.getKind()), request.getAccountNumber(), request.getCounterparty(),
+                cashAmount(account, request.getAmountCents()), result.getStatus(), end);
+        return result;
+    }
+
+    // The amount in CASH_CURRENCY (as it is, if there is no rate for the account's currency)
+    private long cashAmount(Account account, long minor) {
+        if (account == null || account.getCurrency() == CASH_CURRENCY) {
+            return minor;
+        }
+        FxRates.Table rates = fx.current();
+        if (!rates.has(account.getCurrency()) || !rates.has(CASH_CURRENCY)) {
+            return minor;
+        }
+        try {
+            return rates.convert(minor, account.getCurrency(), CASH_CURRENCY);
+        } catch (ArithmeticException e) {
+            return minor; // too large to convert; the request has failed anyway
+        }
+    }
+
+    // The first attempt's result, or null if it gave up without one
+    // After a restart only the saved fields are left, so the result is rebuilt
+    // from them (once) and has no notes
+    private TransactionResult resultOf(IdempotencyCache.Entry earlier) {
+        TransactionResult result = earlier.await();
+        if (result != null || !earlier.isLogged()) {
+            return result;
+        }
+        LocalDateTime time = LocalDateTime.ofInstant(Instant.ofEpochMilli(earlier.getMillis()), ZoneId.systemDefault());
+        Account counterparty = earlier.getCounterparty() == 0 ? null : findAccount(earlier.getCounterparty());
+        result = new TransactionResult(TransactionResult.Status.SUCCESS, earlier.getAmountCents(), earlier.getCreditedCents(),
+                earlier.getBalanceCents(), time, counterparty, null);
+        earlier.setResult(result);
+        return result;
+    }
+
+    // request: the idempotency cache entry claimed for it, or null
+    private TransactionResult apply(Account account, TransactionRequest request, IdempotencyCache.Entry claimed) {
+        return switch (request.getKind()) {
+            case DEPOSIT -> deposit(account, request.getAmountCents(), claimed);
+            case WITHDRAW -> withdraw(account, request.getAmountCents(), TransactionType.WITHDRAWAL, claimed);
+            case FAST_CASH -> fastCash(account, request.getAmountCents(), claimed);
+            case TRANSFER -> transfer(account, request.getCounterparty(), request.getAmountCents(), claimed);
+            case CHANGE_PIN -> changePin(account, request.getNewPin(), claimed);
+        };
+    }
+
+    private static Metrics.Operation operationOf(TransactionRequest.Kind kind) {
+        return switch (kind) {
+            case DEPOSIT -> Metrics.Operation.DEPOSIT;
+            case WITHDRAW -> Metrics.Operation.WITHDRAW;
+            case FAST_CASH -> Metrics.Operation.FAST_CASH;
+            case TRANSFER -> Metrics.Operation.TRANSFER;
+            case CHANGE_PIN -> Metrics.Operation.CHANGE_PIN;
+        };
+    }
+
+    private static TransactionStream.Kind eventOf(TransactionRequest.Kind kind) {
+        return switch (kind) {
+            case DEPOSIT -> TransactionStream.Kind.DEPOSIT;
+            case WITHDRAW -> TransactionStream.Kind.WITHDRAW;
+            case FAST_CASH -> TransactionStream.Kind.FAST_CASH;
+            case TRANSFER -> TransactionStream.Kind.TRANSFER;
+            case CHANGE_PIN -> TransactionStream.Kind.CHANGE_PIN;
+        };
+    }
+
+    private TransactionResult deposit(Account account, long cents, IdempotencyCache.Entry claimed) {
+        if (cents <= 0) {
+            return TransactionResult.failed(TransactionResult.Status.INVALID_AMOUNT);
+        }
+        if (account.getCurrency() != CASH_CURRENCY) {
+            return TransactionResult.failed(TransactionResult.Status.CASH_CURRENCY);
+        }
+        ledger.deposit(account, cents, claimed);
+        return success(account, cents, null);
+    }
+
+    private TransactionResult withdraw(Account account, long cents, TransactionType type, IdempotencyCache.Entry claimed) {
+        if (cents <= 0 || cents % dispenser.unitCents() != 0) {
+            return TransactionResult.failed(TransactionResult.Status.INVALID_AMOUNT);
+        }
+        if (account.getCurrency() != CASH_CURRENCY) {
+            return TransactionResult.failed(TransactionResult.Status.CASH_CURRENCY);
+        }
+        if (account.getBalanceCents() < cents) {
+            return TransactionResult.failed(TransactionResult.Status.INSUFFICIENT_BALANCE);
+        }
+        // Reserve the daily limit and take the notes first; give both back if the
+        // balance changed in between or the ledger failed
+        long now = System.currentTimeMillis();
+        SpendLimits.Decision decision = limits.reserve(account, SpendLimits.Channel.CASH, cents, now);
+        if (decision != SpendLimits.Decision.ALLOWED) {
+            return TransactionResult.failed(limitStatus(decision));
+        }
+        CashDispenser.Plan notes = dispenser.dispense(cents);
+        if (notes == null) {
+            limits.release(account, SpendLimits.Channel.CASH, cents, now);
+            return TransactionResult.failed(TransactionResult.Status.CANNOT_DISPENSE);
+        }
+        boolean withdrawn = false;
+        try {
+            withdrawn = ledger.withdraw(account, cents, type, claimed);
+        } finally {
+            if (!withdrawn) {
+                dispenser.restore(notes);
+                limits.release(account, SpendLimits.Channel.CASH, cents, now);
+            }
+        }
+        if (!withdrawn) {
+            return TransactionResult.failed(TransactionResult.Status.INSUFFICIENT_BALANCE);
+        }
+        return new TransactionResult(TransactionResult.Status.SUCCESS, cents, account.getBalanceCents(), LocalDateTime.now(), null, notes);
+    }
+
+    private TransactionResult fastCash(Account account, long cents, IdempotencyCache.Entry claimed) {
+        for (long option : FAST_CASH_AMOUNTS) {
+            if (option == cents) {
+                return withdraw(account, cents, TransactionType.FAST_CASH, claimed);
+            }
+        }
+        return TransactionResult.failed(TransactionResult.Status.INVALID_AMOUNT);
+    }
+
+    private TransactionResult transfer(Account from, long toAccountNumber, long cents, IdempotencyCache.Entry claimed) {
+        Account to = findAccount(toAccountNumber);
+        if (to == null) {
+            return TransactionResult.failed(TransactionResult.Status.UNKNOWN_ACCOUNT);
+        }
+        if (to == from) {
+            return TransactionResult.failed(TransactionResult.Status.SAME_ACCOUNT);
+        }
+        if (cents <= 0) {
+            return TransactionResult.failed(TransactionResult.Status.INVALID_AMOUNT);
+        }
+        // One table for the whole transfer, even if the rates are reloaded meanwhile
+        FxRates.Table rates = fx.current();
+        Currency fromCurrency = from.getCurrency();
+        Currency toCurrency = to.getCurrency();
+        if (fromCurrency != toCurrency && !(rates.has(fromCurrency) && rates.has(toCurrency))) {
+            return TransactionResult.failed(TransactionResult.Status.NO_FX_RATE);
+        }
+        long credit;
+        long capped; // what counts against the daily cap, which is in CASH_CURRENCY
+        try {
+            credit = rates.convert(cents, fromCurrency, toCurrency);
+            capped = fromCurrency == CASH_CURRENCY || !rates.has(CASH_CURRENCY)
+                    ? cents
+                    : rates.convert(cents, fromCurrency, CASH_CURRENCY);
+        } catch (ArithmeticException e) {
+            return TransactionResult.failed(TransactionResult.Status.INVALID_AMOUNT); // too large to convert
+        }
+        if (credit <= 0) {
+            return TransactionResult.failed(TransactionResult.Status.INVALID_AMOUNT); // too small to arrive as one minor unit
+        }
+        long now = System.currentTimeMillis();
+        SpendLimits.Decision decision = limits.reserve(from, SpendLimits.Channel.TRANSFER, capped, now);
+        if (decision != SpendLimits.Decision.ALLOWED) {
+            return TransactionResult.failed(limitStatus(decision));
+        }
+        boolean transferred = false;
+        try {
+            transferred = ledger.transfer(from, to, cents, credit, claimed);
+        } finally {
+            if (!transferred) {
+                limits.release(from, SpendLimits.Channel.TRANSFER, capped, now); // too low a balance, or the ledger failed
+            }
+        }
+        if (!transferred) {
+            return TransactionResult.failed(TransactionResult.Status.INSUFFICIENT_BALANCE);
+        }
+        return new TransactionResult(TransactionResult.Status.SUCCESS, cents, credit, from.getBalanceCents(), LocalDateTime.now(), to, null);
+    }
+
+    private static TransactionResult.Status limitStatus(SpendLimits.Decision decision) {
+        return decision == SpendLimits.Decision.OVER_COUNT
+                ? TransactionResult.Status.DAILY_COUNT_LIMIT
+                : TransactionResult.Status.DAILY_LIMIT;
+    }
+
+    private TransactionResult changePin(Account account, int newPin, IdempotencyCache.Entry claimed) {
+        ledger.setPin(account, PinAuthenticator.hash(newPin), claimed);
+        return success(account, 0, null);
+    }
+
+    private static TransactionResult success(Account account, long cents, Account counterparty) {
+        return new TransactionResult(TransactionResult.Status.SUCCESS, cents, account.getBalanceCents(), LocalDateTime.now(), counterparty, null);
+    }
+}
@@ -0,0 +1,455 @@
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicReference;
+
+// BulkPoster posts end-of-day batches of credits (payroll and the like)
+// The batch file is read as a stream by one reader thread; every posting goes
+// to the worker that owns its account (by a hash of the account number), so
+// one account is only ever credited by one worker and workers never wait on each other
+// Workers credit a whole batch at a time through DurableLedger.postBatch,
+// which logs one record per batch instead of one per posting and journals
+// the batch (as CREDIT records) in the same step
+// Memory stays flat: each worker has a few reusable batch buffers, and the
+// reader blocks when a worker falls behind
+// Every batch is posted under a key made from the file's contents, the
+// workers and batch size, the worker and the batch's number, so running the
+// same file again (say after a crash) skips the batches already posted;
+// rerun it with the same workers and batch size, or it is posted again
+//
+// Input formats:
+//   .csv  one "accountNumber,amount" per line, amount in pesos (e.g. 1500 or 1500.25);
+//         a first line that does not start with a digit is taken as a header
+//   other binary, pairs of big-endian longs (account number, amount in centavos)
+// Amounts are pesos; lines that cannot be parsed, unknown accounts, accounts
+// in other currencies and non-positive amounts are counted as rejected
+//
+// Run: java BulkPoster <batch file> [workers] [batch size]
+
+
+public class BulkPoster {
+    public static final int DEFAULT_BATCH_SIZE = 65_536;
+    private static final int BUFFERS_PER_WORKER = 3; // one being filled, up to two queued or in use
+
+    private final DurableLedger ledger;
+    private final int workers;
+    private final int batchSize;
+
+    // Totals of one run
+    public static final class Result {
+        private final long postings;
+        private final long rejected;
+        private final long batches;
+        private final long skippedBatches;
+        private final long totalCents;
+        private final long nanos;
+
+        Result(long postings, long rejected, long batches, long skippedBatches, long totalCents, long nanos) {
+            this.postings = postings;
+            this.rejected = rejected;
+            this.batches = batches;
+            this.skippedBatches = skippedBatches;
+            this.totalCents = totalCents;
+            this.nanos = nanos;
+        }
+
+        public long getPostings() {
+            return postings;
+        }
+
+        public long getRejected() {
+            return rejected;
+        }
+
+        public long getBatches() {
+            return batches;
+        }
+
+        // Batches already posted by an earlier run of the same file
+        public long getSkippedBatches() {
+            return skippedBatches;
+        }
+
+        public long getTotalCents() {
+            return totalCents;
+        }
+
+        public long getNanos() {
+            return nanos;
+        }
+
+        public double postingsPerSecond() {
+            return postings / (nanos / 1e9);
+        }
+    }
+
+    // Postings on their way to one worker (count == -1 marks the end of input)
+    private static final class Batch {
+        final long[] accountNumbers;
+        final long[] cents;
+        int count;
+
+        Batch(int size) {
+            accountNumbers = new long[size];
+            cents = new long[size];
+        }
+    }
+
+    public BulkPoster(DurableLedger ledger, int workers, int batchSize) {
+        if (workers < 1 || batchSize < 1) {
+            throw new IllegalArgumentException("workers and batch size must be at least 1");
+        }
+        this.ledger = ledger;
+        this.workers = workers;
+        this.batchSize = batchSize;
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length < 1) {
+            System.out.println("Usage: java BulkPoster <batch file> [workers] [batch size]");
+            return;
+        }
+        Path file = Path.of(args[0]);
+        int workers = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        int batchSize = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_BATCH_SIZE;
+
+        try (TransactionJournal journal = TransactionJournal.open(Path.of("data", "journal"));
+             DurableLedger ledger = ATM.openLedger(journal)) {
+            Result result = new BulkPoster(ledger, workers, batchSize).post(file);
+            System.out.printf("Posted: %d | Rejected: %d | Batches: %d | Already posted: %d | Total: PHP %.2f%n",
+                    result.getPostings(), result.getRejected(), result.getBatches(), result.getSkippedBatches(),
+                    Account.toPesos(result.getTotalCents()));
+            System.out.printf("Time: %.1f s | Throughput: %.0f postings/s | Peak heap: %d MB%n",
+                    result.getNanos() / 1e9, result.postingsPerSecond(), peakHeapBytes() / (1024 * 1024));
+        }
+    }
+
+    // Posts every entry of the file and returns once all batches are durable
+    public Result post(Path file) throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        boolean csv = file.getFileName().toString().toLowerCase().endsWith(".csv");
+        String run = digest(file) + " " + workers + " " + batchSize;
+
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        Worker[] pool = new Worker[workers];
+        for (int i = 0; i < workers; i++) {
+            pool[i] = new Worker(i, run, failure);
+            pool[i].start();
+        }
+        Batch[] filling = new Batch[workers];
+        for (int i = 0; i < workers; i++) {
+            filling[i] = pool[i].free.take();
+        }
+
+        long malformed = 0;
+        try (InputStream in = Files.newInputStream(file)) {
+            Reader reader = csv ? new CsvReader(in) : new BinaryReader(in);
+            long[] entry = new long[2];
+            while (true) {
+                int status = reader.next(entry);
+                if (status < 0) {
+                    break;
+                }
+                if (status == 0) {
+                    malformed++;
+                    continue;
+                }
+                int owner = partitionOf(entry[0]);
+                Batch batch = filling[owner];
+                batch.accountNumbers[batch.count] = entry[0];
+                batch.cents[batch.count] = entry[1];
+                if (++batch.count == batchSize) {
+                    pool[owner].queue.put(batch);
+                    filling[owner] = pool[owner].free.take();
+                    if (failure.get() != null) {
+                        break;
+                    }
+                }
+            }
+        } finally {
+            for (int i = 0; i < workers; i++) {
+                if (filling[i].count > 0) {
+                    pool[i].queue.put(filling[i]);
+                }
+                Batch end = new Batch(0);
+                end.count = -1;
+                pool[i].queue.put(end);
+            }
+            for (Worker worker : pool) {
+                worker.join();
+            }
+        }
+        if (failure.get() != null) {
+            throw new IOException("Bulk posting failed", failure.get());
+        }
+
+        long postings = 0;
+        long rejected = malformed;
+        long batches = 0;
+        long skipped = 0;
+        long totalCents = 0;
+        for (Worker worker : pool) {
+            postings += worker.postings;
+            rejected += worker.rejected;
+            batches += worker.batches;
+            skipped += worker.skipped;
+            totalCents += worker.totalCents;
+        }
+        return new Result(postings, rejected, batches, skipped, totalCents, System.nanoTime() - start);
+    }
+
+    // SHA-256 of the file's contents, in hex
+    private static String digest(Path file) throws IOException {
+        MessageDigest sha;
+        try {
+            sha = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+        try (InputStream in = Files.newInputStream(file)) {
+            byte[] buffer = new byte[1 << 20];
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                sha.update(buffer, 0, read);
+            }
+        }
+        return HexFormat.of().formatHex(sha.digest());
+    }
+
+    // Same account -> same worker, spread evenly even for sequential account numbers
+    private int partitionOf(long accountNumber) {
+        long mixed = accountNumber * 0x9E3779B97F4A7C15L;
+        return (int) Math.floorMod(mixed ^ (mixed >>> 32), (long) workers);
+    }
+
+    // Highest heap use seen so far (sum of the heap pools' peaks)
+    static long peakHeapBytes() {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+        return peak;
+    }
+
+    // Credits the batches of one partition
+    private final class Worker extends Thread {
+        final BlockingQueue<Batch> queue = new ArrayBlockingQueue<>(BUFFERS_PER_WORKER);
+        final BlockingQueue<Batch> free = new ArrayBlockingQueue<>(BUFFERS_PER_WORKER);
+        private final String keyPrefix;
+        private final AtomicReference<Throwable> failure;
+        private final Account[] resolved = new Account[batchSize];
+        private final long[] amounts = new long[batchSize];
+        long postings;
+        long rejected;
+        long batches;
+        long skipped;
+        long totalCents;
+        private long received; // batches taken from the queue, numbering them for their keys
+
+        Worker(int index, String run, AtomicReference<Throwable> failure) {
+            super("bulk-poster-" + index);
+            this.keyPrefix = run + " " + index + " ";
+            this.failure = failure;
+            for (int i = 0; i < BUFFERS_PER_WORKER; i++) {
+                free.add(new Batch(batchSize));
+            }
+        }
+
+        @Override
+        public void run() {
+            AccountRepository accounts = ledger.accounts();
+            try {
+                while (true) {
+                    Batch batch = queue.take();
+                    if (batch.count < 0) {
+                        return;
+                    }
+                    long batchKey = DurableLedger.batchKey(keyPrefix + received++);
+                    int accepted = 0;
+                    long batchCents = 0;
+                    for (int i = 0; i < batch.count; i++) {
+                        Account account = accounts.findByNumber(batch.accountNumbers[i]);
+                        long cents = batch.cents[i];
+                        if (account == null || cents <= 0 || account.getCurrency() != Currency.PHP) {
+                            rejected++;
+                            continue;
+                        }
+                        resolved[accepted] = account;
+                        amounts[accepted] = cents;
+                        batchCents += cents;
+                        accepted++;
+                    }
+                    if (failure.get() == null
+                            && !ledger.postBatch(batchKey, resolved, amounts, accepted, TransactionType.CREDIT)) {
+                        skipped++;
+                    } else {
+                        postings += accepted;
+                        totalCents += batchCents;
+                        batches++;
+                    }
+                    batch.count = 0;
+                    free.put(batch);
+                }
+            } catch (IOException | RuntimeException e) {
+                failure.compareAndSet(null, e);
+                drain();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        // After a failure, keep handing buffers back so the reader can finish
+        private void drain() {
+            try {
+                while (true) {
+                    Batch batch = queue.take();
+                    if (batch.count < 0) {
+                        return;
+                    }
+                    batch.count = 0;
+                    free.put(batch);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    // Reads one posting into entry {account number, centavos}:
+    // returns 1 for a posting, 0 for a malformed one, -1 at the end of input
+    private interface Reader {
+        int next(long[] entry) throws IOException;
+    }
+
+    // Parses bytes straight from a buffer (no String per line)
+    private static final class CsvReader implements Reader {
+        private final InputStream in;
+        private final byte[] buffer = new byte[1 << 20];
+        private int position;
+        private int limit;
+        private boolean firstLine = true;
+
+        CsvReader(InputStream in) {
+            this.in = in;
+        }
+
+        @Override
+        public int next(long[] entry) throws IOException {
+            while (true) {
+                int c = peek();
+                if (c < 0) {
+                    return -1;
+                }
+                if (c == '\n' || c == '\r') {
+                    position++;
+                    continue; // blank line
+                }
+                if (firstLine) {
+                    firstLine = false;
+                    if (c < '0' || c > '9') {
+                        skipLine();
+                        continue; // header
+                    }
+                }
+                return parseLine(entry);
+            }
+        }
+
+        private int parseLine(long[] entry) throws IOException {
+            long accountNumber = 0;
+            int digits = 0;
+            int c;
+            while ((c = peek()) >= '0' && c <= '9' && digits < 18) {
+                accountNumber = accountNumber * 10 + (c - '0');
+                digits++;
+                position++;
+            }
+            if (digits == 0 || peek() != ',') {
+                skipLine();
+                return 0;
+            }
+            position++;
+
+            long pesos = 0;
+            digits = 0;
+            while ((c = peek()) >= '0' && c <= '9' && digits < 15) {
+                pesos = pesos * 10 + (c - '0');
+                digits++;
+                position++;
+            }
+            long centavos = 0;
+            if (peek() == '.') {
+                position++;
+                int decimals = 0;
+                while ((c = peek()) >= '0' && c <= '9' && decimals < 2) {
+                    centavos = centavos * 10 + (c - '0');
+                    decimals++;
+                    position++;
+                }
+                if (decimals == 1) {
+                    centavos *= 10;
+                }
+            }
+            c = peek();
+            if (digits == 0 || c >= 0 && c != '\n' && c != '\r') {
+                skipLine();
+                return 0;
+            }
+            entry[0] = accountNumber;
+            entry[1] = pesos * 100 + centavos;
+            return 1;
+        }
+
+        private void skipLine() throws IOException {
+            int c;
+            while ((c = peek()) >= 0 && c != '\n') {
+                position++;
+            }
+        }
+
+        private int peek() throws IOException {
+            if (position == limit) {
+                limit = in.read(buffer, 0, buffer.length);
+                position = 0;
+                if (limit <= 0) {
+                    limit = 0;
+                    return -1;
+                }
+            }
+            return buffer[position] & 0xFF;
+        }
+    }
+
+    private static final class BinaryReader implements Reader {
+        private final DataInputStream in;
+
+        BinaryReader(InputStream in) {
+            this.in = new DataInputStream(new BufferedInputStream(in, 1 << 20));
+        }
+
+        @Override
+        public int next(long[] entry) throws IOException {
+            try {
+                entry[0] = in.readLong();
+            } catch (EOFException e) {
+                return -1;
+            }
+            entry[1] = in.readLong(); // a half record at the end is an error, not the end
+            return 1;
+        }
+    }
+}
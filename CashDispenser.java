@@ -0,0 +1,267 @@
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReference;
+
+// CashDispenser models the note cassettes inside the ATM
+// A withdrawal is planned as the fewest notes the cassettes can actually pay
+// (at most MAX_NOTES, like a real dispenser), searched largest note first
+// with a bound that cuts off any branch that cannot beat the best plan so far
+// The note counts are an immutable Inventory swapped with compare-and-set,
+// so terminals dispensing at the same time never hand out the same note
+// Each Inventory remembers the plans it already worked out, so asking again
+// (e.g. the Fast Cash screen checking its amounts) is an array lookup
+
+
+public class CashDispenser {
+    public static final int MAX_NOTES = 40;
+
+    private final long[] denominations; // centavos, largest first
+    private final long unitCents;       // every dispensable amount is a multiple of this
+    private final int maxUnits;         // MAX_NOTES of the largest note, in units
+    private final AtomicReference<Inventory> inventory;
+
+    // Notes handed out for one withdrawal
+    public static final class Plan {
+        private final long[] denominations;
+        private final int[] notes;
+        private final long amountCents;
+
+        Plan(long[] denominations, int[] notes, long amountCents) {
+            this.denominations = denominations;
+            this.notes = notes;
+            this.amountCents = amountCents;
+        }
+
+        public long getAmountCents() {
+            return amountCents;
+        }
+
+        // Notes of each denomination (same order as CashDispenser.denominations())
+        public int[] getNotes() {
+            return notes.clone();
+        }
+
+        public int totalNotes() {
+            int total = 0;
+            for (int count : notes) {
+                total += count;
+            }
+            return total;
+        }
+
+        // e.g. "2 x PHP 1000, 1 x PHP 500"
+        public String describe() {
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < notes.length; i++) {
+                if (notes[i] > 0) {
+                    if (sb.length() > 0) {
+                        sb.append(", ");
+                    }
+                    sb.append(notes[i]).append(" x PHP ").append(denominations[i] / 100);
+                }
+            }
+            return sb.toString();
+        }
+    }
+
+    // Note counts at one moment; never changed after it is published
+    private final class Inventory {
+        final int[] counts;
+        private volatile Plan[] memo; // index = amount in units; NOT_DISPENSABLE when no plan exists
+
+        Inventory(int[] counts) {
+            this.counts = counts;
+        }
+
+        Plan plan(long cents) {
+            if (cents <= 0 || cents % unitCents != 0) {
+                return null;
+            }
+            long units = cents / unitCents;
+            if (units > maxUnits) {
+                return null;
+            }
+            Plan[] remembered = memo;
+            if (remembered == null) {
+                remembered = new Plan[maxUnits + 1];
+                memo = remembered;
+            }
+            Plan plan = remembered[(int) units];
+            if (plan == null) {
+                plan = solve(counts, cents);
+                remembered[(int) units] = plan == null ? NOT_DISPENSABLE : plan; // racing writers store equal plans
+            }
+            return plan == NOT_DISPENSABLE ? null : plan;
+        }
+
+        Inventory minus(Plan plan) {
+            int[] next = counts.clone();
+            for (int i = 0; i < next.length; i++) {
+                next[i] -= plan.notes[i];
+            }
+            return new Inventory(next);
+        }
+    }
+
+    private static final Plan NOT_DISPENSABLE = new Plan(new long[0], new int[0], 0);
+
+    // denominationsPesos and noteCounts: one entry per cassette
+    public CashDispenser(int[] denominationsPesos, int[] noteCounts) {
+        if (denominationsPesos.length == 0 || denominationsPesos.length != noteCounts.length) {
+            throw new IllegalArgumentException("Need one note count per denomination");
+        }
+        Integer[] order = new Integer[denominationsPesos.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Integer.compare(denominationsPesos[b], denominationsPesos[a]));
+        denominations = new long[order.length];
+        int[] counts = new int[order.length];
+        long gcd = 0;
+        for (int i = 0; i < order.length; i++) {
+            if (denominationsPesos[order[i]] <= 0 || noteCounts[order[i]] < 0) {
+                throw new IllegalArgumentException("Denominations must be positive and note counts not negative");
+            }
+            denominations[i] = denominationsPesos[order[i]] * 100L;
+            counts[i] = noteCounts[order[i]];
+            gcd = gcd(gcd, denominations[i]);
+        }
+        unitCents = gcd;
+        maxUnits = Math.toIntExact(MAX_NOTES * denominations[0] / unitCents);
+        inventory = new AtomicReference<>(new Inventory(counts));
+    }
+
+    // PHP 1000, 500, 200 and 100 cassettes with 2000 notes each
+    public static CashDispenser standard() {
+        return new CashDispenser(new int[] {1000, 500, 200, 100}, new int[] {2000, 2000, 2000, 2000});
+    }
+
+    // Note values in centavos, largest first
+    public long[] denominations() {
+        return denominations.clone();
+    }
+
+    // Smallest step between dispensable amounts (centavos)
+    public long unitCents() {
+        return unitCents;
+    }
+
+    // Notes left in each cassette (same order as denominations())
+    public int[] noteCounts() {
+        return inventory.get().counts.clone();
+    }
+
+    // The plan that would be used right now, or null if the amount cannot be paid
+    public Plan plan(long cents) {
+        return inventory.get().plan(cents);
+    }
+
+    public boolean canDispense(long cents) {
+        return plan(cents) != null;
+    }
+
+    // The candidates that can be paid right now, in the same order
+    public long[] dispensable(long[] candidates) {
+        Inventory current = inventory.get();
+        long[] result = new long[candidates.length];
+        int count = 0;
+        for (long candidate : candidates) {
+            if (current.plan(candidate) != null) {
+                result[count++] = candidate;
+            }
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    // Takes the notes for this amount out of the cassettes; null if it cannot be paid
+    public Plan dispense(long cents) {
+        while (true) {
+            Inventory current = inventory.get();
+            Plan plan = current.plan(cents);
+            if (plan == null) {
+                return null;
+            }
+            if (inventory.compareAndSet(current, current.minus(plan))) {
+                return plan;
+            }
+        }
+    }
+
+    // Puts the notes of a plan back (the withdrawal did not go through)
+    public void restore(Plan plan) {
+        Inventory current;
+        int[] next;
+        do {
+            current = inventory.get();
+            next = current.counts.clone();
+            for (int i = 0; i < next.length; i++) {
+                next[i] += plan.notes[i];
+            }
+        } while (!inventory.compareAndSet(current, new Inventory(next)));
+    }
+
+    // Refills one cassette (index in denominations() order) to this many notes
+    public void load(int cassette, int notes) {
+        if (notes < 0) {
+            throw new IllegalArgumentException("Note count must not be negative");
+        }
+        Inventory current;
+        int[] next;
+        do {
+            current = inventory.get();
+            next = current.counts.clone();
+            next[cassette] = notes;
+        } while (!inventory.compareAndSet(current, new Inventory(next)));
+    }
+
+    // Fewest notes (at most MAX_NOTES) that add up to cents with these counts, or null
+    private Plan solve(int[] counts, long cents) {
+        int[] best = new int[denominations.length];
+        int[] current = new int[denominations.length];
+        int bestNotes = search(counts, 0, cents, 0, current, best, MAX_NOTES + 1);
+        return bestNotes > MAX_NOTES ? null : new Plan(denominations, best, cents);
+    }
+
+    // Depth-first over cassettes, most notes of the largest denomination first;
+    // returns the best note count found (bestNotes if nothing better)
+    private int search(int[] counts, int index, long remaining, int notesSoFar, int[] current, int[] best, int bestNotes) {
+        if (remaining == 0) {
+            if (notesSoFar < bestNotes) {
+                System.arraycopy(current, 0, best, 0, current.length);
+                return notesSoFar;
+            }
+            return bestNotes;
+        }
+        if (index == denominations.length) {
+            return bestNotes;
+        }
+        long note = denominations[index];
+        // even paying the rest with this (the largest remaining) note cannot beat the best plan
+        if (notesSoFar + (remaining + note - 1) / note >= bestNotes) {
+            return bestNotes;
+        }
+        int most = (int) Math.min(counts[index], remaining / note);
+        if (index == denominations.length - 1) {
+            if (remaining % note == 0 && remaining / note <= most) {
+                current[index] = most;
+                bestNotes = search(counts, index + 1, 0, notesSoFar + most, current, best, bestNotes);
+                current[index] = 0;
+            }
+            return bestNotes;
+        }
+        for (int n = most; n >= 0; n--) {
+            current[index] = n;
+            bestNotes = search(counts, index + 1, remaining - n * note, notesSoFar + n, current, best, bestNotes);
+        }
+        current[index] = 0;
+        return bestNotes;
+    }
+
+    private static long gcd(long a, long b) {
+        while (b != 0) {
+            long t = a % b;
+            a = b;
+            b = t;
+        }
+        return a;
+    }
+}
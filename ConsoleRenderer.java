@@ -0,0 +1,182 @@
+import java.io.PrintStream;
+
+// ConsoleRenderer draws the ATM screens that are shown over and over
+// The fixed parts of the main menu and login menu are built once and reused;
+// only the balance is written per refresh, straight into a reused StringBuilder
+// The login menu lists accounts by number and name read from the repository
+// without making them; a bank with more than LOGIN_MENU_MAX_ACCOUNTS asks for
+// an account number instead (loginPrompt)
+// Color codes are skipped by a small hand-written scanner instead of a regex
+// Each screen is handed to the stream as one string; the stream is buffered
+// and flushed when the session waits for input, so a screen costs one write
+
+
+public class ConsoleRenderer {
+    // Most accounts the login menu lists; past this the ATM asks for an account number
+    public static final int LOGIN_MENU_MAX_ACCOUNTS = 20;
+
+    // ANSI Color codes
+    public static final String BLUE_BACKGROUND = "\u001B[44m";
+    public static final String PURPLE = "\u001B[35m";
+    public static final String RED = "\u001B[31m";
+    public static final String GREEN = "\u001B[32m";
+    public static final String BLUE = "\u001B[36m";
+    public static final String WHITE = "\u001B[37m";
+    public static final String RESET = "\u001B[0m";
+
+    private static final String CLEAR = "\033[H\033[2J";
+    private static final String NL = System.lineSeparator();
+
+    // Main menu, split around the balance amount
+    private static final String MAIN_MENU_TOP = NL + BLUE_BACKGROUND + "===================================" + NL
+            + "        GridLine Bank ATM          " + NL
+            + "===================================" + RESET + NL
+            + PURPLE + "Current Balance: " + RESET + GREEN;
+    private static final String MAIN_MENU_BOTTOM = NL + RESET
+            + BLUE + "---- ATM Menu ----" + RESET + NL
+            + BLUE + "[1] Check Balance" + RESET + NL
+            + BLUE + "[2] Deposit" + RESET + NL
+            + BLUE + "[3] Withdraw" + RESET + NL
+            + BLUE + "[4] Transaction History" + RESET + NL
+            + BLUE + "[5] Change PIN" + RESET + NL
+            + BLUE + "[6] Fast Cash" + RESET + NL
+            + BLUE + "[7] Transfer Funds" + RESET + NL
+            + BLUE + "[8] Logout" + RESET + NL
+            + BLUE + "-------------------" + RESET + NL;
+
+    private static final String LOGIN_PROMPT = NL + BLUE + "=========================" + RESET + NL
+            + WHITE + "Log in with your account number" + RESET + NL
+            + BLUE + "=========================" + RESET + NL;
+
+    // Login menu for the current number of accounts (accounts are never removed)
+    private static volatile String loginMenu = "";
+    private static volatile int loginMenuAccounts = -1;
+
+    private final PrintStream out;
+    private final boolean windowsConsole;
+    private final StringBuilder frame = new StringBuilder(1024);
+
+    public ConsoleRenderer(PrintStream out, boolean windowsConsole) {
+        this.out = out;
+        this.windowsConsole = windowsConsole;
+    }
+
+    // Clears the screen (ANSI codes; the cls command on a Windows console)
+    public void clearScreen() {
+        if (!windowsConsole) {
+            out.print(CLEAR);
+            return;
+        }
+        try {
+            out.flush();
+            new ProcessBuilder("cmd", "/c", "cls").inheritIO().start().waitFor();
+        } catch (Exception e) {
+            // Ignore errors
+        }
+    }
+
+    public void mainMenu(Currency currency, long balanceMinor) {
+        frame.setLength(0);
+        frame.append(MAIN_MENU_TOP).append(currency.name()).append(' ');
+        currency.appendAmount(frame, balanceMinor);
+        frame.append(MAIN_MENU_BOTTOM);
+        out.append(frame);
+    }
+
+    public void loginMenu(AccountRepository accounts) {
+        int count = accounts.size();
+        String menu = loginMenu;
+        if (loginMenuAccounts != count) {
+            menu = buildLoginMenu(accounts, count);
+            loginMenu = menu;
+            loginMenuAccounts = count;
+        }
+        out.print(menu);
+    }
+
+    // Login screen of a bank too large to list its accounts
+    public void loginPrompt() {
+        out.print(LOGIN_PROMPT);
+    }
+
+    // Overloaded version without color
+    public void printWithBorder(String text) {
+        printWithBorder(text, WHITE); // default white
+    }
+
+    // prints texts with border with color
+    public void printWithBorder(String text, String color) {
+        // Find the longest line (ignoring color codes) to size the border correctly
+        int maxLength = 0;
+        for (int start = 0; start <= text.length(); ) {
+            int end = lineEnd(text, start);
+            maxLength = Math.max(maxLength, visibleLength(text, start, end));
+            start = end + 1;
+        }
+
+        frame.setLength(0);
+        appendBorder(frame, color, maxLength);
+        for (int start = 0; start <= text.length(); ) {
+            int end = lineEnd(text, start);
+            frame.append(color).append("|   ").append(RESET).append(text, start, end);
+            appendRepeated(frame, ' ', maxLength - visibleLength(text, start, end));
+            frame.append(color).append("  |").append(RESET).append(NL);
+            start = end + 1;
+        }
+        appendBorder(frame, color, maxLength);
+        out.append(frame);
+    }
+
+    // Number of characters that show on screen, skipping ANSI color codes (ESC [ digits/; m)
+    public static int visibleLength(CharSequence text, int start, int end) {
+        int length = 0;
+        int i = start;
+        while (i < end) {
+            if (text.charAt(i) == '\u001B' && i + 1 < end && text.charAt(i + 1) == '[') {
+                int j = i + 2;
+                while (j < end && (Character.isDigit(text.charAt(j)) || text.charAt(j) == ';')) {
+                    j++;
+                }
+                if (j < end && text.charAt(j) == 'm') {
+                    i = j + 1;
+                    continue;
+                }
+            }
+            length++;
+            i++;
+        }
+        return length;
+    }
+
+    private static String buildLoginMenu(AccountRepository accounts, int count) {
+        int quitChoice = count + 1;
+        StringBuilder sb = new StringBuilder(128 + count * 48);
+        sb.append(NL);
+        sb.append(BLUE).append("=========================").append(RESET).append(NL);
+        sb.append(WHITE).append("Choose account to log in:").append(RESET).append(NL);
+        for (int i = 0; i < count; i++) {
+            sb.append(WHITE).append('[').append(i + 1).append("] ").append(accounts.nameAt(i))
+                    .append(" (#").append(accounts.numberAt(i)).append(')').append(RESET).append(NL);
+        }
+        sb.append(WHITE).append('[').append(quitChoice).append("] Quit ATM").append(RESET).append(NL);
+        sb.append(BLUE).append("=========================").append(RESET).append(NL);
+        return sb.toString();
+    }
+
+    private static int lineEnd(String text, int start) {
+        int end = text.indexOf('\n', start);
+        return end < 0 ? text.length() : end;
+    }
+
+    private static void appendBorder(StringBuilder sb, String color, int maxLength) {
+        sb.append(color).append('+');
+        appendRepeated(sb, '=', maxLength + 5);
+        sb.append('+').append(RESET).append(NL);
+    }
+
+    private static void appendRepeated(StringBuilder sb, char c, int count) {
+        for (int i = 0; i < count; i++) {
+            sb.append(c);
+        }
+    }
+}
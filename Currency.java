@@ -0,0 +1,89 @@
+// Currencies an account can hold
+// Each has its ISO 4217 numeric code (stored in snapshots, never change it)
+// and the digits of its minor unit: 2 for centavos and cents, 0 for yen
+// Amounts are always whole minor units in a long; doubles are only used to
+// read what a customer types and never for conversion (see FxRates)
+
+
+public enum Currency {
+    PHP(608, 2),
+    USD(840, 2),
+    EUR(978, 2),
+    GBP(826, 2),
+    SGD(702, 2),
+    JPY(392, 0);
+
+    private static final Currency[] VALUES = values();
+
+    private final int numericCode;
+    private final int digits;
+    private final long unit;
+
+    Currency(int numericCode, int digits) {
+        this.numericCode = numericCode;
+        this.digits = digits;
+        long u = 1;
+        for (int i = 0; i < digits; i++) {
+            u *= 10;
+        }
+        this.unit = u;
+    }
+
+    public int numericCode() {
+        return numericCode;
+    }
+
+    // Digits after the decimal point
+    public int digits() {
+        return digits;
+    }
+
+    // Minor units in one major unit (100 for PHP, 1 for JPY)
+    public long unit() {
+        return unit;
+    }
+
+    // Rounds a typed amount (e.g. 1500.25) to minor units
+    public long toMinor(double amount) {
+        return Math.round(amount * unit);
+    }
+
+    // For display only
+    public double toMajor(long minor) {
+        return (double) minor / unit;
+    }
+
+    // e.g. "USD 1234.50" or "JPY 1500"
+    public String format(long minor) {
+        StringBuilder sb = new StringBuilder(24);
+        sb.append(name()).append(' ');
+        appendAmount(sb, minor);
+        return sb.toString();
+    }
+
+    // Appends minor units as a decimal with this currency's digits, like "%.2f" for PHP
+    public void appendAmount(StringBuilder sb, long minor) {
+        if (minor < 0) {
+            sb.append('-');
+            minor = -minor;
+        }
+        sb.append(minor / unit);
+        if (digits > 0) {
+            sb.append('.');
+            long fraction = minor % unit;
+            for (long place = unit / 10; place > 1 && fraction < place; place /= 10) {
+                sb.append('0');
+            }
+            sb.append(fraction);
+        }
+    }
+
+    public static Currency fromNumericCode(int code) {
+        for (Currency currency : VALUES) {
+            if (currency.numericCode == code) {
+                return currency;
+            }
+        }
+        throw new IllegalArgumentException("Unknown currency code: " + code);
+    }
+}
@@ -0,0 +1,738 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+// DurableLedger applies balance and PIN changes and makes them survive a restart
+// Every change is applied in memory, appended to the write-ahead log, and
+// only confirmed once the log record is on disk (shared fsync, see WriteAheadLog)
+// A background checkpoint writes a snapshot every minute and deletes the
+// log files it covers, so recovery = load snapshot + replay the log tail
+// Each change also goes into the TransactionJournal, in the same step as its
+// log record and in log order: the log forces the journal before each fsync
+// (see WriteAheadLog.beforeWrite), and recovery drops the journal records of
+// changes the log lost, so the history always explains the balances
+// Bulk credits (see BulkPoster) are written to a batch file in bulk/ and
+// logged as one record per batch that points at that file
+// A batch posted under a key (see batchKey) logs the key with it, and each
+// checkpoint saves the posted keys to posted.bin, so a rerun of the same
+// batch after a crash is skipped instead of paid twice
+// Amounts are in the minor units of each account's own currency; a transfer
+// between currencies logs both the debit and the converted credit
+// A change made under an idempotency key logs the key with it, and each
+// checkpoint saves the logged keys to requests.bin (see IdempotencyCache),
+// so requests() still knows them after a restart
+// On a shard (see ShardNode) it is also one side of two-phase transfers:
+// prepareDebit takes the amount out and holds it, prepareCredit only notes
+// it, and commitPrepared or abortPrepared settles it; transactions still in
+// doubt are saved to prepared.bin by each checkpoint and survive a restart
+
+
+public class DurableLedger implements AutoCloseable {
+    private static final long CHECKPOINT_INTERVAL_SECONDS = 60;
+
+    private final AccountRepository accounts;
+    private final TransactionJournal journal;
+    private final WriteAheadLog wal;
+    private final Path snapshotFile;
+    private final IdempotencyCache requests;
+    private final Path requestsFile;
+    // Prepared two-phase transactions by id: {account number, amount, 1 if a debit}
+    private final ConcurrentHashMap<Long, long[]> prepared;
+    private final Path preparedFile;
+    // Keys of the batches posted so far (see postBatch)
+    private final Set<Long> posted;
+    private final Path postedFile;
+    private final TransferService transferService = new TransferService();
+    // Changes hold the read side; a checkpoint holds the write side while it copies balances
+    private final ReentrantReadWriteLock checkpointLock = new ReentrantReadWriteLock();
+    private final ScheduledExecutorService checkpointer;
+    private long snapshotSequence; // -1 until the first snapshot exists
+    private final Path bulkDirectory;
+    private final AtomicLong nextBatchId;
+    // {log sequence, batch id} of batch files still needed for recovery
+    private final ConcurrentLinkedQueue<long[]> liveBatchFiles = new ConcurrentLinkedQueue<>();
+
+    private DurableLedger(AccountRepository accounts, TransactionJournal journal, WriteAheadLog wal, Path snapshotFile,
+                          long snapshotSequence, Path bulkDirectory, long nextBatchId, IdempotencyCache requests,
+                          Path requestsFile, ConcurrentHashMap<Long, long[]> prepared, Path preparedFile,
+                          Set<Long> posted, Path postedFile) {
+        this.accounts = accounts;
+        this.journal = journal;
+        this.wal = wal;
+        this.snapshotFile = snapshotFile;
+        this.requests = requests;
+        this.requestsFile = requestsFile;
+        this.prepared = prepared;
+        this.preparedFile = preparedFile;
+        this.posted = posted;
+        this.postedFile = postedFile;
+        this.snapshotSequence = snapshotSequence;
+        this.bulkDirectory = bulkDirectory;
+        this.nextBatchId = new AtomicLong(nextBatchId);
+        this.checkpointer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "ledger-checkpoint");
+            thread.setDaemon(true);
+            return thread;
+        });
+        checkpointer.scheduleWithFixedDelay(this::checkpointQuietly,
+                CHECKPOINT_INTERVAL_SECONDS, CHECKPOINT_INTERVAL_SECONDS, TimeUnit.SECONDS);
+    }
+
+    // Recovers the ledger from dataDirectory (snapshot + log), or starts from
+    // the default accounts when nothing has been saved yet
+    public static DurableLedger open(Path dataDirectory, TransactionJournal journal, Supplier<AccountRepository> defaults) throws IOException {
+        return open(dataDirectory, journal, defaults, false);
+    }
+
+    // mapped: map the snapshot and make each account on first use (SnapshotStore.map)
+    // instead of making them all now, so opening takes the same time for any number of accounts
+    public static DurableLedger open(Path dataDirectory, TransactionJournal journal, Supplier<AccountRepository> defaults,
+                                     boolean mapped) throws IOException {
+        Path snapshotFile = dataDirectory.resolve("snapshot.bin");
+        SnapshotStore.Loaded snapshot = mapped
+                ? SnapshotStore.map(snapshotFile, journal)
+                : SnapshotStore.load(snapshotFile, journal);
+        AccountRepository accounts = snapshot != null ? snapshot.accounts : defaults.get();
+        long snapshotSequence = snapshot != null ? snapshot.sequence : -1;
+
+        Path requestsFile = dataDirectory.resolve("requests.bin");
+        IdempotencyCache requests = new IdempotencyCache(IdempotencyCache.DEFAULT_CAPACITY, IdempotencyCache.DEFAULT_TTL_MILLIS);
+        long now = System.currentTimeMillis();
+        requests.load(requestsFile, now);
+        Path preparedFile = dataDirectory.resolve("prepared.bin");
+        ConcurrentHashMap<Long, long[]> prepared = readPrepared(preparedFile);
+        Path postedFile = dataDirectory.resolve("posted.bin");
+        Set<Long> posted = readPosted(postedFile);
+
+        Path bulkDirectory = dataDirectory.resolve("bulk");
+        Files.createDirectories(bulkDirectory);
+        Recovery recovery = new Recovery(accounts, bulkDirectory, requests, now, prepared, posted);
+        WriteAheadLog wal = WriteAheadLog.open(dataDirectory.resolve("wal"), Math.max(snapshotSequence, 0), recovery);
+        List<long[]> replayedBatches = recovery.replayedBatches;
+        // Changes journaled while their log record was still buffered never happened
+        long dropped = journal.dropAfter(wal.lastSequence());
+        if (dropped > 0) {
+            System.err.println("Dropped " + dropped + " journal records of changes lost from the write-ahead log");
+        }
+        wal.beforeWrite(journal::force);
+
+        // Batch files the log no longer points at are covered by the snapshot,
+        // or were never confirmed (crash before their log record was written)
+        Set<Long> needed = new HashSet<>();
+        long nextBatchId = 1;
+        for (long[] batch : replayedBatches) {
+            needed.add(batch[1]);
+        }
+        for (long batchId : batchIds(bulkDirectory)) {
+            nextBatchId = Math.max(nextBatchId, batchId + 1);
+            if (!needed.contains(batchId)) {
+                Files.deleteIfExists(batchFile(bulkDirectory, batchId));
+            }
+        }
+        DurableLedger ledger = new DurableLedger(accounts, journal, wal, snapshotFile, snapshotSequence, bulkDirectory, nextBatchId,
+                requests, requestsFile, prepared, preparedFile, posted, postedFile);
+        ledger.liveBatchFiles.addAll(replayedBatches);
+        return ledger;
+    }
+
+    public AccountRepository accounts() {
+        return accounts;
+    }
+
+    // Requests recently made under an idempotency key (see BankingService.execute)
+    public IdempotencyCache requests() {
+        return requests;
+    }
+
+    public void deposit(Account account, long cents) {
+        deposit(account, cents, null);
+    }
+
+    // request: the idempotency cache entry to log with the change, or null
+    public void deposit(Account account, long cents, IdempotencyCache.Entry request) {
+        long sequence;
+        checkpointLock.readLock().lock();
+        try {
+            account.depositCents(cents);
+            synchronized (journal) {
+                sequence = log(request, cents, account,
+                        WriteAheadLog.DEPOSIT, account.getAccountNumber(), cents, 0);
+                journal.append(account.getAccountNumber(), TransactionType.DEPOSIT, cents, 0, sequence);
+            }
+        } finally {
+            checkpointLock.readLock().unlock();
+        }
+        wal.awaitDurable(sequence);
+    }
+
+    // Returns false (and logs nothing) if the balance is too low
+    public boolean withdraw(Account account, long cents) {
+        return withdraw(account, cents, TransactionType.WITHDRAWAL, null);
+    }
+
+    public boolean withdraw(Account account, long cents, IdempotencyCache.Entry request) {
+        return withdraw(account, cents, TransactionType.WITHDRAWAL, request);
+    }
+
+    // type: how the journal shows it (WITHDRAWAL or FAST_CASH)
+    public boolean withdraw(Account account, long cents, TransactionType type, IdempotencyCache.Entry request) {
+        long sequence;
+        checkpointLock.readLock().lock();
+        try {
+            if (!account.withdrawCents(cents)) {
+                return false;
+            }
+            synchronized (journal) {
+                sequence = log(request, cents, account,
+                        WriteAheadLog.WITHDRAW, account.getAccountNumber(), cents, 0);
+                journal.append(account.getAccountNumber(), type, cents, 0, sequence);
+            }
+        } finally {
+            checkpointLock.readLock().unlock();
+        }
+        wal.awaitDurable(sequence);
+        return true;
+    }
+
+    // Atomic transfer (see TransferService); false if the sender's balance is too low
+    public boolean transfer(Account from, Account to, long cents) {
+        return transfer(from, to, cents, cents);
+    }
+
+    // Atomic transfer that credits a different amount (the debit converted to the receiver's currency)
+    public boolean transfer(Account from, Account to, long debitMinor, long creditMinor) {
+        return transfer(from, to, debitMinor, creditMinor, null);
+    }
+
+    public boolean transfer(Account from, Account to, long debitMinor, long creditMinor, IdempotencyCache.Entry request) {
+        long sequence;
+        checkpointLock.readLock().lock();
+        try {
+            if (!transferService.transfer(from, to, debitMinor, creditMinor)) {
+                return false;
+            }
+            synchronized (journal) {
+                if (debitMinor == creditMinor) {
+                    sequence = log(request, creditMinor, from,
+                            WriteAheadLog.TRANSFER, from.getAccountNumber(), debitMinor, to.getAccountNumber());
+                } else if (request == null) {
+                    sequence = wal.appendPair(
+                            WriteAheadLog.TRANSFER_FX, from.getAccountNumber(), debitMinor, to.getAccountNumber(),
+                            WriteAheadLog.FX_CREDIT, to.getAccountNumber(), creditMinor, from.getAccountNumber());
+                } else {
+                    long balance = from.getBalanceCents();
+                    sequence = wal.appendTriple(
+                            WriteAheadLog.REQUEST, request.getKey(), IdempotencyCache.pack(request.getKind(), request.getMillis()), balance,
+                            WriteAheadLog.TRANSFER_FX, from.getAccountNumber(), debitMinor, to.getAccountNumber(),
+                            WriteAheadLog.FX_CREDIT, to.getAccountNumber(), creditMinor, from.getAccountNumber());
+                    request.logged(creditMinor, balance);
+                }
+                journal.append(from.getAccountNumber(), TransactionType.TRANSFER_OUT, debitMinor, to.getAccountNumber(), sequence);
+                journal.append(to.getAccountNumber(), TransactionType.TRANSFER_IN, creditMinor, from.getAccountNumber(), sequence);
+            }
+        } finally {
+            checkpointLock.readLock().unlock();
+        }
+        wal.awaitDurable(sequence);
+        return true;
+    }
+
+    public void setPin(Account account, PinAuthenticator.PinHash newPin) {
+        setPin(account, newPin, null);
+    }
+
+    public void setPin(Account account, PinAuthenticator.PinHash newPin, IdempotencyCache.Entry request) {
+        long sequence;
+        checkpointLock.readLock().lock();
+        try {
+            account.setPinHash(newPin);
+            sequence = log(request, 0, account,
+                    WriteAheadLog.SET_PIN_HASH, account.getAccountNumber(), newPin.getSalt(), newPin.getHash());
+        } finally {
+            checkpointLock.readLock().unlock();
+        }
+        wal.awaitDurable(sequence);
+    }
+
+    // First phase of a transfer from this shard: takes the amount out of the
+    // account and holds it under txid; false (and nothing logged) if the
+    // balance is too low. Preparing the same txid again just returns true
+    public boolean prepareDebit(long txid, Account account, long cents) {
+        long sequence;
+        checkpointLock.readLock().lock();
+        try {
+            if (prepared.containsKey(txid)) {
+                return true;
+            }
+            if (!account.withdrawCents(cents)) {
+                return false;
+            }
+            prepared.put(txid, new long[] {account.getAccountNumber(), cents, 1});
+            sequence = wal.append(WriteAheadLog.PREPARE_DEBIT, account.getAccountNumber(), cents, txid);
+        } finally {
+            checkpointLock.readLock().unlock();
+        }
+        wal.awaitDurable(sequence);
+        return true;
+    }
+
+    // First phase of a transfer to this shard: nothing changes until the commit
+    public void prepareCredit(long txid, Account account, long cents) {
+        long sequence;
+        checkpointLock.readLock().lock();
+        try {
+            if (prepared.containsKey(txid)) {
+                return;
+            }
+            prepared.put(txid, new long[] {account.getAccountNumber(), cents, 0});
+            sequence = wal.append(WriteAheadLog.PREPARE_CREDIT, account.getAccountNumber(), cents, txid);
+        } finally {
+            checkpointLock.readLock().unlock();
+        }
+        wal.awaitDurable(sequence);
+    }
+
+    // Second phase: a credit is added, a held debit is kept, and either is
+    // journaled as a transfer with counterparty (0 if not known)
+    // Returns what was settled, {account number, amount, 1 if a debit}, or
+    // null if txid is not prepared here (already settled, or never prepared)
+    public long[] commitPrepared(long txid) {
+        return commitPrepared(txid, 0);
+    }
+
+    public long[] commitPrepared(long txid, long counterparty) {
+        return resolve(txid, true, counterparty);
+    }
+
+    // Second phase: a held debit goes back to the account, a credit is dropped (nothing is journaled)
+    public long[] abortPrepared(long txid) {
+        return resolve(txid, false, 0);
+    }
+
+    // Ids of the prepared transactions that are still waiting for commit or abort
+    public List<Long> preparedTransactions() {
+        return new ArrayList<>(prepared.keySet());
+    }
+
+    private long[] resolve(long txid, boolean commit, long counterparty) {
+        long sequence;
+        long[] held;
+        checkpointLock.readLock().lock();
+        try {
+            held = prepared.remove(txid);
+            if (held == null) {
+                return null;
+            }
+            boolean debit = held[2] == 1;
+            long added = commit != debit ? held[1] : 0; // commit a credit, or abort a debit
+            if (added != 0) {
+                accounts.findByNumber(held[0]).depositCents(added);
+            }
+            synchronized (journal) {
+                sequence = wal.append(WriteAheadLog.RESOLVE, held[0], added, txid);
+                if (commit) {
+                    journal.append(held[0], debit ? TransactionType.TRANSFER_OUT : TransactionType.TRANSFER_IN,
+                            held[1], counterparty, sequence);
+                }
+            }
+        } finally {
+            checkpointLock.readLock().unlock();
+        }
+        wal.awaitDurable(sequence);
+        return held;
+    }
+
+    // Credits accounts[i] with cents[i] for i < count, all logged as one record
+    // and journaled as type (CREDIT, INTEREST)
+    // The postings go to a batch file that is fsynced before the record is
+    // written, so recovery can re-apply the batch; returns once it is durable
+    public void postBatch(Account[] batchAccounts, long[] cents, int count, TransactionType type) throws IOException {
+        postBatch(0, batchAccounts, cents, count, type);
+    }
+
+    // batchKey: identifies the batch across runs (see batchKey), or 0 for none
+    // Returns false, and posts nothing, if a batch with this key was already posted
+    public boolean postBatch(long batchKey, Account[] batchAccounts, long[] cents, int count, TransactionType type)
+            throws IOException {
+        if (count == 0 || batchKey != 0 && posted.contains(batchKey)) {
+            return count == 0;
+        }
+        long batchId = nextBatchId.getAndIncrement();
+        Path file = batchFile(bulkDirectory, batchId);
+        writeBatch(file, batchAccounts, cents, count);
+        long sequence;
+        checkpointLock.readLock().lock();
+        try {
+            if (batchKey != 0 && !posted.add(batchKey)) {
+                Files.deleteIfExists(file); // posted by another thread since the check above
+                return false;
+            }
+            for (int i = 0; i < count; i++) {
+                batchAccounts[i].depositCents(cents[i]);
+            }
+            synchronized (journal) {
+                sequence = wal.append(WriteAheadLog.BULK_CREDIT, batchKey, batchId, count);
+                journal.appendAll(batchAccounts, cents, count, type, sequence);
+            }
+            liveBatchFiles.add(new long[] {sequence, batchId});
+        } finally {
+            checkpointLock.readLock().unlock();
+        }
+        wal.awaitDurable(sequence);
+        return true;
+    }
+
+    // A key for postBatch from a name that is the same on every run of the
+    // batch: the first 8 bytes of the name's SHA-256 (never 0)
+    public static long batchKey(String name) {
+        byte[] digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256").digest(name.getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+        long key = 0;
+        for (int i = 0; i < 8; i++) {
+            key = key << 8 | (digest[i] & 0xFF);
+        }
+        return key != 0 ? key : 1;
+    }
+
+    // Writes a snapshot of every account and drops the log files it covers
+    public synchronized void checkpoint() throws IOException {
+        int count;
+        Account[] captured;
+        long[] balances;
+        PinAuthenticator.PinHash[] pins;
+        List<IdempotencyCache.Entry> keys;
+        Map<Long, long[]> inDoubt;
+        long[] postedKeys;
+        long sequence;
+        checkpointLock.writeLock().lock();
+        try {
+            sequence = wal.lastSequence();
+            if (sequence == snapshotSequence) {
+                return; // nothing changed since the last snapshot
+            }
+            count = accounts.size();
+            captured = new Account[count];
+            balances = new long[count];
+            pins = new PinAuthenticator.PinHash[count];
+            for (int i = 0; i < count; i++) {
+                // null: not made yet, so unchanged since the snapshot it is mapped from; an account made
+                // after this (outside the lock) is written from the image too, never half captured
+                Account account = accounts.loaded(i);
+                if (account != null) {
+                    captured[i] = account;
+                    balances[i] = account.getBalanceCents();
+                    pins[i] = account.getPinHash();
+                }
+            }
+            keys = requests.logged(System.currentTimeMillis());
+            inDoubt = Map.copyOf(prepared);
+            postedKeys = posted.stream().mapToLong(Long::longValue).toArray();
+            wal.rotate();
+        } finally {
+            checkpointLock.writeLock().unlock();
+        }
+        // Keys first: if the snapshot is not written, the log it would have replaced still has them too
+        IdempotencyCache.write(requestsFile, keys);
+        writePrepared(preparedFile, inDoubt);
+        writePosted(postedFile, postedKeys);
+        SnapshotStore.write(snapshotFile, captured, accounts.image(), balances, pins, count, sequence);
+        snapshotSequence = sequence;
+        wal.deleteCoveredFiles(sequence);
+        for (long[] batch : liveBatchFiles) {
+            if (batch[0] <= sequence) {
+                Files.deleteIfExists(batchFile(bulkDirectory, batch[1]));
+                liveBatchFiles.remove(batch);
+            }
+        }
+    }
+
+    // Takes a final snapshot and closes the log
+    @Override
+    public void close() throws IOException {
+        checkpointer.shutdownNow();
+        checkpoint();
+        wal.close();
+    }
+
+    // Never throws: an exception would cancel every later scheduled checkpoint
+    private void checkpointQuietly() {
+        try {
+            checkpoint();
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Checkpoint failed, will retry: " + e);
+        }
+    }
+
+    // Appends one change, with a REQUEST record in front of it if it was made under a key
+    // Caller holds the read side of checkpointLock and the journal lock
+    private long log(IdempotencyCache.Entry request, long creditedCents, Account account,
+                     byte operation, long accountNumber, long value, long counterparty) {
+        if (request == null) {
+            return wal.append(operation, accountNumber, value, counterparty);
+        }
+        long balance = account.getBalanceCents();
+        long sequence = wal.appendPair(
+                WriteAheadLog.REQUEST, request.getKey(), IdempotencyCache.pack(request.getKind(), request.getMillis()), balance,
+                operation, accountNumber, value, counterparty);
+        request.logged(creditedCents, balance);
+        return sequence;
+    }
+
+    // Replays the log after the snapshot: changes go to the accounts, and each
+    // REQUEST goes to the idempotency cache once the change after it is complete
+    private static final class Recovery implements WriteAheadLog.Replayer {
+        private final AccountRepository accounts;
+        private final Path bulkDirectory;
+        private final IdempotencyCache requests;
+        private final long nowMillis;
+        private final ConcurrentHashMap<Long, long[]> prepared;
+        private final Set<Long> posted;
+        final List<long[]> replayedBatches = new ArrayList<>();
+        // The REQUEST record waiting for its change (-1 if none)
+        private long requestSequence = -1;
+        private long key;
+        private long packed;
+        private long balance;
+        // The TRANSFER_FX waiting for its FX_CREDIT (-1 if none), and whether a REQUEST came before it
+        private long debitSequence = -1;
+        private long sender;
+        private long debit;
+        private long receiver;
+        private boolean debitKeyed;
+
+        Recovery(AccountRepository accounts, Path bulkDirectory, IdempotencyCache requests, long nowMillis,
+                 ConcurrentHashMap<Long, long[]> prepared, Set<Long> posted) {
+            this.accounts = accounts;
+            this.bulkDirectory = bulkDirectory;
+            this.requests = requests;
+            this.nowMillis = nowMillis;
+            this.prepared = prepared;
+            this.posted = posted;
+        }
+
+        @Override
+        public void apply(long sequence, byte operation, long accountNumber, long value, long counterparty) {
+            // only the very next record can complete a REQUEST or a TRANSFER_FX
+            boolean keyed = requestSequence == sequence - 1;
+            boolean debitWaiting = debitSequence == sequence - 1;
+            requestSequence = -1;
+            debitSequence = -1;
+            switch (operation) {
+                case WriteAheadLog.REQUEST -> {
+                    requestSequence = sequence;
+                    key = accountNumber;
+                    packed = value;
+                    balance = counterparty;
+                }
+                case WriteAheadLog.BULK_CREDIT -> {
+                    replayBatch(accounts, batchFile(bulkDirectory, value));
+                    replayedBatches.add(new long[] {sequence, value});
+                    if (accountNumber != 0) {
+                        posted.add(accountNumber); // the batch key
+                    }
+                }
+                case WriteAheadLog.TRANSFER_FX -> {
+                    debitSequence = sequence;
+                    sender = accountNumber;
+                    debit = value;
+                    receiver = counterparty;
+                    debitKeyed = keyed;
+                }
+                case WriteAheadLog.PREPARE_DEBIT -> {
+                    replay(accounts, WriteAheadLog.WITHDRAW, accountNumber, value, 0);
+                    prepared.put(counterparty, new long[] {accountNumber, value, 1});
+                }
+                case WriteAheadLog.PREPARE_CREDIT -> prepared.put(counterparty, new long[] {accountNumber, value, 0});
+                case WriteAheadLog.RESOLVE -> {
+                    // complete on its own: the prepare may be in a snapshot while this is not
+                    replay(accounts, WriteAheadLog.DEPOSIT, accountNumber, value, 0);
+                    prepared.remove(counterparty);
+                }
+                case WriteAheadLog.FX_CREDIT -> {
+                    if (debitWaiting && receiver == accountNumber && sender == counterparty) {
+                        replay(accounts, WriteAheadLog.WITHDRAW, sender, debit, 0);
+                        replay(accounts, WriteAheadLog.DEPOSIT, receiver, value, 0);
+                        if (debitKeyed) {
+                            restore(sender, debit, receiver, value);
+                        }
+                    }
+                }
+                default -> {
+                    replay(accounts, operation, accountNumber, value, counterparty);
+                    if (keyed) {
+                        switch (operation) {
+                            case WriteAheadLog.DEPOSIT, WriteAheadLog.WITHDRAW -> restore(accountNumber, value, 0, value);
+                            case WriteAheadLog.TRANSFER -> restore(accountNumber, value, counterparty, value);
+                            default -> restore(accountNumber, 0, 0, 0);
+                        }
+                    }
+                }
+            }
+        }
+
+        private void restore(long accountNumber, long amount, long counterparty, long credited) {
+            requests.restore(key, IdempotencyCache.kindOf(packed), accountNumber, amount, counterparty, credited, balance,
+                    IdempotencyCache.millisOf(packed), nowMillis);
+        }
+    }
+
+    // Re-applies one logged change during recovery (always succeeds: it already happened once)
+    private static void replay(AccountRepository accounts, byte operation, long accountNumber, long value, long counterparty) {
+        Account account = accounts.findByNumber(accountNumber);
+        if (account == null) {
+            throw new IllegalStateException("Write-ahead log refers to unknown account " + accountNumber);
+        }
+        switch (operation) {
+            case WriteAheadLog.DEPOSIT -> account.adjustBalanceCents(value);
+            case WriteAheadLog.WITHDRAW -> account.adjustBalanceCents(-value);
+            case WriteAheadLog.TRANSFER -> {
+                Account receiver = accounts.findByNumber(counterparty);
+                if (receiver == null) {
+                    throw new IllegalStateException("Write-ahead log refers to unknown account " + counterparty);
+                }
+                account.adjustBalanceCents(-value);
+                receiver.adjustBalanceCents(value);
+            }
+            case WriteAheadLog.SET_PIN -> account.setPinHash(PinAuthenticator.hash((int) value));
+            case WriteAheadLog.SET_PIN_HASH -> account.setPinHash(new PinAuthenticator.PinHash(value, counterparty));
+            default -> throw new IllegalStateException("Unknown write-ahead log operation " + operation);
+        }
+    }
+
+    private static Path batchFile(Path bulkDirectory, long batchId) {
+        return bulkDirectory.resolve(String.format("batch-%019d.bin", batchId));
+    }
+
+    private static List<Long> batchIds(Path bulkDirectory) throws IOException {
+        List<Long> ids = new ArrayList<>();
+        try (Stream<Path> entries = Files.list(bulkDirectory)) {
+            entries.map(p -> p.getFileName().toString())
+                    .filter(name -> name.matches("batch-\\d{19}\\.bin"))
+                    .forEach(name -> ids.add(Long.parseLong(name.substring(6, 25))));
+        }
+        return ids;
+    }
+
+    // Prepared file: int count, then per transaction long id, long account number, long amount, byte 1 if a debit
+    private static void writePrepared(Path file, Map<Long, long[]> inDoubt) throws IOException {
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileOutputStream stream = new FileOutputStream(temp.toFile());
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream, 1 << 16))) {
+            out.writeInt(inDoubt.size());
+            for (Map.Entry<Long, long[]> transaction : inDoubt.entrySet()) {
+                out.writeLong(transaction.getKey());
+                out.writeLong(transaction.getValue()[0]);
+                out.writeLong(transaction.getValue()[1]);
+                out.writeByte((int) transaction.getValue()[2]);
+            }
+            out.flush();
+            stream.getFD().sync();
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static ConcurrentHashMap<Long, long[]> readPrepared(Path file) throws IOException {
+        ConcurrentHashMap<Long, long[]> inDoubt = new ConcurrentHashMap<>();
+        if (!Files.exists(file)) {
+            return inDoubt;
+        }
+        try (InputStream stream = Files.newInputStream(file);
+             DataInputStream in = new DataInputStream(new BufferedInputStream(stream, 1 << 16))) {
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                inDoubt.put(in.readLong(), new long[] {in.readLong(), in.readLong(), in.readByte()});
+            }
+        }
+        return inDoubt;
+    }
+
+    // Posted file: int count, then count batch keys
+    private static void writePosted(Path file, long[] keys) throws IOException {
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileOutputStream stream = new FileOutputStream(temp.toFile());
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream, 1 << 16))) {
+            out.writeInt(keys.length);
+            for (long key : keys) {
+                out.writeLong(key);
+            }
+            out.flush();
+            stream.getFD().sync();
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static Set<Long> readPosted(Path file) throws IOException {
+        Set<Long> keys = ConcurrentHashMap.newKeySet();
+        if (!Files.exists(file)) {
+            return keys;
+        }
+        try (InputStream stream = Files.newInputStream(file);
+             DataInputStream in = new DataInputStream(new BufferedInputStream(stream, 1 << 16))) {
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                keys.add(in.readLong());
+            }
+        }
+        return keys;
+    }
+
+    // Batch file: int count, then count pairs of (long account number, long centavos)
+    private static void writeBatch(Path file, Account[] batchAccounts, long[] cents, int count) throws IOException {
+        try (FileOutputStream stream = new FileOutputStream(file.toFile());
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream, 1 << 16))) {
+            out.writeInt(count);
+            for (int i = 0; i < count; i++) {
+                out.writeLong(batchAccounts[i].getAccountNumber());
+                out.writeLong(cents[i]);
+            }
+            out.flush();
+            stream.getFD().sync();
+        }
+    }
+
+    private static void replayBatch(AccountRepository accounts, Path file) {
+        try (InputStream stream = Files.newInputStream(file);
+             DataInputStream in = new DataInputStream(new BufferedInputStream(stream, 1 << 16))) {
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                long accountNumber = in.readLong();
+                long cents = in.readLong();
+                Account account = accounts.findByNumber(accountNumber);
+                if (account == null) {
+                    throw new IllegalStateException("Batch file " + file + " refers to unknown account " + accountNumber);
+                }
+                account.adjustBalanceCents(cents);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot replay batch file " + file, e);
+        }
+    }
+}
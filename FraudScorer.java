@@ -0,0 +1,301 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+// FraudScorer reads the TransactionStream and flags suspicious activity:
+// - failed PINs: FAILED_PIN_BURST failed checks on one account within FAILED_PIN_WINDOW_NANOS
+// - rapid transfers: RAPID_TRANSFERS transfers between the same two accounts
+//   (either direction) within RAPID_TRANSFER_WINDOW_NANOS
+// - unusual amounts: a withdrawal or transfer far above what the account
+//   usually takes out (moving mean and deviation of its earlier amounts)
+// It runs only on the stream's consumer thread, so its state needs no locks;
+// state is made once per account or pair, and only a flag allocates
+// Every event's delay from publish to scored is recorded, and each flag's as well
+
+
+public class FraudScorer implements TransactionStream.Handler {
+    public static final int FAILED_PIN_BURST = 3;
+    public static final long FAILED_PIN_WINDOW_NANOS = 60_000_000_000L;        // 1 minute
+    public static final int RAPID_TRANSFERS = 3;
+    public static final long RAPID_TRANSFER_WINDOW_NANOS = 600_000_000_000L;   // 10 minutes
+    private static final int MIN_HISTORY = 5;       // amounts seen before an account has a "usual"
+    private static final double SMOOTHING = 0.2;    // weight of the newest amount in the moving mean
+    private static final double DEVIATIONS = 4;     // unusual: above mean + 4 deviations...
+    private static final double MIN_RATIO = 3;      // ...and at least 3 times the mean
+    private static final int RECENT_FLAGS = 100;
+    private static final DateTimeFormatter FLAG_TIME = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+    public enum Rule {
+        FAILED_PIN_BURST,
+        RAPID_TRANSFERS,
+        UNUSUAL_AMOUNT
+    }
+
+    private static final Rule[] RULES = Rule.values();
+
+    public static final class Flag {
+        private final Rule rule;
+        private final long accountNumber;
+        private final long counterparty;
+        private final long amountCents;
+        private final LocalDateTime time;
+        private final long latencyNanos;
+
+        Flag(Rule rule, long accountNumber, long counterparty, long amountCents, LocalDateTime time, long latencyNanos) {
+            this.rule = rule;
+            this.accountNumber = accountNumber;
+            this.counterparty = counterparty;
+            this.amountCents = amountCents;
+            this.time = time;
+            this.latencyNanos = latencyNanos;
+        }
+
+        public Rule getRule() {
+            return rule;
+        }
+
+        public long getAccountNumber() {
+            return accountNumber;
+        }
+
+        // Other account of a rapid-transfer pair (0 for other rules)
+        public long getCounterparty() {
+            return counterparty;
+        }
+
+        public long getAmountCents() {
+            return amountCents;
+        }
+
+        public LocalDateTime getTime() {
+            return time;
+        }
+
+        // From the flagged event being published to this flag being raised
+        public long getLatencyNanos() {
+            return latencyNanos;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append(time.format(FLAG_TIME)).append(' ').append(rule).append(" account ").append(accountNumber);
+            if (counterparty != 0) {
+                sb.append(" <-> ").append(counterparty);
+            }
+            if (amountCents != 0) {
+                sb.append(String.format(" PHP %.2f", Account.toPesos(amountCents)));
+            }
+            return sb.append(String.format(" (raised in %.1f us)", latencyNanos / 1e3)).toString();
+        }
+    }
+
+    // What the scorer remembers about one account
+    private static final class AccountState {
+        final long[] failedPins = new long[FAILED_PIN_BURST]; // times of the latest failed checks (ring)
+        int failedPinNext;
+        int failedPinCount;
+        double mean;     // moving mean of debit amounts (centavos)
+        double variance; // moving variance around it
+        int samples;
+    }
+
+    // What the scorer remembers about transfers between two accounts
+    private static final class PairState {
+        final long[] transfers = new long[RAPID_TRANSFERS]; // times of the latest transfers (ring)
+        int next;
+        int count;
+    }
+
+    private final KeyTable<AccountState> accounts = new KeyTable<>();
+    private final KeyTable<PairState> pairs = new KeyTable<>();
+    private final Consumer<Flag> listener;
+    private final LatencyHistogram scoreLatency = new LatencyHistogram();
+    private final LatencyHistogram flagLatency = new LatencyHistogram();
+    private final AtomicLongArray flagCounts = new AtomicLongArray(RULES.length);
+    private final ArrayDeque<Flag> recent = new ArrayDeque<>();
+
+    // listener is called on the consumer thread for every flag
+    public FraudScorer(Consumer<Flag> listener) {
+        this.listener = listener;
+    }
+
+    // A listener that appends each flag as a line to the file (flushed per flag)
+    public static Consumer<Flag> logTo(Path file) throws IOException {
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        BufferedWriter writer = Files.newBufferedWriter(file, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        return flag -> {
+            try {
+                writer.write(flag.toString());
+                writer.newLine();
+                writer.flush();
+            } catch (IOException e) {
+                System.err.println("Could not write fraud flag: " + e.getMessage());
+            }
+        };
+    }
+
+    @Override
+    public void onEvent(TransactionStream.Event event) {
+        long now = event.getPublishedNanos();
+        switch (event.getKind()) {
+            case FAILED_PIN -> scoreFailedPin(event, now);
+            case WITHDRAW, FAST_CASH -> {
+                if (event.getStatus() == TransactionResult.Status.SUCCESS) {
+                    scoreAmount(event);
+                }
+            }
+            case TRANSFER -> {
+                if (event.getStatus() == TransactionResult.Status.SUCCESS) {
+                    scoreAmount(event);
+                    scoreTransferPair(event, now);
+                }
+            }
+            default -> {
+                // deposits and PIN changes are not scored
+            }
+        }
+        scoreLatency.record(System.nanoTime() - now);
+    }
+
+    private void scoreFailedPin(TransactionStream.Event event, long now) {
+        AccountState state = accounts.getOrCreate(event.getAccountNumber(), 0, AccountState::new);
+        state.failedPins[state.failedPinNext] = now;
+        state.failedPinNext = (state.failedPinNext + 1) % FAILED_PIN_BURST;
+        state.failedPinCount = Math.min(state.failedPinCount + 1, FAILED_PIN_BURST);
+        // the oldest kept failure is the one about to be overwritten
+        if (state.failedPinCount == FAILED_PIN_BURST && now - state.failedPins[state.failedPinNext] <= FAILED_PIN_WINDOW_NANOS) {
+            state.failedPinCount = 0;
+            flag(Rule.FAILED_PIN_BURST, event, 0, 0);
+        }
+    }
+
+    private void scoreTransferPair(TransactionStream.Event event, long now) {
+        long a = Math.min(event.getAccountNumber(), event.getCounterparty());
+        long b = Math.max(event.getAccountNumber(), event.getCounterparty());
+        PairState state = pairs.getOrCreate(a, b, PairState::new);
+        state.transfers[state.next] = now;
+        state.next = (state.next + 1) % RAPID_TRANSFERS;
+        state.count = Math.min(state.count + 1, RAPID_TRANSFERS);
+        if (state.count == RAPID_TRANSFERS && now - state.transfers[state.next] <= RAPID_TRANSFER_WINDOW_NANOS) {
+            state.count = 0;
+            flag(Rule.RAPID_TRANSFERS, event, event.getCounterparty(), event.getAmountCents());
+        }
+    }
+
+    private void scoreAmount(TransactionStream.Event event) {
+        AccountState state = accounts.getOrCreate(event.getAccountNumber(), 0, AccountState::new);
+        double amount = event.getAmountCents();
+        if (state.samples >= MIN_HISTORY
+                && amount > state.mean + DEVIATIONS * Math.sqrt(state.variance)
+                && amount >= MIN_RATIO * state.mean) {
+            flag(Rule.UNUSUAL_AMOUNT, event, 0, event.getAmountCents());
+        }
+        if (state.samples == 0) {
+            state.mean = amount;
+        } else {
+            double diff = amount - state.mean;
+            state.mean += SMOOTHING * diff;
+            state.variance = (1 - SMOOTHING) * (state.variance + SMOOTHING * diff * diff);
+        }
+        state.samples++;
+    }
+
+    private void flag(Rule rule, TransactionStream.Event event, long counterparty, long amountCents) {
+        long latency = System.nanoTime() - event.getPublishedNanos();
+        Flag flag = new Flag(rule, event.getAccountNumber(), counterparty, amountCents, LocalDateTime.now(), latency);
+        flagLatency.record(latency);
+        flagCounts.incrementAndGet(rule.ordinal());
+        synchronized (recent) {
+            if (recent.size() == RECENT_FLAGS) {
+                recent.removeFirst();
+            }
+            recent.addLast(flag);
+        }
+        listener.accept(flag);
+    }
+
+    public long flagCount(Rule rule) {
+        return flagCounts.get(rule.ordinal());
+    }
+
+    // The latest flags, oldest first (at most RECENT_FLAGS)
+    public List<Flag> recentFlags() {
+        synchronized (recent) {
+            return new ArrayList<>(recent);
+        }
+    }
+
+    // Publish-to-scored delay of every event
+    public LatencyHistogram scoreLatency() {
+        return scoreLatency;
+    }
+
+    // Publish-to-flag delay of flagged events
+    public LatencyHistogram flagLatency() {
+        return flagLatency;
+    }
+
+    // Open-addressing table keyed by one or two account numbers (first key 0 marks a free slot)
+    private static final class KeyTable<S> {
+        private long[] first = new long[1024];
+        private long[] second = new long[1024];
+        private Object[] values = new Object[1024];
+        private int size;
+
+        @SuppressWarnings("unchecked")
+        S getOrCreate(long a, long b, Supplier<S> create) {
+            int slot = slotOf(first, second, a, b);
+            if (first[slot] != 0) {
+                return (S) values[slot];
+            }
+            if ((size + 1) * 2 > first.length) {
+                grow();
+                slot = slotOf(first, second, a, b);
+            }
+            S state = create.get();
+            first[slot] = a;
+            second[slot] = b;
+            values[slot] = state;
+            size++;
+            return state;
+        }
+
+        private void grow() {
+            long[] oldFirst = first;
+            long[] oldSecond = second;
+            Object[] oldValues = values;
+            first = new long[oldFirst.length * 2];
+            second = new long[oldFirst.length * 2];
+            values = new Object[oldFirst.length * 2];
+            for (int i = 0; i < oldFirst.length; i++) {
+                if (oldFirst[i] != 0) {
+                    int slot = slotOf(first, second, oldFirst[i], oldSecond[i]);
+                    first[slot] = oldFirst[i];
+                    second[slot] = oldSecond[i];
+                    values[slot] = oldValues[i];
+                }
+            }
+        }
+
+        private static int slotOf(long[] first, long[] second, long a, long b) {
+            int mask = first.length - 1;
+            long h = (a * 0x9E3779B97F4A7C15L) ^ (b * 0xC2B2AE3D27D4EB4FL);
+            int slot = (int) (h ^ (h >>> 32)) & mask;
+            while (first[slot] != 0 && (first[slot] != a || second[slot] != b)) {
+                slot = (slot + 1) & mask;
+            }
+            return slot;
+        }
+    }
+}
@@ -0,0 +1,200 @@
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.RoundingMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+// FxRates converts amounts between currencies for transfers
+// Rates come from a text file, one currency per line with the value of one
+// unit of it in a common base currency (up to 9 decimals):
+//   # base PHP
+//   PHP 1
+//   USD 58.25
+// The loaded rates are an immutable Table; reload() builds a new one and
+// swaps it in with one atomic write, so a conversion reads a single reference
+// and takes no lock, and one transfer always uses one consistent set of rates
+// Conversion is exact integer arithmetic: every pair's rate is kept as a
+// reduced fraction of longs, and the result is rounded down to the minor unit
+// (a long multiply when it fits, BigInteger otherwise)
+
+
+public class FxRates implements AutoCloseable {
+    private static final int RATE_DECIMALS = 9;
+    private static final int CURRENCIES = Currency.values().length;
+
+    // Written to the rates file when there is none yet; sample rates, edit the file to change them
+    private static final List<String> DEFAULT_LINES = List.of(
+            "# Value of one unit of each currency in PHP (up to 9 decimals); reloaded when this file changes",
+            "PHP 1",
+            "USD 58.25",
+            "EUR 67.10",
+            "GBP 77.40",
+            "SGD 44.95",
+            "JPY 0.3865");
+
+    // One immutable set of rates
+    public static final class Table {
+        private final long[] scaledRates;  // per currency: value in the base * 10^9, 0 if not listed
+        private final long[] numerators;   // per pair [from * CURRENCIES + to]: minor(to) = minor(from) * num / den
+        private final long[] denominators;
+
+        Table(long[] scaledRates) {
+            this.scaledRates = scaledRates;
+            this.numerators = new long[CURRENCIES * CURRENCIES];
+            this.denominators = new long[CURRENCIES * CURRENCIES];
+            Currency[] currencies = Currency.values();
+            for (Currency from : currencies) {
+                for (Currency to : currencies) {
+                    if (scaledRates[from.ordinal()] == 0 || scaledRates[to.ordinal()] == 0) {
+                        continue;
+                    }
+                    // minor(to) = minor(from) / unit(from) * rate(from) / rate(to) * unit(to)
+                    BigInteger num = BigInteger.valueOf(scaledRates[from.ordinal()]).multiply(BigInteger.valueOf(to.unit()));
+                    BigInteger den = BigInteger.valueOf(scaledRates[to.ordinal()]).multiply(BigInteger.valueOf(from.unit()));
+                    BigInteger gcd = num.gcd(den);
+                    int pair = from.ordinal() * CURRENCIES + to.ordinal();
+                    numerators[pair] = num.divide(gcd).longValueExact();
+                    denominators[pair] = den.divide(gcd).longValueExact();
+                }
+            }
+        }
+
+        // True if the table has a rate for this currency
+        public boolean has(Currency currency) {
+            return scaledRates[currency.ordinal()] != 0;
+        }
+
+        // The amount in to's minor units, rounded down; both currencies must be in the table
+        // Throws ArithmeticException if the result does not fit in a long
+        public long convert(long minor, Currency from, Currency to) {
+            if (from == to) {
+                return minor;
+            }
+            int pair = from.ordinal() * CURRENCIES + to.ordinal();
+            long num = numerators[pair];
+            long den = denominators[pair];
+            if (den == 0) {
+                throw new IllegalArgumentException("No rate for " + (has(from) ? to : from));
+            }
+            long high = Math.multiplyHigh(minor, num);
+            long low = minor * num;
+            if ((high == 0 && low >= 0) || (high == -1 && low < 0)) {
+                return Math.floorDiv(low, den); // the product fits in a long
+            }
+            return new BigDecimal(BigInteger.valueOf(minor).multiply(BigInteger.valueOf(num)))
+                    .divide(BigDecimal.valueOf(den), 0, RoundingMode.FLOOR)
+                    .longValueExact();
+        }
+
+        // Value of one unit in the base currency, e.g. "58.25" (for display)
+        public BigDecimal rate(Currency currency) {
+            return BigDecimal.valueOf(scaledRates[currency.ordinal()], RATE_DECIMALS).stripTrailingZeros();
+        }
+    }
+
+    private final Path file;
+    private final AtomicReference<Table> current;
+    private volatile FileTime loadedModified;
+    private ScheduledExecutorService watcher;
+
+    private FxRates(Path file, Table table, FileTime loadedModified) {
+        this.file = file;
+        this.current = new AtomicReference<>(table);
+        this.loadedModified = loadedModified;
+    }
+
+    // Loads the rates file, writing the sample rates to it first if it does not exist
+    public static FxRates load(Path file) throws IOException {
+        if (!Files.exists(file)) {
+            Files.createDirectories(file.toAbsolutePath().getParent());
+            Files.write(file, DEFAULT_LINES, StandardCharsets.UTF_8);
+        }
+        FileTime modified = Files.getLastModifiedTime(file);
+        return new FxRates(file, parse(Files.readAllLines(file, StandardCharsets.UTF_8), file.toString()), modified);
+    }
+
+    // The sample rates, held in memory only (for tests and services without a rates file)
+    public static FxRates defaults() {
+        return new FxRates(null, parse(DEFAULT_LINES, "default rates"), null);
+    }
+
+    // The rates in force; keep the Table for the whole of one operation
+    public Table current() {
+        return current.get();
+    }
+
+    // Reads the file again and swaps in the new rates; on a bad file the old rates stay
+    public void reload() throws IOException {
+        if (file == null) {
+            return;
+        }
+        FileTime modified = Files.getLastModifiedTime(file);
+        current.set(parse(Files.readAllLines(file, StandardCharsets.UTF_8), file.toString()));
+        loadedModified = modified;
+    }
+
+    // Checks the file every few seconds on a background thread and reloads it when it changes
+    public synchronized void watch(long intervalSeconds) {
+        if (file == null || watcher != null) {
+            return;
+        }
+        watcher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "fx-rates-reload");
+            thread.setDaemon(true);
+            return thread;
+        });
+        watcher.scheduleWithFixedDelay(() -> {
+            try {
+                if (!Files.getLastModifiedTime(file).equals(loadedModified)) {
+                    reload();
+                }
+            } catch (IOException | IllegalArgumentException e) {
+                System.err.println("FX rates not reloaded, keeping the old ones: " + e.getMessage());
+            }
+        }, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
+
+    @Override
+    public synchronized void close() {
+        if (watcher != null) {
+            watcher.shutdownNow();
+        }
+    }
+
+    static Table parse(List<String> lines, String source) {
+        long[] scaled = new long[CURRENCIES];
+        for (int i = 0; i < lines.size(); i++) {
+            String line = lines.get(i).strip();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            String[] parts = line.split("\\s+");
+            try {
+                if (parts.length != 2) {
+                    throw new IllegalArgumentException("expected \"CODE rate\"");
+                }
+                Currency currency = Currency.valueOf(parts[0]);
+                long rate = new BigDecimal(parts[1]).movePointRight(RATE_DECIMALS).longValueExact();
+                if (rate <= 0) {
+                    throw new IllegalArgumentException("rate must be positive");
+                }
+                scaled[currency.ordinal()] = rate;
+            } catch (ArithmeticException | IllegalArgumentException e) {
+                throw new IllegalArgumentException(source + " line " + (i + 1) + ": " + line + " (" + e.getMessage() + ")");
+            }
+        }
+        try {
+            return new Table(scaled);
+        } catch (ArithmeticException e) {
+            throw new IllegalArgumentException(source + ": rates too far apart to convert exactly");
+        }
+    }
+}
@@ -0,0 +1,45 @@
+// HistoryPage is one page of an account's transaction history, newest first
+// It points into the account's position index (no records are copied)
+// Pass nextCursor() back to the journal to fetch the next, older page
+
+
+public class HistoryPage {
+    public static final long FIRST = Long.MAX_VALUE; // cursor for the newest page
+    public static final long NO_MORE = -1;
+
+    private final TransactionJournal journal;
+    private final long[] positions;
+    private final int from;
+    private final int to;
+    private final long nextCursor;
+
+    HistoryPage(TransactionJournal journal, long[] positions, int from, int to, long nextCursor) {
+        this.journal = journal;
+        this.positions = positions;
+        this.from = from;
+        this.to = to;
+        this.nextCursor = nextCursor;
+    }
+
+    // Cursor over this page's records, newest first
+    public JournalCursor cursor() {
+        return new JournalCursor(journal, positions, from, to, true);
+    }
+
+    public int size() {
+        return to - from;
+    }
+
+    public boolean isEmpty() {
+        return from == to;
+    }
+
+    public boolean hasMore() {
+        return nextCursor != NO_MORE;
+    }
+
+    // Cursor value for the next (older) page, or NO_MORE
+    public long nextCursor() {
+        return nextCursor;
+    }
+}
@@ -0,0 +1,330 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.LockSupport;
+
+// IdempotencyCache remembers recent requests by their client-supplied
+// idempotency key, so a terminal that retries after a timeout gets the
+// original result back instead of running the operation a second time
+// A key maps to an Entry: the first request claims it (insert), runs, and
+// completes it with its result; a duplicate finds it and waits for that result
+// if the first is still running
+// Lookups are one ConcurrentHashMap get; entries also go into a ring in the
+// order they were added, which is how they leave again: after ttlMillis, or
+// as the oldest once there are capacity of them; an entry still running never
+// leaves (a retry would find no entry and run the operation a second time),
+// and when all capacity of them are running a new key is refused (FULL)
+// Successful changes are made durable with their key (see DurableLedger): the
+// key is logged with the change, and checkpoints save the logged entries to a
+// file, so a duplicate is still caught after a restart (the result is then
+// rebuilt from the saved fields, without the notes of a withdrawal)
+//
+// File layout: magic, version, entry count, then per entry (oldest first):
+//   long key, byte request kind, long account number, long amount,
+//   long counterparty, long credited amount, long balance after, long time (ms)
+
+
+public class IdempotencyCache {
+    public static final int DEFAULT_CAPACITY = 100_000;
+    public static final long DEFAULT_TTL_MILLIS = 24 * 60 * 60 * 1000L;
+    private static final int MAGIC = 0x41544D4B; // "ATMK"
+    private static final int VERSION = 1;
+    private static final TransactionRequest.Kind[] KINDS = TransactionRequest.Kind.values();
+
+    private static final int RUNNING = 0;
+    private static final int DONE = 1;
+    private static final int ABANDONED = 2;
+    private static final long WAIT_NANOS = 50_000;
+
+    // One request seen under a key
+    public static final class Entry {
+        private final long key;
+        private final TransactionRequest.Kind kind;
+        private final long accountNumber;
+        private final long amountCents;
+        private final long counterparty;
+        private final long millis;
+        // Set with the change's log record, while the ledger holds its checkpoint lock
+        private long creditedCents;
+        private long balanceCents;
+        private volatile boolean logged;
+        private volatile TransactionResult result;
+        private volatile int state;
+
+        Entry(long key, TransactionRequest.Kind kind, long accountNumber, long amountCents, long counterparty, long millis) {
+            this.key = key;
+            this.kind = kind;
+            this.accountNumber = accountNumber;
+            this.amountCents = amountCents;
+            this.counterparty = counterparty;
+            this.millis = millis;
+        }
+
+        public long getKey() {
+            return key;
+        }
+
+        public TransactionRequest.Kind getKind() {
+            return kind;
+        }
+
+        public long getAccountNumber() {
+            return accountNumber;
+        }
+
+        public long getAmountCents() {
+            return amountCents;
+        }
+
+        public long getCounterparty() {
+            return counterparty;
+        }
+
+        public long getCreditedCents() {
+            return creditedCents;
+        }
+
+        public long getBalanceCents() {
+            return balanceCents;
+        }
+
+        // When the first request was seen
+        public long getMillis() {
+            return millis;
+        }
+
+        // True if the request is the same operation the key was first used for
+        // (a new PIN is not compared: it is never kept)
+        public boolean matches(TransactionRequest request) {
+            return kind == request.getKind()
+                    && accountNumber == request.getAccountNumber()
+                    && amountCents == request.getAmountCents()
+                    && counterparty == request.getCounterparty();
+        }
+
+        // Called by DurableLedger as it logs the change; after this a checkpoint saves the entry
+        void logged(long creditedCents, long balanceCents) {
+            this.creditedCents = creditedCents;
+            this.balanceCents = balanceCents;
+            this.logged = true;
+        }
+
+        public boolean isLogged() {
+            return logged;
+        }
+
+        // The first request's result once it has one; null if it gave up without
+        // one (claim the key again), or if the entry was restored after a restart
+        // and no result has been rebuilt yet (see setResult)
+        public TransactionResult await() {
+            while (state == RUNNING) {
+                LockSupport.parkNanos(WAIT_NANOS); // rare: a retry arriving while the first attempt still runs
+            }
+            return result;
+        }
+
+        // Caches a result rebuilt from the saved fields
+        void setResult(TransactionResult rebuilt) {
+            result = rebuilt;
+        }
+    }
+
+    // What insert returns when every entry is still running and none can make room
+    public static final Entry FULL = new Entry(0, null, 0, 0, 0, 0);
+
+    private final ConcurrentHashMap<Long, Entry> entries;
+    private final int capacity;
+    private final long ttlMillis;
+    // Entries in the order they were added; guarded by itself
+    private final Entry[] ring;
+    private int oldest;
+    private int size;
+
+    public IdempotencyCache(int capacity, long ttlMillis) {
+        if (capacity < 1 || ttlMillis < 1) {
+            throw new IllegalArgumentException("capacity and time to live must be positive");
+        }
+        this.capacity = capacity;
+        this.ttlMillis = ttlMillis;
+        this.entries = new ConcurrentHashMap<>(Math.min(capacity, 1 << 16));
+        this.ring = new Entry[capacity];
+    }
+
+    // The unexpired entry for this key, or null
+    public Entry find(long key, long nowMillis) {
+        Entry entry = entries.get(key);
+        return entry == null || expired(entry, nowMillis) ? null : entry;
+    }
+
+    // Claims the key for this request: returns the new entry, which the caller
+    // must complete or abandon, null if another request holds the key, or FULL
+    // if there is no room for another entry (every one is still running)
+    public Entry insert(long key, TransactionRequest request, long nowMillis) {
+        Entry entry = new Entry(key, request.getKind(), request.getAccountNumber(), request.getAmountCents(),
+                request.getCounterparty(), nowMillis);
+        Entry previous = entries.putIfAbsent(key, entry);
+        if (previous != null && (!expired(previous, nowMillis) || !entries.replace(key, previous, entry))) {
+            return null;
+        }
+        if (!add(entry, nowMillis)) {
+            entries.remove(key, entry);
+            return FULL;
+        }
+        return entry;
+    }
+
+    public void complete(Entry entry, TransactionResult result) {
+        entry.result = result;
+        entry.state = DONE;
+    }
+
+    // The request failed without a result (an exception): frees the key for a retry
+    public void abandon(Entry entry) {
+        entries.remove(entry.key, entry);
+        entry.state = ABANDONED;
+    }
+
+    // Adds a completed, logged entry read back during recovery (ignored if expired or already known)
+    public void restore(long key, TransactionRequest.Kind kind, long accountNumber, long amountCents, long counterparty,
+                        long creditedCents, long balanceCents, long millis, long nowMillis) {
+        Entry entry = new Entry(key, kind, accountNumber, amountCents, counterparty, millis);
+        entry.logged(creditedCents, balanceCents);
+        entry.state = DONE;
+        if (!expired(entry, nowMillis) && entries.putIfAbsent(key, entry) == null) {
+            add(entry, nowMillis);
+        }
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    public long ttlMillis() {
+        return ttlMillis;
+    }
+
+    // Unexpired entries whose change has been logged, oldest first
+    public List<Entry> logged(long nowMillis) {
+        List<Entry> result = new ArrayList<>();
+        synchronized (ring) {
+            for (int i = 0; i < size; i++) {
+                Entry entry = ring[(oldest + i) % capacity];
+                if (entry.logged && !expired(entry, nowMillis)) {
+                    result.add(entry);
+                }
+            }
+        }
+        return result;
+    }
+
+    // Writes the entries to a temporary file, fsyncs it, and renames it over file
+    public static void write(Path file, List<Entry> saved) throws IOException {
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileOutputStream stream = new FileOutputStream(temp.toFile());
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream, 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(saved.size());
+            for (Entry entry : saved) {
+                out.writeLong(entry.key);
+                out.writeByte(entry.kind.ordinal());
+                out.writeLong(entry.accountNumber);
+                out.writeLong(entry.amountCents);
+                out.writeLong(entry.counterparty);
+                out.writeLong(entry.creditedCents);
+                out.writeLong(entry.balanceCents);
+                out.writeLong(entry.millis);
+            }
+            out.flush();
+            stream.getFD().sync();
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // Restores the entries saved in file, if there is one
+    public void load(Path file, long nowMillis) throws IOException {
+        if (!Files.exists(file)) {
+            return;
+        }
+        try (InputStream stream = Files.newInputStream(file);
+             DataInputStream in = new DataInputStream(new BufferedInputStream(stream, 1 << 16))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not an idempotency key file: " + file);
+            }
+            int version = in.readInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported idempotency key file version " + version + ": " + file);
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                long key = in.readLong();
+                TransactionRequest.Kind kind = KINDS[in.readByte()];
+                restore(key, kind, in.readLong(), in.readLong(), in.readLong(), in.readLong(), in.readLong(), in.readLong(), nowMillis);
+            }
+        }
+    }
+
+    // Packs a request kind and a time into one log value (see WriteAheadLog.REQUEST)
+    static long pack(TransactionRequest.Kind kind, long millis) {
+        return (long) kind.ordinal() << 56 | millis;
+    }
+
+    static TransactionRequest.Kind kindOf(long packed) {
+        return KINDS[(int) (packed >>> 56)];
+    }
+
+    static long millisOf(long packed) {
+        return packed & 0x00FF_FFFF_FFFF_FFFFL;
+    }
+
+    // A running entry never expires: its request has not finished
+    private boolean expired(Entry entry, long nowMillis) {
+        return nowMillis - entry.millis >= ttlMillis && entry.state != RUNNING;
+    }
+
+    // Appends to the ring, first dropping expired entries and, when full, the
+    // oldest that is not running; false (nothing added) if all are running
+    private boolean add(Entry entry, long nowMillis) {
+        synchronized (ring) {
+            while (size > 0 && expired(ring[oldest], nowMillis)) {
+                dropOldest();
+            }
+            if (size == capacity) {
+                // in a full ring, moving oldest on by one moves a running entry to the back
+                for (int skipped = 0; ring[oldest].state == RUNNING; skipped++) {
+                    if (skipped == size) {
+                        return false;
+                    }
+                    oldest = (oldest + 1) % capacity;
+                }
+                dropOldest();
+            }
+            ring[(oldest + size) % capacity] = entry;
+            size++;
+            return true;
+        }
+    }
+
+    private void dropOldest() {
+        Entry dropped = ring[oldest];
+        ring[oldest] = null;
+        entries.remove(dropped.key, dropped);
+        oldest = (oldest + 1) % capacity;
+        size--;
+    }
+}
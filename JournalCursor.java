@@ -0,0 +1,79 @@
+import java.nio.MappedByteBuffer;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+
+// JournalCursor walks the journal records of one account
+// It steps through a slice of the account's position index, so it only
+// touches that account's records (oldest first, or newest first for pages)
+// Fields are read straight from the mapped segment; nothing is copied
+// or turned into a String until render() is called
+// Usage: while (cursor.next()) { cursor.amountCents(); ... }
+
+
+public class JournalCursor {
+    static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd hh:mm:ss");
+
+    private final TransactionJournal journal;
+    private final long[] positions;
+    private final int from;
+    private final int to;
+    private final boolean newestFirst;
+    private int visited;
+    private long segmentIndex = -1;
+    private MappedByteBuffer segment;
+    private int offset;
+
+    // Iterates positions[from, to); the array is shared with the index, never copied
+    JournalCursor(TransactionJournal journal, long[] positions, int from, int to, boolean newestFirst) {
+        this.journal = journal;
+        this.positions = positions;
+        this.from = from;
+        this.to = to;
+        this.newestFirst = newestFirst;
+    }
+
+    // Moves to the next record of this account; false when there are no more
+    public boolean next() {
+        if (visited >= to - from) {
+            return false;
+        }
+        int i = newestFirst ? to - 1 - visited : from + visited;
+        visited++;
+        moveTo(positions[i]);
+        return true;
+    }
+
+    private void moveTo(long recordPosition) {
+        long index = journal.segmentIndexOf(recordPosition);
+        if (index != segmentIndex) {
+            segment = journal.segmentAt(recordPosition);
+            segmentIndex = index;
+        }
+        offset = journal.offsetOf(recordPosition);
+    }
+
+    public TransactionType type() {
+        return TransactionType.fromCode(segment.getInt(offset + TransactionJournal.TYPE_OFFSET));
+    }
+
+    public long amountCents() {
+        return segment.getLong(offset + TransactionJournal.AMOUNT_OFFSET);
+    }
+
+    public long counterparty() {
+        return segment.getLong(offset + TransactionJournal.COUNTERPARTY_OFFSET);
+    }
+
+    public long timestamp() {
+        return segment.getLong(offset + TransactionJournal.TIMESTAMP_OFFSET);
+    }
+
+    // Display text for the current record, e.g. "Deposited: +PHP 500.00 | Date: 2025-01-01 10:00:00"
+    // (amounts are in the currency of the account whose history this is)
+    public String render(Currency currency, String counterpartyName) {
+        LocalDateTime dateTime = LocalDateTime.ofInstant(Instant.ofEpochMilli(timestamp()), ZoneId.systemDefault());
+        return type().describe(currency, amountCents(), counterpartyName) + " | Date: " + dateTime.format(DATE_FORMAT);
+    }
+}
@@ -0,0 +1,151 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// LoadTestClient drives an AtmServer with many scripted terminals at once
+// Each terminal logs in (menu choice + PIN), then repeats deposits of PHP 1,
+// and the time from picking "Deposit" to the receipt prompt is recorded
+// Prints throughput and p50/p99 transaction latency at the end
+//
+// Run: java LoadTestClient [host] [port] [terminals] [deposits per terminal] [account choice] [PIN]
+//      java LoadTestClient idle [host] [port] [terminals]   (opens idle sessions, Enter to close)
+
+
+public class LoadTestClient {
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0 && args[0].equals("idle")) {
+            String host = args.length > 1 ? args[1] : "localhost";
+            int port = args.length > 2 ? Integer.parseInt(args[2]) : AtmServer.DEFAULT_PORT;
+            int terminals = args.length > 3 ? Integer.parseInt(args[3]) : 10_000;
+            holdIdle(host, port, terminals);
+            return;
+        }
+        String host = args.length > 0 ? args[0] : "localhost";
+        int port = args.length > 1 ? Integer.parseInt(args[1]) : AtmServer.DEFAULT_PORT;
+        int terminals = args.length > 2 ? Integer.parseInt(args[2]) : 100;
+        int deposits = args.length > 3 ? Integer.parseInt(args[3]) : 20;
+        String accountChoice = args.length > 4 ? args[4] : "1";
+        String pin = args.length > 5 ? args[5] : "2007";
+
+        List<long[]> latencies = new ArrayList<>();
+        AtomicInteger failed = new AtomicInteger();
+        long start = System.nanoTime();
+        try (ExecutorService pool = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int t = 0; t < terminals; t++) {
+                long[] mine = new long[deposits];
+                latencies.add(mine);
+                pool.execute(() -> {
+                    try {
+                        runTerminal(host, port, accountChoice, pin, mine);
+                    } catch (IOException | RuntimeException e) {
+                        failed.incrementAndGet();
+                    }
+                });
+            }
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        long[] all = latencies.stream().flatMapToLong(Arrays::stream).filter(l -> l > 0).sorted().toArray();
+        System.out.printf("Terminals: %d (failed: %d) | Deposits: %d | Wall time: %.1f s%n", terminals, failed.get(), all.length, seconds);
+        if (all.length > 0) {
+            System.out.printf("Throughput: %.0f tx/s | p50: %.2f ms | p99: %.2f ms | max: %.2f ms%n",
+                    all.length / seconds, percentile(all, 50) / 1e6, percentile(all, 99) / 1e6, all[all.length - 1] / 1e6);
+        }
+    }
+
+    // One scripted session; records each deposit's latency in nanoseconds
+    private static void runTerminal(String host, int port, String accountChoice, String pin, long[] latencies) throws IOException {
+        try (Socket socket = new Socket(host, port)) {
+            socket.setTcpNoDelay(true);
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            PrintStream out = new PrintStream(socket.getOutputStream(), true, StandardCharsets.UTF_8);
+
+            expect(in, "Enter choice (1-");
+            out.println(accountChoice);
+            expect(in, "Enter your PIN: ");
+            out.println(pin);
+            for (int i = 0; i < latencies.length; i++) {
+                expect(in, "Please enter your choice (1-8): ");
+                long begin = System.nanoTime();
+                out.println("2");
+                expect(in, "Re-enter your PIN: ");
+                out.println(pin);
+                expect(in, "Enter amount to deposit: ");
+                out.println("1");
+                expect(in, "Print receipt? (Y/N): ");
+                latencies[i] = System.nanoTime() - begin;
+                out.println("N");
+                expect(in, "another transaction? (Y/N): ");
+                out.println(i + 1 < latencies.length ? "Y" : "N");
+            }
+            expect(in, "Enter choice (1-");
+            out.println(readUntil(in, ')')); // Quit ATM is the last choice
+        }
+    }
+
+    private static void holdIdle(String host, int port, int terminals) throws Exception {
+        List<Socket> sockets = new ArrayList<>();
+        AtomicInteger ready = new AtomicInteger();
+        try (ExecutorService pool = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int t = 0; t < terminals; t++) {
+                Socket socket = new Socket(host, port);
+                sockets.add(socket);
+                pool.execute(() -> {
+                    try {
+                        expect(new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8)), "Enter choice (1-");
+                        ready.incrementAndGet();
+                    } catch (IOException e) {
+                        // counted as not ready
+                    }
+                });
+            }
+        }
+        System.out.printf("%d of %d idle sessions are at the login screen. Press Enter to close them.%n", ready.get(), terminals);
+        System.in.read();
+        for (Socket socket : sockets) {
+            socket.close();
+        }
+    }
+
+    // Reads the text up to (not including) this character, e.g. the last choice in "(1-4)"
+    private static String readUntil(BufferedReader in, char end) throws IOException {
+        StringBuilder text = new StringBuilder();
+        for (int c = in.read(); c != end; c = in.read()) {
+            if (c < 0) {
+                throw new IOException("Server closed the session while waiting for: " + end);
+            }
+            text.append((char) c);
+        }
+        return text.toString();
+    }
+
+    // Reads until the screen output ends with this text
+    private static void expect(BufferedReader in, String text) throws IOException {
+        int matched = 0;
+        while (matched < text.length()) {
+            int c = in.read();
+            if (c < 0) {
+                throw new IOException("Server closed the session while waiting for: " + text);
+            }
+            if (c == text.charAt(matched)) {
+                matched++;
+            } else {
+                matched = c == text.charAt(0) ? 1 : 0;
+            }
+        }
+    }
+
+    private static long percentile(long[] sorted, double percent) {
+        int index = (int) Math.ceil(percent / 100.0 * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(index, sorted.length - 1))];
+    }
+}
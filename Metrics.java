@@ -0,0 +1,210 @@
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToLongFunction;
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+// Metrics counts every banking operation and how long it took, per outcome
+// Histograms for every operation/outcome pair are created up front, so
+// recording is an array lookup plus a lock-free histogram update
+// Shown over JMX (see MetricsMXBean) and written to a text file on a timer
+
+
+public class Metrics implements MetricsMXBean {
+    public static final String OBJECT_NAME = "GridLineBank:type=Metrics";
+    private static final DateTimeFormatter DUMP_TIME = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+    public enum Operation {
+        DEPOSIT,
+        WITHDRAW,
+        FAST_CASH,
+        TRANSFER,
+        CHANGE_PIN,
+        AUTHENTICATE // every PIN check (login and re-entered PINs)
+    }
+
+    public enum Outcome {
+        SUCCESS,
+        INSUFFICIENT_BALANCE,
+        INVALID_AMOUNT,
+        UNKNOWN_ACCOUNT,
+        SAME_ACCOUNT,
+        CANNOT_DISPENSE,
+        DAILY_LIMIT,
+        DAILY_COUNT_LIMIT,
+        CASH_CURRENCY,
+        NO_FX_RATE,
+        KEY_REUSED,
+        BUSY,
+        DUPLICATE, // a retried request answered with the first attempt's result
+        AUTH_FAILED,
+        LOCKED_OUT;
+
+        public static Outcome of(TransactionResult.Status status) {
+            return switch (status) {
+                case SUCCESS -> SUCCESS;
+                case INSUFFICIENT_BALANCE -> INSUFFICIENT_BALANCE;
+                case INVALID_AMOUNT -> INVALID_AMOUNT;
+                case UNKNOWN_ACCOUNT -> UNKNOWN_ACCOUNT;
+                case SAME_ACCOUNT -> SAME_ACCOUNT;
+                case CANNOT_DISPENSE -> CANNOT_DISPENSE;
+                case DAILY_LIMIT -> DAILY_LIMIT;
+                case DAILY_COUNT_LIMIT -> DAILY_COUNT_LIMIT;
+                case CASH_CURRENCY -> CASH_CURRENCY;
+                case NO_FX_RATE -> NO_FX_RATE;
+                case KEY_REUSED -> KEY_REUSED;
+                case BUSY -> BUSY;
+            };
+        }
+
+        public static Outcome of(PinAuthenticator.Outcome outcome) {
+            return switch (outcome) {
+                case ACCEPTED -> SUCCESS;
+                case REJECTED -> AUTH_FAILED;
+                case LOCKED_OUT -> LOCKED_OUT;
+            };
+        }
+    }
+
+    private static final Operation[] OPERATIONS = Operation.values();
+    private static final Outcome[] OUTCOMES = Outcome.values();
+
+    private final LatencyHistogram[] histograms = new LatencyHistogram[OPERATIONS.length * OUTCOMES.length];
+
+    public Metrics() {
+        for (int i = 0; i < histograms.length; i++) {
+            histograms[i] = new LatencyHistogram();
+        }
+    }
+
+    public void record(Operation operation, Outcome outcome, long nanos) {
+        histograms[operation.ordinal() * OUTCOMES.length + outcome.ordinal()].record(nanos);
+    }
+
+    public LatencyHistogram histogram(Operation operation, Outcome outcome) {
+        return histograms[operation.ordinal() * OUTCOMES.length + outcome.ordinal()];
+    }
+
+    // Registers with the platform MBean server (once per JVM; later calls are ignored)
+    public void registerMBean() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName(OBJECT_NAME));
+        } catch (InstanceAlreadyExistsException e) {
+            // another BankingService in this JVM registered first
+        } catch (JMException e) {
+            throw new IllegalStateException("Cannot register metrics MBean", e);
+        }
+    }
+
+    // Rewrites file with the report every intervalSeconds (on a daemon thread)
+    public void startDump(Path file, long intervalSeconds) {
+        ScheduledExecutorService dumper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "metrics-dump");
+            thread.setDaemon(true);
+            return thread;
+        });
+        dumper.scheduleWithFixedDelay(() -> {
+            try {
+                dump(file);
+            } catch (IOException e) {
+                System.err.println("Could not write metrics: " + e.getMessage());
+            }
+        }, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
+
+    public void dump(Path file) throws IOException {
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        Files.writeString(temp, getReport());
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    @Override
+    public String getReport() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("GridLine Bank ATM metrics at ").append(LocalDateTime.now().format(DUMP_TIME)).append('\n');
+        sb.append(String.format("%-13s %-21s %10s %10s %10s %10s %10s %10s%n",
+                "Operation", "Outcome", "Count", "Mean", "p50", "p99", "p99.9", "Max"));
+        for (Operation operation : OPERATIONS) {
+            for (Outcome outcome : OUTCOMES) {
+                LatencyHistogram h = histogram(operation, outcome);
+                long count = h.count();
+                if (count == 0) {
+                    continue;
+                }
+                sb.append(String.format("%-13s %-21s %10d %10s %10s %10s %10s %10s%n", operation, outcome, count,
+                        duration((long) h.meanNanos()), duration(h.percentileNanos(50)), duration(h.percentileNanos(99)),
+                        duration(h.percentileNanos(99.9)), duration(h.maxNanos())));
+            }
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public Map<String, Long> getCounts() {
+        return collect(LatencyHistogram::count);
+    }
+
+    @Override
+    public Map<String, Long> getMeanNanos() {
+        return collect(h -> (long) h.meanNanos());
+    }
+
+    @Override
+    public Map<String, Long> getP50Nanos() {
+        return collect(h -> h.percentileNanos(50));
+    }
+
+    @Override
+    public Map<String, Long> getP99Nanos() {
+        return collect(h -> h.percentileNanos(99));
+    }
+
+    @Override
+    public Map<String, Long> getMaxNanos() {
+        return collect(LatencyHistogram::maxNanos);
+    }
+
+    @Override
+    public void reset() {
+        for (LatencyHistogram h : histograms) {
+            h.reset();
+        }
+    }
+
+    // One entry per operation/outcome pair that has been recorded
+    private Map<String, Long> collect(ToLongFunction<LatencyHistogram> value) {
+        Map<String, Long> result = new LinkedHashMap<>();
+        for (Operation operation : OPERATIONS) {
+            for (Outcome outcome : OUTCOMES) {
+                LatencyHistogram h = histogram(operation, outcome);
+                if (h.count() > 0) {
+                    result.put(operation + "." + outcome, value.applyAsLong(h));
+                }
+            }
+        }
+        return result;
+    }
+
+    private static String duration(long nanos) {
+        if (nanos < 1_000) {
+            return nanos + " ns";
+        } else if (nanos < 1_000_000) {
+            return String.format("%.1f us", nanos / 1e3);
+        } else if (nanos < 1_000_000_000) {
+            return String.format("%.1f ms", nanos / 1e6);
+        }
+        return String.format("%.2f s", nanos / 1e9);
+    }
+}
@@ -0,0 +1,23 @@
+import java.util.Map;
+
+// MetricsMXBean is what Metrics shows over JMX (e.g. in JConsole or VisualVM)
+// under the name GridLineBank:type=Metrics
+// Map keys are "OPERATION.OUTCOME", e.g. "WITHDRAW.INSUFFICIENT_BALANCE"
+
+
+public interface MetricsMXBean {
+    Map<String, Long> getCounts();
+
+    Map<String, Long> getMeanNanos();
+
+    Map<String, Long> getP50Nanos();
+
+    Map<String, Long> getP99Nanos();
+
+    Map<String, Long> getMaxNanos();
+
+    // The same table as the periodic text dump
+    String getReport();
+
+    void reset();
+}
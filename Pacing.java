@@ -0,0 +1,35 @@
+// Pacing decides whether the ATM screens pause for animations and reading time
+// INTERACTIVE keeps the pauses a person at the console expects; they park
+// the session's thread (a virtual thread on the server, so no OS thread is held)
+// HEADLESS skips every pause, for scripted sessions, load tests and the server
+// Choose with -Datm.pacing=interactive|headless
+
+
+public enum Pacing {
+    INTERACTIVE,
+    HEADLESS;
+
+    // Waits this long in interactive mode, returns at once in headless mode
+    public void pause(long millis) throws InterruptedException {
+        if (this == INTERACTIVE) {
+            Thread.sleep(millis);
+        }
+    }
+
+    public boolean isInteractive() {
+        return this == INTERACTIVE;
+    }
+
+    // Reads -Datm.pacing, falling back to the given default
+    public static Pacing fromSystemProperty(Pacing fallback) {
+        String value = System.getProperty("atm.pacing");
+        if (value == null || value.isBlank()) {
+            return fallback;
+        }
+        try {
+            return Pacing.valueOf(value.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("atm.pacing must be 'interactive' or 'headless', not: " + value);
+        }
+    }
+}
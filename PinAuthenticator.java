@@ -0,0 +1,261 @@
+import java.security.SecureRandom;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+
+// PinAuthenticator checks PINs against salted scrypt hashes (accounts never hold the PIN itself)
+// One authenticator is shared by every session; it keeps the failed-attempt
+// count per account, so a terminal cannot reset the count by logging in again,
+// and locks the account for a while after MAX_ATTEMPTS wrong PINs in a row
+// A check claims its attempt before hashing, so checks running at the same
+// time on one account never try more than MAX_ATTEMPTS PINs between them
+// Each session has a Session that remembers the PIN it already verified, so
+// "re-enter your PIN" prompts inside one session do not hash again
+// At most one hash per core runs at a time, which also caps the memory in use
+// Every check is timed into Metrics as AUTHENTICATE, and failed checks are
+// published to the TransactionStream (for fraud scoring)
+
+
+public class PinAuthenticator {
+    public static final int MAX_ATTEMPTS = 3;
+    public static final long LOCKOUT_MILLIS = 5 * 60 * 1000;
+
+    // scrypt cost: 128 * r * N = 4 MiB per hash (about 15 ms on one core)
+    private static final int COST_N = 1 << 12;
+    private static final int BLOCK_SIZE_R = 8;
+    private static final int PARALLELISM_P = 1;
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+    private static final Semaphore HASHING = new Semaphore(Runtime.getRuntime().availableProcessors());
+
+    public enum Outcome {
+        ACCEPTED,
+        REJECTED,    // wrong PIN, attempts remain
+        LOCKED_OUT   // too many wrong PINs; try again after the lockout
+    }
+
+    // A salted PIN hash (64-bit salt and 64-bit scrypt output)
+    public static final class PinHash {
+        private final long salt;
+        private final long hash;
+
+        public PinHash(long salt, long hash) {
+            this.salt = salt;
+            this.hash = hash;
+        }
+
+        public long getSalt() {
+            return salt;
+        }
+
+        public long getHash() {
+            return hash;
+        }
+    }
+
+    // Failed attempts for one account; replaced, never changed, so reads need no lock
+    private static final class Attempts {
+        final int failures;
+        final int inFlight; // checks that claimed an attempt and are still hashing
+        final long lockedUntil;
+
+        Attempts(int failures, int inFlight, long lockedUntil) {
+            this.failures = failures;
+            this.inFlight = inFlight;
+            this.lockedUntil = lockedUntil;
+        }
+    }
+
+    private final ConcurrentHashMap<Long, Attempts> attempts = new ConcurrentHashMap<>();
+    private final Object settled = new Object(); // notified whenever a check gives back its claim
+    private final Metrics metrics;
+    private final TransactionStream events;
+
+    public PinAuthenticator() {
+        this(new Metrics(), new TransactionStream(1));
+    }
+
+    public PinAuthenticator(Metrics metrics, TransactionStream events) {
+        this.metrics = metrics;
+        this.events = events;
+    }
+
+    // Hashes a PIN with a fresh random salt
+    public static PinHash hash(int pin) {
+        long salt = RANDOM.nextLong();
+        return new PinHash(salt, derive(pin, salt));
+    }
+
+    // Checks a PIN and updates the account's failed-attempt count
+    public Outcome verify(Account account, int pin) {
+        long start = System.nanoTime();
+        Outcome outcome = check(account, pin);
+        finish(account, outcome, start);
+        return outcome;
+    }
+
+    private void finish(Account account, Outcome outcome, long start) {
+        long end = System.nanoTime();
+        metrics.record(Metrics.Operation.AUTHENTICATE, Metrics.Outcome.of(outcome), end - start);
+        if (outcome != Outcome.ACCEPTED) {
+            events.publish(TransactionStream.Kind.FAILED_PIN, account.getAccountNumber(), 0, 0, null, end);
+        }
+    }
+
+    private Outcome check(Account account, int pin) {
+        long accountNumber = account.getAccountNumber();
+        if (!claim(accountNumber)) {
+            return Outcome.LOCKED_OUT;
+        }
+        boolean accepted = false;
+        try {
+            accepted = matches(account.getPinHash(), pin);
+        } finally {
+            settle(accountNumber, accepted);
+        }
+        if (accepted) {
+            return Outcome.ACCEPTED;
+        }
+        return isLockedOut(accountNumber) ? Outcome.LOCKED_OUT : Outcome.REJECTED;
+    }
+
+    public boolean isLockedOut(long accountNumber) {
+        Attempts current = attempts.get(accountNumber);
+        return current != null && current.lockedUntil > System.currentTimeMillis();
+    }
+
+    // Wrong PINs left before the account is locked
+    public int remainingAttempts(long accountNumber) {
+        Attempts current = attempts.get(accountNumber);
+        if (current == null || current.lockedUntil != 0 && current.lockedUntil <= System.currentTimeMillis()) {
+            return MAX_ATTEMPTS;
+        }
+        return Math.max(0, MAX_ATTEMPTS - current.failures);
+    }
+
+    // Verification state for one ATM session
+    public Session newSession() {
+        return new Session();
+    }
+
+    public final class Session {
+        private Account verifiedAccount;
+        private PinHash verifiedHash;
+        private int verifiedPin;
+
+        private Session() {
+        }
+
+        // Like PinAuthenticator.verify, but a PIN already verified in this session
+        // is accepted without hashing (as long as the account's PIN has not changed)
+        public Outcome verify(Account account, int pin) {
+            long start = System.nanoTime();
+            Outcome outcome;
+            if (account == verifiedAccount && account.getPinHash() == verifiedHash
+                    && pin == verifiedPin && !isLockedOut(account.getAccountNumber())) {
+                outcome = Outcome.ACCEPTED;
+            } else {
+                PinHash stored = account.getPinHash();
+                outcome = check(account, pin);
+                if (outcome == Outcome.ACCEPTED) {
+                    verifiedAccount = account;
+                    verifiedHash = stored;
+                    verifiedPin = pin;
+                }
+            }
+            finish(account, outcome, start);
+            return outcome;
+        }
+
+        // Drops the remembered PIN (on logout)
+        public void forget() {
+            verifiedAccount = null;
+            verifiedHash = null;
+            verifiedPin = 0;
+        }
+    }
+
+    // Claims one attempt before hashing: false if the account is locked out
+    // While every attempt left is claimed by checks still hashing, waits for
+    // one of them to finish (a success frees them all, a failure uses one up)
+    private boolean claim(long accountNumber) {
+        boolean[] claimed = new boolean[1];
+        Attempts updated = attempts.compute(accountNumber, (number, current) -> tryClaim(current, claimed));
+        if (claimed[0] || updated.lockedUntil > System.currentTimeMillis()) {
+            return claimed[0];
+        }
+        synchronized (settled) { // settle notifies while holding it, so no wake-up is missed
+            while (true) {
+                updated = attempts.compute(accountNumber, (number, current) -> tryClaim(current, claimed));
+                if (claimed[0] || updated.lockedUntil > System.currentTimeMillis()) {
+                    return claimed[0];
+                }
+                try {
+                    settled.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+        }
+    }
+
+    private static Attempts tryClaim(Attempts current, boolean[] claimed) {
+        long now = System.currentTimeMillis();
+        claimed[0] = false;
+        if (current == null) {
+            claimed[0] = true;
+            return new Attempts(0, 1, 0);
+        }
+        if (current.lockedUntil > now) {
+            return current;
+        }
+        int failures = current.lockedUntil != 0 ? 0 : current.failures; // an expired lockout starts over
+        if (failures + current.inFlight >= MAX_ATTEMPTS) {
+            return new Attempts(failures, current.inFlight, 0);
+        }
+        claimed[0] = true;
+        return new Attempts(failures, current.inFlight + 1, 0);
+    }
+
+    // Gives back a claim: a right PIN clears the failures (and any lockout),
+    // a wrong one counts and locks the account at MAX_ATTEMPTS
+    private void settle(long accountNumber, boolean accepted) {
+        attempts.compute(accountNumber, (number, current) -> {
+            int inFlight = current.inFlight - 1;
+            if (accepted) {
+                return inFlight == 0 ? null : new Attempts(0, inFlight, 0);
+            }
+            int failures = current.failures + 1;
+            long lockedUntil = current.lockedUntil != 0 ? current.lockedUntil
+                    : failures >= MAX_ATTEMPTS ? System.currentTimeMillis() + LOCKOUT_MILLIS : 0;
+            return new Attempts(failures, inFlight, lockedUntil);
+        });
+        synchronized (settled) {
+            settled.notifyAll();
+        }
+    }
+
+    // Compares without an early exit, so timing does not reveal how close a guess was
+    private static boolean matches(PinHash stored, int pin) {
+        return (derive(pin, stored.getSalt()) ^ stored.getHash()) == 0;
+    }
+
+    private static long derive(int pin, long salt) {
+        byte[] saltBytes = new byte[8];
+        for (int i = 0; i < 8; i++) {
+            saltBytes[i] = (byte) (salt >>> (56 - 8 * i));
+        }
+        byte[] key;
+        HASHING.acquireUninterruptibly();
+        try {
+            key = Scrypt.derive(Integer.toString(pin).toCharArray(), saltBytes, COST_N, BLOCK_SIZE_R, PARALLELISM_P, 8);
+        } finally {
+            HASHING.release();
+        }
+        long hash = 0;
+        for (byte b : key) {
+            hash = hash << 8 | (b & 0xFF);
+        }
+        return hash;
+    }
+}
@@ -0,0 +1,117 @@
+import java.security.GeneralSecurityException;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+
+// Scrypt is the memory-hard key derivation function from RFC 7914
+// Every derivation fills and then randomly revisits a table of 128 * r * N
+// bytes, so guessing PINs costs memory as well as CPU time
+// The PBKDF2-HMAC-SHA256 steps come from the JDK; the Salsa20/8 mixing is here
+// (checked against the test vectors in RFC 7914, section 12)
+
+
+public final class Scrypt {
+    private Scrypt() {
+    }
+
+    // Derives dkLen bytes; n must be a power of two greater than 1
+    public static byte[] derive(char[] password, byte[] salt, int n, int r, int p, int dkLen) {
+        if (n < 2 || (n & (n - 1)) != 0) {
+            throw new IllegalArgumentException("N must be a power of two greater than 1");
+        }
+        int blockInts = 32 * r;
+        byte[] b = pbkdf2(password, salt, p * 128 * r);
+        int[] x = new int[blockInts];
+        int[] y = new int[blockInts];
+        int[] v = new int[blockInts * n];
+        int[] t = new int[16];
+        for (int i = 0; i < p; i++) {
+            int offset = i * 128 * r;
+            for (int k = 0; k < blockInts; k++) {
+                x[k] = readIntLE(b, offset + 4 * k);
+            }
+            roMix(x, y, t, v, n, r);
+            for (int k = 0; k < blockInts; k++) {
+                writeIntLE(b, offset + 4 * k, x[k]);
+            }
+        }
+        return pbkdf2(password, b, dkLen);
+    }
+
+    private static byte[] pbkdf2(char[] password, byte[] salt, int length) {
+        try {
+            PBEKeySpec spec = new PBEKeySpec(password, salt, 1, length * 8);
+            return SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256").generateSecret(spec).getEncoded();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("PBKDF2WithHmacSHA256 is not available", e);
+        }
+    }
+
+    // scryptROMix: fill v with successive block mixes of x, then read it back in a data-dependent order
+    private static void roMix(int[] x, int[] y, int[] t, int[] v, int n, int r) {
+        int blockInts = 32 * r;
+        for (int i = 0; i < n; i++) {
+            System.arraycopy(x, 0, v, i * blockInts, blockInts);
+            blockMix(x, y, t, r);
+        }
+        for (int i = 0; i < n; i++) {
+            int j = x[(2 * r - 1) * 16] & (n - 1); // Integerify
+            int base = j * blockInts;
+            for (int k = 0; k < blockInts; k++) {
+                x[k] ^= v[base + k];
+            }
+            blockMix(x, y, t, r);
+        }
+    }
+
+    // scryptBlockMix: b is 2r 64-byte blocks; y (same size) and t (one block) are scratch
+    private static void blockMix(int[] b, int[] y, int[] t, int r) {
+        System.arraycopy(b, (2 * r - 1) * 16, t, 0, 16);
+        for (int i = 0; i < 2 * r; i++) {
+            for (int k = 0; k < 16; k++) {
+                t[k] ^= b[i * 16 + k];
+            }
+            salsa20_8(t);
+            // even blocks go to the first half, odd blocks to the second
+            int target = (i % 2 == 0 ? i / 2 : r + i / 2) * 16;
+            System.arraycopy(t, 0, y, target, 16);
+        }
+        System.arraycopy(y, 0, b, 0, 32 * r);
+    }
+
+    private static void salsa20_8(int[] b) {
+        int x0 = b[0], x1 = b[1], x2 = b[2], x3 = b[3], x4 = b[4], x5 = b[5], x6 = b[6], x7 = b[7];
+        int x8 = b[8], x9 = b[9], x10 = b[10], x11 = b[11], x12 = b[12], x13 = b[13], x14 = b[14], x15 = b[15];
+        for (int i = 0; i < 8; i += 2) {
+            x4 ^= Integer.rotateLeft(x0 + x12, 7);   x8 ^= Integer.rotateLeft(x4 + x0, 9);
+            x12 ^= Integer.rotateLeft(x8 + x4, 13);  x0 ^= Integer.rotateLeft(x12 + x8, 18);
+            x9 ^= Integer.rotateLeft(x5 + x1, 7);    x13 ^= Integer.rotateLeft(x9 + x5, 9);
+            x1 ^= Integer.rotateLeft(x13 + x9, 13);  x5 ^= Integer.rotateLeft(x1 + x13, 18);
+            x14 ^= Integer.rotateLeft(x10 + x6, 7);  x2 ^= Integer.rotateLeft(x14 + x10, 9);
+            x6 ^= Integer.rotateLeft(x2 + x14, 13);  x10 ^= Integer.rotateLeft(x6 + x2, 18);
+            x3 ^= Integer.rotateLeft(x15 + x11, 7);  x7 ^= Integer.rotateLeft(x3 + x15, 9);
+            x11 ^= Integer.rotateLeft(x7 + x3, 13);  x15 ^= Integer.rotateLeft(x11 + x7, 18);
+            x1 ^= Integer.rotateLeft(x0 + x3, 7);    x2 ^= Integer.rotateLeft(x1 + x0, 9);
+            x3 ^= Integer.rotateLeft(x2 + x1, 13);   x0 ^= Integer.rotateLeft(x3 + x2, 18);
+            x6 ^= Integer.rotateLeft(x5 + x4, 7);    x7 ^= Integer.rotateLeft(x6 + x5, 9);
+            x4 ^= Integer.rotateLeft(x7 + x6, 13);   x5 ^= Integer.rotateLeft(x4 + x7, 18);
+            x11 ^= Integer.rotateLeft(x10 + x9, 7);  x8 ^= Integer.rotateLeft(x11 + x10, 9);
+            x9 ^= Integer.rotateLeft(x8 + x11, 13);  x10 ^= Integer.rotateLeft(x9 + x8, 18);
+            x12 ^= Integer.rotateLeft(x15 + x14, 7); x13 ^= Integer.rotateLeft(x12 + x15, 9);
+            x14 ^= Integer.rotateLeft(x13 + x12, 13); x15 ^= Integer.rotateLeft(x14 + x13, 18);
+        }
+        b[0] += x0; b[1] += x1; b[2] += x2; b[3] += x3; b[4] += x4; b[5] += x5; b[6] += x6; b[7] += x7;
+        b[8] += x8; b[9] += x9; b[10] += x10; b[11] += x11; b[12] += x12; b[13] += x13; b[14] += x14; b[15] += x15;
+    }
+
+    private static int readIntLE(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xFF) | (bytes[offset + 1] & 0xFF) << 8
+                | (bytes[offset + 2] & 0xFF) << 16 | (bytes[offset + 3] & 0xFF) << 24;
+    }
+
+    private static void writeIntLE(byte[] bytes, int offset, int value) {
+        bytes[offset] = (byte) value;
+        bytes[offset + 1] = (byte) (value >>> 8);
+        bytes[offset + 2] = (byte) (value >>> 16);
+        bytes[offset + 3] = (byte) (value >>> 24);
+    }
+}
@@ -0,0 +1,189 @@
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+
+// SessionRecorder captures what customers answer at the ATM prompts (account
+// and menu choices, amounts, Y/N), with the time between answers, into a
+// compact binary trace that SessionReplayer plays back as load
+// Each ATM session becomes one record, appended when the session ends;
+// sessions from many terminals share the file
+// PINs are never stored: a PIN answer is recorded only as right or wrong
+// (for a new PIN: whether the confirmation matched), and the replayer types
+// a PIN of its own instead
+// Turn it on with -Datm.record=<directory>; the trace goes to
+// <directory>/sessions-<time>.trace
+// A session ends with END when the customer quit; one cut off (a terminal
+// that disconnected) simply stops
+//
+// File layout: int "ATMR", int version, then one record per session:
+//   varint record length, varint start time (epoch ms), then per answer
+//   varint (milliseconds since the previous answer << 3 | kind) and the value:
+//   NUMBER zigzag varint, AMOUNT zigzag varint of hundredths, DOUBLE 8 bytes
+//   (an amount with more decimals), YES, NO, PIN, WRONG_PIN, END nothing
+
+
+public class SessionRecorder implements AutoCloseable {
+    static final int MAGIC = 0x41544D52; // "ATMR"
+    static final int VERSION = 1;
+    static final int NUMBER = 0;
+    static final int AMOUNT = 1;
+    static final int DOUBLE = 2;
+    static final int YES = 3;
+    static final int NO = 4;
+    static final int PIN = 5;       // the right PIN, or a new PIN, or a confirmation that matched
+    static final int WRONG_PIN = 6; // a rejected PIN, or a confirmation that did not match
+    static final int END = 7;       // the customer quit (a session without it was cut off)
+    static final int KIND_BITS = 3;
+    private static final DateTimeFormatter FILE_TIME = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss");
+
+    // One ATM session's answers; only its own session's thread uses it
+    public static class Recording {
+        // Records nothing (recording is off)
+        public static final Recording NONE = new Recording(null);
+
+        private final SessionRecorder recorder;
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        private long lastMillis;
+
+        private Recording(SessionRecorder recorder) {
+            this.recorder = recorder;
+            if (recorder != null) {
+                lastMillis = System.currentTimeMillis();
+                writeVarLong(bytes, lastMillis);
+            }
+        }
+
+        public void number(int value) {
+            if (answer(NUMBER)) {
+                writeVarLong(bytes, zigzag(value));
+            }
+        }
+
+        public void amount(double value) {
+            long hundredths = Math.round(value * 100);
+            if (hundredths / 100.0 == value) {
+                if (answer(AMOUNT)) {
+                    writeVarLong(bytes, zigzag(hundredths));
+                }
+            } else if (answer(DOUBLE)) {
+                long bits = Double.doubleToRawLongBits(value);
+                for (int shift = 56; shift >= 0; shift -= 8) {
+                    bytes.write((int) (bits >>> shift));
+                }
+            }
+        }
+
+        public void yesNo(boolean yes) {
+            answer(yes ? YES : NO);
+        }
+
+        // right: the PIN was accepted (or, for a new PIN's confirmation, matched)
+        public void pin(boolean right) {
+            answer(right ? PIN : WRONG_PIN);
+        }
+
+        // The customer quit at the account selection
+        public void end() {
+            answer(END);
+        }
+
+        // Appends the session to the trace (once, when it ends)
+        public void finish() {
+            if (recorder != null) {
+                recorder.write(bytes);
+            }
+        }
+
+        private boolean answer(int kind) {
+            if (recorder == null) {
+                return false;
+            }
+            long now = System.currentTimeMillis();
+            writeVarLong(bytes, Math.max(0, now - lastMillis) << KIND_BITS | kind);
+            lastMillis = now;
+            return true;
+        }
+    }
+
+    private final Path file;
+    private final OutputStream out;
+    private long sessions;
+
+    private SessionRecorder(Path file) throws IOException {
+        this.file = file;
+        this.out = new BufferedOutputStream(new FileOutputStream(file.toFile()), 1 << 16);
+        DataOutputStream header = new DataOutputStream(out);
+        header.writeInt(MAGIC);
+        header.writeInt(VERSION);
+        out.flush();
+    }
+
+    // A new trace file in this directory
+    public static SessionRecorder create(Path directory) throws IOException {
+        Files.createDirectories(directory);
+        return new SessionRecorder(directory.resolve("sessions-" + LocalDateTime.now().format(FILE_TIME) + ".trace"));
+    }
+
+    // A recorder if -Datm.record names a directory, else null
+    public static SessionRecorder fromSystemProperty() throws IOException {
+        String value = System.getProperty("atm.record");
+        if (value == null || value.isBlank()) {
+            return null;
+        }
+        return create(Path.of(value.trim()));
+    }
+
+    // Starts recording one session (Recording.NONE if recorder is null)
+    public static Recording start(SessionRecorder recorder) {
+        return recorder == null ? Recording.NONE : new Recording(recorder);
+    }
+
+    public Path file() {
+        return file;
+    }
+
+    // Sessions written so far
+    public synchronized long sessions() {
+        return sessions;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        out.close();
+    }
+
+    // One whole record at a time, so sessions ending together do not interleave
+    private synchronized void write(ByteArrayOutputStream record) {
+        try {
+            writeVarLong(out, record.size());
+            record.writeTo(out);
+            out.flush(); // a crash loses at most the sessions still running
+            sessions++;
+        } catch (IOException e) {
+            System.err.println("Could not record the session to " + file + ": " + e.getMessage());
+        }
+    }
+
+    static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static void writeVarLong(OutputStream out, long value) {
+        try {
+            while ((value & ~0x7FL) != 0) {
+                out.write((int) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            out.write((int) value);
+        } catch (IOException e) {
+            throw new java.io.UncheckedIOException(e);
+        }
+    }
+}
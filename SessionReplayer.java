@@ -0,0 +1,419 @@
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Scanner;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+// SessionReplayer plays traces written by SessionRecorder back against the
+// banking logic, as a repeatable load test
+// Every recorded session runs as a real ATM session (same screens, same
+// BankingService calls) whose input is the trace: each answer is typed when
+// it is due, at the recorded pace divided by the speed factor
+// Sessions start at their recorded offsets, on a pool of threads; copies > 1
+// replays the trace that many times over at once, for more load than was recorded
+// The bank is a scratch one: the opening accounts in a temporary directory,
+// or a copy of a data directory (take it while terminals are quiet)
+// Every account gets REPLAY_PIN, and a recorded wrong PIN is typed as a
+// different one; the traces hold no PINs (see SessionRecorder)
+// A session diverges when the ATM asks for more answers than were recorded,
+// or quits with answers left over (e.g. an account the copy does not have,
+// or a lockout caused by another copy's wrong PINs)
+// At the end it reports throughput, the ATM's response time to each answer,
+// the per-operation latencies from Metrics, and checks that balances,
+// journal, read model, cash paid out and a reopened ledger all agree
+//
+// Run: java SessionReplayer <trace file or directory> [speed] [threads] [copies] [data directory]
+//      speed 1 is real time, 10 is ten times faster, 0 does not wait at all
+
+
+public class SessionReplayer {
+    public static final int REPLAY_PIN = 4321;
+    static final int DEFAULT_THREADS = 64;
+    private static final long CATCH_UP_MILLIS = 10_000;
+
+    // One recorded session: its start time and its answers (still encoded)
+    static final class Session {
+        final long startMillis;
+        final byte[] record;
+        final int answersAt;
+
+        Session(byte[] record) {
+            ByteBuffer in = ByteBuffer.wrap(record);
+            this.startMillis = readVarLong(in);
+            this.record = record;
+            this.answersAt = in.position();
+        }
+    }
+
+    // How replaying one session went
+    enum Outcome { COMPLETED, DIVERGED, FAILED }
+
+    // Types a session's answers, each one when it is due
+    private static final class TraceReader extends Reader {
+        private final ByteBuffer answers;
+        private final double speed;
+        private final LatencyHistogram responses;
+        private long dueNanos;
+        private long answeredNanos;
+        private String pending;
+        private int pendingAt;
+        private boolean askedPastEnd;
+
+        TraceReader(Session session, long startNanos, double speed, LatencyHistogram responses) {
+            this.answers = ByteBuffer.wrap(session.record, session.answersAt, session.record.length - session.answersAt);
+            this.dueNanos = startNanos;
+            this.speed = speed;
+            this.responses = responses;
+        }
+
+        @Override
+        public int read(char[] buffer, int offset, int length) throws IOException {
+            if (pending == null) {
+                long now = System.nanoTime();
+                if (answeredNanos != 0) {
+                    responses.record(now - answeredNanos); // the ATM's work between two answers
+                }
+                if (!answers.hasRemaining() || nextKind() == SessionRecorder.END) {
+                    askedPastEnd = true;
+                    return -1;
+                }
+                long header = readVarLong(answers);
+                if (speed > 0) {
+                    dueNanos += (long) ((header >>> SessionRecorder.KIND_BITS) * 1e6 / speed);
+                }
+                pending = text((int) (header & ((1 << SessionRecorder.KIND_BITS) - 1))) + "\n";
+                pendingAt = 0;
+                try {
+                    sleepUntil(dueNanos);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Replay interrupted");
+                }
+                answeredNanos = System.nanoTime();
+            }
+            int n = Math.min(length, pending.length() - pendingAt);
+            pending.getChars(pendingAt, pendingAt + n, buffer, offset);
+            pendingAt += n;
+            if (pendingAt == pending.length()) {
+                pending = null;
+            }
+            return n;
+        }
+
+        @Override
+        public void close() {
+        }
+
+        // True if the session ended the way the recorded one did
+        boolean endedAsRecorded(boolean quit) {
+            if (quit) {
+                return !askedPastEnd && answers.hasRemaining() && nextKind() == SessionRecorder.END;
+            }
+            return askedPastEnd && !answers.hasRemaining(); // the recorded terminal was cut off here too
+        }
+
+        private int nextKind() {
+            int at = answers.position();
+            long header = readVarLong(answers);
+            answers.position(at);
+            return (int) (header & ((1 << SessionRecorder.KIND_BITS) - 1));
+        }
+
+        // The line a customer would have typed
+        private String text(int kind) throws IOException {
+            return switch (kind) {
+                case SessionRecorder.NUMBER -> Long.toString(unzigzag(readVarLong(answers)));
+                case SessionRecorder.AMOUNT -> BigDecimal.valueOf(unzigzag(readVarLong(answers)), 2).toPlainString();
+                case SessionRecorder.DOUBLE -> Double.toString(answers.getDouble());
+                case SessionRecorder.YES -> "Y";
+                case SessionRecorder.NO -> "N";
+                case SessionRecorder.PIN -> Integer.toString(REPLAY_PIN);
+                case SessionRecorder.WRONG_PIN -> Integer.toString(REPLAY_PIN + 1);
+                default -> throw new IOException("Unknown answer kind in trace: " + kind);
+            };
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length == 0) {
+            System.out.println("Usage: java SessionReplayer <trace file or directory> [speed] [threads] [copies] [data directory]");
+            return;
+        }
+        List<Session> sessions = load(Path.of(args[0]));
+        double speed = args.length > 1 ? Double.parseDouble(args[1]) : 1;
+        int threads = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_THREADS;
+        int copies = args.length > 3 ? Integer.parseInt(args[3]) : 1;
+        Path source = args.length > 4 ? Path.of(args[4]) : null;
+        if (speed < 0 || threads < 1 || copies < 1) {
+            throw new IllegalArgumentException("Speed must not be negative, threads and copies at least 1");
+        }
+        if (sessions.isEmpty()) {
+            System.out.println("No sessions in " + args[0]);
+            return;
+        }
+
+        Path directory = Files.createTempDirectory("atm-replay");
+        if (source != null) {
+            copyTree(source, directory);
+        }
+        boolean consistent = replay(sessions, speed, threads, copies, directory);
+        if (consistent) {
+            deleteTree(directory);
+        } else {
+            System.out.println("Replay data kept in " + directory);
+            System.exit(1);
+        }
+    }
+
+    // Reads every session of a trace file, or of all *.trace files in a directory
+    static List<Session> load(Path path) throws IOException {
+        List<Path> files = new ArrayList<>();
+        if (Files.isDirectory(path)) {
+            try (Stream<Path> listing = Files.list(path)) {
+                listing.filter(p -> p.getFileName().toString().endsWith(".trace")).sorted().forEach(files::add);
+            }
+        } else {
+            files.add(path);
+        }
+        List<Session> sessions = new ArrayList<>();
+        for (Path file : files) {
+            ByteBuffer in = ByteBuffer.wrap(Files.readAllBytes(file));
+            if (in.remaining() < 8 || in.getInt() != SessionRecorder.MAGIC) {
+                throw new IOException(file + " is not a session trace");
+            }
+            int version = in.getInt();
+            if (version != SessionRecorder.VERSION) {
+                throw new IOException(file + " has trace version " + version + ", expected " + SessionRecorder.VERSION);
+            }
+            while (in.hasRemaining()) {
+                int length = (int) readVarLong(in);
+                if (length > in.remaining()) {
+                    break; // the last session was being written when the recorder stopped
+                }
+                byte[] record = new byte[length];
+                in.get(record);
+                sessions.add(new Session(record));
+            }
+        }
+        sessions.sort(Comparator.comparingLong(s -> s.startMillis));
+        return sessions;
+    }
+
+    // Replays the sessions against the bank in directory, prints the report; true if every check passed
+    static boolean replay(List<Session> sessions, double speed, int threads, int copies, Path directory) throws Exception {
+        TransactionJournal journal = TransactionJournal.open(directory.resolve("journal"));
+        DurableLedger ledger = DurableLedger.open(directory, journal, () -> ATM.openingAccounts(journal));
+        AccountRepository accounts = ledger.accounts();
+        PinAuthenticator.PinHash pin = PinAuthenticator.hash(REPLAY_PIN);
+        for (int i = 0; i < accounts.size(); i++) {
+            ledger.setPin(accounts.get(i), pin);
+        }
+        BankingService bank = new BankingService(ledger, FxRates.load(directory.resolve("fx-rates.txt")));
+        AtomicLong fraudFlags = new AtomicLong();
+        bank.startFraudScoring(flag -> fraudFlags.incrementAndGet());
+        bank.startReadModel(journal);
+        long firstPosition = journal.size();
+        Map<Long, Long> startBalances = balances(accounts);
+        int[] startNotes = bank.dispenser().noteCounts();
+
+        LatencyHistogram responses = new LatencyHistogram();
+        AtomicLong[] outcomes = {new AtomicLong(), new AtomicLong(), new AtomicLong()};
+        AtomicLong latestStartNanos = new AtomicLong();
+        PrintStream screens = new PrintStream(PrintStream.nullOutputStream());
+        long firstMillis = sessions.get(0).startMillis;
+        ScheduledThreadPoolExecutor pool = new ScheduledThreadPoolExecutor(threads);
+        long begin = System.nanoTime();
+        for (int copy = 0; copy < copies; copy++) {
+            for (Session session : sessions) {
+                long offsetNanos = speed == 0 ? 0 : (long) ((session.startMillis - firstMillis) * 1e6 / speed);
+                pool.schedule(() -> {
+                    long startNanos = System.nanoTime();
+                    latestStartNanos.accumulateAndGet(startNanos - begin - offsetNanos, Math::max);
+                    Outcome outcome = play(session, bank, screens, startNanos, speed, responses);
+                    outcomes[outcome.ordinal()].incrementAndGet();
+                }, offsetNanos, TimeUnit.NANOSECONDS);
+            }
+        }
+        pool.shutdown();
+        pool.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+        double seconds = (System.nanoTime() - begin) / 1e9;
+
+        long played = (long) sessions.size() * copies;
+        long operations = 0;
+        for (long count : bank.metrics().getCounts().values()) {
+            operations += count;
+        }
+        System.out.printf("Replayed %d sessions (%d recorded x %d) at %sx on %d threads in %.1f s%n",
+                played, sessions.size(), copies, speed == 0 ? "full " : speed, threads, seconds);
+        System.out.printf("Completed: %d | Diverged: %d | Failed: %d | Latest start: %.1f ms behind schedule%n",
+                outcomes[0].get(), outcomes[1].get(), outcomes[2].get(), latestStartNanos.get() / 1e6);
+        System.out.printf("Responses: %d | Operations: %d (%.0f/s) | Fraud flags: %d%n",
+                responses.count(), operations, operations / seconds, fraudFlags.get());
+        System.out.printf("ATM response to an answer: p50 %.2f ms | p99 %.2f ms | p99.9 %.2f ms | max %.2f ms%n",
+                responses.percentileNanos(50) / 1e6, responses.percentileNanos(99) / 1e6,
+                responses.percentileNanos(99.9) / 1e6, responses.maxNanos() / 1e6);
+        System.out.println();
+        System.out.print(bank.metrics().getReport());
+        System.out.println();
+
+        boolean consistent = check(journal, bank, firstPosition, startBalances, startNotes);
+        bank.events().close();
+        bank.views().close();
+        Map<Long, Long> before = balances(accounts);
+        ledger.close();
+        journal.close();
+        consistent &= checkReopened(directory, before);
+        System.out.println(consistent ? "All consistency checks passed." : "CONSISTENCY CHECKS FAILED.");
+        return consistent;
+    }
+
+    // Runs one recorded session as an ATM session
+    private static Outcome play(Session session, BankingService bank, PrintStream screens, long startNanos, double speed,
+                                LatencyHistogram responses) {
+        TraceReader trace = new TraceReader(session, startNanos, speed, responses);
+        try {
+            new ATM(new Scanner(trace), screens, bank, Pacing.HEADLESS).run();
+            return trace.endedAsRecorded(true) ? Outcome.COMPLETED : Outcome.DIVERGED;
+        } catch (NoSuchElementException e) {
+            return trace.endedAsRecorded(false) ? Outcome.COMPLETED : Outcome.DIVERGED;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return Outcome.FAILED;
+        } catch (RuntimeException e) {
+            System.err.println("Session failed: " + e);
+            return Outcome.FAILED;
+        }
+    }
+
+    // Balances against the journal, no overdrafts, read model, and cash against withdrawals
+    private static boolean check(TransactionJournal journal, BankingService bank, long firstPosition,
+                                 Map<Long, Long> startBalances, int[] startNotes) {
+        boolean ok = true;
+        Map<Long, Long> expected = new HashMap<>(startBalances);
+        long[] cashCents = {0};
+        journal.forEach(firstPosition, journal.size(), (position, accountNumber, type, amountMinor, counterparty, millis) -> {
+            expected.merge(accountNumber, type.signed(amountMinor), Long::sum);
+            if (type == TransactionType.WITHDRAWAL || type == TransactionType.FAST_CASH) {
+                cashCents[0] += amountMinor;
+            }
+        });
+        AccountRepository accounts = bank.accounts();
+        boolean caughtUp = bank.views().catchUp(CATCH_UP_MILLIS);
+        int journalMismatches = 0;
+        int negative = 0;
+        int viewMismatches = 0;
+        for (int i = 0; i < accounts.size(); i++) {
+            long number = accounts.numberAt(i);
+            long balance = accounts.balanceAt(i);
+            if (balance != expected.get(number)) {
+                journalMismatches++;
+            }
+            if (balance < 0) {
+                negative++;
+            }
+            AccountViews.View view = bank.views().get(number);
+            if (view == null || view.getBalanceMinor() != balance) {
+                viewMismatches++;
+            }
+        }
+        ok &= report("Balances match the journal", journalMismatches == 0, journalMismatches + " accounts differ");
+        ok &= report("No negative balances", negative == 0, negative + " accounts below zero");
+        ok &= report("Read model matches the accounts", caughtUp && viewMismatches == 0,
+                caughtUp ? viewMismatches + " views differ" : "it did not catch up in " + CATCH_UP_MILLIS + " ms");
+
+        long[] denominations = bank.dispenser().denominations();
+        int[] notes = bank.dispenser().noteCounts();
+        long paidCents = 0;
+        for (int i = 0; i < notes.length; i++) {
+            paidCents += (startNotes[i] - notes[i]) * denominations[i];
+        }
+        ok &= report("Cash paid out matches withdrawals", paidCents == cashCents[0],
+                String.format("notes worth PHP %.2f, withdrawals PHP %.2f", Account.toPesos(paidCents), Account.toPesos(cashCents[0])));
+        return ok;
+    }
+
+    // The ledger recovered from disk has the balances the replay ended with
+    private static boolean checkReopened(Path directory, Map<Long, Long> before) throws IOException {
+        try (TransactionJournal journal = TransactionJournal.open(directory.resolve("journal"));
+             DurableLedger ledger = DurableLedger.open(directory, journal, AccountRepository::new)) {
+            Map<Long, Long> after = balances(ledger.accounts());
+            int differ = 0;
+            for (Map.Entry<Long, Long> entry : before.entrySet()) {
+                if (!entry.getValue().equals(after.get(entry.getKey()))) {
+                    differ++;
+                }
+            }
+            return report("Reopened ledger has the same balances", differ == 0 && after.size() == before.size(),
+                    differ + " accounts differ, " + after.size() + " accounts instead of " + before.size());
+        }
+    }
+
+    private static boolean report(String check, boolean passed, String detail) {
+        System.out.println((passed ? "[ok]   " : "[FAIL] ") + check + (passed ? "" : ": " + detail));
+        return passed;
+    }
+
+    private static Map<Long, Long> balances(AccountRepository accounts) {
+        Map<Long, Long> balances = new HashMap<>();
+        for (int i = 0; i < accounts.size(); i++) {
+            balances.put(accounts.numberAt(i), accounts.balanceAt(i)); // makes no account
+        }
+        return balances;
+    }
+
+    private static void sleepUntil(long deadlineNanos) throws InterruptedException {
+        long wait;
+        while ((wait = deadlineNanos - System.nanoTime()) > 0) {
+            TimeUnit.NANOSECONDS.sleep(wait);
+        }
+    }
+
+    private static void copyTree(Path from, Path to) throws IOException {
+        try (Stream<Path> files = Files.walk(from)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Path target = to.resolve(from.relativize(file).toString());
+                if (Files.isDirectory(file)) {
+                    Files.createDirectories(target);
+                } else {
+                    Files.copy(file, target);
+                }
+            }
+        }
+    }
+
+    private static void deleteTree(Path directory) throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    static long readVarLong(ByteBuffer in) {
+        long value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = in.get();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+    }
+
+    static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
@@ -0,0 +1,160 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// ShardCluster starts one ShardNode process per shard on this machine and
+// drives random transfers between the numbered customer accounts through a
+// ShardedLedger, to measure how the store scales with the number of shards
+// A share of the transfers (cross-shard %) go to an account on another
+// shard and take the two-phase path; the rest stay on the sender's shard
+// At the end it waits for every commit to reach both shards and checks that
+// the total of all balances is what it was before (no money made or lost)
+// Node output goes to data/shards-<n>/shard-<i>.log
+//
+// Run: java ShardCluster <shards> [customers] [clients] [seconds] [cross-shard %]
+
+
+public class ShardCluster {
+    private static final long START_TIMEOUT_MILLIS = 120_000;
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.out.println("Usage: java ShardCluster <shards> [customers] [clients] [seconds] [cross-shard %]");
+            return;
+        }
+        int shards = Integer.parseInt(args[0]);
+        long customers = args.length > 1 ? Long.parseLong(args[1]) : 100_000;
+        int clients = args.length > 2 ? Integer.parseInt(args[2]) : 32;
+        int seconds = args.length > 3 ? Integer.parseInt(args[3]) : 20;
+        int crossPercent = args.length > 4 ? Integer.parseInt(args[4]) : 20;
+
+        List<Process> nodes = start(shards, customers);
+        try (ShardedLedger ledger = ShardedLedger.open(new ShardMap(shards), ShardedLedger.localNodes(shards), 0)) {
+            run(ledger, customers, clients, seconds, crossPercent);
+        } finally {
+            for (Process node : nodes) {
+                node.destroy(); // the node's shutdown hook writes a final snapshot
+            }
+            for (Process node : nodes) {
+                node.waitFor();
+            }
+        }
+    }
+
+    static List<Process> start(int shards, long customers) throws IOException, InterruptedException {
+        List<Process> nodes = new ArrayList<>();
+        for (int shard = 0; shard < shards; shard++) {
+            Path log = Path.of("data", "shards-" + shards, "shard-" + shard + ".log");
+            Files.createDirectories(log.getParent());
+            nodes.add(new ProcessBuilder(ShardNode.command(shard, shards, ShardNode.BASE_PORT + shard, customers))
+                    .redirectErrorStream(true)
+                    .redirectOutput(ProcessBuilder.Redirect.appendTo(log.toFile()))
+                    .start());
+        }
+        long deadline = System.currentTimeMillis() + START_TIMEOUT_MILLIS;
+        for (InetSocketAddress node : ShardedLedger.localNodes(shards)) {
+            while (true) {
+                try {
+                    new Socket(node.getHostName(), node.getPort()).close();
+                    break;
+                } catch (IOException e) {
+                    if (System.currentTimeMillis() > deadline) {
+                        nodes.forEach(Process::destroy);
+                        throw new IOException("Shard on port " + node.getPort() + " did not start; see its log", e);
+                    }
+                    Thread.sleep(100);
+                }
+            }
+        }
+        return nodes;
+    }
+
+    private static void run(ShardedLedger ledger, long customers, int clients, int seconds, int crossPercent) throws Exception {
+        ShardMap map = ledger.map();
+        long[][] byShard = customersByShard(map, customers);
+        long[] before = ledger.totals();
+
+        LatencyHistogram local = new LatencyHistogram();
+        LatencyHistogram cross = new LatencyHistogram();
+        AtomicLongArray outcomes = new AtomicLongArray(ShardedLedger.Status.values().length);
+        AtomicLong seed = new AtomicLong(21);
+        long end = System.nanoTime() + seconds * 1_000_000_000L;
+        List<Thread> threads = new ArrayList<>();
+        long start = System.nanoTime();
+        for (int c = 0; c < clients; c++) {
+            SplittableRandom random = new SplittableRandom(seed.getAndIncrement());
+            Thread client = new Thread(() -> {
+                while (System.nanoTime() < end) {
+                    int fromShard = random.nextInt(map.shards());
+                    boolean remote = map.shards() > 1 && random.nextInt(100) < crossPercent;
+                    int toShard = remote ? (fromShard + 1 + random.nextInt(map.shards() - 1)) % map.shards() : fromShard;
+                    long from = pick(byShard[fromShard], random);
+                    long to = pick(byShard[toShard], random);
+                    long began = System.nanoTime();
+                    ShardedLedger.Status status = ledger.transfer(from, to, 1 + random.nextInt(10_000));
+                    (remote ? cross : local).record(System.nanoTime() - began);
+                    outcomes.incrementAndGet(status.ordinal());
+                }
+            }, "shard-client-" + c);
+            threads.add(client);
+            client.start();
+        }
+        for (Thread client : threads) {
+            client.join();
+        }
+        double elapsed = (System.nanoTime() - start) / 1e9;
+
+        long settleDeadline = System.currentTimeMillis() + 30_000;
+        while (ledger.undelivered() > 0 && System.currentTimeMillis() < settleDeadline) {
+            Thread.sleep(100);
+        }
+        long[] after = ledger.totals();
+
+        long total = local.count() + cross.count();
+        System.out.printf("Shards: %d | Customers: %d | Clients: %d | Cross-shard: %d%%%n", map.shards(), customers, clients, crossPercent);
+        System.out.printf("Transfers: %d in %.1f s = %.0f/s%n", total, elapsed, total / elapsed);
+        System.out.printf("Same shard:  %d, p50 %.2f ms, p99 %.2f ms%n",
+                local.count(), local.percentileNanos(50) / 1e6, local.percentileNanos(99) / 1e6);
+        if (cross.count() > 0) {
+            System.out.printf("Two-phase:   %d, p50 %.2f ms, p99 %.2f ms%n",
+                    cross.count(), cross.percentileNanos(50) / 1e6, cross.percentileNanos(99) / 1e6);
+        }
+        StringBuilder sb = new StringBuilder("Outcomes:");
+        for (ShardedLedger.Status status : ShardedLedger.Status.values()) {
+            if (outcomes.get(status.ordinal()) > 0) {
+                sb.append(' ').append(status).append('=').append(outcomes.get(status.ordinal()));
+            }
+        }
+        System.out.println(sb);
+        System.out.printf("Total balance: PHP %.2f before, PHP %.2f after (%s) | In doubt: %d%n",
+                Account.toPesos(before[0]), Account.toPesos(after[0]), before[0] == after[0] ? "balanced" : "MISMATCH", after[2]);
+    }
+
+    private static long[][] customersByShard(ShardMap map, long customers) {
+        int[] counts = new int[map.shards()];
+        for (long n = ShardNode.FIRST_CUSTOMER; n < ShardNode.FIRST_CUSTOMER + customers; n++) {
+            counts[map.shardOf(n)]++;
+        }
+        long[][] byShard = new long[map.shards()][];
+        for (int shard = 0; shard < map.shards(); shard++) {
+            byShard[shard] = new long[counts[shard]];
+            counts[shard] = 0;
+        }
+        for (long n = ShardNode.FIRST_CUSTOMER; n < ShardNode.FIRST_CUSTOMER + customers; n++) {
+            int shard = map.shardOf(n);
+            byShard[shard][counts[shard]++] = n;
+        }
+        return byShard;
+    }
+
+    private static long pick(long[] accounts, SplittableRandom random) {
+        return accounts[random.nextInt(accounts.length)];
+    }
+}
@@ -0,0 +1,60 @@
+import java.util.Arrays;
+
+// ShardMap says which shard holds an account, by consistent hashing
+// Each shard owns VIRTUAL_NODES points on a ring of 64-bit hashes; an account
+// belongs to the first point at or after the hash of its number
+// Going from n to n + 1 shards moves only about 1/(n + 1) of the accounts,
+// and the many points per shard keep the shards within a few percent of even
+// Every node and every client must use the same shard count
+
+
+public final class ShardMap {
+    static final int VIRTUAL_NODES = 128;
+
+    private final int shards;
+    private final long[] points; // sorted hashes on the ring
+    private final int[] owners;  // owners[i] holds points[i]
+
+    public ShardMap(int shards) {
+        if (shards < 1) {
+            throw new IllegalArgumentException("At least one shard is needed");
+        }
+        this.shards = shards;
+        long[] hashes = new long[shards * VIRTUAL_NODES];
+        for (int shard = 0; shard < shards; shard++) {
+            for (int v = 0; v < VIRTUAL_NODES; v++) {
+                hashes[shard * VIRTUAL_NODES + v] = mix(((long) shard << 32) | v);
+            }
+        }
+        Integer[] order = new Integer[hashes.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Long.compare(hashes[a], hashes[b]));
+        points = new long[order.length];
+        owners = new int[order.length];
+        for (int i = 0; i < order.length; i++) {
+            points[i] = hashes[order[i]];
+            owners[i] = order[i] / VIRTUAL_NODES;
+        }
+    }
+
+    public int shards() {
+        return shards;
+    }
+
+    public int shardOf(long accountNumber) {
+        int i = Arrays.binarySearch(points, mix(accountNumber ^ 0x5DEECE66DL));
+        if (i < 0) {
+            i = -i - 1;
+        }
+        return owners[i == points.length ? 0 : i];
+    }
+
+    // SplitMix64 finaliser: spreads sequential account numbers over the whole ring
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
@@ -0,0 +1,254 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// ShardNode is one shard of a sharded account store: a separate process that
+// holds the accounts ShardMap gives it, in its own DurableLedger under
+// data/shards-<n>/shard-<i>/, and serves them on a localhost port
+// Clients (see ShardedLedger) send one command per line and get one line back:
+//   BALANCE account                      -> OK balance
+//   DEPOSIT account cents                -> OK balance
+//   WITHDRAW account cents               -> OK balance
+//   TRANSFER from to cents               -> OK balance of from   (both accounts on this shard)
+//   PREPARE_DEBIT txid account cents     -> OK balance           (holds the amount)
+//   PREPARE_CREDIT txid account cents    -> OK
+//   COMMIT txid counterparty             -> OK   (also when txid is already settled)
+//   ABORT txid                           -> OK
+//   IN_DOUBT                             -> OK txid txid ...     (prepared, not yet settled)
+//   TOTAL                                -> OK sum-of-balances accounts in-doubt
+// A refusal is "NO <TransactionResult.Status name>", a bad command "ERR <message>"
+// Amounts are centavos; every account on a shard is PHP
+// On first start the shard creates its share of the ATM's default accounts
+// and of the numbered customer accounts FIRST_CUSTOMER .. FIRST_CUSTOMER + customers - 1
+//
+// Run: java ShardNode <shard> <shards> [port] [customers]
+
+
+public class ShardNode {
+    public static final int BASE_PORT = 4600;
+    public static final long FIRST_CUSTOMER = 10_000_001;
+    static final double CUSTOMER_OPENING_PESOS = 10_000.0;
+    private static final int CUSTOMER_PIN = 1234;
+
+    private final DurableLedger ledger;
+    private final AccountRepository accounts;
+
+    ShardNode(DurableLedger ledger) {
+        this.ledger = ledger;
+        this.accounts = ledger.accounts();
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.out.println("Usage: java ShardNode <shard> <shards> [port] [customers]");
+            return;
+        }
+        int shard = Integer.parseInt(args[0]);
+        int shards = Integer.parseInt(args[1]);
+        int port = args.length > 2 ? Integer.parseInt(args[2]) : BASE_PORT + shard;
+        long customers = args.length > 3 ? Long.parseLong(args[3]) : 0;
+        if (shard < 0 || shard >= shards) {
+            throw new IllegalArgumentException("Shard must be 0 to " + (shards - 1));
+        }
+
+        Path directory = directory(shards, shard);
+        TransactionJournal journal = TransactionJournal.open(directory.resolve("journal"));
+        DurableLedger ledger = DurableLedger.open(directory, journal,
+                () -> accountsOf(new ShardMap(shards), shard, customers, journal));
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                ledger.close();
+                journal.close();
+            } catch (IOException e) {
+                System.err.println("Could not close the ledger: " + e.getMessage());
+            }
+        }));
+        ShardNode node = new ShardNode(ledger);
+
+        try (ServerSocket server = new ServerSocket(port, 4096, InetAddress.getLoopbackAddress());
+             ExecutorService connections = Executors.newVirtualThreadPerTaskExecutor()) {
+            System.out.printf("Shard %d of %d listening on localhost:%d (%d accounts, %d in doubt)%n",
+                    shard, shards, port, ledger.accounts().size(), ledger.preparedTransactions().size());
+            while (true) {
+                Socket socket = server.accept();
+                connections.execute(() -> node.serve(socket));
+            }
+        }
+    }
+
+    static Path directory(int shards, int shard) {
+        return Path.of("data", "shards-" + shards, "shard-" + shard);
+    }
+
+    // The accounts a new shard starts with
+    private static AccountRepository accountsOf(ShardMap map, int shard, long customers, TransactionJournal journal) {
+        AccountRepository owned = new AccountRepository();
+        AccountRepository opening = ATM.openingAccounts(journal);
+        for (int i = 0; i < opening.size(); i++) {
+            Account account = opening.get(i);
+            if (map.shardOf(account.getAccountNumber()) == shard && account.getCurrency() == Currency.PHP) {
+                owned.add(account);
+            }
+        }
+        PinAuthenticator.PinHash pin = PinAuthenticator.hash(CUSTOMER_PIN); // one scrypt hash for all of them
+        for (long number = FIRST_CUSTOMER; number < FIRST_CUSTOMER + customers; number++) {
+            if (map.shardOf(number) == shard) {
+                owned.add(new Account(number, "Customer " + number, Currency.PHP, CUSTOMER_OPENING_PESOS, pin, journal));
+            }
+        }
+        return owned;
+    }
+
+    // Answers commands on one connection until the client hangs up
+    private void serve(Socket socket) {
+        try (socket) {
+            socket.setTcpNoDelay(true);
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+            Writer out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.US_ASCII));
+            String line;
+            while ((line = in.readLine()) != null) {
+                String reply;
+                try {
+                    reply = handle(line.split(" "));
+                } catch (RuntimeException e) {
+                    reply = "ERR " + e.getMessage();
+                }
+                out.write(reply);
+                out.write('\n');
+                out.flush();
+            }
+        } catch (IOException e) {
+            // client disconnected
+        }
+    }
+
+    String handle(String[] command) {
+        return switch (command[0]) {
+            case "BALANCE" -> {
+                Account account = account(command[1]);
+                yield account == null ? refuse(TransactionResult.Status.UNKNOWN_ACCOUNT) : "OK " + account.getBalanceCents();
+            }
+            case "DEPOSIT" -> deposit(account(command[1]), Long.parseLong(command[2]));
+            case "WITHDRAW" -> withdraw(account(command[1]), Long.parseLong(command[2]));
+            case "TRANSFER" -> transfer(account(command[1]), account(command[2]), Long.parseLong(command[3]));
+            case "PREPARE_DEBIT" -> prepareDebit(Long.parseLong(command[1]), account(command[2]), Long.parseLong(command[3]));
+            case "PREPARE_CREDIT" -> prepareCredit(Long.parseLong(command[1]), account(command[2]), Long.parseLong(command[3]));
+            case "COMMIT" -> commit(Long.parseLong(command[1]), Long.parseLong(command[2]));
+            case "ABORT" -> {
+                ledger.abortPrepared(Long.parseLong(command[1]));
+                yield "OK";
+            }
+            case "IN_DOUBT" -> {
+                StringBuilder sb = new StringBuilder("OK");
+                for (long txid : ledger.preparedTransactions()) {
+                    sb.append(' ').append(txid);
+                }
+                yield sb.toString();
+            }
+            case "TOTAL" -> {
+                long total = 0;
+                for (int i = 0; i < accounts.size(); i++) {
+                    total += accounts.get(i).getBalanceCents();
+                }
+                yield "OK " + total + " " + accounts.size() + " " + ledger.preparedTransactions().size();
+            }
+            default -> throw new IllegalArgumentException("Unknown command " + command[0]);
+        };
+    }
+
+    private Account account(String number) {
+        return accounts.findByNumber(Long.parseLong(number));
+    }
+
+    private String deposit(Account account, long cents) {
+        if (account == null) {
+            return refuse(TransactionResult.Status.UNKNOWN_ACCOUNT);
+        }
+        if (cents <= 0) {
+            return refuse(TransactionResult.Status.INVALID_AMOUNT);
+        }
+        ledger.deposit(account, cents);
+        return "OK " + account.getBalanceCents();
+    }
+
+    private String withdraw(Account account, long cents) {
+        if (account == null) {
+            return refuse(TransactionResult.Status.UNKNOWN_ACCOUNT);
+        }
+        if (cents <= 0) {
+            return refuse(TransactionResult.Status.INVALID_AMOUNT);
+        }
+        if (!ledger.withdraw(account, cents)) {
+            return refuse(TransactionResult.Status.INSUFFICIENT_BALANCE);
+        }
+        return "OK " + account.getBalanceCents();
+    }
+
+    // The local fast path: one ledger transfer, no second phase
+    private String transfer(Account from, Account to, long cents) {
+        if (from == null || to == null) {
+            return refuse(TransactionResult.Status.UNKNOWN_ACCOUNT);
+        }
+        if (from == to) {
+            return refuse(TransactionResult.Status.SAME_ACCOUNT);
+        }
+        if (cents <= 0) {
+            return refuse(TransactionResult.Status.INVALID_AMOUNT);
+        }
+        if (!ledger.transfer(from, to, cents)) {
+            return refuse(TransactionResult.Status.INSUFFICIENT_BALANCE);
+        }
+        return "OK " + from.getBalanceCents();
+    }
+
+    private String prepareDebit(long txid, Account account, long cents) {
+        if (account == null) {
+            return refuse(TransactionResult.Status.UNKNOWN_ACCOUNT);
+        }
+        if (cents <= 0) {
+            return refuse(TransactionResult.Status.INVALID_AMOUNT);
+        }
+        if (!ledger.prepareDebit(txid, account, cents)) {
+            return refuse(TransactionResult.Status.INSUFFICIENT_BALANCE);
+        }
+        return "OK " + account.getBalanceCents();
+    }
+
+    private String prepareCredit(long txid, Account account, long cents) {
+        if (account == null) {
+            return refuse(TransactionResult.Status.UNKNOWN_ACCOUNT);
+        }
+        if (cents <= 0) {
+            return refuse(TransactionResult.Status.INVALID_AMOUNT);
+        }
+        ledger.prepareCredit(txid, account, cents);
+        return "OK";
+    }
+
+    private String commit(long txid, long counterparty) {
+        ledger.commitPrepared(txid, counterparty); // null if already settled: a repeated COMMIT changes nothing
+        return "OK";
+    }
+
+    private static String refuse(TransactionResult.Status status) {
+        return "NO " + status;
+    }
+
+    // For ShardCluster: the command line that starts one node with this JVM's class path
+    static List<String> command(int shard, int shards, int port, long customers) {
+        String java = Path.of(System.getProperty("java.home"), "bin", "java").toString();
+        return List.of(java, "-cp", System.getProperty("java.class.path"), "ShardNode",
+                String.valueOf(shard), String.valueOf(shards), String.valueOf(port), String.valueOf(customers));
+    }
+}
@@ -0,0 +1,370 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+// ShardedLedger is the client side of the sharded account store: it sends
+// each operation to the ShardNode that holds the account (see ShardMap)
+// A transfer within one shard is a single TRANSFER command on that shard
+// A transfer between shards is a two-phase commit coordinated here:
+//   1. PREPARE_CREDIT on the receiver's shard, then PREPARE_DEBIT on the
+//      sender's (which holds the amount); any refusal or failure aborts both
+//   2. the COMMIT decision is logged and fsynced in this coordinator's own
+//      log (data/shards-<n>/coordinator-<id>/), and only then sent to both
+// Presumed abort: a transaction with no logged decision was aborted
+// Recovery: a sweep every SWEEP_SECONDS (and once at open) sends COMMIT again
+// for decisions not yet acknowledged by both shards, and ABORT for every one
+// of this coordinator's transactions a shard still has in doubt that is
+// neither running nor committed; so a shard or this process can crash at
+// any point and the money is still only ever in one place
+// Transaction ids carry the coordinator id in their top byte, so several
+// coordinators can share the shards without aborting each other's work
+// Shards keep one connection per concurrent caller (pooled here)
+
+
+public class ShardedLedger implements AutoCloseable {
+    static final long SWEEP_SECONDS = 2;
+    private static final int TIMEOUT_MILLIS = 5_000;
+    // Coordinator log records (see WriteAheadLog): COMMIT account = txid, value = sender, counterparty = receiver
+    private static final byte COMMIT = 1;
+    private static final byte DONE = 2; // account = txid; both shards acknowledged the commit
+
+    public enum Status {
+        OK,
+        INSUFFICIENT_BALANCE,
+        INVALID_AMOUNT,
+        UNKNOWN_ACCOUNT,
+        SAME_ACCOUNT,
+        UNAVAILABLE, // a shard could not be reached; for a deposit or withdrawal the outcome is unknown
+        ERROR        // a shard failed the command (ERR reply); as with UNAVAILABLE the outcome is unknown
+    }
+
+    private final ShardMap map;
+    private final InetSocketAddress[] nodes;
+    private final List<ConcurrentLinkedQueue<Connection>> idle = new ArrayList<>();
+    private final int coordinatorId;
+    private final WriteAheadLog decisions;
+    private final AtomicLong nextTransaction;
+    // Committed, not yet acknowledged by both shards: txid -> {sender, receiver}
+    private final ConcurrentHashMap<Long, long[]> undelivered;
+    // Between the first prepare and the decision
+    private final Set<Long> running = ConcurrentHashMap.newKeySet();
+    // Logging a decision holds the read side; compacting the log holds the write side
+    private final ReentrantReadWriteLock logLock = new ReentrantReadWriteLock();
+    private final ScheduledExecutorService sweeper;
+
+    private ShardedLedger(ShardMap map, List<InetSocketAddress> nodes, int coordinatorId, WriteAheadLog decisions,
+                          ConcurrentHashMap<Long, long[]> undelivered, long lastTransaction) {
+        this.map = map;
+        this.nodes = nodes.toArray(new InetSocketAddress[0]);
+        for (int i = 0; i < nodes.size(); i++) {
+            idle.add(new ConcurrentLinkedQueue<>());
+        }
+        this.coordinatorId = coordinatorId;
+        this.decisions = decisions;
+        this.undelivered = undelivered;
+        long first = Math.max(lastTransaction + 1, System.currentTimeMillis() << 12);
+        this.nextTransaction = new AtomicLong(((long) coordinatorId << 56) | (first & 0x00FF_FFFF_FFFF_FFFFL));
+        this.sweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "shard-recovery-" + coordinatorId);
+            thread.setDaemon(true);
+            return thread;
+        });
+        sweeper.scheduleWithFixedDelay(this::sweepQuietly, 0, SWEEP_SECONDS, TimeUnit.SECONDS);
+    }
+
+    // Connects to the shards (nodes.get(i) serves shard i) and recovers this coordinator's log
+    public static ShardedLedger open(ShardMap map, List<InetSocketAddress> nodes, int coordinatorId) throws IOException {
+        if (nodes.size() != map.shards()) {
+            throw new IllegalArgumentException(map.shards() + " shards need " + map.shards() + " nodes, not " + nodes.size());
+        }
+        if (coordinatorId < 0 || coordinatorId > 255) {
+            throw new IllegalArgumentException("Coordinator id must be 0 to 255");
+        }
+        ConcurrentHashMap<Long, long[]> undelivered = new ConcurrentHashMap<>();
+        long[] last = {0};
+        Path directory = Path.of("data", "shards-" + map.shards(), "coordinator-" + coordinatorId);
+        WriteAheadLog decisions = WriteAheadLog.open(directory, 0, (sequence, operation, txid, sender, receiver) -> {
+            if (operation == COMMIT) {
+                undelivered.put(txid, new long[] {sender, receiver});
+            } else if (operation == DONE) {
+                undelivered.remove(txid);
+            }
+            last[0] = Math.max(last[0], txid & 0x00FF_FFFF_FFFF_FFFFL);
+        });
+        return new ShardedLedger(map, nodes, coordinatorId, decisions, undelivered, last[0]);
+    }
+
+    // Nodes at BASE_PORT + shard on this machine
+    public static List<InetSocketAddress> localNodes(int shards) {
+        List<InetSocketAddress> nodes = new ArrayList<>();
+        for (int shard = 0; shard < shards; shard++) {
+            nodes.add(new InetSocketAddress("localhost", ShardNode.BASE_PORT + shard));
+        }
+        return nodes;
+    }
+
+    public ShardMap map() {
+        return map;
+    }
+
+    // Throws IOException if the shard cannot be reached, IllegalArgumentException for an unknown account
+    public long balance(long accountNumber) throws IOException {
+        String reply = call(map.shardOf(accountNumber), "BALANCE " + accountNumber);
+        Status status = statusOf(reply);
+        if (status == Status.ERROR) {
+            throw new IOException("Shard error: " + reply);
+        }
+        if (status != Status.OK) {
+            throw new IllegalArgumentException("Unknown account " + accountNumber);
+        }
+        return Long.parseLong(reply.substring(3));
+    }
+
+    public Status deposit(long accountNumber, long cents) {
+        return simple(map.shardOf(accountNumber), "DEPOSIT " + accountNumber + " " + cents);
+    }
+
+    public Status withdraw(long accountNumber, long cents) {
+        return simple(map.shardOf(accountNumber), "WITHDRAW " + accountNumber + " " + cents);
+    }
+
+    public Status transfer(long from, long to, long cents) {
+        if (from == to) {
+            return Status.SAME_ACCOUNT;
+        }
+        if (cents <= 0) {
+            return Status.INVALID_AMOUNT;
+        }
+        int sender = map.shardOf(from);
+        int receiver = map.shardOf(to);
+        if (sender == receiver) {
+            return simple(sender, "TRANSFER " + from + " " + to + " " + cents);
+        }
+        return twoPhaseTransfer(sender, from, receiver, to, cents);
+    }
+
+    // {sum of balances, accounts, transactions in doubt} over every shard
+    public long[] totals() throws IOException {
+        long[] totals = new long[3];
+        for (int shard = 0; shard < nodes.length; shard++) {
+            String[] parts = call(shard, "TOTAL").split(" ");
+            for (int i = 0; i < 3; i++) {
+                totals[i] += Long.parseLong(parts[i + 1]);
+            }
+        }
+        return totals;
+    }
+
+    // Committed transfers some shard has not acknowledged yet
+    public int undelivered() {
+        return undelivered.size();
+    }
+
+    @Override
+    public void close() throws IOException {
+        sweeper.shutdownNow();
+        decisions.close();
+        for (ConcurrentLinkedQueue<Connection> connections : idle) {
+            Connection connection;
+            while ((connection = connections.poll()) != null) {
+                connection.close();
+            }
+        }
+    }
+
+    private Status twoPhaseTransfer(int senderShard, long from, int receiverShard, long to, long cents) {
+        long txid = nextTransaction.getAndIncrement();
+        running.add(txid);
+        try {
+            Status credit = simple(receiverShard, "PREPARE_CREDIT " + txid + " " + to + " " + cents);
+            Status debit = credit == Status.OK ? simple(senderShard, "PREPARE_DEBIT " + txid + " " + from + " " + cents) : credit;
+            if (debit != Status.OK) {
+                // the sweep retries the aborts that cannot be delivered now
+                simple(receiverShard, "ABORT " + txid);
+                if ((debit == Status.UNAVAILABLE || debit == Status.ERROR) && credit == Status.OK) {
+                    simple(senderShard, "ABORT " + txid); // it may have prepared before the connection failed
+                }
+                return debit;
+            }
+            long sequence;
+            logLock.readLock().lock();
+            try {
+                sequence = decisions.append(COMMIT, txid, from, to);
+                undelivered.put(txid, new long[] {from, to});
+            } finally {
+                logLock.readLock().unlock();
+            }
+            decisions.awaitDurable(sequence);
+        } finally {
+            running.remove(txid);
+        }
+        deliver(txid, from, to);
+        return Status.OK; // decided: a shard that missed the commit gets it from the sweep
+    }
+
+    // Sends a logged commit to both shards; true once both have it
+    private boolean deliver(long txid, long from, long to) {
+        boolean sent = simple(map.shardOf(from), "COMMIT " + txid + " " + to) == Status.OK
+                & simple(map.shardOf(to), "COMMIT " + txid + " " + from) == Status.OK;
+        if (sent && undelivered.remove(txid) != null) {
+            logLock.readLock().lock();
+            try {
+                decisions.append(DONE, txid, 0, 0); // not awaited: if it is lost, the commit is just sent again
+            } finally {
+                logLock.readLock().unlock();
+            }
+        }
+        return sent;
+    }
+
+    private void sweepQuietly() {
+        try {
+            sweep();
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Shard recovery sweep failed, will retry: " + e.getMessage());
+        }
+    }
+
+    // Finishes what a crash (of a shard or of this process) left half done
+    void sweep() throws IOException {
+        for (Map.Entry<Long, long[]> committed : undelivered.entrySet()) {
+            deliver(committed.getKey(), committed.getValue()[0], committed.getValue()[1]);
+        }
+        for (int shard = 0; shard < nodes.length; shard++) {
+            String reply;
+            try {
+                reply = call(shard, "IN_DOUBT");
+            } catch (IOException e) {
+                continue; // down; swept again next time
+            }
+            String[] parts = reply.split(" ");
+            for (int i = 1; i < parts.length; i++) {
+                long txid = Long.parseLong(parts[i]);
+                if ((txid >>> 56) == coordinatorId && !running.contains(txid) && !undelivered.containsKey(txid)) {
+                    simple(shard, "ABORT " + txid);
+                }
+            }
+        }
+        compact();
+    }
+
+    // Starts a new log file holding only the commits still undelivered, and drops the old ones
+    private void compact() throws IOException {
+        logLock.writeLock().lock();
+        try {
+            long covered = decisions.lastSequence();
+            decisions.rotate();
+            for (Map.Entry<Long, long[]> committed : undelivered.entrySet()) {
+                decisions.append(COMMIT, committed.getKey(), committed.getValue()[0], committed.getValue()[1]);
+            }
+            decisions.awaitDurable(decisions.lastSequence());
+            decisions.deleteCoveredFiles(covered);
+        } finally {
+            logLock.writeLock().unlock();
+        }
+    }
+
+    // Sends a command whose reply is only a status
+    private Status simple(int shard, String command) {
+        try {
+            return statusOf(call(shard, command));
+        } catch (IOException e) {
+            return Status.UNAVAILABLE;
+        }
+    }
+
+    // ERROR for an "ERR" reply, or a refusal this side does not know, so the
+    // caller's failure path (e.g. the abort of a two-phase transfer) still runs
+    static Status statusOf(String reply) {
+        if (reply.startsWith("OK")) {
+            return Status.OK;
+        }
+        if (reply.startsWith("NO ")) {
+            for (Status status : Status.values()) {
+                if (status.name().equals(reply.substring(3))) {
+                    return status;
+                }
+            }
+        }
+        return Status.ERROR;
+    }
+
+    // One command and its reply, on a pooled connection to the shard
+    private String call(int shard, String command) throws IOException {
+        Connection connection = idle.get(shard).poll();
+        if (connection == null) {
+            connection = new Connection(nodes[shard]);
+        }
+        String reply;
+        try {
+            reply = connection.call(command);
+        } catch (IOException e) {
+            connection.close();
+            // the others to this shard are likely broken too (it restarted); drop them
+            Connection stale;
+            while ((stale = idle.get(shard).poll()) != null) {
+                stale.close();
+            }
+            throw e;
+        }
+        idle.get(shard).offer(connection);
+        return reply;
+    }
+
+    private static final class Connection {
+        private final Socket socket;
+        private final BufferedReader in;
+        private final Writer out;
+
+        Connection(InetSocketAddress address) throws IOException {
+            socket = new Socket();
+            try {
+                socket.connect(address, TIMEOUT_MILLIS);
+                socket.setSoTimeout(TIMEOUT_MILLIS);
+                socket.setTcpNoDelay(true);
+                in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+                out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.US_ASCII));
+            } catch (IOException e) {
+                socket.close();
+                throw e;
+            }
+        }
+
+        String call(String command) throws IOException {
+            out.write(command);
+            out.write('\n');
+            out.flush();
+            String reply = in.readLine();
+            if (reply == null) {
+                throw new IOException("Shard closed the connection");
+            }
+            return reply;
+        }
+
+        void close() {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // already broken
+            }
+        }
+    }
+}
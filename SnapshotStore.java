@@ -0,0 +1,253 @@
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+// SnapshotStore writes and reads a compact copy of every account
+// A snapshot remembers the last write-ahead log sequence it includes, so
+// recovery only replays the log records that came after it
+// Files are written to a temporary name, fsynced, then atomically renamed,
+// so a crash mid-write leaves the previous snapshot intact
+// The layout can be used where it lies: map() hands out an AccountImage
+// over the file, and accounts are made from it only when first used, so a
+// bank with millions of accounts starts in milliseconds; load() makes them all
+//
+// File layout (version 4, big-endian):
+//   header (HEADER_SIZE bytes): magic, version, long sequence, int account
+//     count, int index slots (a power of two), long length of the names area
+//   one RECORD_SIZE record per account, in repository order: long account
+//     number, long balance (minor units), long PIN salt, long PIN hash,
+//     int name offset, short name length, short currency (ISO numeric code)
+//   index: an int per slot, the record number + 1 (0 = free), placed by
+//     linear probing from slotHash(account number)
+//   names: the names in UTF-8, back to back
+// Version 3 files were a stream per account (long account number, UTF name,
+// short currency, long balance, long PIN salt, long PIN hash); they are still
+// read, and so are version 2 files (no currency: every account is PHP) and
+// version 1 files (also a plain int PIN, which is hashed while loading)
+
+
+public class SnapshotStore {
+    private static final int MAGIC = 0x41544D53; // "ATMS"
+    private static final int VERSION = 4;
+    private static final int VERSION_STREAM = 3;
+    private static final int VERSION_PESOS_ONLY = 2;
+    private static final int VERSION_PLAIN_PIN = 1;
+    static final int HEADER_SIZE = 32;
+    static final int RECORD_SIZE = 40;
+    static final int MAX_ACCOUNTS = Integer.MAX_VALUE / RECORD_SIZE; // record offsets are ints; shard past this (see ShardNode)
+    private static final int WRITE_BUFFER = 1 << 16;
+
+    // A loaded snapshot: the accounts and the last log sequence they include
+    public static final class Loaded {
+        public final AccountRepository accounts;
+        public final long sequence;
+
+        Loaded(AccountRepository accounts, long sequence) {
+            this.accounts = accounts;
+            this.sequence = sequence;
+        }
+    }
+
+    private SnapshotStore() {
+    }
+
+    // Writes accounts[0, count) with the balances and PIN hashes captured at this sequence
+    // A null accounts[i] was not made yet when they were captured (see
+    // AccountRepository.loaded): it is copied from image, and its balances and
+    // pins entries are not used (it may have been made since, but not changed
+    // before this sequence)
+    public static void write(Path file, Account[] accounts, AccountImage image, long[] balances, PinAuthenticator.PinHash[] pins,
+                             int count, long sequence) throws IOException {
+        if (count > MAX_ACCOUNTS) {
+            throw new IOException("Too many accounts for one snapshot: " + count + " (at most " + MAX_ACCOUNTS + ")");
+        }
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        int slots = Math.max(Integer.highestOneBit(Math.max(count, 1) * 2 - 1) << 1, 2); // load factor at most 0.5
+        int[] index = new int[slots];
+        long indexAt = HEADER_SIZE + (long) count * RECORD_SIZE;
+        long namesAt = indexAt + (long) slots * Integer.BYTES;
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer records = ByteBuffer.allocate(WRITE_BUFFER);
+            ByteBuffer names = ByteBuffer.allocate(WRITE_BUFFER);
+            long recordsPosition = HEADER_SIZE;
+            long namesPosition = namesAt;
+            long nameOffset = 0;
+            for (int i = 0; i < count; i++) {
+                Account account = accounts[i];
+                long number;
+                byte[] name;
+                if (account != null) {
+                    number = account.getAccountNumber();
+                    name = account.getName().getBytes(StandardCharsets.UTF_8);
+                } else {
+                    number = image.number(i);
+                    name = image.nameBytes(i);
+                }
+                if (name.length > 0xFFFF || nameOffset + name.length > Integer.MAX_VALUE) {
+                    throw new IOException("Account names too long for a snapshot (account " + number + ")");
+                }
+                if (names.remaining() < name.length) {
+                    namesPosition += flush(channel, names, namesPosition);
+                }
+                names.put(name);
+                if (records.remaining() < RECORD_SIZE) {
+                    recordsPosition += flush(channel, records, recordsPosition);
+                }
+                records.putLong(number);
+                if (account != null) {
+                    records.putLong(balances[i]).putLong(pins[i].getSalt()).putLong(pins[i].getHash());
+                    records.putInt((int) nameOffset).putShort((short) name.length).putShort((short) account.getCurrency().numericCode());
+                } else {
+                    PinAuthenticator.PinHash pin = image.pin(i);
+                    records.putLong(image.balance(i)).putLong(pin.getSalt()).putLong(pin.getHash());
+                    records.putInt((int) nameOffset).putShort((short) name.length).putShort((short) image.currency(i).numericCode());
+                }
+                nameOffset += name.length;
+                int slot = slotHash(number) & (slots - 1);
+                while (index[slot] != 0) {
+                    slot = (slot + 1) & (slots - 1);
+                }
+                index[slot] = i + 1;
+            }
+            flush(channel, records, recordsPosition);
+            flush(channel, names, namesPosition);
+
+            ByteBuffer indexBytes = ByteBuffer.allocate(WRITE_BUFFER);
+            long indexPosition = indexAt;
+            for (int entry : index) {
+                if (!indexBytes.hasRemaining()) {
+                    indexPosition += flush(channel, indexBytes, indexPosition);
+                }
+                indexBytes.putInt(entry);
+            }
+            flush(channel, indexBytes, indexPosition);
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putInt(VERSION).putLong(sequence).putInt(count).putInt(slots).putLong(nameOffset);
+            flush(channel, header, 0);
+            channel.force(true);
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // Maps the snapshot and makes accounts from it on first use (see AccountImage),
+    // or returns null if none has been written yet
+    // Older versions, and platforms where a mapped file cannot be replaced by the
+    // next checkpoint, are loaded as by load()
+    public static Loaded map(Path file, TransactionJournal journal) throws IOException {
+        if (!Files.exists(file)) {
+            return null;
+        }
+        if (versionOf(file) != VERSION || !canMap()) {
+            return load(file, journal);
+        }
+        AccountImage image = AccountImage.map(file);
+        return new Loaded(new AccountRepository(image, journal), image.sequence());
+    }
+
+    // A checkpoint renames its new snapshot over the mapped one: fine where the
+    // old file lives on while mapped, refused by Windows
+    static boolean canMap() {
+        return !System.getProperty("os.name").contains("Windows");
+    }
+
+    // Spreads account numbers over the index slots (the same mix as AccountRepository)
+    static int slotHash(long accountNumber) {
+        long h = accountNumber * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    // Loads the snapshot and makes every account now, or returns null if none has been written yet
+    public static Loaded load(Path file, TransactionJournal journal) throws IOException {
+        if (!Files.exists(file)) {
+            return null;
+        }
+        try (InputStream stream = Files.newInputStream(file);
+             DataInputStream in = new DataInputStream(new BufferedInputStream(stream, 1 << 16))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not a snapshot file: " + file);
+            }
+            int version = in.readInt();
+            if (version == VERSION) {
+                return loadRecords(file, in, journal);
+            }
+            if (version != VERSION_STREAM && version != VERSION_PESOS_ONLY && version != VERSION_PLAIN_PIN) {
+                throw new IOException("Unsupported snapshot version " + version + ": " + file);
+            }
+            long sequence = in.readLong();
+            int count = in.readInt();
+            AccountRepository accounts = new AccountRepository(count);
+            for (int i = 0; i < count; i++) {
+                long accountNumber = in.readLong();
+                String name = in.readUTF();
+                Currency currency = version == VERSION_STREAM ? Currency.fromNumericCode(in.readShort()) : Currency.PHP;
+                long balanceCents = in.readLong();
+                PinAuthenticator.PinHash pin = version == VERSION_PLAIN_PIN
+                        ? PinAuthenticator.hash(in.readInt())
+                        : new PinAuthenticator.PinHash(in.readLong(), in.readLong());
+                Account account = new Account(accountNumber, name, currency, 0.0, pin, journal);
+                account.adjustBalanceCents(balanceCents);
+                accounts.add(account);
+            }
+            return new Loaded(accounts, sequence);
+        }
+    }
+
+    // Version 4, read as two streams (records, and names in the same order) rather than
+    // mapped, so nothing keeps the file open for the next checkpoint to replace
+    private static Loaded loadRecords(Path file, DataInputStream in, TransactionJournal journal) throws IOException {
+        long sequence = in.readLong();
+        int count = in.readInt();
+        int slots = in.readInt();
+        in.readLong(); // length of the names area
+        long namesAt = HEADER_SIZE + (long) count * RECORD_SIZE + (long) slots * Integer.BYTES;
+        try (InputStream stream = Files.newInputStream(file);
+             DataInputStream names = new DataInputStream(new BufferedInputStream(stream, 1 << 16))) {
+            names.skipNBytes(namesAt);
+            AccountRepository accounts = new AccountRepository(count);
+            for (int i = 0; i < count; i++) {
+                long accountNumber = in.readLong();
+                long balance = in.readLong();
+                PinAuthenticator.PinHash pin = new PinAuthenticator.PinHash(in.readLong(), in.readLong());
+                in.readInt(); // name offset: the names come in record order
+                byte[] name = new byte[in.readUnsignedShort()];
+                Currency currency = Currency.fromNumericCode(in.readShort());
+                names.readFully(name);
+                Account account = new Account(accountNumber, new String(name, StandardCharsets.UTF_8), currency, 0.0, pin, journal);
+                account.adjustBalanceCents(balance);
+                accounts.add(account);
+            }
+            return new Loaded(accounts, sequence);
+        }
+    }
+
+    private static int versionOf(Path file) throws IOException {
+        try (DataInputStream in = new DataInputStream(Files.newInputStream(file))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not a snapshot file: " + file);
+            }
+            return in.readInt();
+        }
+    }
+
+    // Writes what is in buffer at position; returns the bytes written
+    private static int flush(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        buffer.flip();
+        int length = buffer.remaining();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, position + length - buffer.remaining());
+        }
+        buffer.clear();
+        return length;
+    }
+}
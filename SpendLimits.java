@@ -0,0 +1,144 @@
+import java.util.Arrays;
+
+// SpendLimits enforces daily caps per account and channel (cash and transfers):
+// how much may leave the account, and how many times, in any 24 hours
+// Each account keeps a ring of hourly buckets per channel in one int[] (224
+// bytes); a bucket is one int holding a count and an amount, so a check
+// reads a fixed 25 ints and allocates nothing
+// Updates to an account's window are made while holding the account's monitor
+// The window is the current hour plus the 24 before it, so it never lets
+// through more than the cap in any 24 hours (it may hold spend up to an hour longer)
+// A spend is reserved before the money moves and released if the operation
+// fails, so two sessions on one account cannot both take the last of the limit
+// Windows live in memory only; a restart starts every account with a fresh day
+
+
+public class SpendLimits {
+    public static final long HOUR_MILLIS = 60 * 60 * 1000;
+    static final int SLOTS = 25; // current hour + 24 before it
+
+    // Bucket layout: count (high 6 bits) | amount in centavos (low 26 bits)
+    private static final int COUNT_SHIFT = 26;
+    private static final int AMOUNT_MASK = (1 << COUNT_SHIFT) - 1;
+    private static final int MAX_COUNT = (1 << (32 - COUNT_SHIFT)) - 1;
+    private static final int STRIDE = SLOTS + 1; // per channel: last hour used, then the buckets
+
+    public enum Channel {
+        CASH,     // withdrawals and Fast Cash
+        TRANSFER
+    }
+
+    public enum Decision {
+        ALLOWED,
+        OVER_AMOUNT, // the amount would take the account past its daily cap
+        OVER_COUNT   // the account has used all its operations for the day
+    }
+
+    private static final Channel[] CHANNELS = Channel.values();
+
+    // Window of one account; per channel: the hour of the newest bucket, then SLOTS buckets indexed by hour % SLOTS
+    static final int WINDOW_INTS = CHANNELS.length * STRIDE;
+
+    private final long[] maxCents = new long[CHANNELS.length];
+    private final int[] maxCount = new int[CHANNELS.length];
+
+    // Cash: PHP 50,000 in 10 withdrawals; transfers: PHP 100,000 in 20 transfers
+    public SpendLimits() {
+        this(50_000_00, 10, 100_000_00, 20);
+    }
+
+    // Caps up to PHP 671,088.63 and 63 operations per channel
+    public SpendLimits(long cashCents, int cashCount, long transferCents, int transferCount) {
+        setLimit(Channel.CASH, cashCents, cashCount);
+        setLimit(Channel.TRANSFER, transferCents, transferCount);
+    }
+
+    private void setLimit(Channel channel, long cents, int count) {
+        if (cents <= 0 || cents > AMOUNT_MASK || count <= 0 || count > MAX_COUNT) {
+            throw new IllegalArgumentException("Limit out of range for " + channel + ": " + cents + " centavos, " + count + " operations");
+        }
+        maxCents[channel.ordinal()] = cents;
+        maxCount[channel.ordinal()] = count;
+    }
+
+    public long maxCents(Channel channel) {
+        return maxCents[channel.ordinal()];
+    }
+
+    public int maxCount(Channel channel) {
+        return maxCount[channel.ordinal()];
+    }
+
+    // Counts the spend against the account if it fits both caps; otherwise changes nothing
+    public Decision reserve(Account account, Channel channel, long cents, long nowMillis) {
+        int[] data = account.spendWindow();
+        int hour = (int) (nowMillis / HOUR_MILLIS);
+        int base = channel.ordinal() * STRIDE;
+        synchronized (account) {
+            advance(data, base, hour);
+            long spent = 0;
+            int count = 0;
+            for (int i = base + 1; i <= base + SLOTS; i++) {
+                spent += data[i] & AMOUNT_MASK;
+                count += data[i] >>> COUNT_SHIFT;
+            }
+            if (count >= maxCount[channel.ordinal()]) {
+                return Decision.OVER_COUNT;
+            }
+            if (cents > maxCents[channel.ordinal()] - spent) {
+                return Decision.OVER_AMOUNT;
+            }
+            // the bucket cannot overflow: its count and amount are within the caps, which fit the fields
+            data[base + 1 + hour % SLOTS] += (1 << COUNT_SHIFT) + (int) cents;
+            return Decision.ALLOWED;
+        }
+    }
+
+    // Gives back a reservation made at reservedAtMillis (the operation did not go through)
+    public void release(Account account, Channel channel, long cents, long reservedAtMillis) {
+        int[] data = account.spendWindow();
+        int hour = (int) (reservedAtMillis / HOUR_MILLIS);
+        int base = channel.ordinal() * STRIDE;
+        synchronized (account) {
+            int latest = data[base];
+            if (hour > latest || latest - hour >= SLOTS) {
+                return; // that bucket has already expired
+            }
+            int index = base + 1 + hour % SLOTS;
+            if (data[index] >>> COUNT_SHIFT > 0 && (data[index] & AMOUNT_MASK) >= cents) {
+                data[index] -= (1 << COUNT_SHIFT) + (int) cents;
+            }
+        }
+    }
+
+    // How much more the account may spend on this channel in the current window
+    public long remainingCents(Account account, Channel channel, long nowMillis) {
+        int[] data = account.spendWindow();
+        int hour = (int) (nowMillis / HOUR_MILLIS);
+        int base = channel.ordinal() * STRIDE;
+        long spent = 0;
+        synchronized (account) {
+            advance(data, base, hour);
+            for (int i = base + 1; i <= base + SLOTS; i++) {
+                spent += data[i] & AMOUNT_MASK;
+            }
+        }
+        return Math.max(0, maxCents[channel.ordinal()] - spent);
+    }
+
+    // Empties the buckets of hours that have left the window since the channel was last used
+    private static void advance(int[] data, int base, int hour) {
+        int latest = data[base];
+        if (hour <= latest) {
+            return; // same hour (or the clock went back: keep counting the newer spend)
+        }
+        if (hour - latest >= SLOTS) {
+            Arrays.fill(data, base + 1, base + 1 + SLOTS, 0);
+        } else {
+            for (int h = latest + 1; h <= hour; h++) {
+                data[base + 1 + h % SLOTS] = 0;
+            }
+        }
+        data[base] = hour;
+    }
+}
@@ -0,0 +1,367 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.time.ZoneId;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+// StatementJob is the end-of-period batch: it works out the interest every
+// account earned over the period, credits it, and writes every account's statement
+// Accounts are cut into fixed ranges of RANGE_SIZE (by position in the
+// AccountRepository); a fork-join task halves its share of ranges until it
+// holds one, so idle workers steal what is left
+// Each range streams its statements into its own file, account by account,
+// then credits its interest as one DurableLedger batch, so memory does not
+// grow with the number of accounts
+// Amounts are in each account's own currency; interest is earned on the
+// balance held each second of the period at an annual rate (floored to the
+// minor unit); it is credited when the job runs, so a
+// statement shows it as earned and the next statement lists it as a line
+// Balances at the start and end of the period are worked back from the current
+// balance and the journal, so run the job while terminals are quiet (e.g. end of day)
+// A range whose statement file exists is skipped, so a job that stopped part-way
+// can be run again; each range's interest is posted under a batch key made
+// from the period and the range, so a range interrupted between crediting
+// and renaming its file only writes its statements on the rerun
+//
+// Run: java StatementJob [yyyy-MM] [annual rate in basis points] [threads]
+//      (defaults: last month, 25 = 0.25% a year, one thread per core)
+
+
+public class StatementJob {
+    public static final int RANGE_SIZE = 65_536;
+    public static final int DEFAULT_RATE_BASIS_POINTS = 25;
+    private static final long SECONDS_PER_YEAR = 365L * 24 * 60 * 60;
+    private static final int LINE_WIDTH = 64;
+    private static final String DIVIDER = "-".repeat(LINE_WIDTH) + "\n\n";
+    private static final String SPACES = " ".repeat(LINE_WIDTH);
+
+    private final DurableLedger ledger;
+    private final TransactionJournal journal;
+    private final long periodStart;
+    private final long periodEnd;
+    private final int rateBasisPoints;
+    private final Path directory;
+    private final ZoneId zone = ZoneId.systemDefault();
+    private final String periodText;
+
+    // Totals of one run (or of one part of it, while the tasks combine)
+    public static final class Result {
+        private long statements;
+        private long lines;
+        private long accountsCredited;
+        private final long[] interestMinor = new long[Currency.values().length];
+        private long skippedRanges;
+        private long nanos;
+
+        Result add(Result other) {
+            statements += other.statements;
+            lines += other.lines;
+            accountsCredited += other.accountsCredited;
+            for (int i = 0; i < interestMinor.length; i++) {
+                interestMinor[i] += other.interestMinor[i];
+            }
+            skippedRanges += other.skippedRanges;
+            return this;
+        }
+
+        public long getStatements() {
+            return statements;
+        }
+
+        // Transaction lines across all statements
+        public long getLines() {
+            return lines;
+        }
+
+        public long getAccountsCredited() {
+            return accountsCredited;
+        }
+
+        // Interest credited to accounts in this currency, in its minor units
+        public long getInterestMinor(Currency currency) {
+            return interestMinor[currency.ordinal()];
+        }
+
+        // Ranges left alone because an earlier run finished them
+        public long getSkippedRanges() {
+            return skippedRanges;
+        }
+
+        public long getNanos() {
+            return nanos;
+        }
+    }
+
+    // Statements for [periodStartMillis, periodEndMillis) go to directory; the period must have ended
+    public StatementJob(DurableLedger ledger, TransactionJournal journal, long periodStartMillis, long periodEndMillis,
+                        int rateBasisPoints, Path directory) {
+        if (periodStartMillis >= periodEndMillis || periodEndMillis > System.currentTimeMillis()) {
+            throw new IllegalArgumentException("The period must be non-empty and already over");
+        }
+        if (rateBasisPoints < 0) {
+            throw new IllegalArgumentException("Interest rate must not be negative");
+        }
+        this.ledger = ledger;
+        this.journal = journal;
+        this.periodStart = periodStartMillis;
+        this.periodEnd = periodEndMillis;
+        this.rateBasisPoints = rateBasisPoints;
+        this.directory = directory;
+        this.periodText = "Period " + dateOf(periodStartMillis) + " to " + dateOf(periodEndMillis - 1);
+    }
+
+    public static void main(String[] args) throws IOException {
+        YearMonth month = args.length > 0 ? YearMonth.parse(args[0]) : YearMonth.now().minusMonths(1);
+        int rate = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_RATE_BASIS_POINTS;
+        int threads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+        ZoneId zone = ZoneId.systemDefault();
+        long start = month.atDay(1).atStartOfDay(zone).toInstant().toEpochMilli();
+        long end = month.plusMonths(1).atDay(1).atStartOfDay(zone).toInstant().toEpochMilli();
+
+        try (TransactionJournal journal = TransactionJournal.open(Path.of("data", "journal"));
+             DurableLedger ledger = ATM.openLedger(journal)) {
+            Path directory = Path.of("data", "statements", month.toString());
+            Result result = new StatementJob(ledger, journal, start, end, rate, directory).run(threads);
+            StringBuilder interest = new StringBuilder();
+            for (Currency currency : Currency.values()) {
+                if (result.getInterestMinor(currency) > 0) {
+                    interest.append(interest.length() == 0 ? "" : ", ").append(currency.format(result.getInterestMinor(currency)));
+                }
+            }
+            System.out.printf("Statements: %d (%d lines) in %s | Interest: %s to %d accounts%s%n",
+                    result.getStatements(), result.getLines(), directory, interest.length() == 0 ? "none" : interest,
+                    result.getAccountsCredited(),
+                    result.getSkippedRanges() > 0 ? " | " + result.getSkippedRanges() + " ranges already done" : "");
+            System.out.printf("Time: %.1f s | %.0f statements/s%n", result.getNanos() / 1e9,
+                    result.getStatements() / (result.getNanos() / 1e9));
+        }
+    }
+
+    public Result run(int threads) throws IOException {
+        long start = System.nanoTime();
+        Files.createDirectories(directory);
+        int accounts = ledger.accounts().size();
+        int ranges = (accounts + RANGE_SIZE - 1) / RANGE_SIZE;
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            Result result = ranges == 0 ? new Result() : pool.invoke(new Ranges(0, ranges, accounts));
+            result.nanos = System.nanoTime() - start;
+            return result;
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    // Ranges [first, end) of the account list
+    private final class Ranges extends RecursiveTask<Result> {
+        private static final long serialVersionUID = 1L;
+        private final int first;
+        private final int end;
+        private final int accounts;
+
+        Ranges(int first, int end, int accounts) {
+            this.first = first;
+            this.end = end;
+            this.accounts = accounts;
+        }
+
+        @Override
+        protected Result compute() {
+            if (end - first == 1) {
+                try {
+                    return processRange(first * RANGE_SIZE, Math.min((first + 1) * RANGE_SIZE, accounts));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+            int middle = (first + end) >>> 1;
+            Ranges left = new Ranges(first, middle, accounts);
+            Ranges right = new Ranges(middle, end, accounts);
+            left.fork();
+            Result mine = right.compute();
+            return left.join().add(mine);
+        }
+    }
+
+    // Writes the statements of accounts [from, to) and credits their interest
+    private Result processRange(int from, int to) throws IOException {
+        Result result = new Result();
+        Path file = directory.resolve(String.format("statements-%09d.txt", from));
+        if (Files.exists(file)) {
+            result.skippedRanges = 1;
+            return result;
+        }
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        AccountRepository accounts = ledger.accounts();
+        Account[] credited = new Account[to - from];
+        long[] interest = new long[to - from];
+        int count = 0;
+        long[] earnedMinor = new long[Currency.values().length];
+        StatementWriter statement = new StatementWriter();
+        try (Writer out = new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(temp), StandardCharsets.UTF_8), 1 << 16)) {
+            for (int i = from; i < to; i++) {
+                long earned = statement.write(accounts, i, out); // makes only the accounts credited
+                result.lines += statement.lines;
+                if (earned > 0) {
+                    credited[count] = accounts.get(i);
+                    interest[count] = earned;
+                    earnedMinor[statement.currency.ordinal()] += earned;
+                    count++;
+                }
+            }
+        }
+        long batchKey = DurableLedger.batchKey("statement " + periodStart + "-" + periodEnd + " " + from);
+        if (ledger.postBatch(batchKey, credited, interest, count, TransactionType.INTEREST)) {
+            result.accountsCredited = count;
+            for (int i = 0; i < earnedMinor.length; i++) {
+                result.interestMinor[i] += earnedMinor[i];
+            }
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        result.statements = to - from;
+        return result;
+    }
+
+    // Formats one account's statement at a time, reusing its buffer (one per range)
+    private final class StatementWriter {
+        private final StringBuilder sb = new StringBuilder(4096);
+        private long cachedDayStart = Long.MAX_VALUE;
+        private long cachedDayEnd = Long.MIN_VALUE;
+        private String cachedDay;
+        private Currency currency;
+        int lines;
+
+        // Returns the interest the account at index earned over the period
+        long write(AccountRepository accounts, int index, Writer out) throws IOException {
+            long number = accounts.numberAt(index);
+            long current = accounts.balanceAt(index);
+
+            // Balance at the end of the period: undo everything after it
+            long closing = current;
+            JournalCursor after = journal.cursor(number, periodEnd, Long.MAX_VALUE);
+            while (after.next()) {
+                closing -= after.type().signed(after.amountCents());
+            }
+            long net = 0;
+            JournalCursor during = journal.cursor(number, periodStart, periodEnd);
+            while (during.next()) {
+                net += during.type().signed(during.amountCents());
+            }
+            long opening = closing - net;
+
+            currency = accounts.currencyAt(index);
+            sb.setLength(0);
+            sb.append("GridLine Bank Statement\n");
+            sb.append("Account ").append(number).append("  ").append(accounts.nameAt(index))
+                    .append("  (").append(currency.name()).append(")\n");
+            sb.append(periodText).append('\n');
+            row("Opening balance", -1, opening);
+
+            // Line items with running balance, and the balance-seconds for interest
+            long balance = opening;
+            long credits = 0;
+            long debits = 0;
+            int creditCount = 0;
+            int debitCount = 0;
+            long centSeconds = 0;
+            long previous = periodStart / 1000;
+            lines = 0;
+            during = journal.cursor(number, periodStart, periodEnd);
+            while (during.next()) {
+                TransactionType type = during.type();
+                long amount = during.amountCents();
+                long second = during.timestamp() / 1000;
+                centSeconds = Math.addExact(centSeconds, Math.multiplyExact(balance, second - previous));
+                previous = second;
+                balance += type.signed(amount);
+                if (type.isCredit()) {
+                    credits += amount;
+                    creditCount++;
+                } else {
+                    debits += amount;
+                    debitCount++;
+                }
+                lines++;
+
+                int start = sb.length();
+                sb.append(day(during.timestamp())).append("  ").append(type.label());
+                if (during.counterparty() != 0) {
+                    sb.append(' ').append(during.counterparty());
+                }
+                pad(start + 40);
+                amount(type.isCredit() ? "+" : "-", amount, 12);
+                amount("", balance, 12);
+                sb.append('\n');
+            }
+            centSeconds = Math.addExact(centSeconds, Math.multiplyExact(balance, periodEnd / 1000 - previous));
+            long earned = centSeconds / SECONDS_PER_YEAR * rateBasisPoints / 10_000;
+
+            row("Total credits", creditCount, credits);
+            row("Total debits", debitCount, debits);
+            row("Closing balance", -1, closing);
+            row("Interest earned", -1, earned);
+            if (earned > 0) {
+                sb.append("  (credited ").append(day(System.currentTimeMillis())).append(", listed on your next statement)\n");
+            }
+            sb.append(DIVIDER);
+            out.append(sb);
+            return earned;
+        }
+
+        // A label (with a count in brackets unless count < 0) and a right-aligned amount
+        private void row(String label, int count, long cents) {
+            int start = sb.length();
+            sb.append(label);
+            if (count >= 0) {
+                sb.append(" (").append(count).append(')');
+            }
+            pad(start + LINE_WIDTH - 12);
+            amount("", cents, 12);
+            sb.append('\n');
+        }
+
+        private void pad(int column) {
+            while (sb.length() < column) {
+                sb.append(' ');
+            }
+        }
+
+        // Right-aligned amount in the account's currency (after sign) in a field of this width
+        private void amount(String sign, long minor, int width) {
+            int start = sb.length();
+            sb.append(sign);
+            currency.appendAmount(sb, minor);
+            int length = sb.length() - start;
+            if (length < width) {
+                sb.insert(start, SPACES, 0, width - length);
+            }
+        }
+
+        // yyyy-MM-dd in the local zone; most records of an account fall on few days
+        private String day(long millis) {
+            if (millis < cachedDayStart || millis >= cachedDayEnd) {
+                LocalDate date = LocalDate.ofInstant(Instant.ofEpochMilli(millis), zone);
+                cachedDayStart = date.atStartOfDay(zone).toInstant().toEpochMilli();
+                cachedDayEnd = date.plusDays(1).atStartOfDay(zone).toInstant().toEpochMilli();
+                cachedDay = date.toString();
+            }
+            return cachedDay;
+        }
+    }
+
+    private String dateOf(long millis) {
+        return LocalDate.ofInstant(Instant.ofEpochMilli(millis), zone).toString();
+    }
+}
@@ -0,0 +1,469 @@
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+
+// TransactionJournal is an append-only log of every transaction
+// Records are fixed-width binary (see the layout below) written into
+// memory-mapped segment files, so history lives in the OS page cache
+// instead of the Java heap
+// Reading uses a JournalCursor that decodes fields in place (no copies)
+// Each account has an index of its record positions, so history queries
+// (last N, date range, paging) cost O(page size) instead of O(journal size)
+// The lists are found by account number in an open-addressing table of
+// primitive keys (as in AccountRepository), so an append boxes nothing and
+// the index costs the positions themselves plus two array slots per account
+// Timestamps never decrease along the journal, which lets range queries
+// binary-search an account's index by date
+// Changes made through a DurableLedger are journaled in the same step as
+// their write-ahead log record, in log order, tagged with its sequence; the
+// log forces the journal before each of its own fsyncs, so a change that is
+// durable in the log is durable here too. Recovery drops the journal records
+// whose log record never became durable (see dropAfter)
+//
+// Record layout (40 bytes):
+//   0  long  account number
+//   8  long  counterparty account number (0 if none)
+//   16 long  amount in centavos
+//   24 long  timestamp (epoch milliseconds)
+//   32 int   transaction type code (0 = empty slot)
+//   36 int   write-ahead log sequence of the change, low 32 bits (0 if not logged)
+
+
+public class TransactionJournal implements AutoCloseable {
+    public static final int RECORD_SIZE = 40;
+    public static final int DEFAULT_RECORDS_PER_SEGMENT = 1 << 18; // 10 MB segments
+    private static final int INITIAL_INDEX_SLOTS = 1 << 10;
+    private static final long EMPTY = 0L; // account number 0 marks a free slot
+    private static final VarHandle KEYS = MethodHandles.arrayElementVarHandle(long[].class);
+    private static final VarHandle LISTS = MethodHandles.arrayElementVarHandle(PositionList[].class);
+
+    static final int ACCOUNT_OFFSET = 0;
+    static final int COUNTERPARTY_OFFSET = 8;
+    static final int AMOUNT_OFFSET = 16;
+    static final int TIMESTAMP_OFFSET = 24;
+    static final int TYPE_OFFSET = 32;
+    static final int SEQUENCE_OFFSET = 36;
+
+    // Receives records in journal order (see forEach)
+    public interface RecordVisitor {
+        void record(long position, long accountNumber, TransactionType type, long amountCents, long counterparty, long millis);
+    }
+
+    private final Path directory;
+    private final int recordsPerSegment;
+    private final ArrayList<MappedByteBuffer> segments = new ArrayList<>();
+    private volatile Index index = new Index(INITIAL_INDEX_SLOTS);
+    private int indexed; // accounts in the index; guarded by this
+    private volatile long size; // number of records written
+    private long lastTimestamp;
+    private final Object forceLock = new Object();
+    private long forcedSize; // records [0, forcedSize) are on disk; guarded by forceLock
+
+    // Journal positions of one account's records, oldest first
+    // Written only under the journal lock; readers see a consistent prefix
+    private static final class PositionList {
+        static final PositionList NONE = new PositionList(); // shared empty list, never added to
+
+        volatile long[] positions = new long[8];
+        volatile int count;
+
+        // Forgets the positions at or after this one (recovery only, before any reader)
+        void truncate(long position) {
+            while (count > 0 && positions[count - 1] >= position) {
+                count = count - 1;
+            }
+        }
+
+        void add(long position) {
+            long[] current = positions;
+            if (count == current.length) {
+                long[] grown = new long[current.length * 2];
+                System.arraycopy(current, 0, grown, 0, count);
+                positions = grown;
+                current = grown;
+            }
+            current[count] = position;
+            count = count + 1;
+        }
+    }
+
+    // Account number -> its PositionList; replaced as a whole when it grows
+    // A list is stored before its key, both with release semantics, and readers
+    // load the key with acquire, so a reader that finds the key sees the list
+    private static final class Index {
+        final long[] keys;
+        final PositionList[] lists;
+        final int mask;
+
+        Index(int capacity) {
+            keys = new long[capacity];
+            lists = new PositionList[capacity];
+            mask = capacity - 1;
+        }
+    }
+
+    private TransactionJournal(Path directory, int recordsPerSegment) {
+        this.directory = directory;
+        this.recordsPerSegment = recordsPerSegment;
+    }
+
+    // Opens (or creates) the journal in this directory and finds the end of the log
+    public static TransactionJournal open(Path directory) throws IOException {
+        return open(directory, DEFAULT_RECORDS_PER_SEGMENT);
+    }
+
+    public static TransactionJournal open(Path directory, int recordsPerSegment) throws IOException {
+        Files.createDirectories(directory);
+        TransactionJournal journal = new TransactionJournal(directory, recordsPerSegment);
+        int index = 0;
+        while (Files.exists(journal.segmentPath(index))) {
+            journal.segments.add(journal.mapSegment(index));
+            index++;
+        }
+        journal.size = journal.findEnd();
+        journal.forcedSize = journal.size;
+        journal.rebuildIndex();
+        return journal;
+    }
+
+    // Appends one record and returns its position in the journal
+    public long append(long accountNumber, TransactionType type, long amountCents, long counterparty) {
+        return append(accountNumber, type, amountCents, counterparty, 0);
+    }
+
+    // Appends the record of a change logged at this write-ahead log sequence (see DurableLedger)
+    synchronized long append(long accountNumber, TransactionType type, long amountCents, long counterparty, long walSequence) {
+        lastTimestamp = Math.max(lastTimestamp, System.currentTimeMillis()); // never goes backwards
+        long position = write(accountNumber, type, amountCents, counterparty, lastTimestamp, walSequence);
+        size = position + 1; // volatile write publishes the record to readers
+        return position;
+    }
+
+    // Appends one record per account (same type, no counterparty), taking the lock once
+    public void appendAll(Account[] accounts, long[] amountCents, int count, TransactionType type) {
+        appendAll(accounts, amountCents, count, type, 0);
+    }
+
+    synchronized void appendAll(Account[] accounts, long[] amountCents, int count, TransactionType type, long walSequence) {
+        lastTimestamp = Math.max(lastTimestamp, System.currentTimeMillis());
+        for (int i = 0; i < count; i++) {
+            long position = write(accounts[i].getAccountNumber(), type, amountCents[i], 0, lastTimestamp, walSequence);
+            size = position + 1;
+        }
+    }
+
+    private long write(long accountNumber, TransactionType type, long amountCents, long counterparty, long timestamp,
+                       long walSequence) {
+        long position = size;
+        MappedByteBuffer segment = segmentFor(position);
+        int offset = offsetOf(position);
+        segment.putLong(offset + ACCOUNT_OFFSET, accountNumber);
+        segment.putLong(offset + COUNTERPARTY_OFFSET, counterparty);
+        segment.putLong(offset + AMOUNT_OFFSET, amountCents);
+        segment.putLong(offset + TIMESTAMP_OFFSET, timestamp);
+        segment.putInt(offset + SEQUENCE_OFFSET, (int) walSequence);
+        segment.putInt(offset + TYPE_OFFSET, type.code()); // written last: marks the slot as used
+        listFor(accountNumber).add(position);
+        return position;
+    }
+
+    public long size() {
+        return size;
+    }
+
+    // Cursor over all records of one account, oldest first
+    public JournalCursor cursor(long accountNumber) {
+        PositionList list = listOf(accountNumber);
+        int count = list.count;
+        return new JournalCursor(this, list.positions, 0, count, false);
+    }
+
+    // Cursor over the records with fromMillis <= timestamp < toMillis, oldest first
+    public JournalCursor cursor(long accountNumber, long fromMillis, long toMillis) {
+        PositionList list = listOf(accountNumber);
+        int count = list.count;
+        long[] positions = list.positions;
+        int low = firstAtOrAfter(positions, count, fromMillis);
+        int high = firstAtOrAfter(positions, count, toMillis);
+        return new JournalCursor(this, positions, low, Math.max(low, high), false);
+    }
+
+    // Number of records this account has
+    public int count(long accountNumber) {
+        return listOf(accountNumber).count;
+    }
+
+    // The newest n records of an account
+    public HistoryPage lastN(long accountNumber, int n) {
+        return page(accountNumber, HistoryPage.FIRST, n);
+    }
+
+    // One page of history, newest first; start with HistoryPage.FIRST and
+    // pass the returned page's nextCursor() to get older records
+    public HistoryPage page(long accountNumber, long cursor, int pageSize) {
+        return range(accountNumber, Long.MIN_VALUE, Long.MAX_VALUE, cursor, pageSize);
+    }
+
+    // One page of the records with fromMillis <= timestamp < toMillis, newest first
+    public HistoryPage range(long accountNumber, long fromMillis, long toMillis, long cursor, int pageSize) {
+        if (pageSize <= 0) {
+            throw new IllegalArgumentException("Page size must be positive");
+        }
+        PositionList list = listOf(accountNumber);
+        int count = list.count;
+        long[] positions = list.positions;
+
+        int low = firstAtOrAfter(positions, count, fromMillis);
+        int high = firstAtOrAfter(positions, count, toMillis);
+        if (cursor != HistoryPage.FIRST) {
+            high = (int) Math.max(low, Math.min(high, cursor));
+        }
+        int start = Math.max(low, high - pageSize);
+        long next = start > low ? start : HistoryPage.NO_MORE;
+        return new HistoryPage(this, positions, start, high, next);
+    }
+
+    // The newest pageSize records of an account that came before this journal position
+    public HistoryPage before(long accountNumber, long position, int pageSize) {
+        PositionList list = listOf(accountNumber);
+        int count = list.count;
+        long[] positions = list.positions;
+        int low = 0;
+        int high = count;
+        while (low < high) { // first index at or after position
+            int middle = (low + high) >>> 1;
+            if (positions[middle] < position) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        int start = Math.max(0, low - pageSize);
+        return new HistoryPage(this, positions, start, low, start > 0 ? start : HistoryPage.NO_MORE);
+    }
+
+    // Visits the records at positions from (inclusive) to to (exclusive), oldest first;
+    // to must not be past size()
+    public void forEach(long from, long to, RecordVisitor visitor) {
+        long segmentIndex = -1;
+        MappedByteBuffer segment = null;
+        for (long position = from; position < to; position++) {
+            long index = segmentIndexOf(position);
+            if (index != segmentIndex) {
+                segment = segmentAt(position);
+                segmentIndex = index;
+            }
+            int offset = offsetOf(position);
+            visitor.record(position,
+                    segment.getLong(offset + ACCOUNT_OFFSET),
+                    TransactionType.fromCode(segment.getInt(offset + TYPE_OFFSET)),
+                    segment.getLong(offset + AMOUNT_OFFSET),
+                    segment.getLong(offset + COUNTERPARTY_OFFSET),
+                    segment.getLong(offset + TIMESTAMP_OFFSET));
+        }
+    }
+
+    // Flushes the records appended since the last force to disk
+    // Appends go on meanwhile; only taking the end waits for the journal lock,
+    // so every append that had started by then is included
+    public void force() {
+        synchronized (forceLock) {
+            long end;
+            synchronized (this) {
+                end = size;
+            }
+            for (long position = forcedSize; position < end; ) {
+                long segmentEnd = Math.min(end, (segmentIndexOf(position) + 1) * recordsPerSegment);
+                int from = offsetOf(position);
+                segmentAt(position).force(from, (int) (segmentEnd - position) * RECORD_SIZE);
+                position = segmentEnd;
+            }
+            forcedSize = end;
+        }
+    }
+
+    // Drops the records at the end of the journal whose write-ahead log record
+    // came after lastSequence: the log lost them in a crash, so the changes
+    // never happened. Records not tagged with a sequence are kept, and so is
+    // everything before them. Call once, after recovery and before any append;
+    // returns the number of records dropped
+    public long dropAfter(long lastSequence) {
+        synchronized (forceLock) { // same order as force(): forceLock, then the journal lock
+            synchronized (this) {
+                long end = size;
+                while (end > 0) {
+                    int tag = segmentAt(end - 1).getInt(offsetOf(end - 1) + SEQUENCE_OFFSET);
+                    if (tag == 0 || tag - (int) lastSequence <= 0) { // low 32 bits, compared as a distance
+                        break;
+                    }
+                    end--;
+                }
+                long dropped = size - end;
+                for (long position = size - 1; position >= end; position--) { // newest first: used slots stay a prefix
+                    MappedByteBuffer segment = segmentAt(position);
+                    int offset = offsetOf(position);
+                    listOf(segment.getLong(offset + ACCOUNT_OFFSET)).truncate(end);
+                    segment.putInt(offset + TYPE_OFFSET, 0);
+                    segment.force(offset, RECORD_SIZE);
+                }
+                size = end;
+                forcedSize = Math.min(forcedSize, end);
+                return dropped;
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        force();
+    }
+
+    // Buffer holding the record at this position (read-only use by cursors)
+    MappedByteBuffer segmentAt(long position) {
+        synchronized (this) {
+            return segments.get((int) segmentIndexOf(position));
+        }
+    }
+
+    long segmentIndexOf(long position) {
+        return position / recordsPerSegment;
+    }
+
+    int offsetOf(long position) {
+        return (int) (position % recordsPerSegment) * RECORD_SIZE;
+    }
+
+    private MappedByteBuffer segmentFor(long position) {
+        int index = (int) segmentIndexOf(position);
+        while (segments.size() <= index) {
+            try {
+                segments.add(mapSegment(segments.size()));
+            } catch (IOException e) {
+                throw new IllegalStateException("Could not create journal segment in " + directory, e);
+            }
+        }
+        return segments.get(index);
+    }
+
+    private MappedByteBuffer mapSegment(int index) throws IOException {
+        try (FileChannel channel = FileChannel.open(segmentPath(index),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, (long) recordsPerSegment * RECORD_SIZE);
+        }
+    }
+
+    private Path segmentPath(int index) {
+        return directory.resolve(String.format("journal-%05d.seg", index));
+    }
+
+    // Index of the first record in positions[0, count) stamped at or after this time
+    private int firstAtOrAfter(long[] positions, int count, long millis) {
+        if (millis == Long.MIN_VALUE) {
+            return 0;
+        }
+        if (millis == Long.MAX_VALUE) {
+            return count;
+        }
+        int low = 0;
+        int high = count;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (timestampAt(positions[mid]) < millis) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private long timestampAt(long position) {
+        return segmentAt(position).getLong(offsetOf(position) + TIMESTAMP_OFFSET);
+    }
+
+    // Scans the journal once at startup to rebuild every account's position index
+    private void rebuildIndex() {
+        for (long position = 0; position < size; position++) {
+            MappedByteBuffer segment = segments.get((int) segmentIndexOf(position));
+            int offset = offsetOf(position);
+            long accountNumber = segment.getLong(offset + ACCOUNT_OFFSET);
+            listFor(accountNumber).add(position);
+            lastTimestamp = Math.max(lastTimestamp, segment.getLong(offset + TIMESTAMP_OFFSET));
+        }
+    }
+
+    // The account's positions, or NONE if it has no records; takes no lock
+    private PositionList listOf(long accountNumber) {
+        Index t = index;
+        int slot = slotOf(t, accountNumber);
+        if ((long) KEYS.getAcquire(t.keys, slot) == accountNumber) {
+            return (PositionList) LISTS.getAcquire(t.lists, slot);
+        }
+        return PositionList.NONE;
+    }
+
+    // The account's positions, added to the index if it has none yet (caller holds the journal lock)
+    private PositionList listFor(long accountNumber) {
+        Index t = index;
+        int slot = slotOf(t, accountNumber);
+        if (t.keys[slot] == accountNumber) {
+            return t.lists[slot];
+        }
+        if ((indexed + 1) * 2 > t.keys.length) { // keep the load factor at or below 0.5
+            t = rehash(t, t.keys.length * 2);
+            slot = slotOf(t, accountNumber);
+        }
+        PositionList list = new PositionList();
+        LISTS.setRelease(t.lists, slot, list);
+        KEYS.setRelease(t.keys, slot, accountNumber);
+        indexed++;
+        index = t; // publishes a grown index
+        return list;
+    }
+
+    // Linear probing: first slot holding the key or the first free slot
+    private static int slotOf(Index t, long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        int slot = (int) (h ^ (h >>> 32)) & t.mask;
+        while (t.keys[slot] != EMPTY && t.keys[slot] != key) {
+            slot = (slot + 1) & t.mask;
+        }
+        return slot;
+    }
+
+    private static Index rehash(Index old, int capacity) {
+        Index grown = new Index(capacity);
+        for (int i = 0; i < old.keys.length; i++) {
+            if (old.keys[i] != EMPTY) {
+                int slot = slotOf(grown, old.keys[i]);
+                grown.keys[slot] = old.keys[i];
+                grown.lists[slot] = old.lists[i];
+            }
+        }
+        return grown;
+    }
+
+    // Records are written in order, so the first empty slot is found by binary search
+    private long findEnd() {
+        if (segments.isEmpty()) {
+            return 0;
+        }
+        long low = (long) (segments.size() - 1) * recordsPerSegment;
+        long high = (long) segments.size() * recordsPerSegment;
+        while (low < high) {
+            long mid = (low + high) >>> 1;
+            if (segments.get((int) (mid / recordsPerSegment)).getInt(offsetOf(mid) + TYPE_OFFSET) != 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+}
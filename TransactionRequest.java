@@ -0,0 +1,96 @@
+// TransactionRequest describes one banking operation for BankingService
+// Accounts are referred to by account number; amounts are in centavos
+// Build one with the static factory for the operation, e.g. TransactionRequest.deposit(1001, 50000)
+// A terminal that may retry gives each operation an idempotency key
+// (withIdempotencyKey) and sends the same key again on a retry; BankingService
+// then returns the first attempt's result instead of running it twice
+
+
+public final class TransactionRequest {
+    public enum Kind {
+        DEPOSIT,
+        WITHDRAW,
+        FAST_CASH,
+        TRANSFER,
+        CHANGE_PIN
+    }
+
+    public static final long NO_KEY = 0;
+
+    private final Kind kind;
+    private final long accountNumber;
+    private final long amountCents;
+    private final long counterparty;
+    private final int newPin;
+    private final long idempotencyKey;
+
+    private TransactionRequest(Kind kind, long accountNumber, long amountCents, long counterparty, int newPin,
+                               long idempotencyKey) {
+        this.kind = kind;
+        this.accountNumber = accountNumber;
+        this.amountCents = amountCents;
+        this.counterparty = counterparty;
+        this.newPin = newPin;
+        this.idempotencyKey = idempotencyKey;
+    }
+
+    private TransactionRequest(Kind kind, long accountNumber, long amountCents, long counterparty, int newPin) {
+        this(kind, accountNumber, amountCents, counterparty, newPin, NO_KEY);
+    }
+
+    public static TransactionRequest deposit(long accountNumber, long amountCents) {
+        return new TransactionRequest(Kind.DEPOSIT, accountNumber, amountCents, 0, 0);
+    }
+
+    public static TransactionRequest withdraw(long accountNumber, long amountCents) {
+        return new TransactionRequest(Kind.WITHDRAW, accountNumber, amountCents, 0, 0);
+    }
+
+    // amountCents should be one of BankingService.fastCashOptions() (they change as notes run out)
+    public static TransactionRequest fastCash(long accountNumber, long amountCents) {
+        return new TransactionRequest(Kind.FAST_CASH, accountNumber, amountCents, 0, 0);
+    }
+
+    public static TransactionRequest transfer(long fromAccount, long toAccount, long amountCents) {
+        return new TransactionRequest(Kind.TRANSFER, fromAccount, amountCents, toAccount, 0);
+    }
+
+    public static TransactionRequest changePin(long accountNumber, int newPin) {
+        return new TransactionRequest(Kind.CHANGE_PIN, accountNumber, 0, 0, newPin);
+    }
+
+    // The same request under a client-chosen key (any value but NO_KEY, e.g. a random long),
+    // unique per operation and reused only when retrying that operation
+    public TransactionRequest withIdempotencyKey(long key) {
+        if (key == NO_KEY) {
+            throw new IllegalArgumentException("Idempotency key must not be " + NO_KEY);
+        }
+        return new TransactionRequest(kind, accountNumber, amountCents, counterparty, newPin, key);
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    public long getAccountNumber() {
+        return accountNumber;
+    }
+
+    public long getAmountCents() {
+        return amountCents;
+    }
+
+    // Receiving account of a transfer (0 for other operations)
+    public long getCounterparty() {
+        return counterparty;
+    }
+
+    public int getNewPin() {
+        return newPin;
+    }
+
+    // NO_KEY unless one was given
+    public long getIdempotencyKey() {
+        return idempotencyKey;
+    }
+}
@@ -0,0 +1,90 @@
+import java.time.LocalDateTime;
+
+// TransactionResult is what BankingService returns for every request
+// On success it carries what a receipt needs (amount, new balance, time,
+// and the notes paid out for withdrawals);
+// otherwise getStatus() says why nothing was changed
+
+
+public final class TransactionResult {
+    public enum Status {
+        SUCCESS,
+        INSUFFICIENT_BALANCE,
+        INVALID_AMOUNT,
+        UNKNOWN_ACCOUNT,
+        SAME_ACCOUNT,
+        CANNOT_DISPENSE,     // the cassettes cannot pay this amount right now
+        DAILY_LIMIT,         // the amount would go past the account's 24-hour cap
+        DAILY_COUNT_LIMIT,   // the account has used all its withdrawals or transfers for 24 hours
+        CASH_CURRENCY,       // cash in or out of an account whose currency is not the notes' (see BankingService.CASH_CURRENCY)
+        NO_FX_RATE,          // a transfer between currencies when the rates file has no rate for one of them
+        KEY_REUSED,          // the idempotency key was already used for a different request
+        BUSY                 // every idempotency key the bank can hold belongs to a request still running; retry later
+    }
+
+    private final Status status;
+    private final long amountCents;
+    private final long creditedCents;
+    private final long balanceCents;
+    private final LocalDateTime time;
+    private final Account counterparty;
+    private final CashDispenser.Plan dispensed;
+
+    TransactionResult(Status status, long amountCents, long balanceCents, LocalDateTime time, Account counterparty,
+                      CashDispenser.Plan dispensed) {
+        this(status, amountCents, amountCents, balanceCents, time, counterparty, dispensed);
+    }
+
+    TransactionResult(Status status, long amountCents, long creditedCents, long balanceCents, LocalDateTime time,
+                      Account counterparty, CashDispenser.Plan dispensed) {
+        this.status = status;
+        this.amountCents = amountCents;
+        this.creditedCents = creditedCents;
+        this.balanceCents = balanceCents;
+        this.time = time;
+        this.counterparty = counterparty;
+        this.dispensed = dispensed;
+    }
+
+    static TransactionResult failed(Status status) {
+        return new TransactionResult(status, 0, 0, LocalDateTime.now(), null, null);
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public boolean isSuccess() {
+        return status == Status.SUCCESS;
+    }
+
+    // In minor units of the requesting account's currency
+    public long getAmountCents() {
+        return amountCents;
+    }
+
+    // What the receiving account of a transfer got, in its own currency
+    // (the same as getAmountCents() unless the two currencies differ)
+    public long getCreditedCents() {
+        return creditedCents;
+    }
+
+    // Balance of the requesting account right after the operation
+    public long getBalanceCents() {
+        return balanceCents;
+    }
+
+    public LocalDateTime getTime() {
+        return time;
+    }
+
+    // Receiving account of a transfer (null for other operations)
+    public Account getCounterparty() {
+        return counterparty;
+    }
+
+    // Notes paid out by a withdrawal or Fast Cash (null for other operations)
+    public CashDispenser.Plan getDispensed() {
+        return dispensed;
+    }
+}
@@ -0,0 +1,190 @@
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+// TransactionStream passes every banking event to one consumer thread
+// through a preallocated ring of event slots, in the style of the LMAX Disruptor
+// A posting thread claims a sequence, fills in that slot and publishes it by
+// writing the slot's sequence last; nothing is allocated and nothing waits:
+// if the consumer is a whole ring behind, the event is dropped and counted
+// The consumer reads slots strictly in order; when idle it spins briefly,
+// then parks, and only the first publisher to see it parked unparks it
+// Until start() is called, publish() returns at once
+
+
+public class TransactionStream {
+    // Spinning only helps when another core is publishing; on one core it takes the publisher's time
+    private static final boolean MULTICORE = Runtime.getRuntime().availableProcessors() > 1;
+    private static final int SPIN_TRIES = MULTICORE ? 200 : 0;
+    private static final int YIELD_TRIES = MULTICORE ? 10 : 0;
+    private static final long PARK_NANOS = 100_000_000; // wake up now and then to notice close()
+
+    public enum Kind {
+        DEPOSIT,
+        WITHDRAW,
+        FAST_CASH,
+        TRANSFER,
+        CHANGE_PIN,
+        FAILED_PIN // a PIN check that was rejected or hit the lockout
+    }
+
+    // One slot of the ring; reused for every ring.length-th event
+    public static final class Event {
+        private Kind kind;
+        private long accountNumber;
+        private long counterparty;
+        private long amountCents;
+        private TransactionResult.Status status;
+        private long publishedNanos;
+        private volatile long sequence = -1; // written last: the slot now holds this sequence's event
+
+        public Kind getKind() {
+            return kind;
+        }
+
+        public long getAccountNumber() {
+            return accountNumber;
+        }
+
+        // Receiving account of a transfer (0 otherwise)
+        public long getCounterparty() {
+            return counterparty;
+        }
+
+        // In centavos (BankingService converts amounts of accounts in other currencies)
+        public long getAmountCents() {
+            return amountCents;
+        }
+
+        // Outcome of the request (null for FAILED_PIN)
+        public TransactionResult.Status getStatus() {
+            return status;
+        }
+
+        // System.nanoTime() when the event was published
+        public long getPublishedNanos() {
+            return publishedNanos;
+        }
+    }
+
+    // Called on the consumer thread for each event, in order; must not keep the Event
+    public interface Handler {
+        void onEvent(Event event);
+    }
+
+    private final Event[] ring;
+    private final int mask;
+    private final AtomicLong claimed = new AtomicLong();  // next sequence to hand out
+    private final AtomicLong consumed = new AtomicLong(); // events the consumer has finished with
+    private final LongAdder dropped = new LongAdder();
+    private volatile Thread consumer;
+    private final AtomicBoolean parked = new AtomicBoolean();
+    private volatile boolean running;
+
+    // capacity: a power of two
+    public TransactionStream(int capacity) {
+        if (capacity <= 0 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("Capacity must be a positive power of two");
+        }
+        ring = new Event[capacity];
+        for (int i = 0; i < capacity; i++) {
+            ring[i] = new Event();
+        }
+        mask = capacity - 1;
+    }
+
+    // Starts the consumer thread (once)
+    public synchronized void start(String threadName, Handler handler) {
+        if (consumer != null) {
+            throw new IllegalStateException("Stream already started");
+        }
+        running = true;
+        Thread thread = new Thread(() -> consume(handler), threadName);
+        thread.setDaemon(true);
+        consumer = thread;
+        thread.start();
+    }
+
+    public void publish(Kind kind, long accountNumber, long counterparty, long amountCents,
+                        TransactionResult.Status status, long nowNanos) {
+        Thread reader = consumer;
+        if (reader == null) {
+            return;
+        }
+        long sequence;
+        do {
+            sequence = claimed.get();
+            if (sequence - consumed.get() >= ring.length) {
+                dropped.increment();
+                return;
+            }
+        } while (!claimed.compareAndSet(sequence, sequence + 1));
+
+        Event event = ring[(int) sequence & mask];
+        event.kind = kind;
+        event.accountNumber = accountNumber;
+        event.counterparty = counterparty;
+        event.amountCents = amountCents;
+        event.status = status;
+        event.publishedNanos = nowNanos;
+        event.sequence = sequence;
+        if (parked.get() && parked.compareAndSet(true, false)) {
+            LockSupport.unpark(reader);
+        }
+    }
+
+    // Events published and not yet handled
+    public long backlog() {
+        return claimed.get() - consumed.get();
+    }
+
+    // Events lost because the ring was full
+    public long dropped() {
+        return dropped.sum();
+    }
+
+    // Stops the consumer after the events published so far
+    public void close() throws InterruptedException {
+        Thread reader = consumer;
+        if (reader == null) {
+            return;
+        }
+        running = false;
+        LockSupport.unpark(reader);
+        reader.join();
+    }
+
+    private void consume(Handler handler) {
+        long next = 0;
+        int idle = 0;
+        while (true) {
+            Event event = ring[(int) next & mask];
+            if (event.sequence == next) {
+                try {
+                    handler.onEvent(event);
+                } catch (RuntimeException e) {
+                    System.err.println("Transaction stream handler failed: " + e);
+                }
+                next++;
+                consumed.lazySet(next);
+                idle = 0;
+            } else if (!running && next == claimed.get()) {
+                return;
+            } else if (idle < SPIN_TRIES) {
+                idle++;
+                Thread.onSpinWait();
+            } else if (idle < SPIN_TRIES + YIELD_TRIES) {
+                idle++;
+                Thread.yield();
+            } else {
+                parked.set(true);
+                if (event.sequence != next && running) { // a publisher that missed parked=true has published by now
+                    LockSupport.parkNanos(this, PARK_NANOS);
+                }
+                parked.set(false);
+                idle = 0;
+            }
+        }
+    }
+}
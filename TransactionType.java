@@ -0,0 +1,66 @@
+// Kinds of transactions stored in the journal
+// Each type has a fixed code (stored on disk, never reorder), whether it adds
+// to the balance, the text used when a customer views their history, and a
+// short label for statements
+
+
+public enum TransactionType {
+    DEPOSIT(1, true, "Deposited: +%s", "Deposit"),
+    WITHDRAWAL(2, false, "Withdrew: -%s", "Withdrawal"),
+    FAST_CASH(3, false, "Withdrew (Fast Cash): -%s", "Fast Cash"),
+    TRANSFER_OUT(4, false, "Transferred: -%s to %s", "Transfer to"),
+    TRANSFER_IN(5, true, "Received: +%s from %s", "Transfer from"),
+    CREDIT(6, true, "Credited: +%s", "Credit"),          // bulk postings (payroll and the like)
+    INTEREST(7, true, "Interest earned: +%s", "Interest");
+
+    private static final TransactionType[] BY_CODE = new TransactionType[8];
+
+    static {
+        for (TransactionType type : values()) {
+            BY_CODE[type.code] = type;
+        }
+    }
+
+    private final int code;
+    private final boolean credit;
+    private final String format;
+    private final String label;
+
+    TransactionType(int code, boolean credit, String format, String label) {
+        this.code = code;
+        this.credit = credit;
+        this.format = format;
+        this.label = label;
+    }
+
+    public int code() {
+        return code;
+    }
+
+    // True if this type adds money to the account, false if it takes money out
+    public boolean isCredit() {
+        return credit;
+    }
+
+    // The amount as a change to the balance (negative for debits)
+    public long signed(long amountCents) {
+        return credit ? amountCents : -amountCents;
+    }
+
+    // Short name for statement lines, e.g. "Fast Cash"
+    public String label() {
+        return label;
+    }
+
+    // Human-readable description, amount in the account's currency (counterparty is only used by transfers)
+    public String describe(Currency currency, long amountMinor, String counterparty) {
+        return String.format(format, currency.format(amountMinor), counterparty);
+    }
+
+    public static TransactionType fromCode(int code) {
+        if (code <= 0 || code >= BY_CODE.length || BY_CODE[code] == null) {
+            throw new IllegalArgumentException("Unknown transaction type code: " + code);
+        }
+        return BY_CODE[code];
+    }
+}
@@ -0,0 +1,78 @@
+import java.util.concurrent.locks.ReentrantLock;
+
+// TransferService moves money from one account to another as a single step
+// Uses a fixed pool of striped locks; a transfer always locks the lower
+// stripe first, so two opposite transfers can never wait on each other (no deadlock)
+// The debit and credit happen while both stripes are held, so a transfer is
+// either fully applied or not applied at all
+// Between accounts in different currencies the credit is a different amount
+// (converted by the caller, see FxRates)
+
+
+public class TransferService {
+    private static final int DEFAULT_STRIPES = 256;
+
+    private final ReentrantLock[] stripes;
+    private final int mask;
+
+    public TransferService() {
+        this(DEFAULT_STRIPES);
+    }
+
+    public TransferService(int stripeCount) {
+        if (stripeCount <= 0 || Integer.bitCount(stripeCount) != 1) {
+            throw new IllegalArgumentException("Stripe count must be a positive power of two");
+        }
+        this.stripes = new ReentrantLock[stripeCount];
+        for (int i = 0; i < stripeCount; i++) {
+            stripes[i] = new ReentrantLock();
+        }
+        this.mask = stripeCount - 1;
+    }
+
+    // Transfers the amount (in centavos); returns false if the sender's balance is too low
+    public boolean transfer(Account from, Account to, long cents) {
+        return transfer(from, to, cents, cents);
+    }
+
+    // Takes debitMinor from the sender and gives creditMinor to the receiver (each in its own currency)
+    public boolean transfer(Account from, Account to, long debitMinor, long creditMinor) {
+        if (from == to) {
+            throw new IllegalArgumentException("Cannot transfer to the same account");
+        }
+        if (debitMinor <= 0 || creditMinor < 0) {
+            throw new IllegalArgumentException("Transfer amount must be positive");
+        }
+
+        int fromStripe = stripeOf(from.getAccountNumber());
+        int toStripe = stripeOf(to.getAccountNumber());
+        ReentrantLock first = stripes[Math.min(fromStripe, toStripe)];
+        ReentrantLock second = stripes[Math.max(fromStripe, toStripe)];
+
+        first.lock();
+        try {
+            if (second != first) {
+                second.lock();
+            }
+            try {
+                if (!from.withdrawCents(debitMinor)) {
+                    return false;
+                }
+                to.depositCents(creditMinor);
+                return true;
+            } finally {
+                if (second != first) {
+                    second.unlock();
+                }
+            }
+        } finally {
+            first.unlock();
+        }
+    }
+
+    // Spreads the account number bits so neighbouring accounts land on different stripes
+    private int stripeOf(long accountNumber) {
+        long h = accountNumber * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+}
@@ -0,0 +1,280 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+// WriteAheadLog records every balance and PIN change before it is confirmed
+// to the customer, so a restart can replay what the last snapshot missed
+// Group commit: append() only buffers the record; awaitDurable() lets one
+// thread write and fsync everything buffered so far while the others wait,
+// so many concurrent commits share a single fsync
+// The log is split into files named after their first sequence number;
+// rotate() starts a new file so files covered by a snapshot can be deleted
+// beforeWrite() sets what runs before each write of buffered records, after
+// they are taken from the buffer: DurableLedger forces the journal there, so
+// the history of every durable change is durable too
+//
+// Record layout (37 bytes):
+//   0  long  sequence number
+//   8  byte  operation code
+//   9  long  account number
+//   17 long  value (amount in centavos, or the new PIN's salt)
+//   25 long  counterparty account number, or the new PIN's hash (0 if none)
+//   33 int   CRC32 of bytes 0-32 (detects a torn last write after a crash)
+// A transfer between currencies is two records appended together (see
+// appendPair): TRANSFER_FX with the debit, then FX_CREDIT with the credit;
+// a TRANSFER_FX without its FX_CREDIT was never confirmed and is not replayed
+// A change made under an idempotency key is preceded by a REQUEST record in
+// the same append, which recovery turns back into an IdempotencyCache entry
+// Transfers between shards (see ShardNode) log a PREPARE_DEBIT or
+// PREPARE_CREDIT when prepared and a RESOLVE when committed or aborted
+
+
+public class WriteAheadLog implements AutoCloseable {
+    public static final int RECORD_SIZE = 37;
+
+    public static final byte DEPOSIT = 1;
+    public static final byte WITHDRAW = 2;
+    public static final byte TRANSFER = 3;
+    public static final byte SET_PIN = 4;       // plain PIN, only replayed from logs of older versions
+    public static final byte SET_PIN_HASH = 5;
+    public static final byte BULK_CREDIT = 6;   // account = batch key (0 if none), value = batch file id, counterparty = number of postings
+    public static final byte TRANSFER_FX = 7;   // value = debit in the sender's currency, counterparty = receiver
+    public static final byte FX_CREDIT = 8;     // account = receiver, value = credit in its currency, counterparty = sender
+    public static final byte REQUEST = 9;       // account = idempotency key, value = request kind and time, counterparty = balance after
+    public static final byte PREPARE_DEBIT = 10;  // value = amount taken out and held, counterparty = transaction id
+    public static final byte PREPARE_CREDIT = 11; // value = amount to add on commit, counterparty = transaction id
+    public static final byte RESOLVE = 12;        // commit or abort: value = amount added now, counterparty = transaction id
+
+    // Receives records during replay
+    public interface Replayer {
+        void apply(long sequence, byte operation, long accountNumber, long value, long counterparty);
+    }
+
+    private final Path directory;
+    private final Object bufferLock = new Object();
+    private final Object flushLock = new Object();
+    private final CRC32 crc = new CRC32();
+    private ByteBuffer pending = ByteBuffer.allocate(64 * RECORD_SIZE);
+    private ByteBuffer flushing = ByteBuffer.allocate(64 * RECORD_SIZE);
+    private FileChannel channel;
+    private long lastSequence;
+    private volatile long durableSequence;
+    private volatile Runnable beforeWrite = () -> { };
+
+    private WriteAheadLog(Path directory, long lastSequence) {
+        this.directory = directory;
+        this.lastSequence = lastSequence;
+        this.durableSequence = lastSequence;
+    }
+
+    // Opens the log, replays every intact record after afterSequence, and
+    // cuts off a torn record left by a crash
+    public static WriteAheadLog open(Path directory, long afterSequence, Replayer replayer) throws IOException {
+        Files.createDirectories(directory);
+        List<Path> files = logFiles(directory);
+        long lastSequence = afterSequence;
+        for (int i = 0; i < files.size(); i++) {
+            boolean newest = i == files.size() - 1;
+            lastSequence = Math.max(lastSequence, replayFile(files.get(i), afterSequence, replayer, newest));
+        }
+        WriteAheadLog log = new WriteAheadLog(directory, lastSequence);
+        Path current = files.isEmpty() ? log.fileStartingAt(lastSequence + 1) : files.get(files.size() - 1);
+        log.channel = FileChannel.open(current, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        log.channel.position(log.channel.size());
+        return log;
+    }
+
+    // Buffers one record and returns its sequence number (not yet durable)
+    public long append(byte operation, long accountNumber, long value, long counterparty) {
+        synchronized (bufferLock) {
+            return put(operation, accountNumber, value, counterparty);
+        }
+    }
+
+    // Buffers two records with consecutive sequence numbers (nothing can come
+    // between them) and returns the second one's
+    public long appendPair(byte firstOperation, long firstAccount, long firstValue, long firstCounterparty,
+                           byte secondOperation, long secondAccount, long secondValue, long secondCounterparty) {
+        synchronized (bufferLock) {
+            put(firstOperation, firstAccount, firstValue, firstCounterparty);
+            return put(secondOperation, secondAccount, secondValue, secondCounterparty);
+        }
+    }
+
+    // Buffers three records with consecutive sequence numbers and returns the third one's
+    public long appendTriple(byte firstOperation, long firstAccount, long firstValue, long firstCounterparty,
+                             byte secondOperation, long secondAccount, long secondValue, long secondCounterparty,
+                             byte thirdOperation, long thirdAccount, long thirdValue, long thirdCounterparty) {
+        synchronized (bufferLock) {
+            put(firstOperation, firstAccount, firstValue, firstCounterparty);
+            put(secondOperation, secondAccount, secondValue, secondCounterparty);
+            return put(thirdOperation, thirdAccount, thirdValue, thirdCounterparty);
+        }
+    }
+
+    // Caller holds bufferLock
+    private long put(byte operation, long accountNumber, long value, long counterparty) {
+        if (pending.remaining() < RECORD_SIZE) {
+            ByteBuffer grown = ByteBuffer.allocate(pending.capacity() * 2);
+            pending.flip();
+            grown.put(pending);
+            pending = grown;
+        }
+        long sequence = ++lastSequence;
+        int start = pending.position();
+        pending.putLong(sequence);
+        pending.put(operation);
+        pending.putLong(accountNumber);
+        pending.putLong(value);
+        pending.putLong(counterparty);
+        crc.reset();
+        crc.update(pending.array(), start, RECORD_SIZE - 4);
+        pending.putInt((int) crc.getValue());
+        return sequence;
+    }
+
+    // Runs hook before each write (and fsync) of the records buffered so far
+    public void beforeWrite(Runnable hook) {
+        beforeWrite = hook;
+    }
+
+    // Blocks until the record with this sequence number is on disk
+    public void awaitDurable(long sequence) {
+        if (durableSequence >= sequence) {
+            return;
+        }
+        synchronized (flushLock) {
+            if (durableSequence >= sequence) {
+                return; // an earlier flush already covered this record
+            }
+            flush();
+        }
+    }
+
+    // Sequence number of the newest record handed out so far
+    public long lastSequence() {
+        synchronized (bufferLock) {
+            return lastSequence;
+        }
+    }
+
+    // Flushes what is buffered and continues in a new file
+    // Call while no appends are running so the new file starts exactly after lastSequence()
+    public void rotate() throws IOException {
+        synchronized (flushLock) {
+            flush();
+            long next = durableSequence + 1;
+            Path nextFile = fileStartingAt(next);
+            if (channel.size() == 0) {
+                return; // current file is still empty, keep using it
+            }
+            channel.close();
+            channel = FileChannel.open(nextFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        }
+    }
+
+    // Deletes log files whose records are all at or below this sequence number
+    public void deleteCoveredFiles(long coveredSequence) throws IOException {
+        synchronized (flushLock) {
+            List<Path> files = logFiles(directory);
+            for (int i = 0; i + 1 < files.size(); i++) {
+                if (firstSequenceOf(files.get(i + 1)) - 1 <= coveredSequence) {
+                    Files.delete(files.get(i));
+                }
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (flushLock) {
+            flush();
+            channel.close();
+        }
+    }
+
+    // Writes and fsyncs everything buffered so far (caller holds flushLock)
+    private void flush() {
+        long upTo;
+        synchronized (bufferLock) {
+            ByteBuffer batch = pending;
+            pending = flushing;
+            flushing = batch;
+            upTo = lastSequence;
+        }
+        beforeWrite.run();
+        try {
+            flushing.flip();
+            while (flushing.hasRemaining()) {
+                channel.write(flushing);
+            }
+            flushing.clear();
+            channel.force(false);
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not write the write-ahead log in " + directory, e);
+        }
+        durableSequence = upTo;
+    }
+
+    private Path fileStartingAt(long sequence) {
+        return directory.resolve(String.format("wal-%019d.log", sequence));
+    }
+
+    private static long firstSequenceOf(Path file) {
+        String name = file.getFileName().toString();
+        return Long.parseLong(name.substring(4, name.length() - 4));
+    }
+
+    private static List<Path> logFiles(Path directory) throws IOException {
+        try (Stream<Path> entries = Files.list(directory)) {
+            List<Path> files = new ArrayList<>();
+            entries.filter(p -> p.getFileName().toString().matches("wal-\\d{19}\\.log")).sorted().forEach(files::add);
+            return files;
+        }
+    }
+
+    // Replays one file and returns the highest sequence number seen
+    private static long replayFile(Path file, long afterSequence, Replayer replayer, boolean newest) throws IOException {
+        long lastSequence = 0;
+        long validEnd = 0;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.allocate(4096 * RECORD_SIZE);
+            CRC32 check = new CRC32();
+            boolean intact = true;
+            while (intact && channel.read(buffer) > 0) {
+                buffer.flip();
+                while (buffer.remaining() >= RECORD_SIZE) {
+                    check.reset();
+                    check.update(buffer.array(), buffer.position(), RECORD_SIZE - 4);
+                    long sequence = buffer.getLong();
+                    byte operation = buffer.get();
+                    long accountNumber = buffer.getLong();
+                    long value = buffer.getLong();
+                    long counterparty = buffer.getLong();
+                    if (buffer.getInt() != (int) check.getValue() || sequence <= 0) {
+                        intact = false;
+                        break;
+                    }
+                    if (sequence > afterSequence) {
+                        replayer.apply(sequence, operation, accountNumber, value, counterparty);
+                    }
+                    lastSequence = sequence;
+                    validEnd += RECORD_SIZE;
+                }
+                buffer.compact();
+            }
+            if (newest && validEnd < channel.size()) {
+                channel.truncate(validEnd); // torn write from a crash
+                channel.force(true);
+            }
+        }
+        return lastSequence;
+    }
+}
@@ -0,0 +1,101 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+// Many threads updating one Account at once: every deposit and withdrawal
+// must be counted (no lost updates) and the balance must never go negative
+
+
+class AccountConcurrencyTest {
+    static final int THREADS = 16;
+    private static final int OPERATIONS = 20_000;
+    private static final PinAuthenticator.PinHash PIN = PinAuthenticator.hash(1234);
+
+    @Test
+    void concurrentDepositsAndWithdrawalsLoseNoUpdates() throws Exception {
+        Account account = new Account(1001, "Test", 1_000.00, PIN, null);
+        AtomicInteger withdrawn = new AtomicInteger();
+
+        runTogether(thread -> {
+            for (int i = 0; i < OPERATIONS; i++) {
+                account.depositCents(3);
+                if (account.withdrawCents(2)) {
+                    withdrawn.incrementAndGet();
+                }
+            }
+        });
+
+        long expected = 100_000L + 3L * THREADS * OPERATIONS - 2L * withdrawn.get();
+        assertEquals(THREADS * OPERATIONS, withdrawn.get(), "a withdrawal failed although every thread deposited first");
+        assertEquals(expected, account.getBalanceCents());
+    }
+
+    @Test
+    void concurrentWithdrawalsNeverOverdraw() throws Exception {
+        Account account = new Account(1002, "Test", 500.00, PIN, null);
+        AtomicInteger succeeded = new AtomicInteger();
+
+        runTogether(thread -> {
+            for (int i = 0; i < OPERATIONS; i++) {
+                if (account.withdrawCents(7)) {
+                    succeeded.incrementAndGet();
+                }
+            }
+        });
+
+        assertEquals(50_000L / 7, succeeded.get());
+        assertEquals(50_000L % 7, account.getBalanceCents());
+        assertTrue(account.getBalanceCents() >= 0);
+    }
+
+    @Test
+    void depositsFromManyThreadsAddUpExactly() throws Exception {
+        Account account = new Account(1003, "Test", Currency.JPY, 0, PIN, null);
+
+        runTogether(thread -> {
+            for (int i = 0; i < OPERATIONS; i++) {
+                account.depositCents(thread + 1);
+            }
+        });
+
+        long expected = (long) OPERATIONS * THREADS * (THREADS + 1) / 2;
+        assertEquals(expected, account.getBalanceCents());
+    }
+
+    interface Work {
+        void run(int thread);
+    }
+
+    // Starts every thread at the same moment so their updates overlap
+    static void runTogether(Work work) throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> done = new ArrayList<>();
+        try {
+            for (int t = 0; t < THREADS; t++) {
+                int thread = t;
+                done.add(pool.submit(() -> {
+                    start.await();
+                    work.run(thread);
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> f : done) {
+                f.get(60, TimeUnit.SECONDS);
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,70 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+// The read model follows the journal, and when applying a record fails it
+// stops in the open: catchUp() no longer waits out its timeout, and the bank
+// reads balances from the accounts again
+
+
+class AccountViewsTest {
+    private static final PinAuthenticator.PinHash PIN = PinAuthenticator.hash(1234);
+
+    @TempDir
+    Path directory;
+    private TransactionJournal journal;
+    private DurableLedger ledger;
+    private BankingService bank;
+
+    @BeforeEach
+    void open() throws IOException {
+        journal = TransactionJournal.open(directory.resolve("journal"));
+        ledger = DurableLedger.open(directory, journal, () -> {
+            AccountRepository accounts = new AccountRepository();
+            accounts.add(new Account(1, "One", 1_000.00, PIN, journal));
+            return accounts;
+        });
+        bank = new BankingService(ledger);
+        bank.startReadModel(journal);
+    }
+
+    @AfterEach
+    void close() throws Exception {
+        bank.views().close();
+        ledger.close();
+        journal.close();
+    }
+
+    @Test
+    void followsPostings() {
+        bank.execute(TransactionRequest.deposit(1, 250_00));
+        bank.awaitReadModel();
+
+        AccountViews.View view = bank.views().get(1);
+        assertEquals(1_250_00, view.getBalanceMinor());
+        assertEquals(TransactionType.DEPOSIT, view.line(0).getType());
+    }
+
+    @Test
+    void stopsOnAFailedRecordAndTheBankFallsBackToTheAccounts() {
+        journal.append(1, TransactionType.DEPOSIT, Long.MAX_VALUE, 0); // the view's balance overflows
+        long start = System.nanoTime();
+        assertFalse(bank.views().catchUp(10_000));
+        assertTrue(System.nanoTime() - start < 5_000_000_000L, "catchUp waited for a dead read model");
+        assertTrue(bank.views().failed());
+        assertFalse(bank.views().catchUp(10_000));
+
+        bank.execute(TransactionRequest.deposit(1, 5_00));
+        bank.awaitReadModel();
+        assertEquals(1_005_00, bank.balanceCents(1));
+        assertEquals(TransactionType.DEPOSIT, bank.view(1).line(0).getType());
+    }
+}
@@ -0,0 +1,46 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Scanner;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+
+// A terminal that sends its own key with an operation, and sends it again
+// when it retries in a new session, has the operation run only once
+
+
+class AtmSessionTest {
+    @RegisterExtension
+    final CrashingLedgerFixture ledgers = new CrashingLedgerFixture(
+            CrashingLedgerFixture.opening(1, "One", 10_000.00), CrashingLedgerFixture.opening(2, "Two", 10_000.00));
+
+    // Logs in to account 1, withdraws 1,500.00 under key, and quits
+    private static void withdrawSession(BankingService bank, long key) throws InterruptedException {
+        String answers = String.join("\n", "1", "1234", "3", "1234", "KEY " + key, "1500", "N", "N", "3") + "\n";
+        PrintStream screens = new PrintStream(new ByteArrayOutputStream(), false, StandardCharsets.UTF_8);
+        new ATM(new Scanner(answers), screens, bank, Pacing.HEADLESS).run();
+    }
+
+    @Test
+    void aRetriedWithdrawalRunsOnce() throws IOException, InterruptedException {
+        DurableLedger ledger = ledgers.restart();
+        BankingService bank = new BankingService(ledger);
+        int[] notes = bank.dispenser().noteCounts();
+
+        withdrawSession(bank, 42);
+        withdrawSession(bank, 42); // the terminal never saw the answer and tries again
+        assertEquals(8_500_00, bank.findAccount(1).getBalanceCents());
+        notes[0]--; // one 1,000 note
+        notes[1]--; // one 500 note
+        assertArrayEquals(notes, bank.dispenser().noteCounts());
+
+        withdrawSession(bank, 43); // a new operation
+        assertEquals(7_000_00, bank.findAccount(1).getBalanceCents());
+        ledger.close();
+    }
+}
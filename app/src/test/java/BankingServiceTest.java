@@ -0,0 +1,36 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+
+// A withdrawal or transfer the ledger fails on gives back the notes it took
+// and the part of the daily limit it reserved
+
+
+class BankingServiceTest {
+    @RegisterExtension
+    final CrashingLedgerFixture ledgers = new CrashingLedgerFixture(
+            CrashingLedgerFixture.opening(1, "One", 10_000.00), CrashingLedgerFixture.opening(2, "Two", 10_000.00));
+
+    @Test
+    void aFailedLedgerGivesBackTheNotesAndTheLimit() throws IOException {
+        DurableLedger ledger = ledgers.restart();
+        BankingService service = new BankingService(ledger);
+        Account account = service.findAccount(1);
+        long now = System.currentTimeMillis();
+        int[] notes = service.dispenser().noteCounts();
+        long cash = service.limits().remainingCents(account, SpendLimits.Channel.CASH, now);
+        long transfers = service.limits().remainingCents(account, SpendLimits.Channel.TRANSFER, now);
+        ledger.close(); // the log is closed, so the next change cannot be made durable
+
+        assertThrows(IllegalStateException.class, () -> service.execute(TransactionRequest.withdraw(1, 1_500_00)));
+        assertThrows(IllegalStateException.class, () -> service.execute(TransactionRequest.transfer(1, 2, 500_00)));
+        assertArrayEquals(notes, service.dispenser().noteCounts());
+        assertEquals(cash, service.limits().remainingCents(account, SpendLimits.Channel.CASH, now));
+        assertEquals(transfers, service.limits().remainingCents(account, SpendLimits.Channel.TRANSFER, now));
+    }
+}
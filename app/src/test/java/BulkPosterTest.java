@@ -0,0 +1,76 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+
+// Running a batch file again, after a crash or after a clean restart, skips
+// the batches already posted instead of crediting them twice
+
+
+class BulkPosterTest {
+    private static final long OPENING = 1_000_00;
+
+    @RegisterExtension
+    final CrashingLedgerFixture ledgers = new CrashingLedgerFixture(
+            CrashingLedgerFixture.opening(1, "One", 1_000.00), CrashingLedgerFixture.opening(2, "Two", 1_000.00),
+            CrashingLedgerFixture.opening(3, "Three", 1_000.00));
+
+    private Path file;
+
+    @BeforeEach
+    void writeFile() throws IOException {
+        file = ledgers.directory().resolve("payroll.csv");
+        Files.writeString(file, "account,amount\n1,100\n2,200.50\n1,25\n3,40\n2,0\n");
+    }
+
+    @Test
+    void aRerunAfterACrashPostsNothing() throws IOException, InterruptedException {
+        DurableLedger ledger = ledgers.restart();
+        BulkPoster.Result first = new BulkPoster(ledger, 2, 2).post(file);
+        assertEquals(4, first.getPostings());
+        assertEquals(0, first.getSkippedBatches());
+
+        DurableLedger recovered = ledgers.restart();
+        BulkPoster.Result rerun = new BulkPoster(recovered, 2, 2).post(file);
+        assertEquals(0, rerun.getPostings());
+        assertEquals(first.getBatches(), rerun.getSkippedBatches());
+        assertCreditedOnce(recovered);
+        recovered.close();
+    }
+
+    @Test
+    void aRerunAfterACheckpointPostsNothing() throws IOException, InterruptedException {
+        DurableLedger ledger = ledgers.restart();
+        new BulkPoster(ledger, 2, 2).post(file);
+        ledger.close(); // the keys are now only in posted.bin, not in the log
+
+        DurableLedger reopened = ledgers.restart();
+        BulkPoster.Result rerun = new BulkPoster(reopened, 2, 2).post(file);
+        assertEquals(0, rerun.getPostings());
+        assertCreditedOnce(reopened);
+        reopened.close();
+    }
+
+    @Test
+    void anotherFileIsPosted() throws IOException, InterruptedException {
+        DurableLedger ledger = ledgers.restart();
+        new BulkPoster(ledger, 2, 2).post(file);
+        Path other = ledgers.directory().resolve("bonus.csv");
+        Files.writeString(other, "3,5\n");
+        assertEquals(1, new BulkPoster(ledger, 2, 2).post(other).getPostings());
+        assertEquals(OPENING + 45_00, ledgers.account(ledger, 3).getBalanceCents());
+        ledger.close();
+    }
+
+    private void assertCreditedOnce(DurableLedger ledger) {
+        assertEquals(OPENING + 125_00, ledgers.account(ledger, 1).getBalanceCents());
+        assertEquals(OPENING + 200_50, ledgers.account(ledger, 2).getBalanceCents());
+        assertEquals(OPENING + 40_00, ledgers.account(ledger, 3).getBalanceCents());
+        assertEquals(2, ledgers.journal().count(1));
+    }
+}
@@ -0,0 +1,112 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.extension.AfterEachCallback;
+import org.junit.jupiter.api.extension.BeforeEachCallback;
+import org.junit.jupiter.api.extension.ExtensionContext;
+
+// CrashingLedgerFixture gives each test its own data directory and journal,
+// and ledgers over them that can crash: restart() opens a new ledger and
+// leaves the previous one open, as after a crash
+// The journal is kept across restarts (only the ledger crashes), and the
+// opening accounts are made again on every restart until there is a snapshot
+// Register it in a test class with
+//   @RegisterExtension
+//   final CrashingLedgerFixture ledgers = new CrashingLedgerFixture(
+//           CrashingLedgerFixture.opening(1, "One", 1_000.00), ...);
+// and use ledgers.restart(), ledgers.account(ledger, 1) and so on in the tests
+
+
+final class CrashingLedgerFixture implements BeforeEachCallback, AfterEachCallback {
+    // The PIN of every opening account
+    static final PinAuthenticator.PinHash PIN = PinAuthenticator.hash(1234);
+
+    // One account a new ledger starts with
+    static final class Opening {
+        final long number;
+        final String name;
+        final Currency currency;
+        final double balance;
+
+        Opening(long number, String name, Currency currency, double balance) {
+            this.number = number;
+            this.name = name;
+            this.currency = currency;
+            this.balance = balance;
+        }
+    }
+
+    private final Opening[] openings;
+    private Path directory;
+    private TransactionJournal journal;
+
+    CrashingLedgerFixture(Opening... openings) {
+        this.openings = openings.clone();
+    }
+
+    // A peso account; balance in pesos
+    static Opening opening(long number, String name, double balance) {
+        return new Opening(number, name, Currency.PHP, balance);
+    }
+
+    // balance in the currency's major units
+    static Opening opening(long number, String name, Currency currency, double balance) {
+        return new Opening(number, name, currency, balance);
+    }
+
+    @Override
+    public void beforeEach(ExtensionContext context) throws IOException {
+        directory = Files.createTempDirectory("ledger");
+        journal = TransactionJournal.open(directory.resolve("journal"));
+    }
+
+    @Override
+    public void afterEach(ExtensionContext context) throws IOException {
+        journal.close();
+        try (Stream<Path> paths = Files.walk(directory)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    Path directory() {
+        return directory;
+    }
+
+    TransactionJournal journal() {
+        return journal;
+    }
+
+    // Reopens the ledger; the previous one is left open, as after a crash
+    DurableLedger restart() throws IOException {
+        return DurableLedger.open(directory, journal, this::openingAccounts);
+    }
+
+    // The newest write-ahead log file, to tear or corrupt
+    Path newestLog() throws IOException {
+        try (Stream<Path> files = Files.list(directory.resolve("wal"))) {
+            return files.sorted().reduce((first, second) -> second).orElseThrow();
+        }
+    }
+
+    Account account(DurableLedger ledger, long number) {
+        return ledger.accounts().findByNumber(number);
+    }
+
+    long balance(DurableLedger ledger, long number) {
+        return account(ledger, number).getBalanceCents();
+    }
+
+    // The accounts a new ledger starts with (again on every restart until there is a snapshot)
+    private AccountRepository openingAccounts() {
+        AccountRepository accounts = new AccountRepository();
+        for (Opening opening : openings) {
+            accounts.add(new Account(opening.number, opening.name, opening.currency, opening.balance, PIN, journal));
+        }
+        return accounts;
+    }
+}
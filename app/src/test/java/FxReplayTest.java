@@ -0,0 +1,70 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+
+// A transfer between currencies is logged as a TRANSFER_FX and FX_CREDIT pair:
+// after a crash both sides come back (with the idempotency key, if it had one),
+// and a pair cut in half by the crash is not replayed at all
+
+
+class FxReplayTest {
+    private static final long PESOS = 1;
+    private static final long DOLLARS = 2;
+
+    @RegisterExtension
+    final CrashingLedgerFixture ledgers = new CrashingLedgerFixture(
+            CrashingLedgerFixture.opening(PESOS, "Pesos", Currency.PHP, 10_000.00),
+            CrashingLedgerFixture.opening(DOLLARS, "Dollars", Currency.USD, 100.00));
+
+    @Test
+    void replaysBothSidesOfAConversion() throws IOException {
+        DurableLedger ledger = ledgers.restart();
+        assertTrue(ledger.transfer(ledgers.account(ledger, PESOS), ledgers.account(ledger, DOLLARS), 5_600_00, 100_00));
+        assertTrue(ledger.transfer(ledgers.account(ledger, DOLLARS), ledgers.account(ledger, PESOS), 10_00, 560_00));
+
+        DurableLedger recovered = ledgers.restart();
+        assertEquals(10_000_00 - 5_600_00 + 560_00, ledgers.account(recovered, PESOS).getBalanceCents());
+        assertEquals(100_00 + 100_00 - 10_00, ledgers.account(recovered, DOLLARS).getBalanceCents());
+        recovered.close();
+    }
+
+    @Test
+    void replaysTheIdempotencyKeyWithTheConvertedCredit() throws IOException {
+        DurableLedger ledger = ledgers.restart();
+        TransactionRequest request = TransactionRequest.transfer(PESOS, DOLLARS, 5_600_00).withIdempotencyKey(77);
+        IdempotencyCache.Entry entry = ledger.requests().insert(77, request, System.currentTimeMillis());
+        assertTrue(ledger.transfer(ledgers.account(ledger, PESOS), ledgers.account(ledger, DOLLARS), 5_600_00, 100_00, entry));
+
+        DurableLedger recovered = ledgers.restart();
+        IdempotencyCache.Entry restored = recovered.requests().find(77, System.currentTimeMillis());
+        assertNotNull(restored);
+        assertTrue(restored.matches(request));
+        assertEquals(100_00, restored.getCreditedCents());
+        assertEquals(4_400_00, restored.getBalanceCents());
+        recovered.close();
+    }
+
+    @Test
+    void aPairCutInHalfIsNotReplayed() throws IOException {
+        DurableLedger ledger = ledgers.restart();
+        ledger.deposit(ledgers.account(ledger, PESOS), 1_00);
+        assertTrue(ledger.transfer(ledgers.account(ledger, PESOS), ledgers.account(ledger, DOLLARS), 5_600_00, 100_00));
+        Path log = ledgers.newestLog();
+        try (FileChannel channel = FileChannel.open(log, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 10); // the crash tore the FX_CREDIT
+        }
+
+        DurableLedger recovered = ledgers.restart();
+        assertEquals(10_001_00, ledgers.account(recovered, PESOS).getBalanceCents());
+        assertEquals(100_00, ledgers.account(recovered, DOLLARS).getBalanceCents());
+        recovered.close();
+    }
+}
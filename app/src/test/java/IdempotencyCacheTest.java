@@ -0,0 +1,43 @@
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import org.junit.jupiter.api.Test;
+
+// A full cache makes room by dropping finished entries only: a key whose
+// request is still running stays claimed, so its retry cannot run it again
+
+
+class IdempotencyCacheTest {
+    private static final long NOW = 1_000_000L;
+    private static final TransactionRequest DEPOSIT = TransactionRequest.deposit(1001, 100_00);
+
+    @Test
+    void runningEntriesAreNeverEvicted() {
+        IdempotencyCache cache = new IdempotencyCache(2, 60_000);
+        IdempotencyCache.Entry first = cache.insert(1, DEPOSIT, NOW);
+        IdempotencyCache.Entry second = cache.insert(2, DEPOSIT, NOW);
+
+        assertSame(IdempotencyCache.FULL, cache.insert(3, DEPOSIT, NOW));
+        assertSame(first, cache.find(1, NOW));
+        assertNull(cache.find(3, NOW), "a refused key must stay free for a retry");
+
+        cache.complete(second, TransactionResult.failed(TransactionResult.Status.INVALID_AMOUNT));
+        IdempotencyCache.Entry third = cache.insert(3, DEPOSIT, NOW);
+        assertNotNull(third);
+        assertSame(first, cache.find(1, NOW), "the running entry was dropped to make room");
+        assertNull(cache.find(2, NOW));
+        assertNull(cache.insert(1, DEPOSIT, NOW), "a retry claimed a key that is still running");
+    }
+
+    @Test
+    void runningEntriesOutliveTheirTimeToLive() {
+        IdempotencyCache cache = new IdempotencyCache(4, 1_000);
+        IdempotencyCache.Entry running = cache.insert(1, DEPOSIT, NOW);
+        IdempotencyCache.Entry done = cache.insert(2, DEPOSIT, NOW);
+        cache.complete(done, TransactionResult.failed(TransactionResult.Status.INVALID_AMOUNT));
+
+        assertSame(running, cache.find(1, NOW + 5_000));
+        assertNull(cache.find(2, NOW + 5_000));
+    }
+}
@@ -0,0 +1,85 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+
+// The ledger journals every change in the same step as its log record, so
+// after a crash each recovered balance is its opening balance plus its
+// history; a change the log lost is dropped from the journal as well
+
+
+class JournalRecoveryTest {
+    private static final long OPENING = 1_000_00;
+
+    @RegisterExtension
+    final CrashingLedgerFixture ledgers = new CrashingLedgerFixture(
+            CrashingLedgerFixture.opening(1, "One", 1_000.00), CrashingLedgerFixture.opening(2, "Two", 1_000.00));
+
+    @Test
+    void everyChangeIsInTheHistory() throws IOException {
+        DurableLedger ledger = ledgers.restart();
+        ledger.deposit(ledgers.account(ledger, 1), 250_00);
+        assertTrue(ledger.withdraw(ledgers.account(ledger, 2), 100_00, TransactionType.FAST_CASH, null));
+        assertTrue(ledger.transfer(ledgers.account(ledger, 1), ledgers.account(ledger, 2), 50_00));
+        ledger.postBatch(new Account[] {ledgers.account(ledger, 1), ledgers.account(ledger, 2)}, new long[] {1_00, 2_00}, 2,
+                TransactionType.INTEREST);
+        assertTrue(ledger.prepareDebit(7, ledgers.account(ledger, 2), 30_00));
+        ledger.commitPrepared(7, 99);
+
+        DurableLedger recovered = ledgers.restart();
+        for (long number = 1; number <= 2; number++) {
+            assertEquals(ledgers.account(recovered, number).getBalanceCents(), OPENING + history(number), "account " + number);
+        }
+        assertArrayEquals(new TransactionType[] {TransactionType.DEPOSIT, TransactionType.TRANSFER_OUT, TransactionType.INTEREST},
+                types(1));
+        assertArrayEquals(new TransactionType[] {TransactionType.FAST_CASH, TransactionType.TRANSFER_IN,
+                TransactionType.INTEREST, TransactionType.TRANSFER_OUT}, types(2));
+        recovered.close();
+    }
+
+    @Test
+    void aChangeTheLogLostLeavesNoHistory() throws IOException {
+        DurableLedger ledger = ledgers.restart();
+        ledger.deposit(ledgers.account(ledger, 1), 10_00);
+        ledger.deposit(ledgers.account(ledger, 1), 20_00);
+        try (FileChannel channel = FileChannel.open(ledgers.newestLog(), StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - WriteAheadLog.RECORD_SIZE); // the second deposit never reached the disk
+        }
+
+        DurableLedger recovered = ledgers.restart();
+        assertEquals(OPENING + 10_00, ledgers.account(recovered, 1).getBalanceCents());
+        assertEquals(1, ledgers.journal().count(1));
+        assertEquals(10_00, history(1));
+
+        recovered.deposit(ledgers.account(recovered, 1), 5_00); // the journal goes on from where the log did
+        assertEquals(OPENING + 15_00, ledgers.account(recovered, 1).getBalanceCents());
+        assertEquals(15_00, history(1));
+        recovered.close();
+    }
+
+    private long history(long number) {
+        long sum = 0;
+        JournalCursor cursor = ledgers.journal().cursor(number);
+        while (cursor.next()) {
+            sum += cursor.type().signed(cursor.amountCents());
+        }
+        return sum;
+    }
+
+    private TransactionType[] types(long number) {
+        List<TransactionType> types = new ArrayList<>();
+        JournalCursor cursor = ledgers.journal().cursor(number);
+        while (cursor.next()) {
+            types.add(cursor.type());
+        }
+        return types.toArray(new TransactionType[0]);
+    }
+}
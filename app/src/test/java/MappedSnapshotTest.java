@@ -0,0 +1,159 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Scanner;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+// A ledger opened over a mapped snapshot makes accounts on first use, also
+// while a checkpoint is writing the next snapshot; every account must come
+// out of it right, whether it was made before, during or after the capture
+
+
+class MappedSnapshotTest {
+    private static final int ACCOUNTS = 50_000;
+    private static final long FIRST = 10_000_001;
+    private static final PinAuthenticator.PinHash PIN = PinAuthenticator.hash(1234);
+
+    @TempDir
+    Path directory;
+    private TransactionJournal journal;
+
+    @BeforeEach
+    void writeSnapshot() throws IOException {
+        journal = TransactionJournal.open(directory.resolve("journal"));
+        DurableLedger.open(directory, journal, this::opening).close(); // closing writes a version 4 snapshot
+    }
+
+    @AfterEach
+    void closeJournal() throws IOException {
+        journal.close();
+    }
+
+    private AccountRepository opening() {
+        AccountRepository accounts = new AccountRepository(ACCOUNTS);
+        for (int i = 0; i < ACCOUNTS; i++) {
+            accounts.add(new Account(FIRST + i, "Customer " + i, 100.00 + i, PIN, journal));
+        }
+        return accounts;
+    }
+
+    private DurableLedger openMapped() throws IOException {
+        return DurableLedger.open(directory, journal, this::opening, true);
+    }
+
+    @Test
+    void checkpointsWhileAccountsAreMade() throws Exception {
+        DurableLedger ledger = openMapped();
+        AccountRepository accounts = ledger.accounts();
+        AtomicBoolean done = new AtomicBoolean();
+        Thread maker = new Thread(() -> {
+            for (int i = ACCOUNTS - 1; i >= 0 && !done.get(); i--) {
+                accounts.get(i);
+            }
+        });
+        maker.start();
+        int rounds = 0;
+        for (; rounds < 20 && maker.isAlive(); rounds++) {
+            ledger.deposit(accounts.findByNumber(FIRST + rounds), 1_00); // something for the checkpoint to write
+            ledger.checkpoint();
+        }
+        done.set(true);
+        maker.join();
+        ledger.deposit(accounts.findByNumber(FIRST), 1_00);
+        ledger.close();
+
+        DurableLedger reopened = openMapped();
+        for (int i = 0; i < ACCOUNTS; i++) {
+            Account account = reopened.accounts().findByNumber(FIRST + i);
+            assertNotNull(account, "account " + i);
+            long deposits = (i == 0 ? 1 : 0) + (i < rounds ? 1 : 0);
+            assertEquals(10_000 + 100L * i + 100 * deposits, account.getBalanceCents(), "account " + i);
+        }
+        reopened.close();
+    }
+
+    @Test
+    void lookupsRacingTheMakerSeeWholeAccounts() throws Exception {
+        DurableLedger ledger = openMapped();
+        AccountRepository accounts = ledger.accounts();
+        AtomicReferenceArray<Account> seen = new AtomicReferenceArray<>(ACCOUNTS);
+        AtomicReferenceArray<String> failures = new AtomicReferenceArray<>(4);
+        Thread[] readers = new Thread[4];
+        for (int r = 0; r < readers.length; r++) {
+            int reader = r;
+            readers[r] = new Thread(() -> {
+                for (int i = 0; i < ACCOUNTS; i++) {
+                    Account account = accounts.findByNumber(FIRST + i);
+                    Account first = account == null ? null : seen.compareAndExchange(i, null, account);
+                    if (account == null || first != null && first != account
+                            || account.getBalanceCents() != 10_000 + 100L * i) {
+                        failures.compareAndSet(reader, null, "account " + i + ": " + account);
+                        return;
+                    }
+                }
+            });
+            readers[r].start();
+        }
+        for (Thread reader : readers) {
+            reader.join();
+        }
+        for (int r = 0; r < readers.length; r++) {
+            assertNull(failures.get(r));
+        }
+        for (int i = 0; i < ACCOUNTS; i++) {
+            assertSame(seen.get(i), accounts.get(i), "account " + i + " made once");
+        }
+        ledger.close();
+    }
+
+    @Test
+    void namesAndPassesOverEveryAccountMakeNoOthers() throws Exception {
+        DurableLedger ledger = openMapped();
+        AccountRepository accounts = ledger.accounts();
+        List<Account> found = accounts.findByName("Customer 123");
+        assertEquals(1, found.size());
+        assertEquals(FIRST + 123, found.get(0).getAccountNumber());
+        assertEquals(List.of(), accounts.findByName("Nobody"));
+
+        AuditExport.export(journal, accounts, directory.resolve("audit"));
+        for (int i = 0; i < ACCOUNTS; i++) {
+            assertEquals(FIRST + i, accounts.numberAt(i));
+            assertEquals(10_000 + 100L * i, accounts.balanceAt(i));
+            assertEquals(Currency.PHP, accounts.currencyAt(i));
+            if (i != 123) {
+                assertNull(accounts.loaded(i), "account " + i + " made");
+            }
+        }
+        ledger.close();
+    }
+
+    @Test
+    void loggingInAtTheAtmMakesOnlyThatAccount() throws Exception {
+        DurableLedger ledger = openMapped();
+        AccountRepository accounts = ledger.accounts();
+        String answers = String.join("\n", String.valueOf(FIRST + 123), "1234", "8", "0") + "\n";
+        PrintStream screens = new PrintStream(new ByteArrayOutputStream(), false, StandardCharsets.UTF_8);
+        new ATM(new Scanner(answers), screens, new BankingService(ledger), Pacing.HEADLESS).run();
+        for (int i = 0; i < ACCOUNTS; i++) {
+            if (i != 123) {
+                assertNull(accounts.loaded(i), "account " + i + " made");
+            }
+        }
+        assertNotNull(accounts.loaded(123));
+        ledger.close();
+    }
+}
@@ -0,0 +1,75 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+// The lockout holds when many sessions guess at one account at the same time:
+// no more than MAX_ATTEMPTS PINs are ever hashed before the account locks
+
+
+class PinAuthenticatorTest {
+    private static final int PIN = 4321;
+
+    // Counts how many PIN checks actually read the hash to compare against
+    static final class CountingAccount extends Account {
+        final AtomicInteger hashReads = new AtomicInteger();
+
+        CountingAccount(long number) {
+            super(number, "Test", 100.00, PinAuthenticator.hash(PIN), null);
+        }
+
+        @Override
+        public PinAuthenticator.PinHash getPinHash() {
+            hashReads.incrementAndGet();
+            return super.getPinHash();
+        }
+    }
+
+    @Test
+    void concurrentWrongGuessesAreCappedAtMaxAttempts() throws Exception {
+        PinAuthenticator pins = new PinAuthenticator();
+        CountingAccount account = new CountingAccount(2001);
+        Map<PinAuthenticator.Outcome, AtomicInteger> outcomes = new ConcurrentHashMap<>();
+
+        AccountConcurrencyTest.runTogether(thread ->
+                outcomes.computeIfAbsent(pins.verify(account, 1000 + thread), o -> new AtomicInteger()).incrementAndGet());
+
+        assertEquals(PinAuthenticator.MAX_ATTEMPTS, account.hashReads.get());
+        assertEquals(PinAuthenticator.MAX_ATTEMPTS - 1, outcomes.get(PinAuthenticator.Outcome.REJECTED).get());
+        assertTrue(pins.isLockedOut(2001));
+        assertEquals(PinAuthenticator.Outcome.LOCKED_OUT, pins.verify(account, PIN));
+    }
+
+    @Test
+    void concurrentRightPinsAreAllAccepted() throws Exception {
+        PinAuthenticator pins = new PinAuthenticator();
+        CountingAccount account = new CountingAccount(2002);
+        assertEquals(PinAuthenticator.Outcome.REJECTED, pins.verify(account, 1111));
+        AtomicInteger accepted = new AtomicInteger();
+
+        AccountConcurrencyTest.runTogether(thread -> {
+            if (pins.verify(account, PIN) == PinAuthenticator.Outcome.ACCEPTED) {
+                accepted.incrementAndGet();
+            }
+        });
+
+        assertEquals(AccountConcurrencyTest.THREADS, accepted.get());
+        assertEquals(PinAuthenticator.MAX_ATTEMPTS, pins.remainingAttempts(2002));
+    }
+
+    @Test
+    void rightPinClearsEarlierFailures() {
+        PinAuthenticator pins = new PinAuthenticator();
+        CountingAccount account = new CountingAccount(2003);
+        for (int i = 0; i < PinAuthenticator.MAX_ATTEMPTS - 1; i++) {
+            assertEquals(PinAuthenticator.Outcome.REJECTED, pins.verify(account, 1111));
+        }
+        assertEquals(1, pins.remainingAttempts(2003));
+        assertEquals(PinAuthenticator.Outcome.ACCEPTED, pins.verify(account, PIN));
+        assertEquals(PinAuthenticator.MAX_ATTEMPTS, pins.remainingAttempts(2003));
+    }
+}
@@ -0,0 +1,53 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+
+// A range whose interest was credited but whose statement file was never
+// renamed (a crash in between) is written again on the rerun, not paid again
+
+
+class StatementJobTest {
+    private static final long DAY = 24L * 60 * 60 * 1000;
+    private static final int RATE = 10_000; // 100% a year, so a day earns whole centavos
+
+    @RegisterExtension
+    final CrashingLedgerFixture ledgers = new CrashingLedgerFixture(
+            CrashingLedgerFixture.opening(1, "One", 1_000.00), CrashingLedgerFixture.opening(2, "Two", 3_650.00));
+
+    @Test
+    void aRangeCreditedBeforeACrashIsNotCreditedAgain() throws IOException {
+        long end = System.currentTimeMillis() - DAY;
+        Path statements = ledgers.directory().resolve("statements");
+        DurableLedger ledger = ledgers.restart();
+        StatementJob.Result first = new StatementJob(ledger, ledgers.journal(), end - DAY, end, RATE, statements).run(1);
+        assertEquals(2, first.getAccountsCredited());
+        long one = ledgers.account(ledger, 1).getBalanceCents();
+        long two = ledgers.account(ledger, 2).getBalanceCents();
+        assertEquals(1_000_00 + 1_000_00 / 365, one);
+        assertEquals(3_660_00, two);
+
+        DurableLedger recovered = ledgers.restart();
+        try (Stream<Path> files = Files.list(statements)) {
+            for (Path file : files.toList()) {
+                Files.delete(file); // as if the crash came before the rename
+            }
+        }
+        StatementJob.Result rerun = new StatementJob(recovered, ledgers.journal(), end - DAY, end, RATE, statements).run(1);
+        assertEquals(2, rerun.getStatements());
+        assertEquals(0, rerun.getAccountsCredited());
+        assertEquals(one, ledgers.account(recovered, 1).getBalanceCents());
+        assertEquals(two, ledgers.account(recovered, 2).getBalanceCents());
+        assertEquals(1, ledgers.journal().count(2));
+        try (Stream<Path> files = Files.list(statements)) {
+            assertTrue(files.anyMatch(file -> file.getFileName().toString().endsWith(".txt")));
+        }
+        recovered.close();
+    }
+}
@@ -0,0 +1,47 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+// Each account's records are found through the journal's index, which grows
+// as accounts are added and is rebuilt from the segments when reopened
+
+
+class TransactionJournalTest {
+    private static final int ACCOUNTS = 5_000; // several times the index's first size
+    private static final long FIRST = 10_000_001;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void everyAccountFindsItsOwnRecords() throws IOException {
+        try (TransactionJournal journal = TransactionJournal.open(directory, 1 << 12)) {
+            for (int round = 1; round <= 3; round++) {
+                for (int i = 0; i < ACCOUNTS; i++) {
+                    journal.append(FIRST + i, TransactionType.DEPOSIT, round * 100_00L + i, 0);
+                }
+            }
+            assertRecords(journal);
+        }
+        try (TransactionJournal reopened = TransactionJournal.open(directory, 1 << 12)) {
+            assertRecords(reopened);
+            assertEquals(0, reopened.count(FIRST + ACCOUNTS), "an account with no records");
+        }
+    }
+
+    private static void assertRecords(TransactionJournal journal) {
+        assertEquals(3L * ACCOUNTS, journal.size());
+        for (int i = 0; i < ACCOUNTS; i++) {
+            assertEquals(3, journal.count(FIRST + i), "account " + i);
+            JournalCursor cursor = journal.cursor(FIRST + i);
+            for (int round = 1; round <= 3; round++) {
+                cursor.next();
+                assertEquals(round * 100_00L + i, cursor.amountCents(), "account " + i);
+            }
+        }
+    }
+}
@@ -0,0 +1,75 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+
+// A shard that crashes with two-phase transfers prepared still has them in
+// doubt after the restart (amount held, credit not added), whether they were
+// only in the log or also in a checkpoint, and settles them once; and a shard
+// error is a failure status, so the coordinator's abort path runs
+
+
+class TwoPhaseRecoveryTest {
+    private static final long SENDER = 101;
+    private static final long RECEIVER = 102;
+
+    @RegisterExtension
+    final CrashingLedgerFixture ledgers = new CrashingLedgerFixture(
+            CrashingLedgerFixture.opening(SENDER, "Sender", 1_000.00),
+            CrashingLedgerFixture.opening(RECEIVER, "Receiver", 500.00));
+
+    @Test
+    void preparedTransactionsSurviveACrashAndSettleOnce() throws IOException {
+        DurableLedger ledger = ledgers.restart();
+        assertTrue(ledger.prepareDebit(1, ledgers.account(ledger, SENDER), 300_00));
+        ledger.prepareCredit(2, ledgers.account(ledger, RECEIVER), 200_00);
+
+        DurableLedger recovered = ledgers.restart();
+        assertEquals(List.of(1L, 2L), recovered.preparedTransactions().stream().sorted().toList());
+        assertEquals(700_00, ledgers.balance(recovered, SENDER), "the prepared debit is no longer held");
+        assertEquals(500_00, ledgers.balance(recovered, RECEIVER), "a prepared credit was added before the commit");
+
+        assertArrayEquals(new long[] {RECEIVER, 200_00, 0}, recovered.commitPrepared(2));
+        assertArrayEquals(new long[] {SENDER, 300_00, 1}, recovered.abortPrepared(1));
+        assertNull(recovered.commitPrepared(2), "a commit was applied twice");
+
+        DurableLedger settled = ledgers.restart();
+        assertTrue(settled.preparedTransactions().isEmpty());
+        assertEquals(1_000_00, ledgers.balance(settled, SENDER));
+        assertEquals(700_00, ledgers.balance(settled, RECEIVER));
+        settled.close();
+    }
+
+    @Test
+    void preparedTransactionsSurviveACheckpoint() throws IOException {
+        DurableLedger ledger = ledgers.restart();
+        assertTrue(ledger.prepareDebit(7, ledgers.account(ledger, SENDER), 250_00));
+        ledger.checkpoint(); // the log that had the prepare is gone; prepared.bin has it now
+
+        DurableLedger recovered = ledgers.restart();
+        assertEquals(List.of(7L), recovered.preparedTransactions());
+        assertEquals(750_00, ledgers.balance(recovered, SENDER));
+        ShardNode node = new ShardNode(recovered);
+        assertEquals("OK", node.handle(new String[] {"COMMIT", "7", String.valueOf(RECEIVER)}));
+        assertEquals("OK", node.handle(new String[] {"COMMIT", "7", String.valueOf(RECEIVER)}));
+
+        DurableLedger settled = ledgers.restart();
+        assertTrue(settled.preparedTransactions().isEmpty());
+        assertEquals(750_00, ledgers.balance(settled, SENDER));
+        settled.close();
+    }
+
+    @Test
+    void shardErrorsAreFailureStatuses() {
+        assertEquals(ShardedLedger.Status.OK, ShardedLedger.statusOf("OK 100"));
+        assertEquals(ShardedLedger.Status.INSUFFICIENT_BALANCE, ShardedLedger.statusOf("NO INSUFFICIENT_BALANCE"));
+        assertEquals(ShardedLedger.Status.ERROR, ShardedLedger.statusOf("ERR For input string: \"x\""));
+        assertEquals(ShardedLedger.Status.ERROR, ShardedLedger.statusOf("NO DAILY_LIMIT"));
+    }
+}
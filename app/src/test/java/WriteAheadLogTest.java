@@ -0,0 +1,101 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+
+// Recovery after a crash: every confirmed change comes back from the log
+// (alone, or after the snapshot it was written past), and a record torn by
+// the crash is cut off without losing the ones before it or the ones after
+
+
+class WriteAheadLogTest {
+    private static final PinAuthenticator.PinHash NEW_PIN = PinAuthenticator.hash(9876);
+
+    @RegisterExtension
+    final CrashingLedgerFixture ledgers = new CrashingLedgerFixture(
+            CrashingLedgerFixture.opening(1, "One", 1_000.00), CrashingLedgerFixture.opening(2, "Two", 1_000.00));
+
+    @Test
+    void replaysEveryConfirmedChange() throws IOException {
+        DurableLedger ledger = ledgers.restart();
+        ledger.deposit(ledgers.account(ledger, 1), 250_00);
+        assertTrue(ledger.withdraw(ledgers.account(ledger, 2), 100_00));
+        assertFalse(ledger.withdraw(ledgers.account(ledger, 2), 5_000_00));
+        assertTrue(ledger.transfer(ledgers.account(ledger, 1), ledgers.account(ledger, 2), 50_00));
+        ledger.setPin(ledgers.account(ledger, 1), NEW_PIN);
+
+        DurableLedger recovered = ledgers.restart();
+        assertEquals(1_200_00, ledgers.account(recovered, 1).getBalanceCents());
+        assertEquals(950_00, ledgers.account(recovered, 2).getBalanceCents());
+        assertEquals(NEW_PIN.getHash(), ledgers.account(recovered, 1).getPinHash().getHash());
+        recovered.close();
+    }
+
+    @Test
+    void replaysTheLogTailAfterASnapshot() throws IOException {
+        DurableLedger ledger = ledgers.restart();
+        ledger.deposit(ledgers.account(ledger, 1), 100_00);
+        ledger.checkpoint();
+        ledger.deposit(ledgers.account(ledger, 1), 10_00);
+        ledger.transfer(ledgers.account(ledger, 2), ledgers.account(ledger, 1), 1_00);
+
+        DurableLedger recovered = ledgers.restart();
+        assertEquals(1_111_00, ledgers.account(recovered, 1).getBalanceCents());
+        assertEquals(999_00, ledgers.account(recovered, 2).getBalanceCents());
+        recovered.close();
+    }
+
+    @Test
+    void cutsOffATornLastRecordAndKeepsAppending() throws IOException {
+        DurableLedger ledger = ledgers.restart();
+        ledger.deposit(ledgers.account(ledger, 1), 1_00);
+        ledger.deposit(ledgers.account(ledger, 1), 2_00);
+        Path log = ledgers.newestLog();
+        long intact = Files.size(log);
+        try (FileChannel channel = FileChannel.open(log, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            channel.write(ByteBuffer.wrap(new byte[WriteAheadLog.RECORD_SIZE / 2])); // half a record
+        }
+
+        DurableLedger recovered = ledgers.restart();
+        assertEquals(1_003_00, ledgers.account(recovered, 1).getBalanceCents());
+        assertEquals(intact, Files.size(log), "the torn record was not cut off");
+        recovered.deposit(ledgers.account(recovered, 1), 4_00);
+
+        DurableLedger again = ledgers.restart();
+        assertEquals(1_007_00, ledgers.account(again, 1).getBalanceCents());
+        again.close();
+    }
+
+    @Test
+    void stopsAtARecordWithABadChecksum() throws IOException {
+        List<long[]> written = new ArrayList<>();
+        try (WriteAheadLog log = WriteAheadLog.open(ledgers.directory().resolve("wal"), 0, (s, op, a, v, c) -> { })) {
+            for (int i = 1; i <= 3; i++) {
+                log.awaitDurable(log.append(WriteAheadLog.DEPOSIT, i, i * 100, 0));
+            }
+        }
+        Path file = ledgers.newestLog();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[] {42}), 2L * WriteAheadLog.RECORD_SIZE + 20); // inside the 3rd
+        }
+
+        try (WriteAheadLog log = WriteAheadLog.open(ledgers.directory().resolve("wal"), 0,
+                (s, op, a, v, c) -> written.add(new long[] {s, a, v}))) {
+            assertEquals(2, written.size());
+            assertEquals(200, written.get(1)[2]);
+            assertEquals(2, log.lastSequence());
+        }
+        assertEquals(2L * WriteAheadLog.RECORD_SIZE, Files.size(file));
+    }
+}
@@ -0,0 +1,23 @@
+import gridline.bench.Targets;
+
+// One shared account for AccountBenchmark (no journal: deposit and withdraw do not write history)
+
+
+public class AccountFixture implements Targets.AccountTarget {
+    private final Account account = new Account(1001, "Benchmark", 1_000_000_000.0, new PinAuthenticator.PinHash(0, 0), null);
+
+    @Override
+    public void deposit(double pesos) {
+        account.deposit(pesos);
+    }
+
+    @Override
+    public boolean withdraw(double pesos) {
+        return account.withdraw(pesos);
+    }
+
+    @Override
+    public long balanceCents() {
+        return account.getBalanceCents();
+    }
+}
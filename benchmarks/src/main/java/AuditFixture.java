@@ -0,0 +1,187 @@
+import gridline.bench.Targets;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+
+// The same transactions as an AuditExport file and as the history text the
+// ATM shows ("Withdrew: -PHP 500.00 | Date: ..."), one line per transaction
+// after its account number, for AuditBenchmark
+// The text is parsed back as cheaply as it can be: by hand, no regex or
+// formatter; its times are to the second and on a 12-hour clock (as shown),
+// so its range edges are only approximately the columnar ones
+
+
+public class AuditFixture implements Targets.AuditTarget {
+    private static final int ACCOUNTS = 100_000;
+    private static final String[] PREFIXES = new String[8]; // describe() text up to the amount, by type code
+
+    static {
+        for (TransactionType type : TransactionType.values()) {
+            String text = type.describe(Currency.PHP, 0, "");
+            PREFIXES[type.code()] = text.substring(0, text.indexOf("PHP "));
+        }
+    }
+
+    private Path columnar;
+    private Path text;
+    private long fromMillis;
+    private long toMillis;
+
+    @Override
+    public void setUp(String directory, int records) throws Exception {
+        columnar = Path.of(directory, "transactions.audit");
+        text = Path.of(directory, "transactions.txt");
+        SplittableRandom random = new SplittableRandom(23);
+        TransactionType[] types = TransactionType.values();
+        long start = LocalDateTime.of(2026, 1, 1, 0, 0).toInstant(ZoneOffset.UTC).toEpochMilli();
+        long time = start;
+        try (AuditExport audit = AuditExport.create(columnar);
+             BufferedWriter lines = Files.newBufferedWriter(text, StandardCharsets.UTF_8)) {
+            for (int i = 0; i < records; i++) {
+                time += random.nextInt(500);
+                long account = 10_000_001 + random.nextInt(ACCOUNTS);
+                TransactionType type = types[random.nextInt(types.length)];
+                long amount = switch (type) {
+                    case WITHDRAWAL, FAST_CASH -> 100_00L * (1 + random.nextInt(100));
+                    case DEPOSIT, CREDIT -> 100L * (1 + random.nextInt(50_000));
+                    case INTEREST -> 1 + random.nextInt(10_000);
+                    default -> 1 + random.nextLong(1_000_000_00L);
+                };
+                long counterparty = type == TransactionType.TRANSFER_IN || type == TransactionType.TRANSFER_OUT
+                        ? 10_000_001 + random.nextInt(ACCOUNTS)
+                        : 0;
+                audit.add(account, type, Currency.PHP, amount, counterparty, time);
+                LocalDateTime dateTime = LocalDateTime.ofInstant(Instant.ofEpochMilli(time), ZoneId.systemDefault());
+                lines.write(account + " " + type.describe(Currency.PHP, amount, counterparty == 0 ? "" : "Customer " + counterparty)
+                        + " | Date: " + dateTime.format(JournalCursor.DATE_FORMAT));
+                lines.newLine();
+            }
+        }
+        fromMillis = start + (time - start) / 3;
+        toMillis = start + (time - start) * 2 / 3;
+        System.out.printf("%n%d transactions: columnar %d bytes (%.1f per transaction), text %d bytes (%.1f), journal %d bytes (%d)%n",
+                records, Files.size(columnar), (double) Files.size(columnar) / records,
+                Files.size(text), (double) Files.size(text) / records,
+                (long) records * TransactionJournal.RECORD_SIZE, TransactionJournal.RECORD_SIZE);
+    }
+
+    @Override
+    public long columnarByType() throws Exception {
+        try (AuditScanner scanner = new AuditScanner(columnar)) {
+            return sum(scanner.totalsByType(fromMillis, toMillis));
+        }
+    }
+
+    @Override
+    public long columnarByAccount() throws Exception {
+        try (AuditScanner scanner = new AuditScanner(columnar)) {
+            return sum(scanner.totalsByAccount(fromMillis, toMillis));
+        }
+    }
+
+    private static long sum(List<AuditScanner.Total> totals) {
+        long sum = 0;
+        for (AuditScanner.Total total : totals) {
+            sum += total.getCount() + total.getNetMinor();
+        }
+        return sum;
+    }
+
+    @Override
+    public long textByType() throws Exception {
+        long[] counts = new long[8];
+        long[] amounts = new long[8];
+        try (BufferedReader lines = Files.newBufferedReader(text, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = lines.readLine()) != null) {
+                int typeStart = line.indexOf(' ') + 1;
+                long millis = parseTime(line);
+                if (millis < fromMillis || millis >= toMillis) {
+                    continue;
+                }
+                int code = typeOf(line, typeStart);
+                counts[code]++;
+                amounts[code] += parseAmount(line, line.indexOf("PHP ", typeStart) + 4);
+            }
+        }
+        long sum = 0;
+        for (int code = 0; code < counts.length; code++) {
+            sum += counts[code] + amounts[code];
+        }
+        return sum;
+    }
+
+    @Override
+    public long textByAccount() throws Exception {
+        Map<Long, long[]> totals = new HashMap<>();
+        try (BufferedReader lines = Files.newBufferedReader(text, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = lines.readLine()) != null) {
+                int typeStart = line.indexOf(' ') + 1;
+                long millis = parseTime(line);
+                if (millis < fromMillis || millis >= toMillis) {
+                    continue;
+                }
+                long account = Long.parseLong(line, 0, typeStart - 1, 10);
+                TransactionType type = TransactionType.fromCode(typeOf(line, typeStart));
+                long[] total = totals.computeIfAbsent(account, k -> new long[2]);
+                total[0]++;
+                total[1] += type.signed(parseAmount(line, line.indexOf("PHP ", typeStart) + 4));
+            }
+        }
+        long sum = 0;
+        for (long[] total : totals.values()) {
+            sum += total[0] + total[1];
+        }
+        return sum;
+    }
+
+    private static int typeOf(String line, int from) {
+        for (int code = 1; code < PREFIXES.length; code++) {
+            if (line.startsWith(PREFIXES[code], from)) {
+                return code;
+            }
+        }
+        throw new IllegalArgumentException("Unknown history line: " + line);
+    }
+
+    // "1234.56" at from, to centavos
+    private static long parseAmount(String line, int from) {
+        long value = 0;
+        for (int i = from; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c >= '0' && c <= '9') {
+                value = value * 10 + (c - '0');
+            } else if (c != '.') {
+                break;
+            }
+        }
+        return value;
+    }
+
+    // "yyyy-MM-dd hh:mm:ss" at the end of the line
+    private static long parseTime(String line) {
+        int at = line.length() - 19;
+        LocalDateTime dateTime = LocalDateTime.of(digits(line, at, 4), digits(line, at + 5, 2), digits(line, at + 8, 2),
+                digits(line, at + 11, 2) % 12, digits(line, at + 14, 2), digits(line, at + 17, 2));
+        return dateTime.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    private static int digits(String line, int from, int count) {
+        int value = 0;
+        for (int i = from; i < from + count; i++) {
+            value = value * 10 + (line.charAt(i) - '0');
+        }
+        return value;
+    }
+}
@@ -0,0 +1,33 @@
+import gridline.bench.Targets;
+import java.nio.file.Path;
+
+// FxRates loaded from a rates file (the sample rates) for FxBenchmark
+
+
+public class FxFixture implements Targets.FxTarget {
+    private FxRates fx;
+    private Currency from;
+    private Currency to;
+
+    @Override
+    public void setUp(String directory, String from, String to) throws Exception {
+        fx = FxRates.load(Path.of(directory, "fx-rates.txt"));
+        this.from = Currency.valueOf(from);
+        this.to = Currency.valueOf(to);
+    }
+
+    @Override
+    public long convert(long minor) {
+        return fx.current().convert(minor, from, to);
+    }
+
+    @Override
+    public void reload() throws Exception {
+        fx.reload();
+    }
+
+    @Override
+    public void close() {
+        fx.close();
+    }
+}
@@ -0,0 +1,44 @@
+import gridline.bench.Targets;
+import java.nio.file.Path;
+
+// An account with a given number of journal records for HistoryBenchmark
+
+
+public class HistoryFixture implements Targets.HistoryTarget {
+    private TransactionJournal journal;
+    private Account account;
+
+    @Override
+    public void setUp(String directory, int records) throws Exception {
+        journal = TransactionJournal.open(Path.of(directory));
+        account = new Account(1001, "Benchmark", 0.0, new PinAuthenticator.PinHash(0, 0), journal);
+        for (int i = 0; i < records; i++) {
+            account.addTransaction(i % 2 == 0 ? TransactionType.DEPOSIT : TransactionType.WITHDRAWAL, 100_00 + i, 0);
+        }
+    }
+
+    @Override
+    public long readAll() {
+        long sum = 0;
+        JournalCursor records = account.getTransactionHistory();
+        while (records.next()) {
+            sum += records.amountCents();
+        }
+        return sum;
+    }
+
+    @Override
+    public long readNewest(int pageSize) {
+        long sum = 0;
+        JournalCursor records = account.getTransactionHistory(HistoryPage.FIRST, pageSize).cursor();
+        while (records.next()) {
+            sum += records.amountCents() ^ records.timestamp();
+        }
+        return sum;
+    }
+
+    @Override
+    public void close() {
+        journal.close();
+    }
+}
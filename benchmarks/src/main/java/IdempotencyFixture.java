@@ -0,0 +1,45 @@
+import gridline.bench.Targets;
+import java.time.LocalDateTime;
+import java.util.SplittableRandom;
+
+// An IdempotencyCache full of completed deposits for IdempotencyBenchmark,
+// driven the way BankingService.execute uses it
+
+
+public class IdempotencyFixture implements Targets.IdempotencyTarget {
+    private IdempotencyCache cache;
+    private TransactionRequest[] requests;
+    private TransactionResult result;
+    private final SplittableRandom random = new SplittableRandom(20);
+    private long now;
+
+    @Override
+    public void setUp(int keys) {
+        cache = new IdempotencyCache(keys, IdempotencyCache.DEFAULT_TTL_MILLIS);
+        requests = new TransactionRequest[keys];
+        result = new TransactionResult(TransactionResult.Status.SUCCESS, 500_00, 1_500_00, LocalDateTime.now(), null, null);
+        now = System.currentTimeMillis();
+        for (int i = 0; i < keys; i++) {
+            requests[i] = TransactionRequest.deposit(1001 + i, 500_00).withIdempotencyKey(random.nextLong() | 1);
+            cache.complete(cache.insert(requests[i].getIdempotencyKey(), requests[i], now), result);
+        }
+    }
+
+    @Override
+    public long duplicate(int i) {
+        TransactionRequest request = requests[i];
+        IdempotencyCache.Entry earlier = cache.find(request.getIdempotencyKey(), now);
+        return earlier != null && earlier.matches(request) ? earlier.await().getBalanceCents() : -1;
+    }
+
+    @Override
+    public long fresh() {
+        TransactionRequest request = TransactionRequest.deposit(1001, 500_00).withIdempotencyKey(random.nextLong() | 1);
+        IdempotencyCache.Entry entry = cache.insert(request.getIdempotencyKey(), request, now);
+        if (entry == null) {
+            return -1;
+        }
+        cache.complete(entry, result);
+        return entry.getKey();
+    }
+}
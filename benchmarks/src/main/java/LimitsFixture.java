@@ -0,0 +1,29 @@
+import gridline.bench.Targets;
+
+// Accounts with a started daily window each, for LimitsBenchmark
+
+
+public class LimitsFixture implements Targets.LimitsTarget {
+    private final SpendLimits limits = new SpendLimits();
+    private Account[] accounts;
+
+    @Override
+    public void setUp(int count) {
+        accounts = new Account[count];
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < count; i++) {
+            accounts[i] = new Account(1001 + i, "Benchmark " + i, 0.0, new PinAuthenticator.PinHash(0, 0), null);
+            limits.reserve(accounts[i], SpendLimits.Channel.CASH, 1_000_00, now - i % 24 * SpendLimits.HOUR_MILLIS);
+        }
+    }
+
+    @Override
+    public boolean spend(int account, long cents, long nowMillis) {
+        Account target = accounts[account];
+        if (limits.reserve(target, SpendLimits.Channel.CASH, cents, nowMillis) != SpendLimits.Decision.ALLOWED) {
+            return false;
+        }
+        limits.release(target, SpendLimits.Channel.CASH, cents, nowMillis);
+        return true;
+    }
+}
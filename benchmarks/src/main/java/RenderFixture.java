@@ -0,0 +1,24 @@
+import gridline.bench.Targets;
+import java.io.BufferedOutputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+
+// A ConsoleRenderer writing into a discarding stream, buffered like the console
+
+
+public class RenderFixture implements Targets.RenderTarget {
+    private final PrintStream out = new PrintStream(new BufferedOutputStream(OutputStream.nullOutputStream(), 1 << 14), false);
+    private final ConsoleRenderer screen = new ConsoleRenderer(out, false);
+
+    @Override
+    public void printWithBorder(String text, String color) {
+        screen.printWithBorder(text, color);
+        out.flush();
+    }
+
+    @Override
+    public void mainMenu(long balanceCents) {
+        screen.mainMenu(Currency.PHP, balanceCents);
+        out.flush();
+    }
+}
@@ -0,0 +1,26 @@
+import gridline.bench.Targets;
+
+// A TransactionStream with a FraudScorer reading it, for StreamBenchmark
+
+
+public class StreamFixture implements Targets.StreamTarget {
+    private final TransactionStream stream = new TransactionStream(1 << 14);
+
+    @Override
+    public void setUp(boolean scoring) {
+        if (scoring) {
+            stream.start("fraud-scoring", new FraudScorer(flag -> { }));
+        }
+    }
+
+    @Override
+    public void publish(long accountNumber, long amountCents) {
+        stream.publish(TransactionStream.Kind.WITHDRAW, accountNumber, 0, amountCents,
+                TransactionResult.Status.SUCCESS, System.nanoTime());
+    }
+
+    @Override
+    public void tearDown() throws InterruptedException {
+        stream.close();
+    }
+}
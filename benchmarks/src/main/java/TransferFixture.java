@@ -0,0 +1,22 @@
+import gridline.bench.Targets;
+
+// Accounts and a TransferService for TransferBenchmark
+
+
+public class TransferFixture implements Targets.TransferTarget {
+    private final TransferService transfers = new TransferService();
+    private Account[] accounts;
+
+    @Override
+    public void setUp(int count) {
+        accounts = new Account[count];
+        for (int i = 0; i < count; i++) {
+            accounts[i] = new Account(1001 + i, "Benchmark " + i, 1_000_000_000.0, new PinAuthenticator.PinHash(0, 0), null);
+        }
+    }
+
+    @Override
+    public boolean transfer(int from, int to, long cents) {
+        return transfers.transfer(accounts[from], accounts[to], cents);
+    }
+}
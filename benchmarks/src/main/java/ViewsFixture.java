@@ -0,0 +1,62 @@
+import gridline.bench.Targets;
+import java.nio.file.Path;
+
+// Accounts and their journal for ViewsBenchmark, read either through
+// AccountViews (the read model) or straight from the accounts and journal
+
+
+public class ViewsFixture implements Targets.ViewsTarget {
+    private TransactionJournal journal;
+    private Account[] accounts;
+    private AccountViews views;
+
+    @Override
+    public void setUp(String directory, int count, boolean readModel) throws Exception {
+        journal = TransactionJournal.open(Path.of(directory));
+        AccountRepository repository = new AccountRepository(count);
+        accounts = new Account[count];
+        PinAuthenticator.PinHash pin = new PinAuthenticator.PinHash(0, 0);
+        for (int i = 0; i < count; i++) {
+            accounts[i] = new Account(1001 + i, "Benchmark " + i, 10_000.0, pin, journal);
+            repository.add(accounts[i]);
+            for (int r = 0; r < AccountViews.MINI_STATEMENT; r++) {
+                accounts[i].addTransaction(TransactionType.DEPOSIT, 100_00 + r, 0);
+            }
+        }
+        if (readModel) {
+            views = AccountViews.start(journal, repository);
+        }
+    }
+
+    @Override
+    public long read(int account) {
+        if (views != null) {
+            AccountViews.View view = views.get(accounts[account].getAccountNumber());
+            long sum = view.getBalanceMinor();
+            for (int i = 0; i < view.size(); i++) {
+                sum += view.line(i).getAmountMinor() ^ view.line(i).getMillis();
+            }
+            return sum;
+        }
+        long sum = accounts[account].getBalanceCents();
+        JournalCursor records = accounts[account].getTransactionHistory(HistoryPage.FIRST, AccountViews.MINI_STATEMENT).cursor();
+        while (records.next()) {
+            sum += records.amountCents() ^ records.timestamp();
+        }
+        return sum;
+    }
+
+    @Override
+    public void write(int account, long cents) {
+        accounts[account].depositCents(cents);
+        accounts[account].addTransaction(TransactionType.DEPOSIT, cents, 0);
+    }
+
+    @Override
+    public void close() throws Exception {
+        if (views != null) {
+            views.close();
+        }
+        journal.close();
+    }
+}
@@ -0,0 +1,51 @@
+package gridline.bench;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Account.deposit and Account.withdraw on one account, alone and with
+// depositing and withdrawing threads racing on the same balance
+
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AccountBenchmark {
+
+    @State(Scope.Group)
+    public static class SharedAccount {
+        final Targets.AccountTarget account = Targets.load("AccountFixture", Targets.AccountTarget.class);
+    }
+
+    @Benchmark
+    @Group("uncontended")
+    public void depositAlone(SharedAccount state) {
+        state.account.deposit(1.00);
+    }
+
+    @Benchmark
+    @Group("contended")
+    @GroupThreads(2)
+    public void deposit(SharedAccount state) {
+        state.account.deposit(1.00);
+    }
+
+    @Benchmark
+    @Group("contended")
+    @GroupThreads(2)
+    public boolean withdraw(SharedAccount state) {
+        return state.account.withdraw(1.00);
+    }
+}
@@ -0,0 +1,73 @@
+package gridline.bench;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Aggregate queries over a month of transactions (totals per type and per
+// account over a date range) from the columnar audit file and from the
+// history text; file sizes are printed when the files are written
+
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class AuditBenchmark {
+    @Param({"1000000"})
+    int records;
+
+    Targets.AuditTarget audit;
+    Path directory;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        directory = Files.createTempDirectory("atm-audit-bench");
+        audit = Targets.load("AuditFixture", Targets.AuditTarget.class);
+        audit.setUp(directory.toString(), records);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public long columnarByType() throws Exception {
+        return audit.columnarByType();
+    }
+
+    @Benchmark
+    public long textByType() throws Exception {
+        return audit.textByType();
+    }
+
+    @Benchmark
+    public long columnarByAccount() throws Exception {
+        return audit.columnarByAccount();
+    }
+
+    @Benchmark
+    public long textByAccount() throws Exception {
+        return audit.textByAccount();
+    }
+}
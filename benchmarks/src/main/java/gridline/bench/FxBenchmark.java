@@ -0,0 +1,78 @@
+package gridline.bench;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Converting a transfer amount with the rates in force: within one currency
+// and between two, for 1,500.00 and for an amount so large that USD to JPY
+// needs BigInteger; and while another thread keeps reloading the rates file
+
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FxBenchmark {
+    @Param({"PHP-PHP", "PHP-USD", "USD-JPY"})
+    String pair;
+
+    @Param({"150000", "100000000000000000"})
+    long minor;
+
+    Targets.FxTarget fx;
+    Path directory;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        directory = Files.createTempDirectory("atm-fx-bench");
+        String[] codes = pair.split("-");
+        fx = Targets.load("FxFixture", Targets.FxTarget.class);
+        fx.setUp(directory.toString(), codes[0], codes[1]);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        fx.close();
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public long convert() {
+        return fx.convert(minor);
+    }
+
+    @Benchmark
+    @Group("duringReload")
+    @GroupThreads(3)
+    public long convertWhileReloading() {
+        return fx.convert(minor);
+    }
+
+    @Benchmark
+    @Group("duringReload")
+    public void reload() throws Exception {
+        fx.reload();
+    }
+}
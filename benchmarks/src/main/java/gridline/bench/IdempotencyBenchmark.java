@@ -0,0 +1,51 @@
+package gridline.bench;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// The idempotency cache on a full table: answering a retried request from it,
+// and taking a new key (which drops the oldest); with 1,000 keys the table is
+// in cache, with the default 100,000 it is not
+
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class IdempotencyBenchmark {
+    @Param({"1000", "100000"})
+    int keys;
+
+    Targets.IdempotencyTarget cache;
+    int next;
+
+    @Setup
+    public void setUp() {
+        cache = Targets.load("IdempotencyFixture", Targets.IdempotencyTarget.class);
+        cache.setUp(keys);
+    }
+
+    @Benchmark
+    public long duplicate() {
+        int i = next;
+        next = i + 1 == keys ? 0 : i + 1;
+        return cache.duplicate(i);
+    }
+
+    @Benchmark
+    public long fresh() {
+        return cache.fresh();
+    }
+}
@@ -0,0 +1,54 @@
+package gridline.bench;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+// A daily-limit check (reserve, then release) on a random active account,
+// among 1000 (all in cache) and 1M (nearly every check misses the CPU caches),
+// and on one account shared by every thread
+
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+@State(Scope.Benchmark)
+public class LimitsBenchmark {
+    @Param({"1000", "1000000"})
+    int accounts;
+
+    Targets.LimitsTarget limits;
+    long now;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        limits = Targets.load("LimitsFixture", Targets.LimitsTarget.class);
+        limits.setUp(accounts);
+        now = System.currentTimeMillis();
+    }
+
+    @Benchmark
+    public boolean randomAccount() {
+        return limits.spend(ThreadLocalRandom.current().nextInt(accounts), 500_00, now);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public boolean sameAccount() {
+        return limits.spend(0, 500_00, now);
+    }
+}
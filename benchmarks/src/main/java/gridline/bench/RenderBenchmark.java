@@ -0,0 +1,44 @@
+package gridline.bench;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Drawing console screens into a discarding stream: a bordered message
+// with colour codes and the main menu with a balance
+// Run with -prof gc to see the bytes allocated per screen
+
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RenderBenchmark {
+    private static final String GREEN = "\u001B[32m";
+    private static final String RESET = "\u001B[0m";
+    private static final String MESSAGE = "Transaction successful!\n"
+            + GREEN + "New balance: PHP 12,345.67" + RESET + "\n"
+            + "Thank you for banking with GridLine Bank.";
+
+    final Targets.RenderTarget screen = Targets.load("RenderFixture", Targets.RenderTarget.class);
+    long balanceCents = 1_234_567;
+
+    @Benchmark
+    public void printWithBorder() {
+        screen.printWithBorder(MESSAGE, GREEN);
+    }
+
+    @Benchmark
+    public void mainMenu() {
+        screen.mainMenu(balanceCents);
+    }
+}
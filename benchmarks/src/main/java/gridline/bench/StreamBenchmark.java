@@ -0,0 +1,52 @@
+package gridline.bench;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// What publishing a transaction event costs the posting thread, with the
+// fraud scorer consuming (scoring=true) and with nothing started (the
+// stream's early return)
+
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class StreamBenchmark {
+    @Param({"true", "false"})
+    boolean scoring;
+
+    Targets.StreamTarget stream;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        stream = Targets.load("StreamFixture", Targets.StreamTarget.class);
+        stream.setUp(scoring);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws InterruptedException {
+        stream.tearDown();
+    }
+
+    @Benchmark
+    public void publish() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        stream.publish(1001 + random.nextInt(10_000), 100_00 * (1 + random.nextInt(20)));
+    }
+}
@@ -0,0 +1,121 @@
+package gridline.bench;
+
+// The ATM classes live in the default package, which code in a named package
+// cannot refer to, and JMH only runs benchmarks that are in a named package
+// So each benchmark drives a small fixture (the *Fixture classes next to this
+// package, in the default package) through one of these interfaces; there is
+// only ever one implementation loaded, so the JIT inlines the call
+
+
+public final class Targets {
+    private Targets() {
+    }
+
+    public interface AccountTarget {
+        void deposit(double pesos);
+
+        boolean withdraw(double pesos);
+
+        long balanceCents();
+    }
+
+    public interface TransferTarget {
+        void setUp(int accounts);
+
+        boolean transfer(int from, int to, long cents);
+    }
+
+    public interface HistoryTarget {
+        void setUp(String directory, int records) throws Exception;
+
+        // Walks the whole history (getTransactionHistory(), oldest first)
+        long readAll();
+
+        // Newest page, as the ATM's history screen shows it
+        long readNewest(int pageSize);
+
+        void close() throws Exception;
+    }
+
+    public interface LimitsTarget {
+        void setUp(int accounts);
+
+        // Reserves and releases the amount on one account; true if it was allowed
+        boolean spend(int account, long cents, long nowMillis);
+    }
+
+    public interface StreamTarget {
+        // Starts the fraud-scoring consumer (or leaves the stream idle)
+        void setUp(boolean scoring);
+
+        void publish(long accountNumber, long amountCents);
+
+        void tearDown() throws InterruptedException;
+    }
+
+    public interface RenderTarget {
+        void printWithBorder(String text, String color);
+
+        void mainMenu(long balanceCents);
+    }
+
+    public interface FxTarget {
+        // Loads a rates file in this directory, and converts from one currency to another (codes, e.g. "USD")
+        void setUp(String directory, String from, String to) throws Exception;
+
+        // Converts with the rates in force, as a transfer does
+        long convert(long minor);
+
+        // Reads the rates file again and swaps in the new table
+        void reload() throws Exception;
+
+        void close();
+    }
+
+    public interface IdempotencyTarget {
+        // Fills a cache of this capacity with completed requests under random keys
+        void setUp(int keys);
+
+        // A retry of the i-th cached request: lookup, compare, and its result's balance
+        long duplicate(int i);
+
+        // A request under a new key (the oldest entry makes room for it)
+        long fresh();
+    }
+
+    public interface ViewsTarget {
+        // Accounts with a few journal records each; readModel: read them through AccountViews
+        void setUp(String directory, int accounts, boolean readModel) throws Exception;
+
+        // Balance and mini statement, as the check-balance screen shows them
+        long read(int account);
+
+        // A deposit posted as BankingService posts it (balance, then journal), without the WAL
+        void write(int account, long cents);
+
+        void close() throws Exception;
+    }
+
+    public interface AuditTarget {
+        // Writes the same transactions as an AuditExport file and as history text lines
+        void setUp(String directory, int records) throws Exception;
+
+        // Totals per type over the middle third of the time span: {count, amount} summed
+        long columnarByType() throws Exception;
+
+        long textByType() throws Exception;
+
+        // Totals per account over the same range: {count, net} summed
+        long columnarByAccount() throws Exception;
+
+        long textByAccount() throws Exception;
+    }
+
+    static <T> T load(String fixtureClass, Class<T> type) {
+        try {
+            return Class.forName(fixtureClass).asSubclass(type).getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Cannot load benchmark fixture " + fixtureClass, e);
+        }
+    }
+}
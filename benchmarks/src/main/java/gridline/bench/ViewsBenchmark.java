@@ -0,0 +1,90 @@
+package gridline.bench;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Balance and mini-statement reads mixed with deposits, 95 to 5, from several
+// threads: through the AccountViews read model, or straight from the accounts
+// and the journal; reads and writes are counted separately
+// With one account every thread works on the same hot account
+
+
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+@State(Scope.Benchmark)
+public class ViewsBenchmark {
+    static final int WRITE_PERCENT = 5;
+
+    @Param({"1", "1000"})
+    int accounts;
+
+    @Param({"true", "false"})
+    boolean readModel;
+
+    Targets.ViewsTarget views;
+    Path directory;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Mix {
+        public long reads;
+        public long writes;
+        final SplittableRandom random = new SplittableRandom(Thread.currentThread().threadId());
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            reads = 0;
+            writes = 0;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        directory = Files.createTempDirectory("atm-views-bench");
+        views = Targets.load("ViewsFixture", Targets.ViewsTarget.class);
+        views.setUp(directory.toString(), accounts, readModel);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        views.close();
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public long mixed(Mix mix) {
+        int account = mix.random.nextInt(accounts);
+        if (mix.random.nextInt(100) < WRITE_PERCENT) {
+            views.write(account, 100);
+            mix.writes++;
+            return 0;
+        }
+        mix.reads++;
+        return views.read(account);
+    }
+}